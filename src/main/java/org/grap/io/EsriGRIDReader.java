@@ -286,4 +286,32 @@ public class EsriGRIDReader implements RasterReader {
 		close();
 		return new ImagePlus("", imageProcessor);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Opens the file and reads its header, so that the pixels may then be read
+	 * rows band by rows band thanks to {@link #readRows(int)}, without loading
+	 * the whole grid in memory. {@link #closeRows()} has to be called at the
+	 * end of the reading.
+	 * 
+	 * @return the GeoRaster metadata.
+	 * @throws IOException
+	 */
+	public synchronized RasterMetadata openRows() throws IOException {
+		open();
+		return readHeaderPart();
+	}
+
+	/**
+	 * @param nbOfRows
+	 * @return the pixels of the next nbOfRows rows, as float values
+	 * @throws IOException
+	 */
+	public synchronized float[] readRows(final int nbOfRows)
+			throws IOException {
+		return readFloatBody(nbOfRows * rasterMetadata.getNCols());
+	}
+
+	public synchronized void closeRows() throws IOException {
+		close();
+	}
+}
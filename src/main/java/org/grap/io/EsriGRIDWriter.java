@@ -32,6 +32,7 @@ import ij.ImagePlus;
 
 import java.io.BufferedWriter;
 import java.io.FileWriter;
+import java.io.IOException;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.Locale;
@@ -98,6 +99,10 @@ public class EsriGRIDWriter {
 
 	private RasterMetadata rasterMetadata;
 
+	private BufferedWriter out;
+
+	private DecimalFormat rowsFormat;
+
 	/**
 	 * This class permits to save a georaster onto a asc esri grid format.
 	 *
@@ -113,35 +118,31 @@ public class EsriGRIDWriter {
 		this.rasterMetadata = rasterMetadata;
 	}
 
+	/**
+	 * This constructor permits to write an asc esri grid rows band by rows
+	 * band (see {@link #openRows()}, {@link #writeRows(float[])} and
+	 * {@link #closeRows()}), without building the whole grid in memory.
+	 * 
+	 * @param fileName
+	 * @param rasterMetadata
+	 */
+	public EsriGRIDWriter(final String fileName,
+			final RasterMetadata rasterMetadata) {
+		this(fileName, null, rasterMetadata);
+	}
+
 	public void save() {
 
 		try {
 
 			FileWriter f = new FileWriter(fileName);
 			BufferedWriter fout = new BufferedWriter(f);
-			DecimalFormat df = new DecimalFormat("##.###");
-			df.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
-			df.setDecimalSeparatorAlwaysShown(true);
+			DecimalFormat df = getDecimalFormat();
 
 			int ncols = rasterMetadata.getNCols();
 			int nrows = rasterMetadata.getNRows();
 
-			fout.write("ncols " + Integer.toString(ncols));
-			fout.newLine();
-			fout.write("nrows " + Integer.toString(nrows));
-			fout.newLine();
-			fout.write("xllcorner "
-					+ Double.toString(rasterMetadata.getEnvelope().getMinX()));
-			fout.newLine();
-			fout.write("yllcorner "
-					+ Double.toString(rasterMetadata.getEnvelope().getMinY()));
-			fout.newLine();
-			fout.write("cellsize "
-					+ Double.toString(rasterMetadata.getPixelSize_X()));
-			fout.newLine();
-			fout.write("nodata_value "
-					+ Double.toString(rasterMetadata.getNoDataValue()));
-			fout.newLine();
+			writeHeader(fout);
 
 			if (grapImagePlus.getType() != ImagePlus.COLOR_RGB) {
 				for (int i = 0; i < nrows; i++) {
@@ -167,4 +168,67 @@ public class EsriGRIDWriter {
 
 	}
 
-}
\ No newline at end of file
+	public void openRows() throws IOException {
+		out = new BufferedWriter(new FileWriter(fileName));
+		writeHeader(out);
+		rowsFormat = getDecimalFormat();
+	}
+
+	/**
+	 * Appends some complete rows (ncols values per row) to the file.
+	 * 
+	 * @param values
+	 * @throws IOException
+	 */
+	public void writeRows(final float[] values) throws IOException {
+		final int ncols = rasterMetadata.getNCols();
+		for (int i = 0; i < values.length; i++) {
+			final float dValue = values[i];
+			if (Float.isNaN(dValue)) {
+				out.write(rowsFormat.format(-9999f) + " ");
+			} else {
+				out.write(rowsFormat.format(dValue) + " ");
+			}
+			if (ncols - 1 == i % ncols) {
+				out.newLine();
+			}
+		}
+	}
+
+	public void closeRows() throws IOException {
+		if (null != out) {
+			out.close();
+			out = null;
+		}
+	}
+
+	private DecimalFormat getDecimalFormat() {
+		DecimalFormat df = new DecimalFormat("##.###");
+		df.setDecimalFormatSymbols(new DecimalFormatSymbols(Locale.US));
+		df.setDecimalSeparatorAlwaysShown(true);
+		return df;
+	}
+
+	private void writeHeader(final BufferedWriter fout) throws IOException {
+		int ncols = rasterMetadata.getNCols();
+		int nrows = rasterMetadata.getNRows();
+
+		fout.write("ncols " + Integer.toString(ncols));
+		fout.newLine();
+		fout.write("nrows " + Integer.toString(nrows));
+		fout.newLine();
+		fout.write("xllcorner "
+				+ Double.toString(rasterMetadata.getEnvelope().getMinX()));
+		fout.newLine();
+		fout.write("yllcorner "
+				+ Double.toString(rasterMetadata.getEnvelope().getMinY()));
+		fout.newLine();
+		fout.write("cellsize "
+				+ Double.toString(rasterMetadata.getPixelSize_X()));
+		fout.newLine();
+		fout.write("nodata_value "
+				+ Double.toString(rasterMetadata.getNoDataValue()));
+		fout.newLine();
+	}
+
+}
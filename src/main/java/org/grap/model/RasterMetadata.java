@@ -280,6 +280,16 @@ public class RasterMetadata implements Serializable {
 		return affineTransform.transform(new Point2D.Double(x, y), null);
 	}
 
+	/**
+	 * Gets the transform from the pixel coordinates (the center of the upper
+	 * left pixel is 0, 0) to the real world coordinates
+	 *
+	 * @return a copy of the transform
+	 */
+	public AffineTransform getAffineTransform() {
+		return new AffineTransform(affineTransform);
+	}
+
 	/**
 	 * Clones this metadata instance
 	 *
@@ -0,0 +1,105 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Small helper used by the operations that process independent units of
+ * work (rows bands, basins...) in parallel. The work is split into chunks
+ * that are run on a fixed size thread pool; the results written by each
+ * chunk are safely published to the caller once execute returns.
+ */
+public class MultiThreads {
+	private final static int CHUNKS_PER_THREAD = 4;
+
+	public interface Chunk {
+		/**
+		 * Processes the units of work start (inclusive) to end (exclusive).
+		 * 
+		 * @param start
+		 * @param end
+		 */
+		public void process(final int start, final int end);
+	}
+
+	public static int getDefaultNumberOfThreads() {
+		return Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Processes the units of work 0 to size - 1 using nbThreads threads.
+	 * 
+	 * @param size
+	 * @param nbThreads
+	 * @param chunk
+	 * @throws OperationException
+	 */
+	public static void execute(final int size, final int nbThreads,
+			final Chunk chunk) throws OperationException {
+		if ((1 >= nbThreads) || (2 > size)) {
+			chunk.process(0, size);
+			return;
+		}
+
+		final int nbChunks = Math.min(size, nbThreads * CHUNKS_PER_THREAD);
+		final ExecutorService executor = Executors
+				.newFixedThreadPool(nbThreads);
+		try {
+			final List<Future<Object>> futures = new ArrayList<Future<Object>>(
+					nbChunks);
+			for (int k = 0; k < nbChunks; k++) {
+				final int start = (int) ((long) size * k / nbChunks);
+				final int end = (int) ((long) size * (k + 1) / nbChunks);
+				futures.add(executor.submit(new Callable<Object>() {
+					public Object call() {
+						chunk.process(start, end);
+						return null;
+					}
+				}));
+			}
+			for (Future<Object> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationException(e);
+		} catch (ExecutionException e) {
+			throw new OperationException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
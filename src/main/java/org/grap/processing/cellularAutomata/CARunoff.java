@@ -0,0 +1,177 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata;
+
+import org.grap.processing.cellularAutomata.cam.ICAFloat;
+import org.grap.processing.operation.hydrology.D8FlowDirections;
+
+/**
+ * Kinematic wave overland flow over the D8 network. The value of each cell is
+ * its water depth, and each step (of timeStep duration) :
+ * 
+ * - adds the rain of the step (see {@link #setRain(float)}),
+ * 
+ * - moves towards the downstream cell the depth given by Manning's equation :
+ * timeStep * sqrt(slope) / (manning * length) * h^(5/3), where length is the
+ * D8 distance to the downstream cell. This outflow is bounded by h, so that
+ * the water is conserved and the depths stay positive whatever the time step.
+ * 
+ * The transition of a cell gathers the outflows of its upstream neighbours
+ * from the previous state (they are computed again by each cell instead of
+ * being scattered) : the model runs on the double buffers of any network, and
+ * the results do not depend on the number of threads. The water of a cell
+ * that flows towards a nodataValue cell or outside of the grid leaves the
+ * domain, whereas sinks and flat areas ({@link D8FlowDirections#INDECISION})
+ * keep it.
+ */
+public class CARunoff implements ICAFloat {
+	private final static float MIN_SLOPE = 1e-4f;
+
+	private final int nrows;
+	private final int ncols;
+	private final byte[] directions;
+	private final int[] offsets;
+	private final byte[] upstreamMasks;
+	private final float[] alphas;
+	private final float timeStep;
+	private final float cellArea;
+
+	private float rain;
+
+	/**
+	 * @param flowDirections
+	 * @param slopes
+	 *            the D8 slopes (elevation drop / D8 distance) of the cells
+	 * @param manning
+	 *            the Manning roughness coefficient of the surface
+	 * @param timeStep
+	 *            the duration of a step, in the time unit of the roughness
+	 *            coefficient (seconds for the usual SI values)
+	 */
+	public CARunoff(final D8FlowDirections flowDirections,
+			final float[] slopes, final float manning, final float timeStep) {
+		nrows = flowDirections.getNRows();
+		ncols = flowDirections.getNCols();
+		directions = flowDirections.getDirections();
+		this.timeStep = timeStep;
+		cellArea = flowDirections.getMetadata().getPixelSize_X()
+				* Math.abs(flowDirections.getMetadata().getPixelSize_Y());
+
+		offsets = new int[9];
+		for (int k = 1; k <= 8; k++) {
+			offsets[k] = flowDirections.getOffset(k);
+		}
+
+		final int nbCells = nrows * ncols;
+		alphas = new float[nbCells];
+		upstreamMasks = new byte[nbCells];
+		final int[] upstream = new int[8];
+		for (int i = 0; i < nbCells; i++) {
+			if (flowDirections.isNoData(i)) {
+				continue;
+			}
+			if (-1 != flowDirections.getDownstream(i)) {
+				final float slope = Math.max(MIN_SLOPE, slopes[i]);
+				alphas[i] = (float) (timeStep * Math.sqrt(slope) / (manning
+						* flowDirections.getDistance(i)));
+			}
+			// bit k - 1 is set when the neighbour at offsets[k] flows into i
+			final int nbUpstream = flowDirections.getUpstream(i, upstream);
+			for (int k = 0; k < nbUpstream; k++) {
+				final byte code = directions[upstream[k]];
+				upstreamMasks[i] |= 1 << (D8FlowDirections.OPPOSITE[code] - 1);
+			}
+		}
+	}
+
+	public int getNCols() {
+		return ncols;
+	}
+
+	public int getNRows() {
+		return nrows;
+	}
+
+	public float getTimeStep() {
+		return timeStep;
+	}
+
+	/**
+	 * @param rain
+	 *            the depth of water added to each cell by the next steps
+	 */
+	public void setRain(final float rain) {
+		this.rain = rain;
+	}
+
+	/**
+	 * @param i
+	 * @param depth
+	 *            the water depth of cell i at the beginning of a step
+	 * @return the water depth that leaves cell i during the step
+	 */
+	public float getOutflow(final int i, final float depth) {
+		final float alpha = alphas[i];
+		if ((0 >= depth) || (0 == alpha)) {
+			return 0;
+		}
+		// h^(5/3) = h * cbrt(h^2)
+		final float outflow = (float) (alpha * depth * Math.cbrt(depth
+				* depth));
+		return Math.min(depth, outflow);
+	}
+
+	/**
+	 * @param i
+	 * @param depth
+	 *            the water depth of cell i at the beginning of a step
+	 * @return the mean discharge (volume per time unit) from cell i towards
+	 *         its downstream cell during the step
+	 */
+	public float getDischarge(final int i, final float depth) {
+		return getOutflow(i, depth) * cellArea / timeStep;
+	}
+
+	public float init(final int r, final int c, final int i) {
+		return 0;
+	}
+
+	public float localTransition(final float[] rac, final int r, final int c,
+			final int i) {
+		if (D8FlowDirections.NO_DATA == directions[i]) {
+			return 0;
+		}
+		float depth = rac[i] - getOutflow(i, rac[i]);
+		for (int mask = upstreamMasks[i] & 0xff; 0 != mask; mask &= mask - 1) {
+			final int j = i + offsets[Integer.numberOfTrailingZeros(mask) + 1];
+			depth += getOutflow(j, rac[j]);
+		}
+		return depth + rain;
+	}
+}
@@ -28,35 +28,17 @@
  */
 package org.grap.processing.cellularAutomata;
 
-import org.grap.processing.cellularAutomata.cam.ICAFloat;
+import org.grap.processing.cellularAutomata.cam.CAFloatStencil;
+import org.grap.processing.cellularAutomata.cam.Neighbourhood;
 import org.grap.processing.operation.hydrology.HydrologyUtilities;
 
-public class CASlope implements ICAFloat {
-	private int nrows;
-	private int ncols;
-	private HydrologyUtilities pixelUtilities;
-
+public class CASlope extends CAFloatStencil {
 	public CASlope(final HydrologyUtilities pixelUtilities,
 			final int nrows, final int ncols) {
-		this.nrows = nrows;
-		this.ncols = ncols;
-		this.pixelUtilities = pixelUtilities;
-	}
-
-	public int getNCols() {
-		return ncols;
-	}
-
-	public int getNRows() {
-		return nrows;
-	}
-
-	public float init(int r, int c, int i) {
-		return pixelUtilities.getSlope(c, r);
-	}
-
-	public float localTransition(float[] rac, int r, int c, int i) {
-		/* remain unchanged : one step of computation (init) */
-		return rac[i];
+		/* one step of computation (init) on the elevations */
+		super(nrows, ncols, pixelUtilities.getPixelValues(),
+				pixelUtilities.ndv, Neighbourhood.MOORE, Border.NODATA,
+				new D8Stencil(pixelUtilities,
+						D8Stencil.Output.SLOPE), null);
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,84 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata;
+
+import org.grap.processing.cellularAutomata.cam.IFloatStencil;
+import org.grap.processing.operation.hydrology.HydrologyUtilities;
+
+/**
+ * The D8 direction and slope of a cell, computed from the elevations of its
+ * {@link org.grap.processing.cellularAutomata.cam.Neighbourhood#MOORE}
+ * neighbourhood as {@link HydrologyUtilities} does : the steepest strictly
+ * descending neighbour, or an indecision for the sinks and flat areas.
+ */
+class D8Stencil implements IFloatStencil {
+	enum Output {
+		DIRECTION, SLOPE, SLOPE_IN_RADIANS, SLOPE_IN_DEGREES
+	}
+
+	private final static double FACTOR = 180 / Math.PI;
+
+	private final float[] invD8Distances;
+
+	private final Output output;
+
+	D8Stencil(final HydrologyUtilities pixelUtilities, final Output output) {
+		invD8Distances = pixelUtilities.getInvD8Distances();
+		this.output = output;
+	}
+
+	public float apply(final float center, final float[] neighbours,
+			final int i) {
+		float max = 0;
+		int idx = -1;
+		for (int k = 0; k < 8; k++) {
+			final float ratio = (center - neighbours[k]) * invD8Distances[k];
+			if ((!Float.isNaN(ratio)) && (ratio > max)) {
+				idx = k;
+				max = ratio;
+			}
+		}
+
+		switch (output) {
+		case DIRECTION:
+			return (-1 == idx) ? HydrologyUtilities.indecisionDirection
+					: 1 + idx;
+		case SLOPE:
+			return (-1 == idx) ? HydrologyUtilities.indecisionAngle : max;
+		case SLOPE_IN_RADIANS:
+			return (float) Math
+					.atan((-1 == idx) ? HydrologyUtilities.indecisionAngle
+							: max);
+		default:
+			return (float) (FACTOR * Math
+					.atan((-1 == idx) ? HydrologyUtilities.indecisionAngle
+							: max));
+		}
+	}
+}
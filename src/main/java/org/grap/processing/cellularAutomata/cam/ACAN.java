@@ -28,6 +28,9 @@
  */
 package org.grap.processing.cellularAutomata.cam;
 
+import org.orbisgis.progress.NullProgressMonitor;
+import org.orbisgis.progress.ProgressMonitor;
+
 public abstract class ACAN implements ICAN {
 	private ICA ca;
 
@@ -35,19 +38,54 @@ public abstract class ACAN implements ICAN {
 
 	private Object rac1;
 
+	private ICANKernel kernel;
+
 	private int nbCells;
 
+	private ICANListener listener = new NullCANListener();
+
+	private ProgressMonitor pm = new NullProgressMonitor();
+
 	/* constructor */
 	public ACAN(final ICA ca) {
 		this.ca = ca;
 		nbCells = ca.getNRows() * ca.getNCols();
 
+		// the only type dispatch : the kernel then works on the primitive
+		// buffers
 		if (ca instanceof ICAShort) {
-			rac0 = new short[nbCells];
-			rac1 = new short[nbCells];
+			final short[] _rac0 = new short[nbCells];
+			final short[] _rac1 = new short[nbCells];
+			kernel = new CANKernelShort((ICAShort) ca, _rac0, _rac1);
+			rac0 = _rac0;
+			rac1 = _rac1;
 		} else if (ca instanceof ICAFloat) {
-			rac0 = new float[nbCells];
-			rac1 = new float[nbCells];
+			final float[] _rac0 = new float[nbCells];
+			final float[] _rac1 = new float[nbCells];
+			kernel = new CANKernelFloat((ICAFloat) ca, _rac0, _rac1);
+			rac0 = _rac0;
+			rac1 = _rac1;
+		} else if (ca instanceof ICAInt) {
+			final int[] _rac0 = new int[nbCells];
+			final int[] _rac1 = new int[nbCells];
+			kernel = new CANKernelInt((ICAInt) ca, _rac0, _rac1);
+			rac0 = _rac0;
+			rac1 = _rac1;
+		} else if (ca instanceof ICADouble) {
+			final double[] _rac0 = new double[nbCells];
+			final double[] _rac1 = new double[nbCells];
+			kernel = new CANKernelDouble((ICADouble) ca, _rac0, _rac1);
+			rac0 = _rac0;
+			rac1 = _rac1;
+		} else if (ca instanceof ICAByte) {
+			final byte[] _rac0 = new byte[nbCells];
+			final byte[] _rac1 = new byte[nbCells];
+			kernel = new CANKernelByte((ICAByte) ca, _rac0, _rac1);
+			rac0 = _rac0;
+			rac1 = _rac1;
+		} else {
+			throw new IllegalArgumentException("Unsupported cellular "
+					+ "automaton : " + ca.getClass().getName());
 		}
 	}
 
@@ -64,6 +102,14 @@ public abstract class ACAN implements ICAN {
 		return rac1;
 	}
 
+	/**
+	 * @return the typed transitions of the automaton, to be scheduled by the
+	 *         network
+	 */
+	public ICANKernel getKernel() {
+		return kernel;
+	}
+
 	public Object getCANValues() {
 		return rac0;
 	}
@@ -72,27 +118,43 @@ public abstract class ACAN implements ICAN {
 		return nbCells;
 	}
 
+	public ICANListener getListener() {
+		return listener;
+	}
+
+	/* setters */
+	public void setListener(final ICANListener listener) {
+		this.listener = listener;
+	}
+
+	public void setProgressMonitor(final ProgressMonitor pm) {
+		this.pm = pm;
+	}
+
 	/* public methods */
 	public abstract int getStableState();
 
+	public boolean isCancelled() {
+		return pm.isCancelled();
+	}
+
 	public void print(final String title) {
 		System.out.println(title);
-		if (ca instanceof ICAShort) {
-			short[] _rac0 = (short[]) rac0;
-			for (int r = 0; r < ca.getNRows(); r++) {
-				for (int c = 0; c < ca.getNCols(); c++) {
-					System.out.printf("%3d\t", _rac0[r * ca.getNCols() + c]);
-				}
-				System.out.println();
-			}
-		} else if (ca instanceof ICAFloat) {
-			float[] _rac0 = (float[]) rac0;
-			for (int r = 0; r < ca.getNRows(); r++) {
-				for (int c = 0; c < ca.getNCols(); c++) {
-					System.out.printf("%.1f\t", _rac0[r * ca.getNCols() + c]);
+		for (int r = 0, i = 0; r < ca.getNRows(); r++) {
+			for (int c = 0; c < ca.getNCols(); c++, i++) {
+				if (rac0 instanceof float[]) {
+					System.out.printf("%.1f\t", ((float[]) rac0)[i]);
+				} else if (rac0 instanceof double[]) {
+					System.out.printf("%.1f\t", ((double[]) rac0)[i]);
+				} else if (rac0 instanceof short[]) {
+					System.out.printf("%3d\t", ((short[]) rac0)[i]);
+				} else if (rac0 instanceof int[]) {
+					System.out.printf("%3d\t", ((int[]) rac0)[i]);
+				} else {
+					System.out.printf("%3d\t", ((byte[]) rac0)[i]);
 				}
-				System.out.println();
 			}
+			System.out.println();
 		}
 	}
 }
\ No newline at end of file
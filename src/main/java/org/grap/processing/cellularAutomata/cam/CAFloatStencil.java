@@ -0,0 +1,251 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+/**
+ * Float automaton defined by a {@link Neighbourhood} and by per cell
+ * functions of the neighbour values ({@link IFloatStencil}) : one for the
+ * init, computed from an input field (a DEM...), and one for the transitions,
+ * computed from the previous state.
+ * 
+ * The automaton gathers the neighbour values itself : the nodataValue cells
+ * of the field keep the nodataValue without calling the stencils, and the
+ * neighbours that are nodataValue or outside of the grid are given as NaN.
+ * The cells of a block are processed row by row, the border columns and rows
+ * (closer to the edges of the grid than the radius of the neighbourhood)
+ * through a bounds checked path and the interior ones through a loop that
+ * reads the neighbours at precomputed index shifts, without any test. There
+ * is no halo to exchange : the blocks of the networks read their neighbours
+ * in the previous state, which is shared by all the threads. The neighbour
+ * values are gathered in a buffer that each thread allocates once, so that
+ * evaluating a cell does not allocate anything.
+ */
+public class CAFloatStencil implements ICAFloatBlock {
+	public enum Border {
+		/** the neighbours outside of the grid are given as NaN */
+		NAN,
+		/**
+		 * the cells that have neighbours outside of the grid are nodataValue
+		 * cells
+		 */
+		NODATA
+	}
+
+	private final int nrows;
+	private final int ncols;
+	private final float[] field;
+	private final float ndv;
+	private final Border border;
+	private final int nbOfNeighbours;
+	private final int[] rowShifts;
+	private final int[] colShifts;
+	private final int[] offsets;
+	private final int radius;
+	private final IFloatStencil initStencil;
+	private final IFloatStencil transitionStencil;
+	private final ThreadLocal<float[]> neighbourBuffers;
+
+	/**
+	 * @param nrows
+	 * @param ncols
+	 * @param field
+	 *            the input of the init stencil, whose NaN and nodataValue
+	 *            cells are the nodataValue cells of the automaton. If null,
+	 *            all the cells are valid and the init stencil is given NaN
+	 *            values.
+	 * @param ndv
+	 *            the nodataValue of the field and of the automaton
+	 * @param neighbourhood
+	 * @param border
+	 * @param initStencil
+	 *            null to start from a copy of the field (or from 0)
+	 * @param transitionStencil
+	 *            null for the automata that are computed by their init step :
+	 *            the transitions then keep the values unchanged
+	 */
+	public CAFloatStencil(final int nrows, final int ncols,
+			final float[] field, final float ndv,
+			final Neighbourhood neighbourhood, final Border border,
+			final IFloatStencil initStencil,
+			final IFloatStencil transitionStencil) {
+		this.nrows = nrows;
+		this.ncols = ncols;
+		this.field = field;
+		this.ndv = ndv;
+		this.border = border;
+		this.initStencil = initStencil;
+		this.transitionStencil = transitionStencil;
+
+		nbOfNeighbours = neighbourhood.getSize();
+		rowShifts = new int[nbOfNeighbours];
+		colShifts = new int[nbOfNeighbours];
+		for (int k = 0; k < nbOfNeighbours; k++) {
+			rowShifts[k] = neighbourhood.getRowShift(k);
+			colShifts[k] = neighbourhood.getColShift(k);
+		}
+		offsets = neighbourhood.getOffsets(ncols);
+		radius = neighbourhood.getRadius();
+		neighbourBuffers = new ThreadLocal<float[]>() {
+			@Override
+			protected float[] initialValue() {
+				return new float[nbOfNeighbours];
+			}
+		};
+	}
+
+	public int getNCols() {
+		return ncols;
+	}
+
+	public int getNRows() {
+		return nrows;
+	}
+
+	public float getNoDataValue() {
+		return ndv;
+	}
+
+	public boolean isNoData(final int i) {
+		return (null != field) && (Float.isNaN(field[i]) || (ndv == field[i]));
+	}
+
+	public float init(final int r, final int c, final int i) {
+		if (null == initStencil) {
+			return (null == field) ? 0 : field[i];
+		}
+		return evaluate(initStencil, field, r, c, i, neighbourBuffers.get());
+	}
+
+	public float localTransition(final float[] rac, final int r, final int c,
+			final int i) {
+		if (null == transitionStencil) {
+			return rac[i];
+		}
+		return evaluate(transitionStencil, rac, r, c, i, neighbourBuffers
+				.get());
+	}
+
+	public void init(final float[] rac, final int startRow, final int endRow,
+			final int startCol, final int endCol) {
+		if (null == initStencil) {
+			for (int r = startRow; r < endRow; r++) {
+				final int i = r * ncols + startCol;
+				if (null == field) {
+					for (int k = i; k < i + endCol - startCol; k++) {
+						rac[k] = 0;
+					}
+				} else {
+					System.arraycopy(field, i, rac, i, endCol - startCol);
+				}
+			}
+		} else {
+			evaluate(initStencil, field, rac, startRow, endRow, startCol,
+					endCol);
+		}
+	}
+
+	public void localTransition(final float[] src, final float[] dst,
+			final int startRow, final int endRow, final int startCol,
+			final int endCol) {
+		if (null == transitionStencil) {
+			for (int r = startRow; r < endRow; r++) {
+				final int i = r * ncols + startCol;
+				System.arraycopy(src, i, dst, i, endCol - startCol);
+			}
+		} else {
+			evaluate(transitionStencil, src, dst, startRow, endRow, startCol,
+					endCol);
+		}
+	}
+
+	private void evaluate(final IFloatStencil stencil, final float[] src,
+			final float[] dst, final int startRow, final int endRow,
+			final int startCol, final int endCol) {
+		final float[] neighbours = neighbourBuffers.get();
+		final int startInterior = Math.min(endCol, Math.max(startCol, radius));
+		final int endInterior = Math.max(startInterior, Math.min(endCol, ncols
+				- radius));
+
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			if ((radius > r) || (nrows - radius <= r)) {
+				for (int c = startCol; c < endCol; c++, i++) {
+					dst[i] = evaluate(stencil, src, r, c, i, neighbours);
+				}
+				continue;
+			}
+
+			int c = startCol;
+			for (; c < startInterior; c++, i++) {
+				dst[i] = evaluate(stencil, src, r, c, i, neighbours);
+			}
+			for (; c < endInterior; c++, i++) {
+				if (isNoData(i)) {
+					dst[i] = ndv;
+				} else {
+					for (int k = 0; k < nbOfNeighbours; k++) {
+						neighbours[k] = getValue(src, i + offsets[k]);
+					}
+					dst[i] = stencil.apply(getValue(src, i), neighbours, i);
+				}
+			}
+			for (; c < endCol; c++, i++) {
+				dst[i] = evaluate(stencil, src, r, c, i, neighbours);
+			}
+		}
+	}
+
+	private float evaluate(final IFloatStencil stencil, final float[] src,
+			final int r, final int c, final int i, final float[] neighbours) {
+		if (isNoData(i)) {
+			return ndv;
+		}
+		for (int k = 0; k < nbOfNeighbours; k++) {
+			final int rr = r + rowShifts[k];
+			final int cc = c + colShifts[k];
+			if ((0 > rr) || (nrows <= rr) || (0 > cc) || (ncols <= cc)) {
+				if (Border.NODATA == border) {
+					return ndv;
+				}
+				neighbours[k] = Float.NaN;
+			} else {
+				neighbours[k] = getValue(src, i + offsets[k]);
+			}
+		}
+		return stencil.apply(getValue(src, i), neighbours, i);
+	}
+
+	private float getValue(final float[] src, final int i) {
+		if (null == src) {
+			return Float.NaN;
+		}
+		final float value = src[i];
+		return (ndv == value) ? Float.NaN : value;
+	}
+}
@@ -29,19 +29,44 @@
 package org.grap.processing.cellularAutomata.cam;
 
 import org.grap.processing.cellularAutomata.parallelImpl.PCAN;
+import org.grap.processing.cellularAutomata.parallelImpl.TCAN;
+import org.grap.processing.cellularAutomata.seqImpl.FSCAN;
 import org.grap.processing.cellularAutomata.seqImpl.SCAN;
 
 public class CANFactory {
 	private final static int NUMBER_OF_THREADS = Runtime.getRuntime()
 			.availableProcessors();
 
+	public enum Implementation {
+		/** all the cells, at each step, in a single thread */
+		SEQUENTIAL,
+		/** all the cells, at each step, by blocks of rows */
+		PARALLEL,
+		/** only the neighbourhood of the modified cells, in a single thread */
+		FRONTIER,
+		/** only the neighbourhood of the modified tiles, tiles in parallel */
+		TILED
+	}
+
 	public static ICAN createCAN(final ICA ca) {
 		if (1 == NUMBER_OF_THREADS) {
-			System.out.println("CANFactory : sequential implementation");
 			return new SCAN(ca);
 		} else {
-			System.out.println("CANFactory : parallel implementation");
-			return new PCAN(ca);
+			return new PCAN(ca, NUMBER_OF_THREADS);
+		}
+	}
+
+	public static ICAN createCAN(final ICA ca,
+			final Implementation implementation) {
+		switch (implementation) {
+		case PARALLEL:
+			return new PCAN(ca, NUMBER_OF_THREADS);
+		case FRONTIER:
+			return new FSCAN(ca);
+		case TILED:
+			return new TCAN(ca, NUMBER_OF_THREADS);
+		default:
+			return new SCAN(ca);
 		}
 	}
 }
\ No newline at end of file
@@ -26,59 +26,56 @@
  * or contact directly:
  * info_at_ orbisgis.org
  */
-package org.grap.processing.cellularAutomata.seqImpl;
+package org.grap.processing.cellularAutomata.cam;
 
-import org.grap.processing.cellularAutomata.cam.ACAN;
-import org.grap.processing.cellularAutomata.cam.ICAShort;
+final class CANKernelByte implements ICANKernel {
+	private final ICAByte ca;
+	private final byte[] rac0;
+	private final byte[] rac1;
+	private final int ncols;
 
-public class SCANShort implements ISCAN {
-	private short[] rac1;
-	private short[] rac0;
-	private ICAShort ca;
-	private int ncols;
-	private int nrows;
-
-	public SCANShort(final ACAN can) {
-		rac0 = (short[]) can.getRac0();
-		rac1 = (short[]) can.getRac1();
-		ca = (ICAShort) can.getCa();
+	CANKernelByte(final ICAByte ca, final byte[] rac0, final byte[] rac1) {
+		this.ca = ca;
+		this.rac0 = rac0;
+		this.rac1 = rac1;
 		ncols = ca.getNCols();
-		nrows = ca.getNRows();
+	}
 
-		int i = 0;
-		for (int r = 0; r < nrows; r++) {
-			for (int c = 0; c < ncols; c++) {
+	public void init(final int startRow, final int endRow,
+			final int startCol, final int endCol) {
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			for (int c = startCol; c < endCol; c++, i++) {
 				rac0[i] = ca.init(r, c, i);
-				i++;
 			}
 		}
 	}
 
-	public boolean globalTransition(final int iterationsCount) {
-		boolean modified = false;
-		int i = 0;
-
-		if (0 == iterationsCount % 2) {
-			for (int r = 0; r < nrows; r++) {
-				for (int c = 0; c < ncols; c++) {
-					rac1[i] = ca.localTransition(rac0, r, c, i);
-					if (rac0[i] != rac1[i]) {
-						modified = true;
-					}
-					i++;
+	public int globalTransition(final int iterationsCount,
+			final int startRow, final int endRow, final int startCol,
+			final int endCol) {
+		final byte[] src = (0 == iterationsCount % 2) ? rac0 : rac1;
+		final byte[] dst = (0 == iterationsCount % 2) ? rac1 : rac0;
+		int nbModified = 0;
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			for (int c = startCol; c < endCol; c++, i++) {
+				dst[i] = ca.localTransition(src, r, c, i);
+				if (src[i] != dst[i]) {
+					nbModified++;
 				}
 			}
+		}
+		return nbModified;
+	}
+
+	public boolean localTransition(final int iterationsCount, final int r,
+			final int c, final int i) {
+		if (0 == iterationsCount % 2) {
+			rac1[i] = ca.localTransition(rac0, r, c, i);
 		} else {
-			for (int r = 0; r < nrows; r++) {
-				for (int c = 0; c < ncols; c++) {
-					rac0[i] = ca.localTransition(rac1, r, c, i);
-					if (rac0[i] != rac1[i]) {
-						modified = true;
-					}
-					i++;
-				}
-			}
+			rac0[i] = ca.localTransition(rac1, r, c, i);
 		}
-		return modified;
+		return rac0[i] != rac1[i];
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,104 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+final class CANKernelFloat implements ICANKernel {
+	private final ICAFloat ca;
+	private final ICAFloatBlock blockCa;
+	private final float[] rac0;
+	private final float[] rac1;
+	private final int ncols;
+
+	CANKernelFloat(final ICAFloat ca, final float[] rac0, final float[] rac1) {
+		this.ca = ca;
+		blockCa = (ca instanceof ICAFloatBlock) ? (ICAFloatBlock) ca : null;
+		this.rac0 = rac0;
+		this.rac1 = rac1;
+		ncols = ca.getNCols();
+	}
+
+	public void init(final int startRow, final int endRow,
+			final int startCol, final int endCol) {
+		if (null != blockCa) {
+			blockCa.init(rac0, startRow, endRow, startCol, endCol);
+			return;
+		}
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			for (int c = startCol; c < endCol; c++, i++) {
+				rac0[i] = ca.init(r, c, i);
+			}
+		}
+	}
+
+	public int globalTransition(final int iterationsCount,
+			final int startRow, final int endRow, final int startCol,
+			final int endCol) {
+		final float[] src = (0 == iterationsCount % 2) ? rac0 : rac1;
+		final float[] dst = (0 == iterationsCount % 2) ? rac1 : rac0;
+		int nbModified = 0;
+		if (null != blockCa) {
+			blockCa.localTransition(src, dst, startRow, endRow, startCol,
+					endCol);
+			for (int r = startRow; r < endRow; r++) {
+				int i = r * ncols + startCol;
+				for (int c = startCol; c < endCol; c++, i++) {
+					if (!equal(src[i], dst[i])) {
+						nbModified++;
+					}
+				}
+			}
+			return nbModified;
+		}
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			for (int c = startCol; c < endCol; c++, i++) {
+				dst[i] = ca.localTransition(src, r, c, i);
+				if (!equal(src[i], dst[i])) {
+					nbModified++;
+				}
+			}
+		}
+		return nbModified;
+	}
+
+	public boolean localTransition(final int iterationsCount, final int r,
+			final int c, final int i) {
+		if (0 == iterationsCount % 2) {
+			rac1[i] = ca.localTransition(rac0, r, c, i);
+		} else {
+			rac0[i] = ca.localTransition(rac1, r, c, i);
+		}
+		return !equal(rac0[i], rac1[i]);
+	}
+
+	private boolean equal(final float a, final float b) {
+		return ((Float.isNaN(a) && Float.isNaN(b)) || (a == b)) ? true : false;
+	}
+}
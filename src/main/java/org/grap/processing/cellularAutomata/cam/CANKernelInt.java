@@ -26,63 +26,56 @@
  * or contact directly:
  * info_at_ orbisgis.org
  */
-package org.grap.processing.cellularAutomata.seqImpl;
+package org.grap.processing.cellularAutomata.cam;
 
-import org.grap.processing.cellularAutomata.cam.ACAN;
-import org.grap.processing.cellularAutomata.cam.ICAFloat;
+final class CANKernelInt implements ICANKernel {
+	private final ICAInt ca;
+	private final int[] rac0;
+	private final int[] rac1;
+	private final int ncols;
 
-public class SCANFloat implements ISCAN {
-	private float[] rac1;
-	private float[] rac0;
-	private ICAFloat ca;
-	private int ncols;
-	private int nrows;
-
-	public SCANFloat(final ACAN can) {
-		rac0 = (float[]) can.getRac0();
-		rac1 = (float[]) can.getRac1();
-		ca = (ICAFloat) can.getCa();
+	CANKernelInt(final ICAInt ca, final int[] rac0, final int[] rac1) {
+		this.ca = ca;
+		this.rac0 = rac0;
+		this.rac1 = rac1;
 		ncols = ca.getNCols();
-		nrows = ca.getNRows();
+	}
 
-		int i = 0;
-		for (int r = 0; r < nrows; r++) {
-			for (int c = 0; c < ncols; c++) {
+	public void init(final int startRow, final int endRow,
+			final int startCol, final int endCol) {
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			for (int c = startCol; c < endCol; c++, i++) {
 				rac0[i] = ca.init(r, c, i);
-				i++;
 			}
 		}
 	}
 
-	public boolean globalTransition(final int iterationsCount) {
-		boolean modified = false;
-		int i = 0;
-
-		if (0 == iterationsCount % 2) {
-			for (int r = 0; r < nrows; r++) {
-				for (int c = 0; c < ncols; c++) {
-					rac1[i] = ca.localTransition(rac0, r, c, i);
-					if (!equal(rac0[i], rac1[i])) {
-						modified = true;
-					}
-					i++;
-				}
-			}
-		} else {
-			for (int r = 0; r < nrows; r++) {
-				for (int c = 0; c < ncols; c++) {
-					rac0[i] = ca.localTransition(rac1, r, c, i);
-					if (!equal(rac0[i], rac1[i])) {
-						modified = true;
-					}
-					i++;
+	public int globalTransition(final int iterationsCount,
+			final int startRow, final int endRow, final int startCol,
+			final int endCol) {
+		final int[] src = (0 == iterationsCount % 2) ? rac0 : rac1;
+		final int[] dst = (0 == iterationsCount % 2) ? rac1 : rac0;
+		int nbModified = 0;
+		for (int r = startRow; r < endRow; r++) {
+			int i = r * ncols + startCol;
+			for (int c = startCol; c < endCol; c++, i++) {
+				dst[i] = ca.localTransition(src, r, c, i);
+				if (src[i] != dst[i]) {
+					nbModified++;
 				}
 			}
 		}
-		return modified;
+		return nbModified;
 	}
 
-	private boolean equal(final float a, final float b) {
-		return ((Float.isNaN(a) && Float.isNaN(b)) || (a == b)) ? true : false;
+	public boolean localTransition(final int iterationsCount, final int r,
+			final int c, final int i) {
+		if (0 == iterationsCount % 2) {
+			rac1[i] = ca.localTransition(rac0, r, c, i);
+		} else {
+			rac0[i] = ca.localTransition(rac1, r, c, i);
+		}
+		return rac0[i] != rac1[i];
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,150 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+/**
+ * Listener that keeps the metrics of a cellular automata network run : the
+ * duration, the number of evaluated cells and the number of modified cells
+ * (the convergence curve) of each step, in primitive arrays.
+ */
+public class CANMetrics implements ICANListener {
+	private long initDuration;
+	private long totalDuration;
+	private boolean cancelled;
+	private int iterationsCount;
+	private long[] durations = new long[16];
+	private int[] evaluatedCells = new int[16];
+	private int[] modifiedCells = new int[16];
+
+	public void initialized(final ICAN can, final long duration) {
+		initDuration = duration;
+		iterationsCount = 0;
+	}
+
+	public void iterationDone(final int iterationsCount, final long duration,
+			final int nbOfEvaluatedCells, final int nbOfModifiedCells) {
+		if (this.iterationsCount == durations.length) {
+			final int size = 2 * durations.length;
+			final long[] tmp = new long[size];
+			System.arraycopy(durations, 0, tmp, 0, this.iterationsCount);
+			durations = tmp;
+			final int[] tmp2 = new int[size];
+			System.arraycopy(evaluatedCells, 0, tmp2, 0, this.iterationsCount);
+			evaluatedCells = tmp2;
+			final int[] tmp3 = new int[size];
+			System.arraycopy(modifiedCells, 0, tmp3, 0, this.iterationsCount);
+			modifiedCells = tmp3;
+		}
+		durations[this.iterationsCount] = duration;
+		evaluatedCells[this.iterationsCount] = nbOfEvaluatedCells;
+		modifiedCells[this.iterationsCount] = nbOfModifiedCells;
+		this.iterationsCount++;
+	}
+
+	public void finished(final int iterationsCount, final long duration,
+			final boolean cancelled) {
+		totalDuration = duration;
+		this.cancelled = cancelled;
+	}
+
+	public int getIterationsCount() {
+		return iterationsCount;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return the duration of the init, in nanoseconds
+	 */
+	public long getInitDuration() {
+		return initDuration;
+	}
+
+	/**
+	 * @return the duration of the whole run, in nanoseconds
+	 */
+	public long getTotalDuration() {
+		return totalDuration;
+	}
+
+	/**
+	 * @return the duration of each step, in nanoseconds
+	 */
+	public long[] getDurations() {
+		final long[] result = new long[iterationsCount];
+		System.arraycopy(durations, 0, result, 0, iterationsCount);
+		return result;
+	}
+
+	/**
+	 * @return the number of cells evaluated by each step
+	 */
+	public int[] getEvaluatedCells() {
+		final int[] result = new int[iterationsCount];
+		System.arraycopy(evaluatedCells, 0, result, 0, iterationsCount);
+		return result;
+	}
+
+	/**
+	 * @return the number of cells modified by each step
+	 */
+	public int[] getConvergenceCurve() {
+		final int[] result = new int[iterationsCount];
+		System.arraycopy(modifiedCells, 0, result, 0, iterationsCount);
+		return result;
+	}
+
+	/**
+	 * @return the number of cells evaluated per second by each step
+	 */
+	public double[] getCellsPerSecond() {
+		final double[] result = new double[iterationsCount];
+		for (int k = 0; k < iterationsCount; k++) {
+			result[k] = (0 == durations[k]) ? Double.POSITIVE_INFINITY
+					: 1e9 * evaluatedCells[k] / durations[k];
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		long nbOfEvaluatedCells = 0;
+		for (int k = 0; k < iterationsCount; k++) {
+			nbOfEvaluatedCells += evaluatedCells[k];
+		}
+		return String.format("%d step(s)%s, %d ms (init %d ms), "
+				+ "%d evaluated cells, %.0f cells/s", iterationsCount,
+				cancelled ? " (cancelled)" : "", totalDuration / 1000000,
+				initDuration / 1000000, nbOfEvaluatedCells,
+				(0 == totalDuration) ? 0d : 1e9 * nbOfEvaluatedCells
+						/ totalDuration);
+	}
+}
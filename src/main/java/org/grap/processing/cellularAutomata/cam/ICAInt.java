@@ -26,8 +26,11 @@
  * or contact directly:
  * info_at_ orbisgis.org
  */
-package org.grap.processing.cellularAutomata.seqImpl;
+package org.grap.processing.cellularAutomata.cam;
 
-public interface ISCAN {
-	public abstract boolean globalTransition(final int iterationsCount);
-}
\ No newline at end of file
+public interface ICAInt extends ICA {
+	public int init(final int r, final int c, final int i);
+
+	public int localTransition(final int[] rac, final int r, final int c,
+			final int i);
+}
@@ -28,10 +28,26 @@
  */
 package org.grap.processing.cellularAutomata.cam;
 
+import org.orbisgis.progress.ProgressMonitor;
+
 public interface ICAN {
 	/* getter */
 	public abstract Object getCANValues();
 
+	/* setters */
+	/**
+	 * @param listener
+	 *            receives the duration and the number of modified cells of
+	 *            each step ({@link NullCANListener} by default)
+	 */
+	public abstract void setListener(final ICANListener listener);
+
+	/**
+	 * @param pm
+	 *            the run stops after the current step once pm is cancelled
+	 */
+	public abstract void setProgressMonitor(final ProgressMonitor pm);
+
 	/* public methods */
 	public abstract int getStableState();
 
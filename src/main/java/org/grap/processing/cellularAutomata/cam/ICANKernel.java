@@ -0,0 +1,58 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+/**
+ * Typed part of the cellular automata networks, that works directly on the
+ * primitive buffers of the automaton (rac0 and rac1). There is one kernel per
+ * type of automaton (ICAByte, ICAShort, ICAInt, ICAFloat and ICADouble),
+ * chosen once by {@link ACAN}; the networks (SCAN, FSCAN, PCAN, TCAN...) only
+ * schedule the blocks of cells, whatever the type of the automaton.
+ * 
+ * The even steps read rac0 and write rac1, the odd ones read rac1 and write
+ * rac0. The blocks of a same step may be processed concurrently, each one
+ * writing its own cells only.
+ */
+public interface ICANKernel {
+	public abstract void init(final int startRow, final int endRow,
+			final int startCol, final int endCol);
+
+	/**
+	 * @return the number of cells of the block that have been modified
+	 */
+	public abstract int globalTransition(final int iterationsCount,
+			final int startRow, final int endRow, final int startCol,
+			final int endCol);
+
+	/**
+	 * @return true if the cell has been modified
+	 */
+	public abstract boolean localTransition(final int iterationsCount,
+			final int r, final int c, final int i);
+}
@@ -0,0 +1,62 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+/**
+ * Receives the progress of a cellular automata network run (see
+ * {@link ICAN#setListener(ICANListener)}). All the durations are in
+ * nanoseconds. The networks call the listener between two steps only, never
+ * from their worker threads.
+ */
+public interface ICANListener {
+	public abstract void initialized(final ICAN can, final long duration);
+
+	/**
+	 * @param iterationsCount
+	 *            the index of the step, from 0
+	 * @param duration
+	 * @param nbOfEvaluatedCells
+	 *            the number of cells whose local transition has been computed
+	 * @param nbOfModifiedCells
+	 *            0 for the last step of a run that reaches its stable state
+	 */
+	public abstract void iterationDone(final int iterationsCount,
+			final long duration, final int nbOfEvaluatedCells,
+			final int nbOfModifiedCells);
+
+	/**
+	 * @param iterationsCount
+	 * @param duration
+	 *            the duration of the whole run, init included
+	 * @param cancelled
+	 *            true if the run has been stopped by its ProgressMonitor
+	 */
+	public abstract void finished(final int iterationsCount,
+			final long duration, final boolean cancelled);
+}
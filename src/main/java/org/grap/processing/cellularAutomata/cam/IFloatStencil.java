@@ -0,0 +1,50 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+/**
+ * The per cell function of a {@link CAFloatStencil}. It is shared by the
+ * threads of the networks and must therefore not keep any per cell state.
+ */
+public interface IFloatStencil {
+	/**
+	 * @param center
+	 *            the value of the cell
+	 * @param neighbours
+	 *            the values of the neighbours, in the order of the
+	 *            {@link Neighbourhood}. A neighbour outside of the grid or
+	 *            equal to the nodataValue is NaN. The array is reused for the
+	 *            next cell.
+	 * @param i
+	 *            the index of the cell, to read other per cell data
+	 * @return the new value of the cell
+	 */
+	public abstract float apply(final float center, final float[] neighbours,
+			final int i);
+}
@@ -0,0 +1,99 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.cam;
+
+/**
+ * The cells read by an {@link IFloatStencil}, as row and column shifts from
+ * the central cell. The neighbour values are given to the stencil in the
+ * order of the declaration.
+ */
+public class Neighbourhood {
+	/**
+	 * The 8 neighbours in the D8 (TauDEM) order : the value of the neighbour
+	 * pointed by direction code k is at index k - 1.
+	 */
+	public final static Neighbourhood MOORE = new Neighbourhood(new int[] {
+			0, -1, -1, -1, 0, 1, 1, 1 }, new int[] { 1, 1, 0, -1, -1, -1, 0,
+			1 });
+
+	/** east, north, west and south */
+	public final static Neighbourhood VON_NEUMANN = new Neighbourhood(
+			new int[] { 0, -1, 0, 1 }, new int[] { 1, 0, -1, 0 });
+
+	private final int[] rowShifts;
+	private final int[] colShifts;
+	private final int radius;
+
+	public Neighbourhood(final int[] rowShifts, final int[] colShifts) {
+		if (rowShifts.length != colShifts.length) {
+			throw new IllegalArgumentException("As many row shifts as column "
+					+ "shifts are expected");
+		}
+		this.rowShifts = rowShifts.clone();
+		this.colShifts = colShifts.clone();
+		int max = 0;
+		for (int k = 0; k < rowShifts.length; k++) {
+			max = Math.max(max, Math.max(Math.abs(rowShifts[k]), Math
+					.abs(colShifts[k])));
+		}
+		radius = max;
+	}
+
+	public int getSize() {
+		return rowShifts.length;
+	}
+
+	public int getRowShift(final int k) {
+		return rowShifts[k];
+	}
+
+	public int getColShift(final int k) {
+		return colShifts[k];
+	}
+
+	/**
+	 * @return the largest shift : the cells closer to the edges of the grid
+	 *         have neighbours outside of it
+	 */
+	public int getRadius() {
+		return radius;
+	}
+
+	/**
+	 * @param ncols
+	 * @return the index shifts of the neighbours in a grid of ncols columns
+	 */
+	public int[] getOffsets(final int ncols) {
+		final int[] offsets = new int[rowShifts.length];
+		for (int k = 0; k < offsets.length; k++) {
+			offsets[k] = rowShifts[k] * ncols + colShifts[k];
+		}
+		return offsets;
+	}
+}
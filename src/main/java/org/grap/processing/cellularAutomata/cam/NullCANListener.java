@@ -26,33 +26,20 @@
  * or contact directly:
  * info_at_ orbisgis.org
  */
-package org.grap.processing.cellularAutomata.parallelImpl;
+package org.grap.processing.cellularAutomata.cam;
 
-public class BreakCondition implements Runnable {
-	private boolean[] collectOfModificationsValues;
-
-	private boolean globalStop;
-
-	public BreakCondition(final int numberOfThreads) {
-		collectOfModificationsValues = new boolean[numberOfThreads];
-	}
-
-	public void setModificationValue(final boolean modified,
-			final int currentThreadIdx) {
-		collectOfModificationsValues[currentThreadIdx] = modified;
+/**
+ * The default listener of the cellular automata networks : does nothing.
+ */
+public class NullCANListener implements ICANListener {
+	public void initialized(final ICAN can, final long duration) {
 	}
 
-	public boolean doIContinue() {
-		return globalStop;
+	public void iterationDone(final int iterationsCount, final long duration,
+			final int nbOfEvaluatedCells, final int nbOfModifiedCells) {
 	}
 
-	public synchronized void run() {
-		globalStop = false;
-		for (boolean modified : collectOfModificationsValues) {
-			if (modified) {
-				globalStop = true;
-				break;
-			}
-		}
+	public void finished(final int iterationsCount, final long duration,
+			final boolean cancelled) {
 	}
-}
\ No newline at end of file
+}
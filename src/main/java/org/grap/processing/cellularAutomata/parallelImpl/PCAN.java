@@ -28,37 +28,46 @@
  */
 package org.grap.processing.cellularAutomata.parallelImpl;
 
-import java.util.concurrent.BrokenBarrierException;
-import java.util.concurrent.CyclicBarrier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.grap.processing.cellularAutomata.cam.ACAN;
 import org.grap.processing.cellularAutomata.cam.ICA;
-import org.grap.processing.cellularAutomata.cam.ICAFloat;
-import org.grap.processing.cellularAutomata.cam.ICAShort;
+import org.grap.processing.cellularAutomata.cam.ICANKernel;
+import org.grap.processing.cellularAutomata.cam.ICANListener;
 
+/**
+ * Parallel cellular automata network. The grid is split into blocks of rows
+ * that are processed by a fixed size thread pool. Each step reads one buffer
+ * and writes the other one, exactly as
+ * {@link org.grap.processing.cellularAutomata.seqImpl.SCAN} does : the stable
+ * state and the number of iterations do not depend on the number of threads.
+ * 
+ * Each step ends when all its blocks are done (invokeAll) : the values written
+ * by the workers are then published to the next step, and the convergence
+ * test is the sum of the numbers of modified cells the blocks return, so that
+ * no flag is shared between the threads.
+ */
 public class PCAN extends ACAN {
-        // WARNING: fixed the number of thead to 1: this algorithm is broken!!
-        // it is not thread safe, you get race conditions when using it
-        // on a processor with several core.
-        // (see CANImplementationsTest.testSeqAndParImplementations())
-        // all this should be migrated (...rewritten from scratch) to
-        // grap2, whatever it is in the end...
-	private final static int NUMBER_OF_THREADS = 1;
+	private final static int BLOCKS_PER_THREAD = 4;
 
-	private CyclicBarrier barrier;
+	private int nbOfThreads;
 
 	private int iterationsCount;
 
-	private BreakCondition breakCondition;
-
 	/* constructor */
 	public PCAN(final ICA ca) {
-		super(ca);
+		this(ca, Runtime.getRuntime().availableProcessors());
+	}
 
-		breakCondition = new BreakCondition(NUMBER_OF_THREADS);
-		// This barrier action is useful for updating shared-state before
-		// any of the parties continue.
-		barrier = new CyclicBarrier(NUMBER_OF_THREADS + 1, breakCondition);
+	public PCAN(final ICA ca, final int nbOfThreads) {
+		super(ca);
+		this.nbOfThreads = nbOfThreads;
 	}
 
 	/* getters */
@@ -66,59 +75,125 @@ public class PCAN extends ACAN {
 		return iterationsCount;
 	}
 
-	public BreakCondition getBreakCondition() {
-		return breakCondition;
+	/* setters */
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
 	}
 
 	/* public methods */
 	public int getStableState() {
-		final long startTime = System.currentTimeMillis();
-		final int subDomainSize = getNbCells() / NUMBER_OF_THREADS;
-
-		// initialize
-		if (getCa() instanceof ICAShort) {
-			for (int i = 0; i < NUMBER_OF_THREADS; i++) {
-				final int startIdx = i * subDomainSize;
-				final int endIdx = (NUMBER_OF_THREADS == i + 1) ? getNbCells()
-						: startIdx + subDomainSize;
-				new Thread(new PCANShort(this, startIdx, endIdx, i)).start();
+		return run(Integer.MAX_VALUE, true);
+	}
+
+	/**
+	 * Runs exactly nbOfSteps transitions (less if the run is cancelled),
+	 * without testing the stable state : for time-stepped simulations, such as
+	 * {@link org.grap.processing.cellularAutomata.CARunoff}, that are not
+	 * expected to converge. The listener is notified after each step, while
+	 * both buffers are untouched, and getCANValues() returns the state reached
+	 * by the last step.
+	 * 
+	 * @param nbOfSteps
+	 * @return the number of steps that have been run
+	 */
+	public int run(final int nbOfSteps) {
+		final int nbOfStepsDone = run(nbOfSteps, false);
+		if (1 == nbOfStepsDone % 2) {
+			// the last step has written rac1
+			System.arraycopy(getRac1(), 0, getRac0(), 0, getNbCells());
+		}
+		return nbOfStepsDone;
+	}
+
+	private int run(final int nbOfSteps, final boolean untilStable) {
+		final long startTime = System.nanoTime();
+		final ICANListener listener = getListener();
+		final ICANKernel kernel = getKernel();
+		final int nrows = getCa().getNRows();
+		final int nbBlocks = Math.max(1, Math.min(nrows, nbOfThreads
+				* BLOCKS_PER_THREAD));
+		final ExecutorService executor = (1 < nbOfThreads) ? Executors
+				.newFixedThreadPool(nbOfThreads) : null;
+		boolean cancelled = false;
+
+		try {
+			// initialize
+			step(executor, kernel, -1, nrows, nbBlocks);
+			listener.initialized(this, System.nanoTime() - startTime);
+
+			// get stable state, or run the given number of steps
+			iterationsCount = 0;
+			while (iterationsCount < nbOfSteps) {
+				if (isCancelled()) {
+					cancelled = true;
+					break;
+				}
+				final long startT = System.nanoTime();
+				final int nbModified = step(executor, kernel,
+						iterationsCount, nrows, nbBlocks);
+				listener.iterationDone(iterationsCount, System.nanoTime()
+						- startT, getNbCells(), nbModified);
+				iterationsCount++;
+				if (untilStable && (0 == nbModified)) {
+					break;
+				}
 			}
-		} else if (getCa() instanceof ICAFloat) {
-			for (int i = 0; i < NUMBER_OF_THREADS; i++) {
-				final int startIdx = i * subDomainSize;
-				final int endIdx = (NUMBER_OF_THREADS == i + 1) ? getNbCells()
-						: startIdx + subDomainSize;
-				new Thread(new PCANFloat(this, startIdx, endIdx, i)).start();
+		} finally {
+			if (null != executor) {
+				executor.shutdownNow();
 			}
 		}
-		// initialize
-		synchronization();
-		System.err.printf("end of initialization\n");
-
-		// get stable state
-		iterationsCount = 0;
-		do {
-			final long startT = System.currentTimeMillis();
-			synchronization();
-			System.err.printf("Par. Step %d : %d ms\n", iterationsCount, System
-					.currentTimeMillis()
-					- startT);
-			iterationsCount++;
-		} while (breakCondition.doIContinue());
-
-		System.err.printf("Total duration : %d ms\n", System
-				.currentTimeMillis()
-				- startTime);
+
+		listener.finished(iterationsCount, System.nanoTime() - startTime,
+				cancelled);
 		return iterationsCount;
 	}
 
-	public void synchronization() {
+	/**
+	 * Runs the init (iterationsCount = -1) or a transition step on all the
+	 * blocks of rows, and waits for them.
+	 * 
+	 * @return the number of modified cells
+	 */
+	private int step(final ExecutorService executor,
+			final ICANKernel kernel, final int iterationsCount,
+			final int nrows, final int nbBlocks) {
+		final int ncols = getCa().getNCols();
+		if (null == executor) {
+			if (-1 == iterationsCount) {
+				kernel.init(0, nrows, 0, ncols);
+				return 0;
+			}
+			return kernel.globalTransition(iterationsCount, 0, nrows, 0, ncols);
+		}
+
+		final List<Callable<Integer>> blocks = new ArrayList<Callable<Integer>>(
+				nbBlocks);
+		for (int k = 0; k < nbBlocks; k++) {
+			final int startRow = (int) ((long) nrows * k / nbBlocks);
+			final int endRow = (int) ((long) nrows * (k + 1) / nbBlocks);
+			blocks.add(new Callable<Integer>() {
+				public Integer call() {
+					if (-1 == iterationsCount) {
+						kernel.init(startRow, endRow, 0, ncols);
+						return 0;
+					}
+					return kernel.globalTransition(iterationsCount, startRow,
+							endRow, 0, ncols);
+				}
+			});
+		}
 		try {
-			barrier.await();
+			int nbModified = 0;
+			for (Future<Integer> future : executor.invokeAll(blocks)) {
+				nbModified += future.get();
+			}
+			return nbModified;
 		} catch (InterruptedException e) {
-			e.printStackTrace();
-		} catch (BrokenBarrierException e) {
-			e.printStackTrace();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
 		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,272 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.parallelImpl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.grap.processing.cellularAutomata.cam.ACAN;
+import org.grap.processing.cellularAutomata.cam.ICA;
+import org.grap.processing.cellularAutomata.cam.ICANKernel;
+import org.grap.processing.cellularAutomata.cam.ICANListener;
+
+/**
+ * Tiled parallel cellular automata network. The grid is split into square
+ * tiles (64 x 64 cells by default : both buffers of a float tile fit in 32 KB
+ * of cache) that keep a "modified by the last step" flag. After the first
+ * step, a tile is evaluated only if it or one of its 8 neighbour tiles has
+ * been modified by the previous step, and the active tiles of a step are
+ * shared between the threads of a fixed size thread pool.
+ * 
+ * The cells of a skipped tile have not been modified by the previous step
+ * (nor their neighbours), so both buffers already hold their next value : as
+ * with {@link PCAN}, the stable state and the number of iterations are
+ * exactly the ones of {@link org.grap.processing.cellularAutomata.seqImpl.SCAN}
+ * as long as the local transitions only read the 8 neighbours of the cell.
+ */
+public class TCAN extends ACAN {
+	public final static int DEFAULT_TILE_SIZE = 64;
+
+	private final static int CHUNKS_PER_THREAD = 4;
+
+	private int nbOfThreads;
+
+	private final int tileSize;
+
+	private int iterationsCount;
+
+	private int[] activeTilesCounts = new int[16];
+
+	/* constructor */
+	public TCAN(final ICA ca) {
+		this(ca, Runtime.getRuntime().availableProcessors());
+	}
+
+	public TCAN(final ICA ca, final int nbOfThreads) {
+		this(ca, nbOfThreads, DEFAULT_TILE_SIZE);
+	}
+
+	public TCAN(final ICA ca, final int nbOfThreads, final int tileSize) {
+		super(ca);
+		this.nbOfThreads = nbOfThreads;
+		this.tileSize = Math.max(1, tileSize);
+	}
+
+	/* getters */
+	public int getIterationsCount() {
+		return iterationsCount;
+	}
+
+	public int getNbOfTiles() {
+		return getNbOfTileRows() * getNbOfTileCols();
+	}
+
+	/**
+	 * @return the number of tiles evaluated by each step
+	 */
+	public int[] getActiveTilesCounts() {
+		final int[] result = new int[iterationsCount];
+		System.arraycopy(activeTilesCounts, 0, result, 0, iterationsCount);
+		return result;
+	}
+
+	/* setters */
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	/* public methods */
+	public int getStableState() {
+		final long startTime = System.nanoTime();
+		final ICANListener listener = getListener();
+		final ICANKernel kernel = getKernel();
+		final int nbTileRows = getNbOfTileRows();
+		final int nbTileCols = getNbOfTileCols();
+		final int nbTiles = nbTileRows * nbTileCols;
+		final int[] modified = new int[nbTiles];
+		final boolean[] marks = new boolean[nbTiles];
+		final int[] active = new int[nbTiles];
+		for (int t = 0; t < nbTiles; t++) {
+			active[t] = t;
+		}
+		int nbActive = nbTiles;
+		final ExecutorService executor = (1 < nbOfThreads) ? Executors
+				.newFixedThreadPool(nbOfThreads) : null;
+		boolean cancelled = false;
+
+		try {
+			// initialize
+			step(executor, kernel, -1, active, nbActive, modified);
+			listener.initialized(this, System.nanoTime() - startTime);
+
+			// get stable state
+			iterationsCount = 0;
+			while (0 < nbActive) {
+				if (isCancelled()) {
+					cancelled = true;
+					break;
+				}
+				final long startT = System.nanoTime();
+				step(executor, kernel, iterationsCount, active, nbActive,
+						modified);
+				if (iterationsCount == activeTilesCounts.length) {
+					final int[] tmp = new int[2 * iterationsCount];
+					System.arraycopy(activeTilesCounts, 0, tmp, 0,
+							iterationsCount);
+					activeTilesCounts = tmp;
+				}
+				activeTilesCounts[iterationsCount] = nbActive;
+				int nbEvaluated = 0;
+				int nbModified = 0;
+				for (int k = 0; k < nbActive; k++) {
+					nbEvaluated += getNbCells(active[k]);
+					nbModified += modified[active[k]];
+				}
+				listener.iterationDone(iterationsCount, System.nanoTime()
+						- startT, nbEvaluated, nbModified);
+				iterationsCount++;
+
+				// the modified tiles and their neighbours
+				for (int k = 0; k < nbActive; k++) {
+					final int t = active[k];
+					if (0 < modified[t]) {
+						final int tr = t / nbTileCols;
+						final int tc = t % nbTileCols;
+						for (int nr = Math.max(0, tr - 1); nr <= Math.min(
+								nbTileRows - 1, tr + 1); nr++) {
+							for (int nc = Math.max(0, tc - 1); nc <= Math.min(
+									nbTileCols - 1, tc + 1); nc++) {
+								marks[nr * nbTileCols + nc] = true;
+							}
+						}
+					}
+				}
+				nbActive = 0;
+				for (int t = 0; t < nbTiles; t++) {
+					if (marks[t]) {
+						marks[t] = false;
+						active[nbActive++] = t;
+					}
+				}
+			}
+		} finally {
+			if (null != executor) {
+				executor.shutdownNow();
+			}
+		}
+
+		listener.finished(iterationsCount, System.nanoTime() - startTime,
+				cancelled);
+		return iterationsCount;
+	}
+
+	private int getNbOfTileRows() {
+		return (getCa().getNRows() + tileSize - 1) / tileSize;
+	}
+
+	private int getNbOfTileCols() {
+		return (getCa().getNCols() + tileSize - 1) / tileSize;
+	}
+
+	private int getNbCells(final int t) {
+		final int nbTileCols = getNbOfTileCols();
+		final int startRow = (t / nbTileCols) * tileSize;
+		final int startCol = (t % nbTileCols) * tileSize;
+		final int endRow = Math.min(getCa().getNRows(), startRow + tileSize);
+		final int endCol = Math.min(getCa().getNCols(), startCol + tileSize);
+		return (endRow - startRow) * (endCol - startCol);
+	}
+
+	/**
+	 * Runs the init (iterationsCount = -1) or a transition step on the active
+	 * tiles, and waits for them. Each tile writes its own number of modified
+	 * cells.
+	 */
+	private void step(final ExecutorService executor, final ICANKernel kernel,
+			final int iterationsCount, final int[] active, final int nbActive,
+			final int[] modified) {
+		if (null == executor) {
+			processTiles(kernel, iterationsCount, active, 0, nbActive,
+					modified);
+			return;
+		}
+
+		final int nbChunks = Math.min(nbActive, nbOfThreads
+				* CHUNKS_PER_THREAD);
+		final List<Callable<Object>> chunks = new ArrayList<Callable<Object>>(
+				nbChunks);
+		for (int k = 0; k < nbChunks; k++) {
+			final int start = (int) ((long) nbActive * k / nbChunks);
+			final int end = (int) ((long) nbActive * (k + 1) / nbChunks);
+			chunks.add(new Callable<Object>() {
+				public Object call() {
+					processTiles(kernel, iterationsCount, active, start, end,
+							modified);
+					return null;
+				}
+			});
+		}
+		try {
+			for (Future<Object> future : executor.invokeAll(chunks)) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+	private void processTiles(final ICANKernel kernel,
+			final int iterationsCount, final int[] active, final int start,
+			final int end, final int[] modified) {
+		final int nrows = getCa().getNRows();
+		final int ncols = getCa().getNCols();
+		final int nbTileCols = getNbOfTileCols();
+		for (int k = start; k < end; k++) {
+			final int t = active[k];
+			final int startRow = (t / nbTileCols) * tileSize;
+			final int startCol = (t % nbTileCols) * tileSize;
+			final int endRow = Math.min(nrows, startRow + tileSize);
+			final int endCol = Math.min(ncols, startCol + tileSize);
+			if (-1 == iterationsCount) {
+				kernel.init(startRow, endRow, startCol, endCol);
+			} else {
+				modified[t] = kernel.globalTransition(iterationsCount, startRow,
+						endRow, startCol, endCol);
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.cellularAutomata.seqImpl;
+
+import org.grap.processing.cellularAutomata.cam.ACAN;
+import org.grap.processing.cellularAutomata.cam.ICA;
+import org.grap.processing.cellularAutomata.cam.ICANKernel;
+import org.grap.processing.cellularAutomata.cam.ICANListener;
+
+/**
+ * Sequential cellular automata network that only evaluates the active
+ * frontier : after the first step (where all the cells are evaluated), a cell
+ * is evaluated again only if one of the cells of its 3x3 neighbourhood has
+ * been modified by the previous step. The local transitions must therefore
+ * only depend on the 8 neighbours of the cell (and on the cell itself), as all
+ * the automata of grap do.
+ * 
+ * A cell that is not evaluated keeps its value in both buffers (it has not
+ * been modified by the previous step, so rac0 and rac1 agree on it) : the
+ * stable state and the number of iterations are exactly the ones of
+ * {@link SCAN}. The modified cells are kept in a primitive worklist and the
+ * active cells in a bitset, scanned in the rows order.
+ */
+public class FSCAN extends ACAN {
+	private int iterationsCount;
+
+	private int[] activeCellsCounts = new int[16];
+
+	/* constructor */
+	public FSCAN(final ICA ca) {
+		super(ca);
+	}
+
+	/* getters */
+	public int getIterationsCount() {
+		return iterationsCount;
+	}
+
+	/**
+	 * @return the number of cells evaluated by each step
+	 */
+	public int[] getActiveCellsCounts() {
+		final int[] result = new int[iterationsCount];
+		System.arraycopy(activeCellsCounts, 0, result, 0, iterationsCount);
+		return result;
+	}
+
+	/* public methods */
+	public int getStableState() {
+		final long startTime = System.nanoTime();
+		final ICANListener listener = getListener();
+		final int nrows = getCa().getNRows();
+		final int ncols = getCa().getNCols();
+		final int nbCells = getNbCells();
+
+		// initialize
+		final ICANKernel kernel = getKernel();
+		kernel.init(0, nrows, 0, ncols);
+		listener.initialized(this, System.nanoTime() - startTime);
+		iterationsCount = 0;
+		if (isCancelled()) {
+			listener.finished(0, System.nanoTime() - startTime, true);
+			return 0;
+		}
+
+		// the first step evaluates all the cells
+		long startT = System.nanoTime();
+		int[] modified = new int[64];
+		int nbModified = 0;
+		for (int r = 0, i = 0; r < nrows; r++) {
+			for (int c = 0; c < ncols; c++, i++) {
+				if (kernel.localTransition(0, r, c, i)) {
+					if (nbModified == modified.length) {
+						final int[] tmp = new int[2 * nbModified];
+						System.arraycopy(modified, 0, tmp, 0, nbModified);
+						modified = tmp;
+					}
+					modified[nbModified++] = i;
+				}
+			}
+		}
+		activeCellsCounts[0] = nbCells;
+		listener.iterationDone(0, System.nanoTime() - startT, nbCells,
+				nbModified);
+		iterationsCount = 1;
+
+		// then, only the neighbourhood of the modified cells
+		final long[] active = new long[(nbCells + 63) >>> 6];
+		boolean cancelled = false;
+		while (0 < nbModified) {
+			if (isCancelled()) {
+				cancelled = true;
+				break;
+			}
+			startT = System.nanoTime();
+			for (int k = 0; k < nbModified; k++) {
+				final int i = modified[k];
+				final int r = i / ncols;
+				final int c = i % ncols;
+				for (int nr = Math.max(0, r - 1); nr <= Math.min(nrows - 1,
+						r + 1); nr++) {
+					for (int nc = Math.max(0, c - 1); nc <= Math.min(
+							ncols - 1, c + 1); nc++) {
+						final int n = nr * ncols + nc;
+						active[n >>> 6] |= 1L << n;
+					}
+				}
+			}
+
+			int nbActive = 0;
+			nbModified = 0;
+			for (int w = 0; w < active.length; w++) {
+				long word = active[w];
+				active[w] = 0;
+				while (0 != word) {
+					final int i = (w << 6) + Long.numberOfTrailingZeros(word);
+					word &= word - 1;
+					nbActive++;
+					if (kernel.localTransition(iterationsCount, i / ncols, i
+							% ncols, i)) {
+						if (nbModified == modified.length) {
+							final int[] tmp = new int[2 * nbModified];
+							System.arraycopy(modified, 0, tmp, 0, nbModified);
+							modified = tmp;
+						}
+						modified[nbModified++] = i;
+					}
+				}
+			}
+
+			if (iterationsCount == activeCellsCounts.length) {
+				final int[] tmp = new int[2 * iterationsCount];
+				System.arraycopy(activeCellsCounts, 0, tmp, 0,
+						iterationsCount);
+				activeCellsCounts = tmp;
+			}
+			activeCellsCounts[iterationsCount] = nbActive;
+			listener.iterationDone(iterationsCount, System.nanoTime() - startT,
+					nbActive, nbModified);
+			iterationsCount++;
+		}
+
+		listener.finished(iterationsCount, System.nanoTime() - startTime,
+				cancelled);
+		return iterationsCount;
+	}
+}
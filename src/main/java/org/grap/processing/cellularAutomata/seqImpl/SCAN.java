@@ -30,8 +30,8 @@ package org.grap.processing.cellularAutomata.seqImpl;
 
 import org.grap.processing.cellularAutomata.cam.ACAN;
 import org.grap.processing.cellularAutomata.cam.ICA;
-import org.grap.processing.cellularAutomata.cam.ICAFloat;
-import org.grap.processing.cellularAutomata.cam.ICAShort;
+import org.grap.processing.cellularAutomata.cam.ICANKernel;
+import org.grap.processing.cellularAutomata.cam.ICANListener;
 
 public class SCAN extends ACAN {
 	private int iterationsCount;
@@ -48,34 +48,35 @@ public class SCAN extends ACAN {
 
 	/* public methods */
 	public int getStableState() {
-		final long startTime = System.currentTimeMillis();
-		long startT = System.currentTimeMillis();
-		ISCAN scan = null;
+		final long startTime = System.nanoTime();
+		final ICANListener listener = getListener();
+		final ICANKernel kernel = getKernel();
+		final int nrows = getCa().getNRows();
+		final int ncols = getCa().getNCols();
 
 		// initialize
-		if (getCa() instanceof ICAShort) {
-			scan = new SCANShort(this);
-		} else if (getCa() instanceof ICAFloat) {
-			scan = new SCANFloat(this);
-		}
-		System.err.printf("end of initialization\n");
+		kernel.init(0, nrows, 0, ncols);
+		listener.initialized(this, System.nanoTime() - startTime);
 
 		// get stable state
 		iterationsCount = 0;
-		boolean goOn;
-
+		boolean cancelled = false;
+		int nbModified;
 		do {
-			goOn = scan.globalTransition(iterationsCount);
-			System.err.printf("Seq. Step %d : %d ms\n", iterationsCount, System
-					.currentTimeMillis()
-					- startT);
+			if (isCancelled()) {
+				cancelled = true;
+				break;
+			}
+			final long startT = System.nanoTime();
+			nbModified = kernel.globalTransition(iterationsCount, 0, nrows, 0,
+					ncols);
+			listener.iterationDone(iterationsCount, System.nanoTime()
+					- startT, getNbCells(), nbModified);
 			iterationsCount++;
-			startT = System.currentTimeMillis();
-		} while (goOn);
+		} while (0 < nbModified);
 
-		System.err.printf("Total duration : %d ms\n", System
-				.currentTimeMillis()
-				- startTime);
+		listener.finished(iterationsCount, System.nanoTime() - startTime,
+				cancelled);
 		return iterationsCount;
 	}
 }
\ No newline at end of file
@@ -28,70 +28,34 @@
  */
 package org.grap.processing.cellularAutomata.useless;
 
-import org.grap.processing.cellularAutomata.cam.ICAFloat;
-
-public class CAGetAllSubWatershed implements ICAFloat {
-	private int nrows;
-
-	private int ncols;
-
-	private short[] slopesDirections;
+import org.grap.processing.cellularAutomata.cam.CAFloatStencil;
+import org.grap.processing.cellularAutomata.cam.IFloatStencil;
 
+public class CAGetAllSubWatershed extends CAFloatStencil {
 	public CAGetAllSubWatershed(final short[] slopesDirections,
 			final int nrows, final int ncols) {
-		this.nrows = nrows;
-		this.ncols = ncols;
-		this.slopesDirections = slopesDirections;
-	}
-
-	public int getNCols() {
-		return ncols;
-	}
-
-	public int getNRows() {
-		return nrows;
-	}
-
-	public float init(final int r, final int c, final int i) {
-		return i;
-	}
-
-	public float localTransition(final float[] rac, final int r, final int c,
-			final int i) {
-		switch (getSlopeDirection(r, c, i)) {
-		case 1:
-			return getRacValue(rac[i], rac, r, c + 1, i + 1);
-		case 2:
-			return getRacValue(rac[i], rac, r + 1, c + 1, i + ncols + 1);
-		case 4:
-			return getRacValue(rac[i], rac, r + 1, c, i + ncols);
-		case 8:
-			return getRacValue(rac[i], rac, r + 1, c - 1, i + ncols - 1);
-		case 16:
-			return getRacValue(rac[i], rac, r, c - 1, i - 1);
-		case 32:
-			return getRacValue(rac[i], rac, r - 1, c - 1, i - ncols - 1);
-		case 64:
-			return getRacValue(rac[i], rac, r - 1, c, i - ncols);
-		case 128:
-			return getRacValue(rac[i], rac, r - 1, c + 1, i - ncols + 1);
-		}
-		return -1;
-	}
-
-	private int getSlopeDirection(final int r, final int c, final int i) {
-		return ((0 > r) || (nrows <= r) || (0 > c) || (ncols <= c)) ? -1
-				: slopesDirections[i];
-	}
-
-	private float getRacValue(final float currentValue, final float[] rac,
-			final int r, final int c, final int i) {
-		if ((0 > r) || (nrows <= r) || (0 > c) || (ncols <= c)) {
-			return Float.NaN;
-		} else if (Float.isNaN(rac[i]) || (-1 == rac[i])) {
-			return currentValue;
-		} else {
-			return rac[i];
-		}
+		super(nrows, ncols, null, Float.NaN,
+				CASlopesAccumulation.NEIGHBOURHOOD, Border.NAN,
+				new IFloatStencil() {
+					public float apply(final float center,
+							final float[] neighbours, final int i) {
+						return i;
+					}
+				}, new IFloatStencil() {
+					public float apply(final float center,
+							final float[] neighbours, final int i) {
+						final int direction = slopesDirections[i];
+						if ((0 >= direction) || (128 < direction)
+								|| (0 != (direction & (direction - 1)))) {
+							return -1;
+						}
+						final float downstream = neighbours[Integer
+								.numberOfTrailingZeros(direction)];
+						if (Float.isNaN(downstream) || (-1 == downstream)) {
+							return center;
+						}
+						return downstream;
+					}
+				});
 	}
-}
\ No newline at end of file
+}
@@ -28,64 +28,65 @@
  */
 package org.grap.processing.cellularAutomata.useless;
 
-import org.grap.processing.cellularAutomata.cam.ICAFloat;
+import org.grap.processing.cellularAutomata.cam.CAFloatStencil;
+import org.grap.processing.cellularAutomata.cam.IFloatStencil;
+import org.grap.processing.cellularAutomata.cam.Neighbourhood;
 
-public class CASlopesAccumulation implements ICAFloat {
-	private int nrows;
+public class CASlopesAccumulation extends CAFloatStencil {
+	/* the neighbours in the order of the CASlopesDirections codes */
+	final static Neighbourhood NEIGHBOURHOOD = new Neighbourhood(new int[] {
+			0, 1, 1, 1, 0, -1, -1, -1 }, new int[] { 1, 1, 0, -1, -1, -1, 0,
+			1 });
 
-	private int ncols;
-
-	private short[] slopesDirections;
-
-	private int[] neighboursIndices;
-
-	private short[] neighboursDirection;
+	private final static short[] neighboursDirection = new short[] { 16, 32,
+			64, 128, 1, 2, 4, 8 };
 
 	public CASlopesAccumulation(final short[] slopesDirections,
 			final int nrows, final int ncols) {
-		this.nrows = nrows;
-		this.ncols = ncols;
-		this.slopesDirections = slopesDirections;
-
-		neighboursIndices = new int[] { 1, ncols + 1, ncols, ncols - 1, -1,
-				-ncols - 1, -ncols, -ncols + 1 };
-		neighboursDirection = new short[] { 16, 32, 64, 128, 1, 2, 4, 8 };
-	}
-
-	public int getNCols() {
-		return ncols;
-	}
-
-	public int getNRows() {
-		return nrows;
+		super(nrows, ncols, null, Float.NaN, NEIGHBOURHOOD, Border.NAN,
+				new IFloatStencil() {
+					public float apply(final float center,
+							final float[] neighbours, final int i) {
+						return 1;
+					}
+				}, new Accumulation(getUpstreamMasks(slopesDirections, nrows,
+						ncols)));
 	}
 
-	public float init(int r, int c, int i) {
-		return 1;
+	private static byte[] getUpstreamMasks(final short[] slopesDirections,
+			final int nrows, final int ncols) {
+		final byte[] upstreamMasks = new byte[nrows * ncols];
+		for (int r = 0, i = 0; r < nrows; r++) {
+			for (int c = 0; c < ncols; c++, i++) {
+				for (int k = 0; k < neighboursDirection.length; k++) {
+					final int rr = r + NEIGHBOURHOOD.getRowShift(k);
+					final int cc = c + NEIGHBOURHOOD.getColShift(k);
+					if ((0 <= rr) && (nrows > rr) && (0 <= cc) && (ncols > cc)
+							&& (neighboursDirection[k] == slopesDirections[rr
+									* ncols + cc])) {
+						upstreamMasks[i] |= 1 << k;
+					}
+				}
+			}
+		}
+		return upstreamMasks;
 	}
 
-	public float localTransition(float[] rac, int r, int c, int i) {
-		int result = 1;
-		for (int k = 0; k < neighboursIndices.length; k++) {
-			final int ii = i + neighboursIndices[k];
-			final int rr = ii / ncols;
-			final int cc = ii % ncols;
+	private static class Accumulation implements IFloatStencil {
+		private final byte[] upstreamMasks;
 
-			result += (getSlopesDirectionsValue(slopesDirections, rr, cc, ii) == neighboursDirection[k]) ? getRacValue(
-					rac, rr, cc, ii)
-					: 0;
+		Accumulation(final byte[] upstreamMasks) {
+			this.upstreamMasks = upstreamMasks;
 		}
-		return result;
-	}
 
-	private short getSlopesDirectionsValue(short[] v, final int r, final int c,
-			final int i) {
-		return ((0 > r) || (nrows <= r) || (0 > c) || (ncols <= c)) ? -1 : v[i];
-	}
-
-	private float getRacValue(final float[] rac, final int r, final int c,
-			final int i) {
-		return ((0 > r) || (nrows <= r) || (0 > c) || (ncols <= c)) ? Float.NaN
-				: rac[i];
+		public float apply(final float center, final float[] neighbours,
+				final int i) {
+			float result = 1;
+			int mask = upstreamMasks[i] & 0xff;
+			for (; 0 != mask; mask &= mask - 1) {
+				result += neighbours[Integer.numberOfTrailingZeros(mask)];
+			}
+			return result;
+		}
 	}
-}
\ No newline at end of file
+}
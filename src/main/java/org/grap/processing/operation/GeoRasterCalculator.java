@@ -28,12 +28,6 @@
  */
 package org.grap.processing.operation;
 
-import ij.ImagePlus;
-import ij.measure.Calibration;
-import ij.process.ByteProcessor;
-import ij.process.ImageProcessor;
-
-import java.awt.geom.Rectangle2D;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
@@ -41,17 +35,36 @@ import java.util.Map;
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
 import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
 import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
+import org.grap.processing.operation.algebra.AlignedView;
 import org.orbisgis.progress.ProgressMonitor;
 
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * Combines, pixel by pixel, the raster the operation is applied to (a) with a
+ * second one (b) : a + b, a - b, a * b, a / b, (a + b) / 2, |a - b|, the
+ * bitwise and, or and xor of their integer parts, min, max, or b itself for
+ * copy.
+ * 
+ * The result covers the intersection of both rasters, on the grid of a. b may
+ * have another resolution or origin : it is sampled on the grid of the result
+ * while the pixels are computed, without any intermediate raster.
+ * 
+ * The pixels are read and written as floats, by bands of rows in parallel. A
+ * pixel that is a nodataValue pixel of a or b, or whose result is undefined
+ * (division by 0...), is a nodataValue ({@link GeoRaster#FLOAT_NO_DATA_VALUE})
+ * pixel in the result.
+ */
 public class GeoRasterCalculator implements Operation {
 	public static final int ADD = 3, SUBSTRACT = 4, MULTIPLY = 5, DIVIDE = 6,
 			AND = 9, OR = 10, XOR = 11, MIN = 12, MAX = 13, AVERAGE = 7,
 			DIFFERENCE = 8, COPY = 0;
 
+	public final static float ndv = GeoRaster.FLOAT_NO_DATA_VALUE;
+
 	public static Map<String, Integer> operators = new HashMap<String, Integer>();
 	static {
 		operators.put("add", ADD);
@@ -70,79 +83,123 @@ public class GeoRasterCalculator implements Operation {
 
 	private GeoRaster gr2;
 	private int method;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+	private AlignedView.Sampling sampling = AlignedView.Sampling.NEAREST;
 
 	public GeoRasterCalculator(final GeoRaster gr2, final int method) {
 		this.gr2 = gr2;
 		this.method = method;
 	}
 
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	/**
+	 * @param sampling
+	 *            how the second raster is sampled when its grid is not the
+	 *            grid of the result. Nearest neighbour by default.
+	 */
+	public void setSampling(final AlignedView.Sampling sampling) {
+		this.sampling = sampling;
+	}
+
 	public GeoRaster execute(GeoRaster gr1, ProgressMonitor pm)
 			throws OperationException {
 		try {
+			final RasterMetadata gr1Metadata = gr1.getMetadata();
+			final Envelope gr1Envelope = gr1Metadata.getEnvelope();
+			final Envelope gr2Envelope = gr2.getMetadata().getEnvelope();
 
-			RasterMetadata gr1Metadata = gr1.getMetadata();
-			RasterMetadata gr2Metadata = gr2.getMetadata();
-
-			Envelope gr1Envelope = gr1Metadata.getEnvelope();
-			Envelope gr2Envelope = gr2Metadata.getEnvelope();
-
+			// the result has the resolution and the origin of gr1, over the
+			// intersection of both rasters
+			RasterMetadata grResultMetadata = null;
 			if (gr1Envelope.equals(gr2Envelope)) {
-				return applyRasterAlgebra(gr1, gr2);
-
+				grResultMetadata = gr1Metadata;
 			} else if (gr1Envelope.intersects(gr2Envelope)) {
-
-				Envelope grResultEnvelope = gr1Envelope
-						.intersection(gr2Envelope);
-				if (gr1Envelope.contains(gr2Envelope)) {
-
-					gr2 = cropGeoRaster(gr2, grResultEnvelope);
-					return applyRasterAlgebra(gr1, gr2);
-
-				} else if (gr2Envelope.contains(gr1Envelope)) {
-					gr1 = cropGeoRaster(gr1, grResultEnvelope);
-					return applyRasterAlgebra(gr1, gr2);
-
-				} else {
-					gr1 = cropGeoRaster(gr1, grResultEnvelope);
-					gr2 = cropGeoRaster(gr2, grResultEnvelope);
-					return applyRasterAlgebra(gr1, gr2);
-				}
-
+				grResultMetadata = AlignedView.crop(gr1Metadata, gr1Envelope
+						.intersection(gr2Envelope));
+			}
+			if (null == grResultMetadata) {
+				return GeoRasterFactory.createNullGeoRaster();
 			}
+
+			return applyRasterAlgebra(grResultMetadata, new AlignedView(gr1,
+					grResultMetadata, AlignedView.Sampling.NEAREST),
+					new AlignedView(gr2, grResultMetadata, sampling));
 		} catch (IOException e) {
 			throw new OperationException(e);
 		}
-		return GeoRasterFactory.createNullGeoRaster();
 	}
 
-	private GeoRaster applyRasterAlgebra(GeoRaster gr1, GeoRaster gr2)
-			throws IOException {
-		final ImagePlus img1 = gr1.getImagePlus();
-		final ImagePlus img2 = gr2.getImagePlus();
-
-		final ImageProcessor ip1 = img1.getProcessor();
-		final ImageProcessor ip2 = img2.getProcessor();
-		final Calibration cal1 = img1.getCalibration();
-		ip1.copyBits(ip2, 0, 0, method);
-		if (!(ip1 instanceof ByteProcessor)) {
-			ip1.resetMinAndMax();
-		}
-		final ImagePlus img3 = new ImagePlus("Result of "
-				+ img1.getShortTitle(), ip1);
-		img3.setCalibration(cal1);
-
-		return GeoRasterFactory.createGeoRaster(img3, gr1.getMetadata());
-
+	private GeoRaster applyRasterAlgebra(final RasterMetadata rasterMetadata,
+			final AlignedView view1, final AlignedView view2)
+			throws IOException, OperationException {
+		final int ncols = rasterMetadata.getNCols();
+		final float[] result = new float[ncols * rasterMetadata.getNRows()];
+
+		MultiThreads.execute(rasterMetadata.getNRows(), nbOfThreads,
+				new MultiThreads.Chunk() {
+					public void process(final int start, final int end) {
+						final float[] row1 = new float[ncols];
+						final float[] row2 = new float[ncols];
+						for (int r = start; r < end; r++) {
+							view1.getRow(r, row1);
+							view2.getRow(r, row2);
+							final int offset = r * ncols;
+							for (int c = 0; c < ncols; c++) {
+								final float a = row1[c];
+								final float b = row2[c];
+								// the views return NaN for the nodataValue
+								float value = Float.NaN;
+								if (!Float.isNaN(a) && !Float.isNaN(b)) {
+									value = apply(a, b);
+								}
+								if (Float.isNaN(value)
+										|| Float.isInfinite(value)) {
+									value = ndv;
+								}
+								result[offset + c] = value;
+							}
+						}
+					}
+				});
+
+		final GeoRaster grResult = GeoRasterFactory.createGeoRaster(result,
+				rasterMetadata);
+		grResult.setNodataValue(ndv);
+		return grResult;
 	}
 
-	private GeoRaster cropGeoRaster(GeoRaster gr2, Envelope intersection)
-			throws OperationException {
-		Rectangle2D rect = new Rectangle2D.Double(intersection.getMinX(),
-				intersection.getMinY(), intersection.getWidth(), intersection
-						.getHeight());
-
-		GeoRaster ret = gr2.doOperation(new Crop(rect));
-		return ret;
+	private float apply(final float a, final float b) {
+		switch (method) {
+		case COPY:
+			return b;
+		case ADD:
+			return a + b;
+		case SUBSTRACT:
+			return a - b;
+		case MULTIPLY:
+			return a * b;
+		case DIVIDE:
+			return a / b;
+		case AVERAGE:
+			return (a + b) / 2;
+		case DIFFERENCE:
+			return Math.abs(a - b);
+		case AND:
+			return (int) a & (int) b;
+		case OR:
+			return (int) a | (int) b;
+		case XOR:
+			return (int) a ^ (int) b;
+		case MIN:
+			return Math.min(a, b);
+		case MAX:
+			return Math.max(a, b);
+		default:
+			return a;
+		}
 	}
 
 }
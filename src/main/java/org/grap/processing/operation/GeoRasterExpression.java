@@ -0,0 +1,154 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.grap.processing.operation.algebra.AlgebraUtilities;
+import org.grap.processing.operation.algebra.Expression;
+import org.grap.processing.operation.algebra.ExpressionParser;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Map algebra over any number of named rasters, such as
+ * "(nir - red) / (nir + red)" (see {@link ExpressionParser} for the syntax).
+ * The expression is compiled into a tree of operator nodes and evaluated in a
+ * single pass over the pixels, by bands of rows in parallel, instead of one
+ * pass and one intermediate raster per operator.
+ * 
+ * A pixel is a nodataValue pixel of the result if it is a nodataValue pixel of
+ * one of the inputs, or if the expression is undefined (0 / 0, sqrt(-1), 1 /
+ * 0...) for it. The inputs must have the same number of rows and columns than
+ * the raster the operation is applied to, which gives the metadata of the
+ * result.
+ */
+public class GeoRasterExpression implements Operation {
+	public final static float ndv = GeoRaster.FLOAT_NO_DATA_VALUE;
+
+	private final String expression;
+
+	private final Map<String, GeoRaster> inputs;
+
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	/**
+	 * @param expression
+	 * @param inputs
+	 *            the rasters of the expression, by name
+	 * @throws IllegalArgumentException
+	 *             if the expression is not valid or uses an unknown raster
+	 */
+	public GeoRasterExpression(final String expression,
+			final Map<String, GeoRaster> inputs) {
+		this.expression = expression;
+		this.inputs = inputs;
+
+		final ExpressionParser parser = new ExpressionParser(expression);
+		parser.parse();
+		for (Expression.Variable variable : parser.getVariables()) {
+			if (!inputs.containsKey(variable.getName())) {
+				throw new IllegalArgumentException("No raster named "
+						+ variable.getName() + " for \"" + expression + "\"");
+			}
+		}
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	public GeoRaster execute(final GeoRaster gr, final ProgressMonitor pm)
+			throws OperationException {
+		try {
+			final RasterMetadata rasterMetadata = gr.getMetadata();
+			final int nrows = rasterMetadata.getNRows();
+			final int ncols = rasterMetadata.getNCols();
+
+			// a new tree for each execution, bound to the pixels of the inputs
+			final ExpressionParser parser = new ExpressionParser(expression);
+			final Expression root = parser.parse();
+			final List<Expression.Variable> variables = parser.getVariables();
+			final int nbOfInputs = variables.size();
+			final float[][] pixels = new float[nbOfInputs][];
+			final float[] ndvs = new float[nbOfInputs];
+			for (int k = 0; k < nbOfInputs; k++) {
+				final GeoRaster input = inputs.get(variables.get(k).getName());
+				if ((nrows != input.getMetadata().getNRows())
+						|| (ncols != input.getMetadata().getNCols())) {
+					throw new OperationException("The raster "
+							+ variables.get(k).getName()
+							+ " does not have the size of the result");
+				}
+				pixels[k] = AlgebraUtilities.getPixels(input);
+				ndvs[k] = AlgebraUtilities.getNoDataValue(input);
+				variables.get(k).bind(pixels[k]);
+			}
+			if (pm.isCancelled()) {
+				return null;
+			}
+
+			final float[] result = new float[nrows * ncols];
+			MultiThreads.execute(nrows, nbOfThreads,
+					new MultiThreads.Chunk() {
+						public void process(final int start, final int end) {
+							for (int i = start * ncols; i < end * ncols; i++) {
+								result[i] = evaluate(root, pixels, ndvs, i);
+							}
+						}
+					});
+
+			final GeoRaster grResult = GeoRasterFactory.createGeoRaster(
+					result, rasterMetadata);
+			grResult.setNodataValue(ndv);
+			return grResult;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	private static float evaluate(final Expression root,
+			final float[][] pixels, final float[] ndvs, final int i) {
+		for (int k = 0; k < pixels.length; k++) {
+			final float value = pixels[k][i];
+			if (Float.isNaN(value) || (ndvs[k] == value)) {
+				return ndv;
+			}
+		}
+		final float value = root.evaluate(i);
+		return (Float.isNaN(value) || Float.isInfinite(value)) ? ndv : value;
+	}
+}
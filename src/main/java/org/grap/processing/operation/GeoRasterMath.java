@@ -28,26 +28,35 @@
  */
 package org.grap.processing.operation;
 
-import ij.ImagePlus;
-import ij.measure.Calibration;
-import ij.process.ByteProcessor;
-import ij.process.ImageProcessor;
-
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
 import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
+import org.grap.processing.operation.algebra.AlgebraUtilities;
 import org.orbisgis.progress.ProgressMonitor;
 
+/**
+ * Applies a constant value, or a unary function, to every pixel of a raster.
+ * MIN and MAX keep the ImageJ meaning : MIN raises the pixels lower than the
+ * value to the value, MAX lowers the pixels greater than the value.
+ * 
+ * The pixels are read and written as floats, by bands of rows in parallel. A
+ * nodataValue pixel, or a pixel whose result is not finite, is a nodataValue
+ * ({@link GeoRaster#FLOAT_NO_DATA_VALUE}) pixel in the result.
+ */
 public class GeoRasterMath implements Operation {
 	public static final int ADD = 3, SUBSTRACT = 4, MULTIPLY = 5, DIVIDE = 6,
 			AND = 9, MIN = 12, MAX = 13, AVERAGE = 7, DIFFERENCE = 8, OR = 16,
 			XOR = 32, ABS = 128, SQR = 256, SQRT = 512, EXP = 1024;
 
+	public final static float ndv = GeoRaster.FLOAT_NO_DATA_VALUE;
+
 	public static Map<String, Integer> operators = new HashMap<String, Integer>();
 	static {
 		operators.put("abs", ABS);
@@ -68,76 +77,84 @@ public class GeoRasterMath implements Operation {
 
 	private double value;
 
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
 	public GeoRasterMath(final double value, final int method) {
 		this.method = method;
 		this.value = value;
 	}
 
 	public GeoRasterMath(final int method) {
-		new GeoRasterMath(0, method);
+		this(0, method);
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
 	}
 
 	public GeoRaster execute(final GeoRaster gr1, ProgressMonitor pm)
 			throws OperationException {
 		try {
-			final ImagePlus img1 = gr1.getImagePlus();
-
-			final ImageProcessor ip1 = img1.getProcessor();
-			final Calibration cal1 = img1.getCalibration();
-
-			switch (method) {
-			case ADD:
-				ip1.add(value);
-				break;
-			case DIVIDE:
-				ip1.multiply(1.0 / value);
-				break;
-			case MIN:
-				ip1.min(value);
-				break;
-			case MAX:
-				ip1.max(value);
-				break;
-			case MULTIPLY:
-				ip1.multiply(value);
-				break;
-			case SUBSTRACT:
-				ip1.add(-value);
-				break;
-			case OR:
-				ip1.or((int) value);
-				break;
-			case XOR:
-				ip1.xor((int) value);
-				break;
-			case ABS:
-				ip1.abs();
-				break;
-			case EXP:
-				ip1.exp();
-				break;
-			case SQR:
-				ip1.sqr();
-				break;
-			case SQRT:
-				ip1.sqrt();
-				break;
-			default:
-				break;
-			}
-
-			if (!(ip1 instanceof ByteProcessor)) {
-				ip1.resetMinAndMax();
-			}
-			final ImagePlus img3 = new ImagePlus("Result of "
-					+ img1.getShortTitle(), ip1);
-			img3.setCalibration(cal1);
-
-			return GeoRasterFactory.createGeoRaster(img3, gr1.getMetadata());
-
+			final RasterMetadata rasterMetadata = gr1.getMetadata();
+			final int ncols = rasterMetadata.getNCols();
+			final float[] pixels = AlgebraUtilities.getPixels(gr1);
+			final float gr1Ndv = AlgebraUtilities.getNoDataValue(gr1);
+			final float[] result = new float[pixels.length];
+
+			MultiThreads.execute(rasterMetadata.getNRows(), nbOfThreads,
+					new MultiThreads.Chunk() {
+						public void process(final int start, final int end) {
+							for (int i = start * ncols; i < end * ncols; i++) {
+								final float a = pixels[i];
+								if (Float.isNaN(a) || (gr1Ndv == a)) {
+									result[i] = ndv;
+								} else {
+									final float v = apply(a);
+									result[i] = (Float.isNaN(v) || Float
+											.isInfinite(v)) ? ndv : v;
+								}
+							}
+						}
+					});
+
+			final GeoRaster grResult = GeoRasterFactory.createGeoRaster(
+					result, rasterMetadata);
+			grResult.setNodataValue(ndv);
+			return grResult;
 		} catch (IOException e) {
 			throw new OperationException(e);
 		}
 	}
 
+	private float apply(final float a) {
+		switch (method) {
+		case ADD:
+			return (float) (a + value);
+		case SUBSTRACT:
+			return (float) (a - value);
+		case MULTIPLY:
+			return (float) (a * value);
+		case DIVIDE:
+			return (float) (a * (1.0 / value));
+		case MIN:
+			return (a < value) ? (float) value : a;
+		case MAX:
+			return (a > value) ? (float) value : a;
+		case OR:
+			return (int) a | (int) value;
+		case XOR:
+			return (int) a ^ (int) value;
+		case ABS:
+			return Math.abs(a);
+		case EXP:
+			return (float) Math.exp(a);
+		case SQR:
+			return a * a;
+		case SQRT:
+			return (a <= 0) ? 0 : (float) Math.sqrt(a);
+		default:
+			return a;
+		}
+	}
+
 }
@@ -52,7 +52,11 @@ public class Identity implements Operation {
 
 			final ICA ca = new CAFIdentity(pixels, nrows, ncols);
 			final ICAN ccan = CANFactory.createCAN(ca);
+			ccan.setProgressMonitor(pm);
 			ccan.getStableState();
+			if (pm.isCancelled()) {
+				return null;
+			}
 
 			return GeoRasterFactory.createGeoRaster((float[]) ccan
 					.getCANValues(), rasterMetadata);
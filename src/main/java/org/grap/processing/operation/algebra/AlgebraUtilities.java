@@ -0,0 +1,98 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.algebra;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+
+/**
+ * Direct access to the pixels of the map algebra inputs, without ImageJ
+ * operations.
+ */
+public class AlgebraUtilities {
+	/**
+	 * @param gr
+	 * @return the pixels of gr as floats, in rows order. The pixels of a float
+	 *         raster are not copied and must not be modified. The nodataValue
+	 *         pixels are equal to {@link #getNoDataValue(GeoRaster)} or NaN.
+	 * @throws IOException
+	 */
+	public static float[] getPixels(final GeoRaster gr) throws IOException {
+		final ImagePlus imagePlus = gr.getImagePlus();
+		final ImageProcessor processor = imagePlus.getProcessor();
+		if (ImagePlus.GRAY32 == imagePlus.getType()) {
+			return (float[]) processor.getPixels();
+		}
+
+		final int nrows = gr.getMetadata().getNRows();
+		final int ncols = gr.getMetadata().getNCols();
+		final float[] pixels = new float[nrows * ncols];
+		final boolean hasNoData = !Double.isNaN(gr.getNoDataValue());
+		final Object raw = processor.getPixels();
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				if (hasNoData && isNoData(raw, i)) {
+					pixels[i] = Float.NaN;
+				} else {
+					pixels[i] = processor.getPixelValue(x, y);
+				}
+			}
+		}
+		return pixels;
+	}
+
+	/**
+	 * @param gr
+	 * @return the value of the nodataValue pixels returned by
+	 *         {@link #getPixels(GeoRaster)} besides NaN : the nodataValue
+	 *         pixels of a float raster are set to
+	 *         {@link GeoRaster#FLOAT_NO_DATA_VALUE} by its ImagePlus.
+	 * @throws IOException
+	 */
+	public static float getNoDataValue(final GeoRaster gr) throws IOException {
+		if ((ImagePlus.GRAY32 == gr.getType())
+				&& !Double.isNaN(gr.getNoDataValue())) {
+			return GeoRaster.FLOAT_NO_DATA_VALUE;
+		}
+		return Float.NaN;
+	}
+
+	private static boolean isNoData(final Object raw, final int i) {
+		if (raw instanceof short[]) {
+			return GeoRaster.SHORT_NO_DATA_VALUE == ((short[]) raw)[i];
+		} else if (raw instanceof byte[]) {
+			return GeoRaster.BYTE_NO_DATA_VALUE == ((byte[]) raw)[i];
+		}
+		return false;
+	}
+}
@@ -0,0 +1,241 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.algebra;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+
+import com.vividsolutions.jts.geom.Envelope;
+
+/**
+ * A source raster seen through the grid of a target raster : the pixels of
+ * the target are mapped onto the source with the transforms of their
+ * metadata and sampled on demand, whatever the resolution and the origin of
+ * both grids. Nothing is copied but the pixels of a non float source.
+ * 
+ * When both grids share the same resolution and their origins are a whole
+ * number of pixels apart, the target rows are read directly from the source
+ * at a row and column offset.
+ * 
+ * A target pixel whose center falls outside of the source, or which is
+ * sampled from a nodataValue pixel, is NaN.
+ */
+public class AlignedView {
+	public enum Sampling {
+		NEAREST, BILINEAR
+	}
+
+	// below this distance a pixel coordinate is an exact pixel center
+	private final static double EPSILON = 1e-6;
+
+	private final float[] pixels;
+
+	private final float ndv;
+
+	private final int ncols;
+
+	private final int nrows;
+
+	private final Sampling sampling;
+
+	// target pixel coordinates to source pixel coordinates
+	private final double m00, m01, m02, m10, m11, m12;
+
+	private final boolean aligned;
+
+	private final int colOffset, rowOffset;
+
+	/**
+	 * @param source
+	 * @param target
+	 *            the grid the source is sampled on
+	 * @param sampling
+	 * @throws IOException
+	 */
+	public AlignedView(final GeoRaster source, final RasterMetadata target,
+			final Sampling sampling) throws IOException {
+		final RasterMetadata metadata = source.getMetadata();
+		this.pixels = AlgebraUtilities.getPixels(source);
+		this.ndv = AlgebraUtilities.getNoDataValue(source);
+		this.ncols = metadata.getNCols();
+		this.nrows = metadata.getNRows();
+		this.sampling = sampling;
+
+		final AffineTransform transform;
+		try {
+			transform = metadata.getAffineTransform().createInverse();
+		} catch (NoninvertibleTransformException e) {
+			throw new IllegalArgumentException(e);
+		}
+		transform.concatenate(target.getAffineTransform());
+		m00 = snap(transform.getScaleX());
+		m01 = snap(transform.getShearX());
+		m02 = snap(transform.getTranslateX());
+		m10 = snap(transform.getShearY());
+		m11 = snap(transform.getScaleY());
+		m12 = snap(transform.getTranslateY());
+		// the translation has been snapped : a whole number of pixels is exact
+		aligned = (1 == m00) && (0 == m01) && (0 == m10) && (1 == m11)
+				&& (Math.rint(m02) == m02) && (Math.rint(m12) == m12);
+		colOffset = aligned ? (int) m02 : 0;
+		rowOffset = aligned ? (int) m12 : 0;
+	}
+
+	/**
+	 * @return true if each pixel of the target grid is a pixel of the source
+	 *         grid, or lies outside of it
+	 */
+	public boolean isAligned() {
+		return aligned;
+	}
+
+	/**
+	 * @param col
+	 * @param row
+	 * @return the value of the target pixel (col, row)
+	 */
+	public float get(final int col, final int row) {
+		return sample(m00 * col + m01 * row + m02, m10 * col + m11 * row
+				+ m12);
+	}
+
+	/**
+	 * Samples a row of the target grid. May be called concurrently.
+	 * 
+	 * @param row
+	 * @param values
+	 *            filled with the values of the pixels 0 to values.length - 1
+	 *            of the target row
+	 */
+	public void getRow(final int row, final float[] values) {
+		if (aligned) {
+			// the target pixels start to end - 1 are inside of the source
+			final int srcRow = row + rowOffset;
+			int start = values.length;
+			if ((0 <= srcRow) && (nrows > srcRow)) {
+				start = Math.min(values.length, Math.max(0, -colOffset));
+			}
+			final int end = Math.max(start, Math.min(values.length, ncols
+					- colOffset));
+			Arrays.fill(values, 0, start, Float.NaN);
+			final int offset = srcRow * ncols + colOffset;
+			for (int col = start; col < end; col++) {
+				final float value = pixels[offset + col];
+				values[col] = (ndv == value) ? Float.NaN : value;
+			}
+			Arrays.fill(values, end, values.length, Float.NaN);
+		} else {
+			double x = m01 * row + m02;
+			double y = m11 * row + m12;
+			for (int col = 0; col < values.length; col++, x += m00, y += m10) {
+				values[col] = sample(x, y);
+			}
+		}
+	}
+
+	/**
+	 * @param grid
+	 * @param envelope
+	 * @return the pixels of the grid whose center is in the envelope, or null
+	 *         if there is none. The rotation of the grid is ignored.
+	 */
+	public static RasterMetadata crop(final RasterMetadata grid,
+			final Envelope envelope) {
+		final Envelope gridEnvelope = grid.getEnvelope();
+		final double width = Math.abs(grid.getPixelSize_X());
+		final double height = Math.abs(grid.getPixelSize_Y());
+		final int minCol = Math.max(0, (int) Math.ceil((envelope.getMinX()
+				- gridEnvelope.getMinX()) / width - 0.5 - EPSILON));
+		final int maxCol = Math.min(grid.getNCols() - 1, (int) Math
+				.floor((envelope.getMaxX() - gridEnvelope.getMinX()) / width
+						- 0.5 + EPSILON));
+		final int minRow = Math.max(0, (int) Math.ceil((gridEnvelope
+				.getMaxY() - envelope.getMaxY())
+				/ height - 0.5 - EPSILON));
+		final int maxRow = Math.min(grid.getNRows() - 1, (int) Math
+				.floor((gridEnvelope.getMaxY() - envelope.getMinY()) / height
+						- 0.5 + EPSILON));
+		if ((minCol > maxCol) || (minRow > maxRow)) {
+			return null;
+		}
+		return new RasterMetadata(grid.getXulcorner() + minCol
+				* grid.getPixelSize_X(), grid.getYulcorner() + minRow
+				* grid.getPixelSize_Y(), grid.getPixelSize_X(), grid
+				.getPixelSize_Y(), maxCol - minCol + 1, maxRow - minRow + 1,
+				grid.getRotation_Y(), grid.getRotation_X(), grid
+						.getNoDataValue());
+	}
+
+	private float sample(final double x, final double y) {
+		if ((x < -0.5) || (x >= ncols - 0.5) || (y < -0.5)
+				|| (y >= nrows - 0.5)) {
+			return Float.NaN;
+		}
+		if (Sampling.NEAREST == sampling) {
+			return getPixel((int) Math.round(x), (int) Math.round(y));
+		}
+
+		// the pixels of the border are extended by half a pixel
+		final double cx = Math.min(Math.max(snap(x), 0), ncols - 1);
+		final double cy = Math.min(Math.max(snap(y), 0), nrows - 1);
+		final int col = (int) cx;
+		final int row = (int) cy;
+		final double dx = cx - col;
+		final double dy = cy - row;
+		// the neighbours with a null weight are not read : they may be
+		// nodataValue pixels or outside of the grid
+		double value = getPixel(col, row);
+		if (0 != dx) {
+			value = value * (1 - dx) + getPixel(col + 1, row) * dx;
+		}
+		if (0 != dy) {
+			double below = getPixel(col, row + 1);
+			if (0 != dx) {
+				below = below * (1 - dx) + getPixel(col + 1, row + 1) * dx;
+			}
+			value = value * (1 - dy) + below * dy;
+		}
+		return (float) value;
+	}
+
+	private float getPixel(final int col, final int row) {
+		final float value = pixels[row * ncols + col];
+		return (ndv == value) ? Float.NaN : value;
+	}
+
+	private static double snap(final double value) {
+		final double rounded = Math.rint(value);
+		return (Math.abs(value - rounded) < EPSILON) ? rounded : value;
+	}
+}
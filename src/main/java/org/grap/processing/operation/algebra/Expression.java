@@ -0,0 +1,339 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.algebra;
+
+/**
+ * A node of a compiled map algebra expression (see {@link ExpressionParser}).
+ * Each operator is its own subclass, so that evaluating a pixel is a walk
+ * through the tree of nodes, without any operator dispatch nor boxing.
+ * Comparisons and if() use 1 for true and 0 for false.
+ */
+public abstract class Expression {
+	/**
+	 * @param i
+	 *            the index of the pixel
+	 * @return the value of the expression for pixel i
+	 */
+	public abstract float evaluate(final int i);
+
+	boolean isConstant() {
+		return false;
+	}
+
+	/* leaves */
+	static class Constant extends Expression {
+		private final float value;
+
+		Constant(final float value) {
+			this.value = value;
+		}
+
+		public float evaluate(final int i) {
+			return value;
+		}
+
+		boolean isConstant() {
+			return true;
+		}
+	}
+
+	/**
+	 * A named input raster, whose pixels are read from the primitive array
+	 * bound before the evaluation.
+	 */
+	public static class Variable extends Expression {
+		private final String name;
+
+		private float[] values;
+
+		Variable(final String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public void bind(final float[] values) {
+			this.values = values;
+		}
+
+		public float evaluate(final int i) {
+			return values[i];
+		}
+	}
+
+	/* operators */
+	abstract static class Unary extends Expression {
+		final Expression operand;
+
+		Unary(final Expression operand) {
+			this.operand = operand;
+		}
+
+		boolean isConstant() {
+			return operand.isConstant();
+		}
+	}
+
+	abstract static class Binary extends Expression {
+		final Expression left;
+
+		final Expression right;
+
+		Binary(final Expression left, final Expression right) {
+			this.left = left;
+			this.right = right;
+		}
+
+		boolean isConstant() {
+			return left.isConstant() && right.isConstant();
+		}
+	}
+
+	static Expression negate(final Expression operand) {
+		return new Unary(operand) {
+			public float evaluate(final int i) {
+				return -operand.evaluate(i);
+			}
+		};
+	}
+
+	/**
+	 * @param operator
+	 *            one of + - * / % ^ < <= > >= == !=
+	 * @return null for an unknown operator
+	 */
+	static Expression binary(final String operator, final Expression left,
+			final Expression right) {
+		if ("+".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return left.evaluate(i) + right.evaluate(i);
+				}
+			};
+		} else if ("-".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return left.evaluate(i) - right.evaluate(i);
+				}
+			};
+		} else if ("*".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return left.evaluate(i) * right.evaluate(i);
+				}
+			};
+		} else if ("/".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return left.evaluate(i) / right.evaluate(i);
+				}
+			};
+		} else if ("%".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return left.evaluate(i) % right.evaluate(i);
+				}
+			};
+		} else if ("^".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (float) Math.pow(left.evaluate(i), right
+							.evaluate(i));
+				}
+			};
+		} else if ("<".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (left.evaluate(i) < right.evaluate(i)) ? 1 : 0;
+				}
+			};
+		} else if ("<=".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (left.evaluate(i) <= right.evaluate(i)) ? 1 : 0;
+				}
+			};
+		} else if (">".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (left.evaluate(i) > right.evaluate(i)) ? 1 : 0;
+				}
+			};
+		} else if (">=".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (left.evaluate(i) >= right.evaluate(i)) ? 1 : 0;
+				}
+			};
+		} else if ("==".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (left.evaluate(i) == right.evaluate(i)) ? 1 : 0;
+				}
+			};
+		} else if ("!=".equals(operator)) {
+			return new Binary(left, right) {
+				public float evaluate(final int i) {
+					return (left.evaluate(i) != right.evaluate(i)) ? 1 : 0;
+				}
+			};
+		}
+		return null;
+	}
+
+	/**
+	 * @param name
+	 *            abs, sqrt, exp, log, log10, sin, cos, tan, atan, floor,
+	 *            ceil, round, min, max, pow or if
+	 * @return null for an unknown function or a wrong number of arguments
+	 */
+	static Expression function(final String name, final Expression[] args) {
+		if (1 == args.length) {
+			return function1(name, args[0]);
+		} else if (2 == args.length) {
+			return function2(name, args[0], args[1]);
+		} else if ((3 == args.length) && "if".equals(name)) {
+			final Expression condition = args[0];
+			final Expression ifTrue = args[1];
+			final Expression ifFalse = args[2];
+			return new Expression() {
+				public float evaluate(final int i) {
+					return (0 != condition.evaluate(i)) ? ifTrue.evaluate(i)
+							: ifFalse.evaluate(i);
+				}
+
+				boolean isConstant() {
+					return condition.isConstant() && ifTrue.isConstant()
+							&& ifFalse.isConstant();
+				}
+			};
+		}
+		return null;
+	}
+
+	private static Expression function1(final String name,
+			final Expression arg) {
+		if ("abs".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return Math.abs(operand.evaluate(i));
+				}
+			};
+		} else if ("sqrt".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.sqrt(operand.evaluate(i));
+				}
+			};
+		} else if ("exp".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.exp(operand.evaluate(i));
+				}
+			};
+		} else if ("log".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.log(operand.evaluate(i));
+				}
+			};
+		} else if ("log10".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.log10(operand.evaluate(i));
+				}
+			};
+		} else if ("sin".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.sin(operand.evaluate(i));
+				}
+			};
+		} else if ("cos".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.cos(operand.evaluate(i));
+				}
+			};
+		} else if ("tan".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.tan(operand.evaluate(i));
+				}
+			};
+		} else if ("atan".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.atan(operand.evaluate(i));
+				}
+			};
+		} else if ("floor".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.floor(operand.evaluate(i));
+				}
+			};
+		} else if ("ceil".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.ceil(operand.evaluate(i));
+				}
+			};
+		} else if ("round".equals(name)) {
+			return new Unary(arg) {
+				public float evaluate(final int i) {
+					return (float) Math.rint(operand.evaluate(i));
+				}
+			};
+		}
+		return null;
+	}
+
+	private static Expression function2(final String name,
+			final Expression arg0, final Expression arg1) {
+		if ("min".equals(name)) {
+			return new Binary(arg0, arg1) {
+				public float evaluate(final int i) {
+					return Math.min(left.evaluate(i), right.evaluate(i));
+				}
+			};
+		} else if ("max".equals(name)) {
+			return new Binary(arg0, arg1) {
+				public float evaluate(final int i) {
+					return Math.max(left.evaluate(i), right.evaluate(i));
+				}
+			};
+		} else if ("pow".equals(name)) {
+			return binary("^", arg0, arg1);
+		}
+		return null;
+	}
+}
@@ -0,0 +1,266 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.algebra;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Recursive descent parser of the map algebra expressions, such as
+ * "(nir - red) / (nir + red)" or "if(dem > 100, dem - 100, 0)". The grammar is,
+ * from the lowest to the highest priority :
+ * 
+ * comparison : sum [ (< | <= | > | >= | == | !=) sum ]
+ * 
+ * sum : product { (+ | -) product }
+ * 
+ * product : unary { (* | / | %) unary }
+ * 
+ * unary : - unary | power
+ * 
+ * power : primary [ ^ unary ]
+ * 
+ * primary : number | name | name ( comparison { , comparison } ) | (
+ * comparison )
+ * 
+ * Names that are not followed by an opening parenthesis are the input
+ * rasters. The constant sub-expressions are evaluated once, by the parser.
+ */
+public class ExpressionParser {
+	private final String text;
+
+	private int pos;
+
+	private final Map<String, Expression.Variable> variables = new LinkedHashMap<String, Expression.Variable>();
+
+	public ExpressionParser(final String text) {
+		this.text = text;
+	}
+
+	/**
+	 * @return the root of the expression tree
+	 * @throws IllegalArgumentException
+	 *             if the expression is not valid
+	 */
+	public Expression parse() {
+		pos = 0;
+		variables.clear();
+		final Expression result = parseComparison();
+		skipSpaces();
+		if (pos < text.length()) {
+			throw error("Unexpected '" + text.charAt(pos) + "'");
+		}
+		return result;
+	}
+
+	/**
+	 * @return the input rasters of the last parsed expression, in the order of
+	 *         their first occurrence. Each name has a single node, to be bound
+	 *         to its pixels before the evaluation.
+	 */
+	public List<Expression.Variable> getVariables() {
+		return new ArrayList<Expression.Variable>(variables.values());
+	}
+
+	private Expression parseComparison() {
+		final Expression left = parseSum();
+		skipSpaces();
+		String operator = null;
+		for (String candidate : new String[] { "<=", ">=", "==", "!=", "<",
+				">" }) {
+			if (text.startsWith(candidate, pos)) {
+				operator = candidate;
+				break;
+			}
+		}
+		if (null == operator) {
+			return left;
+		}
+		pos += operator.length();
+		return fold(Expression.binary(operator, left, parseSum()));
+	}
+
+	private Expression parseSum() {
+		Expression result = parseProduct();
+		while (true) {
+			skipSpaces();
+			if (accept('+')) {
+				result = fold(Expression.binary("+", result, parseProduct()));
+			} else if (accept('-')) {
+				result = fold(Expression.binary("-", result, parseProduct()));
+			} else {
+				return result;
+			}
+		}
+	}
+
+	private Expression parseProduct() {
+		Expression result = parseUnary();
+		while (true) {
+			skipSpaces();
+			if (accept('*')) {
+				result = fold(Expression.binary("*", result, parseUnary()));
+			} else if (accept('/')) {
+				result = fold(Expression.binary("/", result, parseUnary()));
+			} else if (accept('%')) {
+				result = fold(Expression.binary("%", result, parseUnary()));
+			} else {
+				return result;
+			}
+		}
+	}
+
+	private Expression parseUnary() {
+		skipSpaces();
+		if (accept('-')) {
+			return fold(Expression.negate(parseUnary()));
+		}
+		final Expression base = parsePrimary();
+		skipSpaces();
+		if (accept('^')) {
+			return fold(Expression.binary("^", base, parseUnary()));
+		}
+		return base;
+	}
+
+	private Expression parsePrimary() {
+		skipSpaces();
+		if (pos >= text.length()) {
+			throw error("Unexpected end of expression");
+		}
+		final char c = text.charAt(pos);
+		if (accept('(')) {
+			final Expression result = parseComparison();
+			expect(')');
+			return result;
+		} else if (Character.isDigit(c) || ('.' == c)) {
+			return parseNumber();
+		} else if (Character.isLetter(c) || ('_' == c)) {
+			final int start = pos;
+			while (Character.isLetterOrDigit(peek()) || ('_' == peek())) {
+				pos++;
+			}
+			final String name = text.substring(start, pos);
+			skipSpaces();
+			if (accept('(')) {
+				return parseFunction(name, start);
+			}
+			Expression.Variable variable = variables.get(name);
+			if (null == variable) {
+				variable = new Expression.Variable(name);
+				variables.put(name, variable);
+			}
+			return variable;
+		}
+		throw error("Unexpected '" + c + "'");
+	}
+
+	private Expression parseFunction(final String name, final int start) {
+		final List<Expression> args = new ArrayList<Expression>();
+		skipSpaces();
+		if (!accept(')')) {
+			do {
+				args.add(parseComparison());
+				skipSpaces();
+			} while (accept(','));
+			expect(')');
+		}
+		final Expression result = Expression.function(name, args
+				.toArray(new Expression[args.size()]));
+		if (null == result) {
+			pos = start;
+			throw error("Unknown function " + name + " with " + args.size()
+					+ " argument(s)");
+		}
+		return fold(result);
+	}
+
+	private Expression parseNumber() {
+		final int start = pos;
+		while (Character.isDigit(peek()) || ('.' == peek())) {
+			pos++;
+		}
+		if ('e' == Character.toLowerCase(peek())) {
+			pos++;
+			if (('+' == peek()) || ('-' == peek())) {
+				pos++;
+			}
+			while (Character.isDigit(peek())) {
+				pos++;
+			}
+		}
+		try {
+			return new Expression.Constant(Float.parseFloat(text.substring(
+					start, pos)));
+		} catch (NumberFormatException e) {
+			pos = start;
+			throw error("Invalid number");
+		}
+	}
+
+	private Expression fold(final Expression expression) {
+		return expression.isConstant() ? new Expression.Constant(expression
+				.evaluate(0)) : expression;
+	}
+
+	private void skipSpaces() {
+		while (Character.isWhitespace(peek())) {
+			pos++;
+		}
+	}
+
+	/**
+	 * @return the current character, 0 at the end of the expression
+	 */
+	private char peek() {
+		return (pos < text.length()) ? text.charAt(pos) : 0;
+	}
+
+	private boolean accept(final char c) {
+		if ((0 != c) && (c == peek())) {
+			pos++;
+			return true;
+		}
+		return false;
+	}
+
+	private void expect(final char c) {
+		skipSpaces();
+		if (!accept(c)) {
+			throw error("'" + c + "' expected");
+		}
+	}
+
+	private IllegalArgumentException error(final String message) {
+		return new IllegalArgumentException(message + " at position " + pos
+				+ " of \"" + text + "\"");
+	}
+}
@@ -0,0 +1,317 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+import java.util.Stack;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+
+/**
+ * Compact D8 flow directions grid. Each cell is stored as a single byte using
+ * the same TauDEM coding than the one produced by {@link D8OpDirection} :
+ * 
+ * 4 | 3 | 2
+ * 
+ * 5 | X | 1
+ * 
+ * 6 | 7 | 8
+ * 
+ * sink and flat areas pixels are equal to {@link #INDECISION} and nodataValue
+ * pixels are equal to {@link #NO_DATA}.
+ * 
+ * The downstream cell of a given cell is retrieved thanks to a precomputed
+ * neighbour offsets table (one entry per direction code), so that no
+ * (x, y) decoding nor boxing is needed to walk along a hydrological path.
+ */
+public class D8FlowDirections {
+	public final static byte NO_DATA = 0;
+	public final static byte INDECISION = -1;
+
+	/* column and row shifts, indexed by the direction code (0 is unused) */
+	public final static int[] DX = new int[] { 0, 1, 1, 0, -1, -1, -1, 0, 1 };
+	public final static int[] DY = new int[] { 0, 0, -1, -1, -1, 0, 1, 1, 1 };
+
+	/* direction code of a neighbour that flows towards the central cell */
+	public final static byte[] OPPOSITE = new byte[] { 0, 5, 6, 7, 8, 1, 2, 3,
+			4 };
+
+	private final byte[] directions;
+	private final int ncols;
+	private final int nrows;
+	private final RasterMetadata rasterMetadata;
+	private final float ndv;
+
+	private final int[] offsets;
+	private final float[] distances;
+
+	public D8FlowDirections(final byte[] directions,
+			final RasterMetadata rasterMetadata, final float ndv) {
+		this.directions = directions;
+		this.rasterMetadata = rasterMetadata;
+		this.ndv = ndv;
+		ncols = rasterMetadata.getNCols();
+		nrows = rasterMetadata.getNRows();
+
+		offsets = new int[9];
+		for (int k = 1; k <= 8; k++) {
+			offsets[k] = DY[k] * ncols + DX[k];
+		}
+
+		final float cellWidth = rasterMetadata.getPixelSize_X();
+		final float cellHeight = Math.abs(rasterMetadata.getPixelSize_Y());
+		final float hypotenuse = (float) Math.sqrt(cellWidth * cellWidth
+				+ cellHeight * cellHeight);
+		distances = new float[] { 0, cellWidth, hypotenuse, cellHeight,
+				hypotenuse, cellWidth, hypotenuse, cellHeight, hypotenuse };
+	}
+
+	/**
+	 * Builds a compact flow directions grid from a D8 directions GeoRaster
+	 * (such as the one produced by {@link D8OpDirection}).
+	 * 
+	 * @param direction
+	 * @return
+	 * @throws IOException
+	 */
+	public static D8FlowDirections fromGeoRaster(final GeoRaster direction)
+			throws IOException {
+		final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
+				direction);
+		final RasterMetadata rasterMetadata = direction.getMetadata();
+		final int nrows = rasterMetadata.getNRows();
+		final int ncols = rasterMetadata.getNCols();
+		final byte[] directions = new byte[nrows * ncols];
+
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				directions[i] = toCode(hydrologyUtilities.getPixelValue(x, y));
+			}
+		}
+		return new D8FlowDirections(directions, rasterMetadata,
+				hydrologyUtilities.ndv);
+	}
+
+	/**
+	 * Converts a D8 direction value (as returned by
+	 * {@link HydrologyUtilities#getD8Direction(int, int)}) into its byte code.
+	 * 
+	 * @param direction
+	 * @return
+	 */
+	public static byte toCode(final float direction) {
+		if (Float.isNaN(direction)) {
+			return NO_DATA;
+		} else if ((direction >= 1) && (direction <= 8)) {
+			return (byte) direction;
+		} else {
+			return INDECISION;
+		}
+	}
+
+	/**
+	 * Converts back the compact flow directions grid into a float GeoRaster
+	 * that can be handled by the other grap operations.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	public GeoRaster toGeoRaster() throws IOException {
+		final float[] pixels = new float[directions.length];
+		for (int i = 0; i < directions.length; i++) {
+			pixels[i] = (NO_DATA == directions[i]) ? ndv : directions[i];
+		}
+		final GeoRaster grDirections = GeoRasterFactory.createGeoRaster(pixels,
+				rasterMetadata);
+		grDirections.setNodataValue(ndv);
+		return grDirections;
+	}
+
+	public byte[] getDirections() {
+		return directions;
+	}
+
+	public byte getDirection(final int i) {
+		return directions[i];
+	}
+
+	public int getNCols() {
+		return ncols;
+	}
+
+	public int getNRows() {
+		return nrows;
+	}
+
+	public int getNbCells() {
+		return directions.length;
+	}
+
+	public RasterMetadata getMetadata() {
+		return rasterMetadata;
+	}
+
+	public float getNoDataValue() {
+		return ndv;
+	}
+
+	public boolean isNoData(final int i) {
+		return NO_DATA == directions[i];
+	}
+
+	public boolean isABorder(final int x, final int y) {
+		return (0 == x) || (ncols - 1 == x) || (0 == y) || (nrows - 1 == y);
+	}
+
+	/**
+	 * @param i
+	 * @return true if cell i is a nodataValue or a border cell, that is to say
+	 *         a cell that does not belong to any hydrological path
+	 */
+	public boolean isOutside(final int i) {
+		return isNoData(i) || isABorder(i % ncols, i / ncols);
+	}
+
+	/**
+	 * @return the data cells whose hydrological path ends on themselves
+	 *         (sinks, flat areas, or cells that flow into a nodataValue or a
+	 *         border cell), in index order
+	 */
+	public int[] getTerminalCells() {
+		int nbOfTerminalCells = 0;
+		int[] terminalCells = new int[16];
+		for (int i = 0; i < directions.length; i++) {
+			if (!isOutside(i)) {
+				final int next = getDownstream(i);
+				if ((-1 == next) || isOutside(next)) {
+					if (nbOfTerminalCells == terminalCells.length) {
+						final int[] tmp = new int[2 * nbOfTerminalCells];
+						System.arraycopy(terminalCells, 0, tmp, 0,
+								nbOfTerminalCells);
+						terminalCells = tmp;
+					}
+					terminalCells[nbOfTerminalCells++] = i;
+				}
+			}
+		}
+		final int[] result = new int[nbOfTerminalCells];
+		System.arraycopy(terminalCells, 0, result, 0, nbOfTerminalCells);
+		return result;
+	}
+
+	/**
+	 * @param code
+	 * @return the index shift towards the neighbour pointed by the given
+	 *         direction code
+	 */
+	public int getOffset(final int code) {
+		return offsets[code];
+	}
+
+	/**
+	 * @param i
+	 * @return the length of the D8 step from cell i towards its downstream
+	 *         cell, 0 for a sink, a flat area or a nodataValue cell
+	 */
+	public float getDistance(final int i) {
+		final byte code = directions[i];
+		return (code > 0) ? distances[code] : 0f;
+	}
+
+	/**
+	 * @param i
+	 * @return the index of the cell that receives the flow of cell i, or -1 if
+	 *         cell i is a nodataValue, a sink, a flat area or flows outside of
+	 *         the grid
+	 */
+	public int getDownstream(final int i) {
+		final byte code = directions[i];
+		if (code <= 0) {
+			return -1;
+		}
+		final int x = i % ncols + DX[code];
+		final int next = i + offsets[code];
+		if ((0 > x) || (ncols <= x) || (0 > next) || (directions.length <= next)) {
+			return -1;
+		}
+		return next;
+	}
+
+	/**
+	 * Fills the given buffer (of length 8 at least) with the indices of the
+	 * neighbours of cell i that flow into it.
+	 * 
+	 * @param i
+	 * @param upstream
+	 * @return the number of upstream neighbours
+	 */
+	public int getUpstream(final int i, final int[] upstream) {
+		final int x = i % ncols;
+		int nb = 0;
+		for (int k = 1; k <= 8; k++) {
+			final int xx = x + DX[k];
+			final int j = i + offsets[k];
+			if ((0 <= xx) && (ncols > xx) && (0 <= j)
+					&& (directions.length > j)
+					&& (OPPOSITE[k] == directions[j])) {
+				upstream[nb++] = j;
+			}
+		}
+		return nb;
+	}
+
+	/**
+	 * Same as
+	 * {@link HydrologyUtilities#shortHydrologicalPath(int, Stack, float[], float)}
+	 * but using the compact directions grid.
+	 * 
+	 * @param idx
+	 * @param path
+	 * @param values
+	 * @param threshold
+	 * @return
+	 */
+	public HydroCell shortHydrologicalPath(final int idx,
+			final Stack<HydroCell> path, final float[] values,
+			final float threshold) {
+		int curCellIdx = idx;
+		do {
+			path.add(new HydroCell(curCellIdx, getDistance(curCellIdx)));
+			curCellIdx = getDownstream(curCellIdx);
+
+			if ((-1 != curCellIdx) && (threshold <= values[curCellIdx])) {
+				// this is a breaking condition
+				return new HydroCell(curCellIdx, values[curCellIdx]);
+			}
+		} while (-1 != curCellIdx);
+		return null;
+	}
+}
@@ -0,0 +1,185 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Computes flow distances (along the D8 hydrological paths) towards a set of
+ * target cells, in a single upstream traversal started from the terminal
+ * cells of the flow directions grid. The distance of a cell is the one of its
+ * downstream cell plus the length of its own D8 step (see
+ * {@link D8FlowDirections#getDistance(int)}); the distance of a target cell
+ * is 0.
+ * 
+ * The same traversal computes the Height Above the Nearest Drainage (see
+ * {@link #getHeightsAboveTargets(float[], boolean[], ProgressMonitor)}).
+ * 
+ * Each basin (all the cells that drain to the same terminal cell) is
+ * traversed independently, so that the basins are shared between several
+ * threads (see {@link D8ReverseFlowGraph#visitBasins}).
+ */
+public class D8FlowDistances {
+	private final D8FlowDirections flowDirections;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	public D8FlowDistances(final D8FlowDirections flowDirections) {
+		this.flowDirections = flowDirections;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	/**
+	 * @param pm
+	 * @return the flow distance of each cell to its outlet (the terminal cell
+	 *         of its hydrological path), null if cancelled
+	 * @throws OperationException
+	 */
+	public float[] getDistancesToTheOutlet(final ProgressMonitor pm)
+			throws OperationException {
+		return getDistancesToTargets(null, true, pm);
+	}
+
+	/**
+	 * @param targets
+	 *            the target cells (lakes, rivers...), null for none
+	 * @param toTheOutletOtherwise
+	 *            if true, a cell that does not drain to any target receives
+	 *            its distance to the outlet, otherwise it receives NaN
+	 * @param pm
+	 * @return the flow distance of each cell to the first target cell met
+	 *         along its hydrological path, null if cancelled. The nodataValue
+	 *         and border cells are equal to the nodataValue of the flow
+	 *         directions grid
+	 * @throws OperationException
+	 */
+	public float[] getDistancesToTargets(final boolean[] targets,
+			final boolean toTheOutletOtherwise, final ProgressMonitor pm)
+			throws OperationException {
+		final int nbCells = flowDirections.getNbCells();
+		final float[] distances = new float[nbCells];
+		final float ndv = flowDirections.getNoDataValue();
+
+		for (int i = 0; i < nbCells; i++) {
+			if (flowDirections.isOutside(i)) {
+				distances[i] = ndv;
+			}
+		}
+
+		final D8ReverseFlowGraph.BasinsVisitor visitor = new D8ReverseFlowGraph.BasinsVisitor() {
+			public void visit(final int[] order, final int firstRoot,
+					final int nbOfRoots) {
+				for (int k = 0; k < order.length; k++) {
+					final int cell = order[k];
+					if ((null != targets) && targets[cell]) {
+						distances[cell] = 0;
+					} else if (k < nbOfRoots) {
+						distances[cell] = toTheOutletOtherwise ? flowDirections
+								.getDistance(cell) : Float.NaN;
+					} else {
+						// NaN (no target downstream) is propagated
+						final int next = flowDirections.getDownstream(cell);
+						distances[cell] = distances[next]
+								+ flowDirections.getDistance(cell);
+					}
+				}
+			}
+		};
+		final boolean done = new D8ReverseFlowGraph(flowDirections, true)
+				.visitBasins(flowDirections.getTerminalCells(), nbOfThreads,
+						visitor, pm);
+		return done ? distances : null;
+	}
+
+	/**
+	 * Height Above the Nearest Drainage : each cell receives the elevation of
+	 * the first target (stream) cell met along its hydrological path, and the
+	 * result is the difference between its own elevation and this drainage
+	 * elevation.
+	 * 
+	 * @param elevations
+	 *            the elevations of the DEM, NaN for the nodataValue cells
+	 * @param targets
+	 *            the drainage cells
+	 * @param pm
+	 * @return the heights above the nearest drainage, NaN for the cells that
+	 *         do not drain to any target (or whose elevation is unknown), null
+	 *         if cancelled. The nodataValue and border cells are equal to the
+	 *         nodataValue of the flow directions grid
+	 * @throws OperationException
+	 */
+	public float[] getHeightsAboveTargets(final float[] elevations,
+			final boolean[] targets, final ProgressMonitor pm)
+			throws OperationException {
+		final int nbCells = flowDirections.getNbCells();
+		final float[] heights = new float[nbCells];
+		final float ndv = flowDirections.getNoDataValue();
+
+		final D8ReverseFlowGraph.BasinsVisitor visitor = new D8ReverseFlowGraph.BasinsVisitor() {
+			public void visit(final int[] order, final int firstRoot,
+					final int nbOfRoots) {
+				// the drainage elevations are temporarily stored in the
+				// heights array
+				for (int k = 0; k < order.length; k++) {
+					final int cell = order[k];
+					if (targets[cell]) {
+						heights[cell] = elevations[cell];
+					} else if (k < nbOfRoots) {
+						heights[cell] = Float.NaN;
+					} else {
+						heights[cell] = heights[flowDirections
+								.getDownstream(cell)];
+					}
+				}
+				for (int k = 0; k < order.length; k++) {
+					final int cell = order[k];
+					// NaN (no drainage downstream) is propagated
+					heights[cell] = elevations[cell] - heights[cell];
+				}
+			}
+		};
+		final boolean done = new D8ReverseFlowGraph(flowDirections, true)
+				.visitBasins(flowDirections.getTerminalCells(), nbOfThreads,
+						visitor, pm);
+		if (!done) {
+			return null;
+		}
+
+		for (int i = 0; i < nbCells; i++) {
+			if (flowDirections.isOutside(i)) {
+				heights[i] = ndv;
+			}
+		}
+		return heights;
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.OperationException;
+
+/**
+ * Incremental update of the D8 flow directions and flow accumulations after a
+ * local edit of the DEM (culvert, embankment...). The existing flow
+ * directions grid and accumulations array are the state of the update : both
+ * of them are modified in place.
+ * 
+ * As the D8 direction of a cell only depends on its 8 neighbours, the
+ * directions are only recomputed inside the edited window plus a halo of one
+ * cell. Each cell whose direction changes is first detached from its former
+ * downstream path (its accumulation being subtracted along that path) and
+ * then attached to its new one, so that the cost of an update is proportional
+ * to the size of the window plus the length of the affected downstream paths
+ * rather than to the size of the whole grid.
+ * 
+ * The edited DEM is expected to be free of sinks (as produced by
+ * {@link OpFillSinks}) : the cells that become sinks because of the edit are
+ * left as indecision cells, as {@link D8OpDirection} would do.
+ */
+public class D8IncrementalAccumulation {
+	private final D8FlowDirections flowDirections;
+	private final float[] accumulations;
+	private final byte[] directions;
+	private final int ncols;
+	private final int nrows;
+	private final float ndv;
+
+	private int nbOfChangedDirections;
+	private int nbOfUpdatedCells;
+
+	/**
+	 * @param flowDirections
+	 *            the flow directions of the DEM before the edit
+	 * @param accumulations
+	 *            the accumulations of these flow directions (as returned by
+	 *            {@link D8OpAccumulation#accumulate(D8FlowDirections, org.orbisgis.progress.ProgressMonitor)})
+	 */
+	public D8IncrementalAccumulation(final D8FlowDirections flowDirections,
+			final float[] accumulations) {
+		this.flowDirections = flowDirections;
+		this.accumulations = accumulations;
+		directions = flowDirections.getDirections();
+		ncols = flowDirections.getNCols();
+		nrows = flowDirections.getNRows();
+		ndv = flowDirections.getNoDataValue();
+	}
+
+	/**
+	 * Builds the state of the update from a D8 directions GeoRaster and its
+	 * accumulation GeoRaster.
+	 * 
+	 * @param grDirection
+	 * @param grAccumulation
+	 * @return
+	 * @throws IOException
+	 */
+	public static D8IncrementalAccumulation fromGeoRasters(
+			final GeoRaster grDirection, final GeoRaster grAccumulation)
+			throws IOException {
+		final D8FlowDirections flowDirections = D8FlowDirections
+				.fromGeoRaster(grDirection);
+		final ImageProcessor processor = grAccumulation.getImagePlus()
+				.getProcessor();
+		final float accumulationNdv = (float) grAccumulation.getNoDataValue();
+		final int nrows = flowDirections.getNRows();
+		final int ncols = flowDirections.getNCols();
+		final float[] accumulations = new float[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				final float value = processor.getPixelValue(x, y);
+				accumulations[i] = (Float.isNaN(value) || (accumulationNdv == value)) ? flowDirections
+						.getNoDataValue()
+						: value;
+			}
+		}
+		return new D8IncrementalAccumulation(flowDirections, accumulations);
+	}
+
+	/**
+	 * Updates the flow directions and the accumulations after an edit of the
+	 * DEM inside the given window.
+	 * 
+	 * @param editedDEM
+	 *            the whole DEM, edited
+	 * @param x
+	 *            the first column of the edited window
+	 * @param y
+	 *            the first row of the edited window
+	 * @param width
+	 * @param height
+	 * @return the number of cells whose direction has changed
+	 * @throws OperationException
+	 */
+	public int update(final GeoRaster editedDEM, final int x, final int y,
+			final int width, final int height) throws OperationException {
+		try {
+			return update(new HydrologyUtilities(editedDEM), x, y, width,
+					height);
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * Same as {@link #update(GeoRaster, int, int, int, int)}, the edited DEM
+	 * being given through its {@link HydrologyUtilities} (that may be shared
+	 * between several successive updates).
+	 * 
+	 * @param editedDEM
+	 * @param x
+	 * @param y
+	 * @param width
+	 * @param height
+	 * @return the number of cells whose direction has changed
+	 */
+	public int update(final HydrologyUtilities editedDEM, final int x,
+			final int y, final int width, final int height) {
+		// edited window plus a halo of one cell, clipped to the grid
+		final int minX = Math.max(0, x - 1);
+		final int minY = Math.max(0, y - 1);
+		final int maxX = Math.min(ncols - 1, x + width);
+		final int maxY = Math.min(nrows - 1, y + height);
+		final int haloWidth = maxX - minX + 1;
+		if ((maxX < minX) || (maxY < minY)) {
+			return 0;
+		}
+
+		// collect the cells whose direction changes
+		int nbChanged = 0;
+		final int[] changed = new int[haloWidth * (maxY - minY + 1)];
+		final byte[] newDirections = new byte[changed.length];
+		for (int yy = minY; yy <= maxY; yy++) {
+			for (int xx = minX; xx <= maxX; xx++) {
+				final float direction = editedDEM.getD8Direction(xx, yy);
+				final byte code = (editedDEM.ndv == direction) ? D8FlowDirections.NO_DATA
+						: D8FlowDirections.toCode(direction);
+				final int i = yy * ncols + xx;
+				if (code != directions[i]) {
+					changed[nbChanged] = i;
+					newDirections[nbChanged] = code;
+					nbChanged++;
+				}
+			}
+		}
+
+		// pending[k] is true while the outgoing edge of a changed cell is cut
+		final boolean[] pending = new boolean[changed.length];
+		nbOfUpdatedCells = 0;
+
+		// detach the changed cells from their former downstream paths
+		for (int k = 0; k < nbChanged; k++) {
+			final int i = changed[k];
+			if (!isOutside(i)) {
+				propagate(i, -accumulations[i], pending, minX, minY, haloWidth);
+			}
+			pending[getWindowIndex(i, minX, minY, haloWidth)] = true;
+		}
+
+		// apply the new directions : the cells that become nodataValue lose
+		// their accumulation, the ones that become valid start from their own
+		// contribution
+		for (int k = 0; k < nbChanged; k++) {
+			final int i = changed[k];
+			final boolean wasOutside = isOutside(i);
+			directions[i] = newDirections[k];
+			if (isOutside(i)) {
+				accumulations[i] = ndv;
+			} else if (wasOutside) {
+				accumulations[i] = 1;
+			}
+		}
+
+		// attach the changed cells to their new downstream paths
+		for (int k = 0; k < nbChanged; k++) {
+			final int i = changed[k];
+			pending[getWindowIndex(i, minX, minY, haloWidth)] = false;
+			if (!isOutside(i)) {
+				propagate(i, accumulations[i], pending, minX, minY, haloWidth);
+			}
+		}
+
+		nbOfChangedDirections = nbChanged;
+		return nbChanged;
+	}
+
+	/**
+	 * Adds the given delta to all the cells downstream of cell i, until the
+	 * path leaves the grid or reaches a changed cell whose outgoing edge is
+	 * currently cut.
+	 */
+	private void propagate(final int i, final float delta,
+			final boolean[] pending, final int minX, final int minY,
+			final int haloWidth) {
+		if (0 == delta) {
+			return;
+		}
+		int next = flowDirections.getDownstream(i);
+		while ((-1 != next) && !isOutside(next)) {
+			accumulations[next] += delta;
+			nbOfUpdatedCells++;
+			final int wx = next % ncols - minX;
+			final int wy = next / ncols - minY;
+			if ((0 <= wx) && (haloWidth > wx) && (0 <= wy)
+					&& (pending.length > wy * haloWidth + wx)
+					&& pending[wy * haloWidth + wx]) {
+				break;
+			}
+			next = flowDirections.getDownstream(next);
+		}
+	}
+
+	private int getWindowIndex(final int i, final int minX, final int minY,
+			final int haloWidth) {
+		return (i / ncols - minY) * haloWidth + (i % ncols - minX);
+	}
+
+	private boolean isOutside(final int i) {
+		return flowDirections.isNoData(i)
+				|| flowDirections.isABorder(i % ncols, i / ncols);
+	}
+
+	/**
+	 * @return the number of cells whose direction has changed during the last
+	 *         update
+	 */
+	public int getNbOfChangedDirections() {
+		return nbOfChangedDirections;
+	}
+
+	/**
+	 * @return the number of accumulation values modified along the downstream
+	 *         paths during the last update
+	 */
+	public int getNbOfUpdatedCells() {
+		return nbOfUpdatedCells;
+	}
+
+	public D8FlowDirections getFlowDirections() {
+		return flowDirections;
+	}
+
+	public float[] getAccumulations() {
+		return accumulations;
+	}
+
+	/**
+	 * @return the current accumulations as a GeoRaster (sharing the
+	 *         accumulations array)
+	 * @throws IOException
+	 */
+	public GeoRaster getAccumulation() throws IOException {
+		final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+		final GeoRaster grAccumulation = GeoRasterFactory.createGeoRaster(
+				accumulations, rasterMetadata);
+		grAccumulation.setNodataValue(ndv);
+		return grAccumulation;
+	}
+}
@@ -39,7 +39,7 @@ public abstract class D8OpAbstractMultiThreads extends D8OpAbstract {
 	public GeoRaster evaluateResult(GeoRaster geoRaster, ProgressMonitor pm)
 			throws OperationException {
 		if (PARALLEL) {
-			return parallel(geoRaster);
+			return parallel(geoRaster, pm);
 		} else {
 			return sequential(geoRaster, pm);
 		}
@@ -48,5 +48,6 @@ public abstract class D8OpAbstractMultiThreads extends D8OpAbstract {
 	abstract GeoRaster sequential(GeoRaster geoRaster, ProgressMonitor pm)
 			throws OperationException;
 
-	abstract GeoRaster parallel(GeoRaster geoRaster) throws OperationException;
+	abstract GeoRaster parallel(GeoRaster geoRaster, ProgressMonitor pm)
+			throws OperationException;
 }
@@ -37,25 +37,21 @@ import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
 import org.orbisgis.progress.ProgressMonitor;
 
-public class D8OpAccumulation extends D8OpAbstract implements Operation {
+public class D8OpAccumulation extends D8OpFlowAbstract implements Operation {
 	private float[] d8Accumulation;
 	private int ncols;
 	private int nrows;
-	private HydrologyUtilities hydrologyUtilities;
+	private D8FlowDirections flowDirections;
 
 	@Override
-	public GeoRaster evaluateResult(GeoRaster direction, ProgressMonitor pm)
-			throws OperationException {
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
 		try {
-			hydrologyUtilities = new HydrologyUtilities(direction);
-
-			final RasterMetadata rasterMetadata = direction.getMetadata();
-			nrows = rasterMetadata.getNRows();
-			ncols = rasterMetadata.getNCols();
-			int nbOfOutlets = accumulateSlopes(pm);
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			final int nbOfOutlets = accumulateSlopes(flowDirections, pm);
 			final GeoRaster grAccumulation = GeoRasterFactory.createGeoRaster(
 					d8Accumulation, rasterMetadata);
-			grAccumulation.setNodataValue(hydrologyUtilities.ndv);
+			grAccumulation.setNodataValue(flowDirections.getNoDataValue());
 			System.out.printf("%d outlet(s)\n", nbOfOutlets);
 			return grAccumulation;
 		} catch (IOException e) {
@@ -63,9 +59,30 @@ public class D8OpAccumulation extends D8OpAbstract implements Operation {
 		}
 	}
 
-	private int accumulateSlopes(ProgressMonitor pm) throws IOException {
+	/**
+	 * Same as execute, but the accumulations are returned as a raw array (the
+	 * nodataValue cells being equal to the nodataValue of the flow
+	 * directions).
+	 * 
+	 * @param flowDirections
+	 * @param pm
+	 * @return
+	 */
+	public float[] accumulate(final D8FlowDirections flowDirections,
+			ProgressMonitor pm) {
+		accumulateSlopes(flowDirections, pm);
+		return d8Accumulation;
+	}
+
+	private int accumulateSlopes(final D8FlowDirections flowDirections,
+			ProgressMonitor pm) {
+		this.flowDirections = flowDirections;
+		nrows = flowDirections.getNRows();
+		ncols = flowDirections.getNCols();
+
 		// slopes accumulations' array initialization
 		d8Accumulation = new float[nrows * ncols];
+		final float ndv = flowDirections.getNoDataValue();
 
 		int nbOfOutlets = 0;
 
@@ -80,9 +97,9 @@ public class D8OpAccumulation extends D8OpAbstract implements Operation {
 			}
 
 			for (int x = 0; x < ncols; x++, i++) {
-				if (hydrologyUtilities.isABorder(x, y)
-						|| Float.isNaN(hydrologyUtilities.getPixelValue(x, y))) {
-					d8Accumulation[i] = hydrologyUtilities.ndv;
+				if (flowDirections.isABorder(x, y)
+						|| flowDirections.isNoData(i)) {
+					d8Accumulation[i] = ndv;
 				} else if (0 == d8Accumulation[i]) {
 					// current cell value has not been yet modified...
 					nbOfOutlets += findOutletAndAccumulateSlopes(i);
@@ -93,16 +110,13 @@ public class D8OpAccumulation extends D8OpAbstract implements Operation {
 		return nbOfOutlets;
 	}
 
-	private int findOutletAndAccumulateSlopes(final int i) throws IOException {
+	private int findOutletAndAccumulateSlopes(final int i) {
 		boolean isProbablyANewOutlet = true;
-		Integer curCellIdx = i;
+		int curCellIdx = i;
 		float acc = 0;
 
 		do {
-			final int y = curCellIdx / ncols;
-			final int x = curCellIdx % ncols;
-
-			if (Float.isNaN(hydrologyUtilities.getPixelValue(x, y))) {
+			if (flowDirections.isNoData(curCellIdx)) {
 				return isProbablyANewOutlet ? 1 : 0;
 			} else {
 				if (0 == d8Accumulation[curCellIdx]) {
@@ -117,10 +131,9 @@ public class D8OpAccumulation extends D8OpAbstract implements Operation {
 					}
 					d8Accumulation[curCellIdx] += acc;
 				}
-				curCellIdx = hydrologyUtilities
-						.fromCellSlopeDirectionToNextCellIndex(curCellIdx, x, y);
+				curCellIdx = flowDirections.getDownstream(curCellIdx);
 			}
-		} while (null != curCellIdx);
+		} while (-1 != curCellIdx);
 		return isProbablyANewOutlet ? 1 : 0;
 	}
 
@@ -38,22 +38,22 @@ import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
 import org.orbisgis.progress.ProgressMonitor;
 
-public class D8OpAllOutlets extends D8OpAbstract implements Operation {
+public class D8OpAllOutlets extends D8OpFlowAbstract implements Operation {
 	public final static float notProcessedYet = 0;
 	public final static float isNotAnOutletValue = 0.5f;
 	public final static float isAnOutletValue = 1;
 
-	private HydrologyUtilities hydrologyUtilities;
+	private D8FlowDirections flowDirections;
 	private float[] outlets;
 	private int ncols;
 	private int nrows;
 
 	@Override
-	public GeoRaster evaluateResult(GeoRaster geoRaster, ProgressMonitor pm)
-			throws OperationException {
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
 		try {
-			hydrologyUtilities = new HydrologyUtilities(geoRaster);
-			final RasterMetadata rasterMetadata = geoRaster.getMetadata();
+			this.flowDirections = flowDirections;
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
 			nrows = rasterMetadata.getNRows();
 			ncols = rasterMetadata.getNCols();
 			int nbOfOutlets = computeAllOutlets(pm);
@@ -67,7 +67,7 @@ public class D8OpAllOutlets extends D8OpAbstract implements Operation {
 		}
 	}
 
-	private int computeAllOutlets(ProgressMonitor pm) throws IOException {
+	private int computeAllOutlets(ProgressMonitor pm) {
 		outlets = new float[nrows * ncols];
 		int nbOfOutlets = 0;
 
@@ -82,13 +82,13 @@ public class D8OpAllOutlets extends D8OpAbstract implements Operation {
 			}
 
 			for (int x = 0; x < ncols; x++, i++) {
-				if (hydrologyUtilities.isABorder(x, y)
-						|| Float.isNaN(hydrologyUtilities.getPixelValue(x, y))) {
+				if (flowDirections.isABorder(x, y)
+						|| flowDirections.isNoData(i)) {
 					outlets[i] = isNotAnOutletValue;
 				} else if (notProcessedYet == outlets[i]) {
 					// current cell value has not been yet modified...
 					final Stack<HydroCell> path = new Stack<HydroCell>();
-					HydroCell top = hydrologyUtilities.shortHydrologicalPath(i,
+					HydroCell top = flowDirections.shortHydrologicalPath(i,
 							path, outlets, isNotAnOutletValue);
 
 					for (HydroCell cell : path) {
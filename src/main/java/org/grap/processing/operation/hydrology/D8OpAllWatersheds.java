@@ -38,21 +38,21 @@ import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
 import org.orbisgis.progress.ProgressMonitor;
 
-public class D8OpAllWatersheds extends D8OpAbstract implements Operation {
+public class D8OpAllWatersheds extends D8OpFlowAbstract implements Operation {
 	public final static float ndv = GeoRaster.FLOAT_NO_DATA_VALUE;
 	public final static float notProcessedYet = 0;
 
-	private HydrologyUtilities hydrologyUtilities;
+	private D8FlowDirections flowDirections;
 	private float[] watersheds;
 	private int ncols;
 	private int nrows;
 
 	@Override
-	public GeoRaster evaluateResult(GeoRaster direction, ProgressMonitor pm)
-			throws OperationException {
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
 		try {
-			hydrologyUtilities = new HydrologyUtilities(direction);
-			final RasterMetadata rasterMetadata = direction.getMetadata();
+			this.flowDirections = flowDirections;
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
 			nrows = rasterMetadata.getNRows();
 			ncols = rasterMetadata.getNCols();
 			int nbOfWatersheds = computeAllWatersheds(pm);
@@ -66,7 +66,7 @@ public class D8OpAllWatersheds extends D8OpAbstract implements Operation {
 		}
 	}
 
-	private int computeAllWatersheds(ProgressMonitor pm) throws IOException {
+	private int computeAllWatersheds(ProgressMonitor pm) {
 		watersheds = new float[nrows * ncols];
 		float newDefaultColor = 1;
 
@@ -81,14 +81,14 @@ public class D8OpAllWatersheds extends D8OpAbstract implements Operation {
 			}
 
 			for (int x = 0; x < ncols; x++, i++) {
-				if (hydrologyUtilities.isABorder(x, y)
-						|| Float.isNaN(hydrologyUtilities.getPixelValue(x, y))) {
+				if (flowDirections.isABorder(x, y)
+						|| flowDirections.isNoData(i)) {
 					watersheds[i] = ndv;
 				} else if (notProcessedYet == watersheds[i]) {
 					// current cell value has not been yet modified...
 					Float color = null;
 					final Stack<HydroCell> path = new Stack<HydroCell>();
-					HydroCell top = hydrologyUtilities.shortHydrologicalPath(i,
+					HydroCell top = flowDirections.shortHydrologicalPath(i,
 							path, watersheds, 1);
 					if (null == top) {
 						color = newDefaultColor;
@@ -45,13 +45,32 @@ public class D8OpDirection extends D8OpAbstractMultiThreads implements
 		Operation {
 	GeoRaster sequential(final GeoRaster grDEM, ProgressMonitor pm)
 			throws OperationException {
+		try {
+			return getFlowDirections(grDEM, pm).toGeoRaster();
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * Computes the D8 directions of the given DEM as a compact
+	 * {@link D8FlowDirections} grid that can be directly given to the other
+	 * D8 operations.
+	 * 
+	 * @param grDEM
+	 * @param pm
+	 * @return
+	 * @throws OperationException
+	 */
+	public D8FlowDirections getFlowDirections(final GeoRaster grDEM,
+			ProgressMonitor pm) throws OperationException {
 		try {
 			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
 					grDEM);
 			final RasterMetadata rasterMetadata = grDEM.getMetadata();
 			final int nrows = rasterMetadata.getNRows();
 			final int ncols = rasterMetadata.getNCols();
-			final float[] slopesDirections = new float[nrows * ncols];
+			final byte[] slopesDirections = new byte[nrows * ncols];
 			int i = 0;
 			for (int y = 0; y < nrows; y++) {
 
@@ -64,21 +83,22 @@ public class D8OpDirection extends D8OpAbstractMultiThreads implements
 				}
 
 				for (int x = 0; x < ncols; x++, i++) {
-					slopesDirections[i] = hydrologyUtilities.getD8Direction(x,
-							y);
+					final float direction = hydrologyUtilities
+							.getD8Direction(x, y);
+					slopesDirections[i] = (hydrologyUtilities.ndv == direction) ? D8FlowDirections.NO_DATA
+							: D8FlowDirections.toCode(direction);
 				}
 			}
 
-			final GeoRaster grSlopesDirections = GeoRasterFactory
-					.createGeoRaster(slopesDirections, rasterMetadata);
-			grSlopesDirections.setNodataValue(hydrologyUtilities.ndv);
-			return grSlopesDirections;
+			return new D8FlowDirections(slopesDirections, rasterMetadata,
+					hydrologyUtilities.ndv);
 		} catch (IOException e) {
 			throw new OperationException(e);
 		}
 	}
 
-	GeoRaster parallel(final GeoRaster grDEM) throws OperationException {
+	GeoRaster parallel(final GeoRaster grDEM, ProgressMonitor pm)
+			throws OperationException {
 		try {
 			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
 					grDEM);
@@ -88,7 +108,11 @@ public class D8OpDirection extends D8OpAbstractMultiThreads implements
 
 			final ICA ca = new CAD8Direction(hydrologyUtilities, nrows, ncols);
 			final ICAN ccan = CANFactory.createCAN(ca);
+			ccan.setProgressMonitor(pm);
 			ccan.getStableState();
+			if (pm.isCancelled()) {
+				return null;
+			}
 
 			final GeoRaster grSlopesDirections = GeoRasterFactory
 					.createGeoRaster((float[]) ccan.getCANValues(),
@@ -0,0 +1,101 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Flow distance of each cell to the first target cell (lake, wetland, river
+ * network...) met along its hydrological path. The target cells are the non
+ * null and non nodataValue cells of a mask GeoRaster that shares the grid of
+ * the flow directions. The cells that do not drain to any target are set to
+ * the nodataValue.
+ */
+public class D8OpDistanceToTargets extends D8OpFlowAbstract implements
+		Operation {
+	private GeoRaster grTargets;
+	private boolean[] targets;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	public D8OpDistanceToTargets(final GeoRaster grTargets) {
+		this.grTargets = grTargets;
+	}
+
+	/**
+	 * @param targets
+	 *            one boolean per cell of the flow directions grid
+	 */
+	public D8OpDistanceToTargets(final boolean[] targets) {
+		this.targets = targets;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			final D8FlowDistances flowDistances = new D8FlowDistances(
+					flowDirections);
+			flowDistances.setNumberOfThreads(nbOfThreads);
+			final float[] d8Distances = flowDistances.getDistancesToTargets(
+					(null == targets) ? HydrologyUtilities.getMask(grTargets,
+							rasterMetadata.getNRows(), rasterMetadata
+									.getNCols()) : targets,
+					false, pm);
+			if (null == d8Distances) {
+				return null;
+			}
+
+			final float ndv = flowDirections.getNoDataValue();
+			for (int i = 0; i < d8Distances.length; i++) {
+				if (Float.isNaN(d8Distances[i])) {
+					d8Distances[i] = ndv;
+				}
+			}
+			final GeoRaster grDistances = GeoRasterFactory.createGeoRaster(
+					d8Distances, rasterMetadata);
+			grDistances.setNodataValue(ndv);
+			return grDistances;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+}
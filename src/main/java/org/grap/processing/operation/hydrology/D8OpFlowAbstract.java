@@ -0,0 +1,67 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Common ancestor of the D8 operations that are applied on a flow directions
+ * grid. Such operations may either be executed on a D8 directions GeoRaster
+ * (as any other grap operation) or directly on a compact
+ * {@link D8FlowDirections} grid, which avoids any pixel value decoding.
+ */
+public abstract class D8OpFlowAbstract extends D8OpAbstract {
+	public final GeoRaster execute(final D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		final long startTime = System.currentTimeMillis();
+		GeoRaster result = evaluateResult(flowDirections, pm);
+
+		System.out.printf("D8Operation in %d ms\n", System.currentTimeMillis()
+				- startTime);
+		return result;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(GeoRaster direction, ProgressMonitor pm)
+			throws OperationException {
+		try {
+			return evaluateResult(D8FlowDirections.fromGeoRaster(direction),
+					pm);
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	public abstract GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException;
+}
@@ -0,0 +1,120 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Height Above the Nearest Drainage (HAND) : the elevation of each cell minus
+ * the elevation of the first stream cell met along its hydrological path.
+ * The stream cells are the non null and non nodataValue cells of a mask
+ * GeoRaster (such as a thresholded accumulation or the stream links of
+ * {@link D8OpStreamOrders}). The cells that do not drain to any stream cell
+ * are set to the nodataValue.
+ * 
+ * All the drainage elevations are computed in a single upstream traversal
+ * started from the terminal cells, the basins being shared between several
+ * threads (see {@link D8FlowDistances}).
+ */
+public class D8OpHeightAboveNearestDrainage extends D8OpFlowAbstract
+		implements Operation {
+	private final GeoRaster grDEM;
+	private GeoRaster grStreams;
+	private boolean[] streams;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	/**
+	 * @param grDEM
+	 *            the DEM the directions have been computed from
+	 * @param grStreams
+	 *            the stream mask
+	 */
+	public D8OpHeightAboveNearestDrainage(final GeoRaster grDEM,
+			final GeoRaster grStreams) {
+		this.grDEM = grDEM;
+		this.grStreams = grStreams;
+	}
+
+	/**
+	 * @param grDEM
+	 *            the DEM the directions have been computed from
+	 * @param streams
+	 *            one boolean per cell of the flow directions grid
+	 */
+	public D8OpHeightAboveNearestDrainage(final GeoRaster grDEM,
+			final boolean[] streams) {
+		this.grDEM = grDEM;
+		this.streams = streams;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			final float[] elevations = new HydrologyUtilities(grDEM)
+					.getPixelValues();
+			final D8FlowDistances flowDistances = new D8FlowDistances(
+					flowDirections);
+			flowDistances.setNumberOfThreads(nbOfThreads);
+			final float[] heights = flowDistances.getHeightsAboveTargets(
+					elevations, (null == streams) ? HydrologyUtilities.getMask(
+							grStreams, rasterMetadata.getNRows(),
+							rasterMetadata.getNCols()) : streams, pm);
+			if (null == heights) {
+				return null;
+			}
+
+			final float ndv = flowDirections.getNoDataValue();
+			for (int i = 0; i < heights.length; i++) {
+				if (Float.isNaN(heights[i])) {
+					heights[i] = ndv;
+				}
+			}
+			final GeoRaster grHeights = GeoRasterFactory.createGeoRaster(
+					heights, rasterMetadata);
+			grHeights.setNodataValue(ndv);
+			return grHeights;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+}
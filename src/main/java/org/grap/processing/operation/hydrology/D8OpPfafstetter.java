@@ -0,0 +1,478 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Nested watersheds hierarchy, coded with the Pfafstetter system. In each
+ * basin, the main stem is followed upstream from the outlet (always choosing
+ * the contributor of greatest accumulation) and the four tributaries of
+ * greatest accumulation that join it are the sub-basins 2, 4, 6 and 8 (from
+ * downstream to upstream). The main stem parts that lie between them are the
+ * interbasins 1, 3, 5, 7 and 9. Each unit is then decomposed in the same way,
+ * down to the requested number of levels. A unit that has no tributary is not
+ * decomposed any further : its digits are 0 at the deeper levels (a river tree
+ * without any tributary being coded 1 at the first level).
+ * 
+ * The decomposition only walks the river cells (whose accumulation is
+ * greater or equal to the river threshold), the river trees being shared
+ * between several threads. Each other cell then receives the code of the
+ * first river cell met along its hydrological path (0 if there is none) in a
+ * single upstream traversal.
+ * 
+ * The whole hierarchy is stored in one int code per cell (one decimal digit
+ * per level, the first level being the most significant one) : the labels of
+ * any level are obtained without any recomputation thanks to
+ * {@link #getLabels(int)}. As the codes are relative to a basin, the basin of
+ * each cell is available thanks to {@link #getBasinLabels()}. The execute
+ * method returns the codes as a float GeoRaster, which is exact up to 7
+ * levels.
+ */
+public class D8OpPfafstetter extends D8OpFlowAbstract implements Operation {
+	public final static int MAX_LEVELS = 9;
+	public final static float ndv = 0;
+
+	private final static int[] POW = new int[] { 1, 10, 100, 1000, 10000,
+			100000, 1000000, 10000000, 100000000, 1000000000 };
+
+	private GeoRaster grSlopesAccumulations;
+	private float[] slopesAccumulations;
+	private final int riverThreshold;
+	private final int nbOfLevels;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	private D8FlowDirections flowDirections;
+	private boolean[] rivers;
+	private int[] codes;
+	private int[] basinLabels;
+
+	/**
+	 * @param grSlopesAccumulations
+	 * @param riverThreshold
+	 * @param nbOfLevels
+	 *            between 1 and {@link #MAX_LEVELS}
+	 */
+	public D8OpPfafstetter(final GeoRaster grSlopesAccumulations,
+			final int riverThreshold, final int nbOfLevels) {
+		this.grSlopesAccumulations = grSlopesAccumulations;
+		this.riverThreshold = riverThreshold;
+		this.nbOfLevels = Math.max(1, Math.min(MAX_LEVELS, nbOfLevels));
+	}
+
+	/**
+	 * @param slopesAccumulations
+	 *            one accumulation value per cell of the flow directions grid
+	 *            (as returned by {@link D8OpAccumulation#accumulate})
+	 * @param riverThreshold
+	 * @param nbOfLevels
+	 *            between 1 and {@link #MAX_LEVELS}
+	 */
+	public D8OpPfafstetter(final float[] slopesAccumulations,
+			final int riverThreshold, final int nbOfLevels) {
+		this.slopesAccumulations = slopesAccumulations;
+		this.riverThreshold = riverThreshold;
+		this.nbOfLevels = Math.max(1, Math.min(MAX_LEVELS, nbOfLevels));
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			this.flowDirections = flowDirections;
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			if (null == slopesAccumulations) {
+				slopesAccumulations = HydrologyUtilities.getWeights(
+						grSlopesAccumulations, rasterMetadata.getNRows(),
+						rasterMetadata.getNCols());
+			}
+			final int nbCells = flowDirections.getNbCells();
+			rivers = new boolean[nbCells];
+			codes = new int[nbCells];
+			for (int i = 0; i < nbCells; i++) {
+				rivers[i] = !flowDirections.isOutside(i)
+						&& (riverThreshold <= slopesAccumulations[i]);
+			}
+
+			final int[] riverOutlets = getRiverOutlets();
+			MultiThreads.execute(riverOutlets.length, nbOfThreads,
+					new MultiThreads.Chunk() {
+						public void process(int start, int end) {
+							final Decomposition decomposition = new Decomposition();
+							for (int k = start; k < end; k++) {
+								decomposition.process(riverOutlets[k]);
+							}
+						}
+					});
+			if (pm.isCancelled() || !propagateCodes(pm)) {
+				return null;
+			}
+			rivers = null;
+
+			final float[] pixels = new float[nbCells];
+			for (int i = 0; i < nbCells; i++) {
+				pixels[i] = (0 == codes[i]) ? ndv : codes[i];
+			}
+			final GeoRaster grCodes = GeoRasterFactory.createGeoRaster(pixels,
+					rasterMetadata);
+			grCodes.setNodataValue(ndv);
+			return grCodes;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	public int getNbOfLevels() {
+		return nbOfLevels;
+	}
+
+	/**
+	 * @return the Pfafstetter code of each cell, one decimal digit per level
+	 *         (0 for the cells that do not drain to any river cell)
+	 */
+	public int[] getCodes() {
+		return codes;
+	}
+
+	/**
+	 * @param level
+	 *            from 1 to getNbOfLevels()
+	 * @return the Pfafstetter code of each cell truncated at the given level
+	 */
+	public int[] getLabels(final int level) {
+		final int divisor = POW[nbOfLevels - level];
+		final int[] labels = new int[codes.length];
+		for (int i = 0; i < codes.length; i++) {
+			labels[i] = codes[i] / divisor;
+		}
+		return labels;
+	}
+
+	/**
+	 * @param code
+	 *            a Pfafstetter code of getNbOfLevels() digits
+	 * @param level
+	 * @return the code of the unit of the given level that contains the given
+	 *         one
+	 */
+	public int getAncestor(final int code, final int level) {
+		return code / POW[nbOfLevels - level];
+	}
+
+	/**
+	 * @return the label (from 1) of the basin of each cell, that is to say of
+	 *         the terminal cell it drains to, 0 for the nodataValue cells
+	 */
+	public int[] getBasinLabels() {
+		return basinLabels;
+	}
+
+	private int[] getRiverOutlets() {
+		int nbOfOutlets = 0;
+		int[] riverOutlets = new int[16];
+		for (int i = 0; i < rivers.length; i++) {
+			if (rivers[i]) {
+				final int next = flowDirections.getDownstream(i);
+				if ((-1 == next) || !rivers[next]) {
+					if (nbOfOutlets == riverOutlets.length) {
+						final int[] tmp = new int[2 * nbOfOutlets];
+						System.arraycopy(riverOutlets, 0, tmp, 0, nbOfOutlets);
+						riverOutlets = tmp;
+					}
+					riverOutlets[nbOfOutlets++] = i;
+				}
+			}
+		}
+		final int[] result = new int[nbOfOutlets];
+		System.arraycopy(riverOutlets, 0, result, 0, nbOfOutlets);
+		return result;
+	}
+
+	/**
+	 * Gives to each cell the code of the first river cell met along its
+	 * hydrological path, and labels the basins, in one upstream traversal
+	 * started from the terminal cells.
+	 * 
+	 * @return false if cancelled
+	 */
+	private boolean propagateCodes(final ProgressMonitor pm)
+			throws OperationException {
+		basinLabels = new int[codes.length];
+		final D8ReverseFlowGraph.BasinsVisitor visitor = new D8ReverseFlowGraph.BasinsVisitor() {
+			public void visit(final int[] order, final int firstRoot,
+					final int nbOfRoots) {
+				for (int k = 0; k < nbOfRoots; k++) {
+					basinLabels[order[k]] = firstRoot + k + 1;
+				}
+				for (int k = nbOfRoots; k < order.length; k++) {
+					final int cell = order[k];
+					final int next = flowDirections.getDownstream(cell);
+					basinLabels[cell] = basinLabels[next];
+					if (!rivers[cell]) {
+						codes[cell] = codes[next];
+					}
+				}
+			}
+		};
+		return new D8ReverseFlowGraph(flowDirections, true).visitBasins(
+				flowDirections.getTerminalCells(), nbOfThreads, visitor, pm);
+	}
+
+	/**
+	 * Pfafstetter decomposition of a single river tree. A unit is the set of
+	 * the river cells upstream of its outlet, minus the ones upstream of some
+	 * contributors (the cuts) of a single end cell : an interbasin ends at the
+	 * junction of the tributaries that bound it upstream, and is cut at all
+	 * of them and at the next main stem cell. The cuts are stored as a mask
+	 * of their flow directions. When several of the chosen tributaries join
+	 * the main stem at the same cell, the interbasins between them are empty.
+	 * The units are stored in a stack of primitive arrays; only the units of
+	 * the deepest level are labelled.
+	 */
+	private class Decomposition {
+		private final int[] contributors = new int[8];
+		private int[] stack = new int[5 * 16];
+		private int stackSize;
+		private int[] mainStem = new int[64];
+		private int[] tributaries = new int[64];
+		private int[] positions = new int[64];
+		private int[] queue = new int[64];
+		private final int[] chosen = new int[4];
+
+		void process(final int riverOutlet) {
+			stackSize = 0;
+			push(riverOutlet, -1, 0, 0, 0);
+			while (0 < stackSize) {
+				stackSize -= 5;
+				final int outlet = stack[stackSize];
+				final int end = stack[stackSize + 1];
+				final int cuts = stack[stackSize + 2];
+				final int level = stack[stackSize + 3];
+				final int code = stack[stackSize + 4];
+				if (level == nbOfLevels) {
+					label(outlet, end, cuts, code);
+				} else {
+					decompose(outlet, end, cuts, level, code);
+				}
+			}
+		}
+
+		private void push(final int outlet, final int end, final int cuts,
+				final int level, final int code) {
+			if (stackSize + 5 > stack.length) {
+				final int[] tmp = new int[2 * stack.length];
+				System.arraycopy(stack, 0, tmp, 0, stackSize);
+				stack = tmp;
+			}
+			stack[stackSize++] = outlet;
+			stack[stackSize++] = end;
+			stack[stackSize++] = cuts;
+			stack[stackSize++] = level;
+			stack[stackSize++] = code;
+		}
+
+		/**
+		 * @param i
+		 *            a contributor of the given cell
+		 * @param cell
+		 * @param end
+		 *            the end cell of the unit (-1 if there is none)
+		 * @param cuts
+		 *            the mask of the flow directions of the contributors of the
+		 *            end cell that are not in the unit
+		 */
+		private boolean isInUnit(final int i, final int cell, final int end,
+				final int cuts) {
+			return rivers[i] && ((cell != end) || (0 == (cuts & getCut(i))));
+		}
+
+		private int getCut(final int i) {
+			return 1 << flowDirections.getDirection(i);
+		}
+
+		private void decompose(final int outlet, final int end,
+				final int cuts, final int level, final int code) {
+			// follow the main stem and collect the tributaries' mouths
+			int mainStemSize = 0;
+			int nbOfTributaries = 0;
+			for (int cell = outlet; -1 != cell;) {
+				if (mainStemSize == mainStem.length) {
+					final int[] tmp = new int[2 * mainStemSize];
+					System.arraycopy(mainStem, 0, tmp, 0, mainStemSize);
+					mainStem = tmp;
+				}
+				mainStem[mainStemSize++] = cell;
+				int next = -1;
+				final int nb = flowDirections.getUpstream(cell, contributors);
+				for (int n = 0; n < nb; n++) {
+					final int c = contributors[n];
+					if (isInUnit(c, cell, end, cuts)
+							&& ((-1 == next) || isGreater(c, next))) {
+						next = c;
+					}
+				}
+				for (int n = 0; n < nb; n++) {
+					final int c = contributors[n];
+					if ((c != next) && isInUnit(c, cell, end, cuts)) {
+						if (nbOfTributaries == tributaries.length) {
+							final int[] tmp = new int[2 * nbOfTributaries];
+							System.arraycopy(tributaries, 0, tmp, 0,
+									nbOfTributaries);
+							tributaries = tmp;
+							final int[] tmp2 = new int[2 * nbOfTributaries];
+							System.arraycopy(positions, 0, tmp2, 0,
+									nbOfTributaries);
+							positions = tmp2;
+						}
+						tributaries[nbOfTributaries] = c;
+						positions[nbOfTributaries] = mainStemSize - 1;
+						nbOfTributaries++;
+					}
+				}
+				cell = next;
+			}
+
+			if (0 == nbOfTributaries) {
+				// not decomposed any further (a whole river tree without any
+				// tributary is a single interbasin)
+				if (0 == level) {
+					push(outlet, end, cuts, nbOfLevels, POW[nbOfLevels - 1]);
+				} else {
+					push(outlet, end, cuts, nbOfLevels, code
+							* POW[nbOfLevels - level]);
+				}
+				return;
+			}
+
+			// the (at most) four greatest tributaries, kept in the main stem
+			// order (from downstream to upstream)
+			int nbChosen = 0;
+			for (int t = 0; t < nbOfTributaries; t++) {
+				int k = nbChosen;
+				if (4 > nbChosen) {
+					nbChosen++;
+				} else if (isGreater(tributaries[t], tributaries[chosen[3]])) {
+					k = 3;
+				} else {
+					continue;
+				}
+				while ((0 < k)
+						&& isGreater(tributaries[t], tributaries[chosen[k - 1]])) {
+					chosen[k] = chosen[k - 1];
+					k--;
+				}
+				chosen[k] = t;
+			}
+			for (int a = 1; a < nbChosen; a++) {
+				final int t = chosen[a];
+				int b = a;
+				while ((0 < b) && (positions[chosen[b - 1]] > positions[t])) {
+					chosen[b] = chosen[b - 1];
+					b--;
+				}
+				chosen[b] = t;
+			}
+
+			final int nextLevel = level + 1;
+			int start = 0;
+			for (int k = 0; k < nbChosen; k++) {
+				final int t = chosen[k];
+				final int junction = positions[t];
+				// tributary
+				push(tributaries[t], -1, 0, nextLevel, 10 * code + 2 * k + 2);
+				if ((0 < k) && (positions[chosen[k - 1]] == junction)) {
+					// empty interbasin, between two tributaries that join the
+					// main stem at the same cell
+					continue;
+				}
+				// interbasin, cut at the junction of the tributaries (and of
+				// the unit itself when it ends there) : as a tributary never
+				// joins the last cell of the main stem, the next one exists
+				final int junctionCell = mainStem[junction];
+				int junctionCuts = getCut(mainStem[junction + 1]);
+				for (int l = k; (l < nbChosen)
+						&& (positions[chosen[l]] == junction); l++) {
+					junctionCuts |= getCut(tributaries[chosen[l]]);
+				}
+				if (junctionCell == end) {
+					junctionCuts |= cuts;
+				}
+				push(mainStem[start], junctionCell, junctionCuts, nextLevel,
+						10 * code + 2 * k + 1);
+				start = junction + 1;
+			}
+			// the most upstream interbasin
+			push(mainStem[start], end, cuts, nextLevel, 10 * code + 2
+					* nbChosen + 1);
+		}
+
+		/**
+		 * Greatest accumulation first, then smallest index, so that the
+		 * decomposition does not depend on the scan order of the neighbours.
+		 */
+		private boolean isGreater(final int i, final int j) {
+			return (slopesAccumulations[i] > slopesAccumulations[j])
+					|| ((slopesAccumulations[i] == slopesAccumulations[j]) && (i < j));
+		}
+
+		private void label(final int outlet, final int end, final int cuts,
+				final int code) {
+			queue[0] = outlet;
+			codes[outlet] = code;
+			for (int head = 0, tail = 1; head < tail; head++) {
+				final int cell = queue[head];
+				final int nb = flowDirections.getUpstream(cell, contributors);
+				for (int n = 0; n < nb; n++) {
+					final int c = contributors[n];
+					if (isInUnit(c, cell, end, cuts)) {
+						codes[c] = code;
+						if (tail == queue.length) {
+							final int[] tmp = new int[2 * tail];
+							System.arraycopy(queue, 0, tmp, 0, tail);
+							queue = tmp;
+						}
+						queue[tail++] = c;
+					}
+				}
+			}
+		}
+	}
+}
@@ -31,25 +31,22 @@ package org.grap.processing.operation.hydrology;
 import ij.process.ImageProcessor;
 
 import java.io.IOException;
-import java.util.Stack;
 
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
 import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
 import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
 import org.orbisgis.progress.ProgressMonitor;
 
-public class D8OpRiverDistance extends D8OpAbstract implements Operation {
+public class D8OpRiverDistance extends D8OpFlowAbstract implements Operation {
 	public final static float notProcessedYet = 0;
-
-	private HydrologyUtilities hydrologyUtilities;
-	private float[] d8Distances;
-	private int ncols;
-	private int nrows;
+	public final static float riverValue = 1.E-4f;
 
 	private ImageProcessor accumulation;
 	private int riverThreshold;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
 
 	public D8OpRiverDistance(GeoRaster accumulation, int riverThreshold)
 			throws IOException {
@@ -57,65 +54,53 @@ public class D8OpRiverDistance extends D8OpAbstract implements Operation {
 		this.accumulation = accumulation.getImagePlus().getProcessor();
 	}
 
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
 	@Override
-	public GeoRaster evaluateResult(GeoRaster direction, ProgressMonitor pm)
-			throws OperationException {
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
 		try {
-			hydrologyUtilities = new HydrologyUtilities(direction);
-
-			final RasterMetadata rasterMetadata = direction.getMetadata();
-			nrows = rasterMetadata.getNRows();
-			ncols = rasterMetadata.getNCols();
-			calculateDistances(pm);
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			final float[] d8Distances = calculateDistances(flowDirections, pm);
+			if (null == d8Distances) {
+				return null;
+			}
 			final GeoRaster grRiverDistances = GeoRasterFactory
 					.createGeoRaster(d8Distances, rasterMetadata);
-			grRiverDistances.setNodataValue(hydrologyUtilities.ndv);
+			grRiverDistances.setNodataValue(flowDirections.getNoDataValue());
 			return grRiverDistances;
 		} catch (IOException e) {
 			throw new OperationException(e);
 		}
 	}
 
-	private void calculateDistances(ProgressMonitor pm) throws IOException {
-		float[] d8Accumulations = (float[]) accumulation.getPixels();
-		// distances' array initialization
-		d8Distances = new float[nrows * ncols];
-
-		for (int y = 0, i = 0; y < nrows; y++) {
-
-			if (y / 100 == y / 100.0) {
-				if (pm.isCancelled()) {
-					break;
-				} else {
-					pm.progressTo((int) (100 * y / nrows));
-				}
-			}
+	private float[] calculateDistances(final D8FlowDirections flowDirections,
+			final ProgressMonitor pm) throws OperationException {
+		final float[] d8Accumulations = (float[]) accumulation.getPixels();
+		// a hydrological path stops as soon as it reaches the threshold...
+		final boolean[] targets = new boolean[d8Accumulations.length];
+		for (int i = 0; i < targets.length; i++) {
+			targets[i] = riverThreshold <= d8Accumulations[i];
+		}
 
-			for (int x = 0; x < ncols; x++, i++) {
-				if (hydrologyUtilities.isABorder(x, y)
-						|| Float.isNaN(hydrologyUtilities.getPixelValue(x, y))) {
-					d8Distances[i] = hydrologyUtilities.ndv;
-				} else if (notProcessedYet == d8Distances[i]) {
-					// current cell value has not been yet modified...
-					if (riverThreshold < d8Accumulations[i]) {
-						// this pixel is part of a river
-						d8Distances[i] = 1.E-4f;
-					} else {
-						final Stack<HydroCell> path = new Stack<HydroCell>();
-						HydroCell top = hydrologyUtilities
-								.shortHydrologicalPath(i, path,
-										d8Accumulations, riverThreshold);
+		final D8FlowDistances flowDistances = new D8FlowDistances(
+				flowDirections);
+		flowDistances.setNumberOfThreads(nbOfThreads);
+		final float[] d8Distances = flowDistances.getDistancesToTargets(
+				targets, true, pm);
+		if (null == d8Distances) {
+			return null;
+		}
 
-						float accumulDist = ((null == top) || (riverThreshold <= top.dist)) ? 0
-								: top.dist;
-						while (!path.empty()) {
-							HydroCell cell = path.pop();
-							accumulDist += cell.dist;
-							d8Distances[cell.index] = accumulDist;
-						}
-					}
-				}
+		// ... but only the cells above the threshold are part of a river
+		for (int i = 0; i < targets.length; i++) {
+			if (targets[i] && !flowDirections.isOutside(i)) {
+				d8Distances[i] = (riverThreshold < d8Accumulations[i]) ? riverValue
+						: flowDirections.getDistance(i);
 			}
 		}
+		return d8Distances;
 	}
 }
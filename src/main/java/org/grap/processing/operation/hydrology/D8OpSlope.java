@@ -75,7 +75,8 @@ public class D8OpSlope extends D8OpAbstractMultiThreads implements Operation {
 		}
 	}
 
-	GeoRaster parallel(final GeoRaster grDEM) throws OperationException {
+	GeoRaster parallel(final GeoRaster grDEM, ProgressMonitor pm)
+			throws OperationException {
 		try {
 			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
 					grDEM);
@@ -85,7 +86,11 @@ public class D8OpSlope extends D8OpAbstractMultiThreads implements Operation {
 
 			final ICA ca = new CASlope(hydrologyUtilities, nrows, ncols);
 			final ICAN ccan = CANFactory.createCAN(ca);
+			ccan.setProgressMonitor(pm);
 			ccan.getStableState();
+			if (pm.isCancelled()) {
+				return null;
+			}
 
 			final GeoRaster grSlope = GeoRasterFactory.createGeoRaster(
 					(float[]) ccan.getCANValues(), rasterMetadata);
@@ -76,7 +76,8 @@ public class D8OpSlopeInDegrees extends D8OpAbstractMultiThreads implements
 		}
 	}
 
-	GeoRaster parallel(final GeoRaster grDEM) throws OperationException {
+	GeoRaster parallel(final GeoRaster grDEM, ProgressMonitor pm)
+			throws OperationException {
 		try {
 			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
 					grDEM);
@@ -86,7 +87,11 @@ public class D8OpSlopeInDegrees extends D8OpAbstractMultiThreads implements
 
 			final ICA ca = new CASlopeInDegrees(hydrologyUtilities, nrows, ncols);
 			final ICAN ccan = CANFactory.createCAN(ca);
+			ccan.setProgressMonitor(pm);
 			ccan.getStableState();
+			if (pm.isCancelled()) {
+				return null;
+			}
 
 			final GeoRaster grSlopeInDegrees = GeoRasterFactory
 					.createGeoRaster((float[]) ccan.getCANValues(),
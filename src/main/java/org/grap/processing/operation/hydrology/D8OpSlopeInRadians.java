@@ -76,7 +76,8 @@ public class D8OpSlopeInRadians extends D8OpAbstractMultiThreads implements
 		}
 	}
 
-	GeoRaster parallel(final GeoRaster grDEM) throws OperationException {
+	GeoRaster parallel(final GeoRaster grDEM, ProgressMonitor pm)
+			throws OperationException {
 		try {
 			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
 					grDEM);
@@ -87,7 +88,11 @@ public class D8OpSlopeInRadians extends D8OpAbstractMultiThreads implements
 			final ICA ca = new CASlopeInRadians(hydrologyUtilities, nrows,
 					ncols);
 			final ICAN ccan = CANFactory.createCAN(ca);
+			ccan.setProgressMonitor(pm);
 			ccan.getStableState();
+			if (pm.isCancelled()) {
+				return null;
+			}
 
 			final GeoRaster grSlopeInRadians = GeoRasterFactory
 					.createGeoRaster((float[]) ccan.getCANValues(),
@@ -29,12 +29,11 @@
 package org.grap.processing.operation.hydrology;
 
 import ij.ImagePlus;
+import ij.process.ImageProcessor;
 
 import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
@@ -43,17 +42,19 @@ import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
 import org.orbisgis.progress.ProgressMonitor;
 
-public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
+public class D8OpStrahlerStreamOrder extends D8OpFlowAbstract implements
+		Operation {
 	public final static short noDataValue = GeoRaster.SHORT_NO_DATA_VALUE;
 	public final static short riversStartValue = Short.MAX_VALUE;
 
-	private ImagePlus gipDirection;
 	private ImagePlus gipSlopesAccumulations;
-	private HydrologyUtilities hydrologyUtilities;
+	private D8FlowDirections flowDirections;
+	private float[] slopesAccumulations;
 	private short[] strahlerStreamOrder;
 	private int riverThreshold;
 	private int ncols;
 	private int nrows;
+	private final int[] contributors = new int[8];
 
 	public D8OpStrahlerStreamOrder(final GeoRaster grSlopesAccumulations,
 			final int riverThreshold) throws OperationException {
@@ -66,15 +67,15 @@ public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
 	}
 
 	@Override
-	public GeoRaster evaluateResult(GeoRaster geoRaster, ProgressMonitor pm)
-			throws OperationException {
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
 		try {
-			hydrologyUtilities = new HydrologyUtilities(geoRaster);
+			this.flowDirections = flowDirections;
 
-			gipDirection = geoRaster.getImagePlus();
-			final RasterMetadata rasterMetadata = geoRaster.getMetadata();
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
 			nrows = rasterMetadata.getNRows();
 			ncols = rasterMetadata.getNCols();
+			readSlopesAccumulations();
 			int maxStrahlerStreamOrder = computeStrahlerStreamOrders(pm);
 			final GeoRaster grStrahlerStreamOrder = GeoRasterFactory
 					.createGeoRaster(strahlerStreamOrder, rasterMetadata);
@@ -89,8 +90,17 @@ public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
 		}
 	}
 
-	private int computeStrahlerStreamOrders(ProgressMonitor pm)
-			throws IOException {
+	private void readSlopesAccumulations() {
+		final ImageProcessor processor = gipSlopesAccumulations.getProcessor();
+		slopesAccumulations = new float[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				slopesAccumulations[i] = processor.getPixelValue(x, y);
+			}
+		}
+	}
+
+	private int computeStrahlerStreamOrders(ProgressMonitor pm) {
 		short maxStrahlerStreamOrder = 1;
 		strahlerStreamOrder = new short[nrows * ncols];
 		Set<Integer> junctionsStack = new HashSet<Integer>();
@@ -108,10 +118,7 @@ public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
 			}
 
 			for (int x = 0; x < ncols; x++, i++) {
-				if (hydrologyUtilities.isARiverStart(gipSlopesAccumulations,
-						riverThreshold, i)) {
-					// if (SlopesUtilities.isARiverStart(gipSlopesAccumulations,
-					// gipDirection, riverThreshold, ncols, nrows, i)) {
+				if (isARiverStart(i)) {
 					strahlerStreamOrder[i] = riversStartValue;
 					junctionsStack.add(i);
 				} else {
@@ -121,15 +128,11 @@ public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
 		}
 
 		// 2nd step:
-		short step = 1;
 		do {
-			// System.out.printf("%d junctions in step number %d\n",
-			// junctionsStack.size(), step);
 			final Set<Integer> nextJunctionsStack = new HashSet<Integer>();
 			for (int riverStart : junctionsStack) {
-				// final Short colorTag = step;
-				final Short colorTag = getStrahlerStreamOrderTag(riverStart);
-				if (null != colorTag) {
+				final short colorTag = getStrahlerStreamOrderTag(riverStart);
+				if (noDataValue != colorTag) {
 					maxStrahlerStreamOrder = max(maxStrahlerStreamOrder,
 							colorTag);
 					// towards the next junction...
@@ -138,7 +141,6 @@ public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
 				}
 			}
 			junctionsStack = nextJunctionsStack;
-			step++;
 		} while (0 < junctionsStack.size());
 
 		return maxStrahlerStreamOrder;
@@ -148,90 +150,85 @@ public class D8OpStrahlerStreamOrder extends D8OpAbstract implements Operation {
 		return (a > b) ? a : b;
 	}
 
+	private boolean isARiverStart(final int i) {
+		final float currAcc = slopesAccumulations[i];
+
+		if (riverThreshold == currAcc) {
+			return true;
+		} else if (riverThreshold < currAcc) {
+			final int nb = flowDirections.getUpstream(i, contributors);
+			for (int k = 0; k < nb; k++) {
+				if (riverThreshold <= slopesAccumulations[contributors[k]]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		return false;
+	}
+
 	private void tagUntilNextJunction(final int startIdx, final short colorTag,
-			final Set<Integer> nextJunctionsStack) throws IOException {
-		Integer idx = startIdx;
-		int rIdx = idx / ncols;
-		int cIdx = idx % ncols;
+			final Set<Integer> nextJunctionsStack) {
+		int idx = startIdx;
 
 		do {
 			strahlerStreamOrder[idx] = colorTag;
-			final Integer next = nextCellIsARiversJunction(idx, cIdx, rIdx,
-					nextJunctionsStack);
-			if (null == next) {
-				// new rivers junction
-				idx = null;
-			} else {
-				idx = next;
-				rIdx = idx / ncols;
-				cIdx = idx % ncols;
-			}
-		} while (null != idx);
+			idx = nextCellIsARiversJunction(idx, nextJunctionsStack);
+		} while (-1 != idx);
 	}
 
-	private Integer nextCellIsARiversJunction(final int idx, final int cIdx,
-			final int rIdx, final Set<Integer> nextJunctionsStack)
-			throws IOException {
-		final Integer next = hydrologyUtilities
-				.fromCellSlopeDirectionToNextCellIndex(idx, cIdx, rIdx);
-		// SlopesUtilities
-		// .fromCellSlopeDirectionToNextCellIndex(gipDirection, ncols,
-		// nrows, idx, cIdx, rIdx);
-		if (null != next) {
-			final Set<Integer> contributiveArea = hydrologyUtilities
-					.fromCellSlopeDirectionIdxToContributiveArea(next);
-			// SlopesUtilities
-			// .fromCellSlopeDirectionIdxToContributiveArea(gipDirection,
-			// ncols, nrows, next);
-			contributiveArea.remove(idx);
-			for (int contributor : contributiveArea) {
-				final int rContributor = contributor / ncols;
-				final int cContributor = contributor % ncols;
-				if (riverThreshold <= gipSlopesAccumulations.getProcessor()
-						.getPixelValue(cContributor, rContributor)) {
+	private int nextCellIsARiversJunction(final int idx,
+			final Set<Integer> nextJunctionsStack) {
+		final int next = flowDirections.getDownstream(idx);
+		if (-1 != next) {
+			final int nb = flowDirections.getUpstream(next, contributors);
+			for (int k = 0; k < nb; k++) {
+				final int contributor = contributors[k];
+				if ((contributor != idx)
+						&& (riverThreshold <= slopesAccumulations[contributor])) {
 					// next cell is a junction cell
 					nextJunctionsStack.add(next);
-					return null;
+					return -1;
 				}
 			}
 		}
 		return next;
 	}
 
-	private Short getStrahlerStreamOrderTag(final int idx) throws IOException {
+	private short getStrahlerStreamOrderTag(final int idx) {
 		if (riversStartValue == strahlerStreamOrder[idx]) {
 			return 1;
 		} else {
-			final Set<Integer> contributiveArea = hydrologyUtilities
-					.fromCellSlopeDirectionIdxToContributiveArea(idx);
-			// SlopesUtilities
-			// .fromCellSlopeDirectionIdxToContributiveArea(gipDirection,
-			// ncols, nrows, idx);
-			final SortedMap<Short, Short> tm = new TreeMap<Short, Short>();
-			for (int contributor : contributiveArea) {
-				final int rContributor = contributor / ncols;
-				final int cContributor = contributor % ncols;
-				if (riverThreshold <= gipSlopesAccumulations.getProcessor()
-						.getPixelValue(cContributor, rContributor)) {
+			short min = Short.MAX_VALUE;
+			short max = Short.MIN_VALUE;
+			int nbOfMax = 0;
+			final int nb = flowDirections.getUpstream(idx, contributors);
+			for (int k = 0; k < nb; k++) {
+				final int contributor = contributors[k];
+				if (riverThreshold <= slopesAccumulations[contributor]) {
 					final short sso = strahlerStreamOrder[contributor];
-					if (tm.containsKey(sso)) {
-						tm.put(sso, (short) (tm.get(sso) + 1));
-					} else {
-						tm.put(sso, (short) 1);
+					if (sso < min) {
+						min = sso;
+					}
+					if (sso > max) {
+						max = sso;
+						nbOfMax = 1;
+					} else if (sso == max) {
+						nbOfMax++;
 					}
 				}
 			}
-			if (noDataValue == tm.firstKey()) {
+			if ((0 == nbOfMax) || (noDataValue == min)) {
 				// the Strahler stream order of at least one contributor has not
 				// been yet calculated... do not do anything !
-				return null;
-			} else if (1 == tm.get(tm.lastKey())) {
+				return noDataValue;
+			} else if (1 == nbOfMax) {
 				// the Strahler stream order of the junction branch is equal to
 				// the unique greatest Strahler stream order of their
 				// contributors
-				return tm.lastKey();
+				return max;
 			} else {
-				return (short) (tm.lastKey() + 1);
+				return (short) (max + 1);
 			}
 		}
 	}
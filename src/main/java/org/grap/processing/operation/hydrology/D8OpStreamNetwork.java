@@ -0,0 +1,247 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Vectorizes the river network of a flow directions grid into JTS
+ * LineStrings, one per stream link (see {@link StreamLink}). River cells are
+ * the cells whose accumulation is greater or equal to the river threshold.
+ * 
+ * The stream orders and the stream links are first computed by
+ * {@link D8OpStreamOrders}; each link is then traced by a single downstream
+ * walk from its most upstream cell, the links being shared between several
+ * threads. Each link carries its Strahler stream order, its length, its
+ * upstream area, its downstream link and its upstream links, so that the
+ * result is a tree usable for network routing.
+ * 
+ * The execute method returns the stream links raster, the vectorized links
+ * being then available through {@link #getLinks()}.
+ */
+public class D8OpStreamNetwork extends D8OpFlowAbstract implements Operation {
+	private final static GeometryFactory geometryFactory = new GeometryFactory();
+
+	private GeoRaster grSlopesAccumulations;
+	private float[] slopesAccumulations;
+	private final int riverThreshold;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	private StreamLink[] links;
+
+	public D8OpStreamNetwork(final GeoRaster grSlopesAccumulations,
+			final int riverThreshold) {
+		this.grSlopesAccumulations = grSlopesAccumulations;
+		this.riverThreshold = riverThreshold;
+	}
+
+	/**
+	 * @param slopesAccumulations
+	 *            one accumulation value per cell of the flow directions grid
+	 *            (as returned by {@link D8OpAccumulation#accumulate})
+	 * @param riverThreshold
+	 */
+	public D8OpStreamNetwork(final float[] slopesAccumulations,
+			final int riverThreshold) {
+		this.slopesAccumulations = slopesAccumulations;
+		this.riverThreshold = riverThreshold;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			if (null == slopesAccumulations) {
+				slopesAccumulations = HydrologyUtilities.getWeights(
+						grSlopesAccumulations, rasterMetadata.getNRows(),
+						rasterMetadata.getNCols());
+			}
+			final D8OpStreamOrders streamOrders = new D8OpStreamOrders(
+					slopesAccumulations, riverThreshold);
+			streamOrders.setNumberOfThreads(nbOfThreads);
+			streamOrders.evaluateResult(flowDirections, pm);
+			if (pm.isCancelled()) {
+				return null;
+			}
+			traceLinks(flowDirections, streamOrders);
+			return streamOrders.getStreamLink();
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * @return the stream links, the link of identifier id being stored at
+	 *         index id - 1
+	 */
+	public StreamLink[] getLinks() {
+		return links;
+	}
+
+	/**
+	 * @param linkId
+	 * @return the identifiers of the links met from the given link down to
+	 *         its river outlet (both included)
+	 */
+	public int[] getPathToTheOutlet(final int linkId) {
+		int nb = 0;
+		for (int id = linkId; StreamLink.noLinkValue != id; id = links[id - 1]
+				.getDownstreamLinkId()) {
+			nb++;
+		}
+		final int[] path = new int[nb];
+		for (int k = 0, id = linkId; k < nb; k++) {
+			path[k] = id;
+			id = links[id - 1].getDownstreamLinkId();
+		}
+		return path;
+	}
+
+	private void traceLinks(final D8FlowDirections flowDirections,
+			final D8OpStreamOrders streamOrders) throws OperationException {
+		final int[] streamLinks = streamOrders.getStreamLinks();
+		final short[] strahlerStreamOrders = streamOrders
+				.getStrahlerStreamOrders();
+		final int nbOfLinks = streamOrders.getNbOfLinks();
+		final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+		final int ncols = flowDirections.getNCols();
+		final double cellArea = Math.abs(rasterMetadata.getPixelSize_X()
+				* rasterMetadata.getPixelSize_Y());
+
+		// the most upstream cell of a link is the only one that does not
+		// receive the flow of a cell of the same link
+		final boolean[] fed = new boolean[streamLinks.length];
+		for (int i = 0; i < streamLinks.length; i++) {
+			if (StreamLink.noLinkValue != streamLinks[i]) {
+				final int next = flowDirections.getDownstream(i);
+				if ((-1 != next) && (streamLinks[i] == streamLinks[next])) {
+					fed[next] = true;
+				}
+			}
+		}
+		final int[] linkStarts = new int[nbOfLinks];
+		for (int i = 0; i < streamLinks.length; i++) {
+			if ((StreamLink.noLinkValue != streamLinks[i]) && !fed[i]) {
+				linkStarts[streamLinks[i] - 1] = i;
+			}
+		}
+
+		links = new StreamLink[nbOfLinks];
+		MultiThreads.execute(nbOfLinks, nbOfThreads,
+				new MultiThreads.Chunk() {
+					public void process(int start, int end) {
+						int[] cells = new int[64];
+						for (int k = start; k < end; k++) {
+							final int id = k + 1;
+							int nb = 0;
+							double length = 0;
+							int downstreamLinkId = StreamLink.noLinkValue;
+							for (int cell = linkStarts[k]; -1 != cell;) {
+								if (nb == cells.length) {
+									final int[] tmp = new int[2 * nb];
+									System.arraycopy(cells, 0, tmp, 0, nb);
+									cells = tmp;
+								}
+								cells[nb++] = cell;
+								if (id != streamLinks[cell]) {
+									// junction cell of the downstream link
+									downstreamLinkId = streamLinks[cell];
+									break;
+								}
+								final int next = flowDirections
+										.getDownstream(cell);
+								if ((-1 == next)
+										|| (StreamLink.noLinkValue == streamLinks[next])) {
+									break;
+								}
+								length += flowDirections.getDistance(cell);
+								cell = next;
+							}
+
+							// a link made of a single cell is drawn as a
+							// degenerated segment
+							final Coordinate[] coordinates = new Coordinate[Math
+									.max(2, nb)];
+							for (int n = 0; n < nb; n++) {
+								final int cell = cells[n];
+								final Point2D center = rasterMetadata.toWorld(
+										cell % ncols, cell / ncols);
+								coordinates[n] = new Coordinate(center.getX(),
+										center.getY());
+							}
+							if (1 == nb) {
+								coordinates[1] = new Coordinate(coordinates[0]);
+							}
+							final int last = (StreamLink.noLinkValue == downstreamLinkId) ? cells[nb - 1]
+									: cells[nb - 2];
+							links[k] = new StreamLink(id, geometryFactory
+									.createLineString(coordinates),
+									strahlerStreamOrders[linkStarts[k]],
+									length, slopesAccumulations[last]
+											* cellArea, downstreamLinkId);
+						}
+					}
+				});
+
+		// reverse the downstream relation
+		final int[] nbOfUpstreamLinks = new int[nbOfLinks];
+		for (StreamLink link : links) {
+			if (StreamLink.noLinkValue != link.getDownstreamLinkId()) {
+				nbOfUpstreamLinks[link.getDownstreamLinkId() - 1]++;
+			}
+		}
+		for (int k = 0; k < nbOfLinks; k++) {
+			links[k].setUpstreamLinkIds(new int[nbOfUpstreamLinks[k]]);
+			nbOfUpstreamLinks[k] = 0;
+		}
+		for (StreamLink link : links) {
+			final int downstream = link.getDownstreamLinkId();
+			if (StreamLink.noLinkValue != downstream) {
+				links[downstream - 1].getUpstreamLinkIds()[nbOfUpstreamLinks[downstream - 1]++] = link
+						.getId();
+			}
+		}
+	}
+}
@@ -0,0 +1,367 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Computes, in a single topological sweep over the river cells, the Strahler
+ * and Shreve stream orders and the stream link identifiers of a river
+ * network. River cells are the cells whose accumulation is greater or equal
+ * to the river threshold. Each river tree (all the river cells that drain to
+ * the same river outlet) is processed independently, so that the trees are
+ * shared between several threads.
+ * 
+ * The execute method returns the Strahler stream orders (as
+ * {@link D8OpStrahlerStreamOrder} does). The Shreve stream orders and the
+ * stream links are then available through the corresponding getters.
+ */
+public class D8OpStreamOrders extends D8OpFlowAbstract implements Operation {
+	public final static short noDataValue = GeoRaster.SHORT_NO_DATA_VALUE;
+	public final static int noLinkValue = 0;
+	private final static byte notARiver = -1;
+
+	private ImagePlus gipSlopesAccumulations;
+	private float[] slopesAccumulations;
+	private int riverThreshold;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	private D8FlowDirections flowDirections;
+	private RasterMetadata rasterMetadata;
+	private byte[] inDegrees;
+	private int[] riverOutlets;
+	private short[] strahlerStreamOrder;
+	private int[] shreveStreamOrder;
+	private int[] streamLinks;
+	private int nbOfLinks;
+
+	public D8OpStreamOrders(final GeoRaster grSlopesAccumulations,
+			final int riverThreshold) throws OperationException {
+		try {
+			gipSlopesAccumulations = grSlopesAccumulations.getImagePlus();
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+		this.riverThreshold = riverThreshold;
+	}
+
+	/**
+	 * @param slopesAccumulations
+	 *            one accumulation value per cell of the flow directions grid
+	 *            (as returned by {@link D8OpAccumulation#accumulate})
+	 * @param riverThreshold
+	 */
+	public D8OpStreamOrders(final float[] slopesAccumulations,
+			final int riverThreshold) {
+		this.slopesAccumulations = slopesAccumulations;
+		this.riverThreshold = riverThreshold;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		this.flowDirections = flowDirections;
+		rasterMetadata = flowDirections.getMetadata();
+
+		computeInDegrees(pm);
+		if (pm.isCancelled()) {
+			return null;
+		}
+		computeStreamOrders();
+		compactStreamLinks();
+
+		try {
+			return getStrahlerStreamOrder();
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	public short[] getStrahlerStreamOrders() {
+		return strahlerStreamOrder;
+	}
+
+	public int[] getShreveStreamOrders() {
+		return shreveStreamOrder;
+	}
+
+	/**
+	 * @return the stream link identifier (1 to getNbOfLinks()) of each river
+	 *         cell, noLinkValue elsewhere
+	 */
+	public int[] getStreamLinks() {
+		return streamLinks;
+	}
+
+	public int getNbOfLinks() {
+		return nbOfLinks;
+	}
+
+	public GeoRaster getStrahlerStreamOrder() throws IOException {
+		final GeoRaster grStrahlerStreamOrder = GeoRasterFactory
+				.createGeoRaster(strahlerStreamOrder, rasterMetadata);
+		grStrahlerStreamOrder.setNodataValue(noDataValue);
+		return grStrahlerStreamOrder;
+	}
+
+	public GeoRaster getShreveStreamOrder() throws IOException {
+		return toGeoRaster(shreveStreamOrder);
+	}
+
+	public GeoRaster getStreamLink() throws IOException {
+		return toGeoRaster(streamLinks);
+	}
+
+	private GeoRaster toGeoRaster(final int[] values) throws IOException {
+		final float[] pixels = new float[values.length];
+		for (int i = 0; i < values.length; i++) {
+			pixels[i] = (noLinkValue == values[i]) ? Float.NaN : values[i];
+		}
+		final GeoRaster gr = GeoRasterFactory.createGeoRaster(pixels,
+				rasterMetadata);
+		gr.setNodataValue(Float.NaN);
+		return gr;
+	}
+
+	/**
+	 * Marks the river cells and counts, for each of them, the number of river
+	 * cells that directly flow into it. The river outlets (river cells that
+	 * do not flow into another river cell) are collected at the same time.
+	 */
+	private void computeInDegrees(final ProgressMonitor pm) {
+		final int nrows = rasterMetadata.getNRows();
+		final int ncols = rasterMetadata.getNCols();
+		final ImageProcessor processor = (null == slopesAccumulations) ? gipSlopesAccumulations
+				.getProcessor()
+				: null;
+
+		inDegrees = new byte[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				final float acc = (null == processor) ? slopesAccumulations[i]
+						: processor.getPixelValue(x, y);
+				inDegrees[i] = (riverThreshold <= acc) ? 0 : notARiver;
+			}
+		}
+
+		int nbOfOutlets = 0;
+		riverOutlets = new int[16];
+		for (int y = 0, i = 0; y < nrows; y++) {
+
+			if (y / 100 == y / 100.0) {
+				if (pm.isCancelled()) {
+					break;
+				} else {
+					pm.progressTo(100 * y / nrows);
+				}
+			}
+
+			for (int x = 0; x < ncols; x++, i++) {
+				if (notARiver != inDegrees[i]) {
+					final int next = flowDirections.getDownstream(i);
+					if ((-1 != next) && (notARiver != inDegrees[next])) {
+						inDegrees[next]++;
+					} else {
+						if (nbOfOutlets == riverOutlets.length) {
+							final int[] tmp = new int[2 * nbOfOutlets];
+							System.arraycopy(riverOutlets, 0, tmp, 0,
+									nbOfOutlets);
+							riverOutlets = tmp;
+						}
+						riverOutlets[nbOfOutlets++] = i;
+					}
+				}
+			}
+		}
+		final int[] tmp = new int[nbOfOutlets];
+		System.arraycopy(riverOutlets, 0, tmp, 0, nbOfOutlets);
+		riverOutlets = tmp;
+	}
+
+	private void computeStreamOrders() throws OperationException {
+		final int nbCells = inDegrees.length;
+		strahlerStreamOrder = new short[nbCells];
+		shreveStreamOrder = new int[nbCells];
+		streamLinks = new int[nbCells];
+		for (int i = 0; i < nbCells; i++) {
+			strahlerStreamOrder[i] = noDataValue;
+		}
+
+		MultiThreads.execute(riverOutlets.length, nbOfThreads,
+				new MultiThreads.Chunk() {
+					public void process(int start, int end) {
+						final RiverTreeSweep sweep = new RiverTreeSweep();
+						for (int k = start; k < end; k++) {
+							sweep.process(riverOutlets[k]);
+						}
+					}
+				});
+	}
+
+	/**
+	 * The links are temporarily identified by their most upstream cell index
+	 * (plus one). Renumber them from 1 to nbOfLinks, in the scan order of
+	 * their most upstream cell, so that the result does not depend on the
+	 * threads scheduling. The new identifiers of the links' starts are first
+	 * stored as negative values.
+	 */
+	private void compactStreamLinks() {
+		nbOfLinks = 0;
+		for (int i = 0; i < streamLinks.length; i++) {
+			if (i + 1 == streamLinks[i]) {
+				streamLinks[i] = -(++nbOfLinks);
+			}
+		}
+		for (int i = 0; i < streamLinks.length; i++) {
+			if (0 < streamLinks[i]) {
+				streamLinks[i] = -streamLinks[streamLinks[i] - 1];
+			}
+		}
+		for (int i = 0; i < streamLinks.length; i++) {
+			if (0 > streamLinks[i]) {
+				streamLinks[i] = -streamLinks[i];
+			}
+		}
+	}
+
+	/**
+	 * Topological sweep of a single river tree. The tree cells are first
+	 * collected with a breadth first search from the river outlet, then
+	 * processed from the river starts (null in-degree) downstream: a cell is
+	 * queued as soon as all its river contributors have been processed.
+	 */
+	private class RiverTreeSweep {
+		private final int[] contributors = new int[8];
+		private int[] tree = new int[64];
+		private int[] queue = new int[64];
+		private int treeSize;
+
+		void process(final int outlet) {
+			// collect the tree cells and enqueue the river starts...
+			collectTree(outlet);
+			int tail = 0;
+			for (int k = 0; k < treeSize; k++) {
+				if (0 == inDegrees[tree[k]]) {
+					queue[tail++] = tree[k];
+				}
+			}
+
+			// ... then sweep downstream
+			for (int head = 0; head < tail; head++) {
+				final int idx = queue[head];
+				orderCell(idx);
+				if (idx != outlet) {
+					final int next = flowDirections.getDownstream(idx);
+					if (0 == --inDegrees[next]) {
+						queue[tail++] = next;
+					}
+				}
+			}
+		}
+
+		private void collectTree(final int outlet) {
+			tree[0] = outlet;
+			treeSize = 1;
+			for (int head = 0; head < treeSize; head++) {
+				final int nb = flowDirections.getUpstream(tree[head],
+						contributors);
+				for (int k = 0; k < nb; k++) {
+					if (notARiver != inDegrees[contributors[k]]) {
+						if (treeSize == tree.length) {
+							final int[] tmp = new int[2 * treeSize];
+							System.arraycopy(tree, 0, tmp, 0, treeSize);
+							tree = tmp;
+						}
+						tree[treeSize++] = contributors[k];
+					}
+				}
+			}
+			if (queue.length < treeSize) {
+				queue = new int[tree.length];
+			}
+		}
+
+		private void orderCell(final int idx) {
+			short maxStrahler = 0;
+			int nbOfMax = 0;
+			int shreve = 0;
+			int nbOfContributors = 0;
+			int link = 0;
+
+			final int nb = flowDirections.getUpstream(idx, contributors);
+			for (int k = 0; k < nb; k++) {
+				final int contributor = contributors[k];
+				if (notARiver != inDegrees[contributor]) {
+					final short strahler = strahlerStreamOrder[contributor];
+					if (strahler > maxStrahler) {
+						maxStrahler = strahler;
+						nbOfMax = 1;
+					} else if (strahler == maxStrahler) {
+						nbOfMax++;
+					}
+					shreve += shreveStreamOrder[contributor];
+					link = streamLinks[contributor];
+					nbOfContributors++;
+				}
+			}
+
+			if (0 == nbOfContributors) {
+				// river start
+				strahlerStreamOrder[idx] = 1;
+				shreveStreamOrder[idx] = 1;
+				streamLinks[idx] = idx + 1;
+			} else if (1 == nbOfContributors) {
+				strahlerStreamOrder[idx] = maxStrahler;
+				shreveStreamOrder[idx] = shreve;
+				streamLinks[idx] = link;
+			} else {
+				// rivers junction
+				strahlerStreamOrder[idx] = (1 == nbOfMax) ? maxStrahler
+						: (short) (maxStrahler + 1);
+				shreveStreamOrder[idx] = shreve;
+				streamLinks[idx] = idx + 1;
+			}
+		}
+	}
+}
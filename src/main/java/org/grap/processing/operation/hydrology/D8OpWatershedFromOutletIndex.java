@@ -29,8 +29,7 @@
 package org.grap.processing.operation.hydrology;
 
 import java.io.IOException;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
 
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
@@ -39,13 +38,13 @@ import org.grap.processing.Operation;
 import org.grap.processing.OperationException;
 import org.orbisgis.progress.ProgressMonitor;
 
-public class D8OpWatershedFromOutletIndex extends D8OpAbstract implements
+public class D8OpWatershedFromOutletIndex extends D8OpFlowAbstract implements
 		Operation {
 	public final static byte ndv = 0;
 	public final static byte doNotBelongsToTheWatershed = ndv;
 	public final static byte belongsToTheWatershed = 1;
 
-	private HydrologyUtilities hydrologyUtilities;
+	private D8ReverseFlowGraph reverseFlowGraph;
 	private float[] sameWatershed;
 	private int ncols;
 	private int nrows;
@@ -56,13 +55,32 @@ public class D8OpWatershedFromOutletIndex extends D8OpAbstract implements
 		this.outletIdx = outletIdx;
 	}
 
+	/**
+	 * Use this constructor to delineate several watersheds on the same flow
+	 * directions grid : the reverse flow graph is then only built once. It is
+	 * reused whenever the operation is executed on the same directions, even
+	 * if they are decoded again from a D8 directions GeoRaster.
+	 * 
+	 * @param reverseFlowGraph
+	 * @param outletIdx
+	 */
+	public D8OpWatershedFromOutletIndex(
+			final D8ReverseFlowGraph reverseFlowGraph, final int outletIdx) {
+		this.reverseFlowGraph = reverseFlowGraph;
+		this.outletIdx = outletIdx;
+	}
+
 	@Override
-	public GeoRaster evaluateResult(GeoRaster direction, ProgressMonitor pm)
-			throws OperationException {
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
 		try {
-			hydrologyUtilities = new HydrologyUtilities(direction);
+			if ((null == reverseFlowGraph)
+					|| !isBuiltOn(reverseFlowGraph.getFlowDirections(),
+							flowDirections)) {
+				reverseFlowGraph = new D8ReverseFlowGraph(flowDirections);
+			}
 
-			final RasterMetadata rasterMetadata = direction.getMetadata();
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
 			nrows = rasterMetadata.getNRows();
 			ncols = rasterMetadata.getNCols();
 			computeSameWatershed();
@@ -77,23 +95,24 @@ public class D8OpWatershedFromOutletIndex extends D8OpAbstract implements
 		}
 	}
 
-	private void computeSameWatershed() throws IOException {
-		sameWatershed = new float[nrows * ncols];
-		Set<Integer> parentsCell = new HashSet<Integer>();
-		parentsCell.add(outletIdx);
-		do {
-			parentsCell = computeSameWatershed(parentsCell);
-		} while (0 < parentsCell.size());
+	public D8ReverseFlowGraph getReverseFlowGraph() {
+		return reverseFlowGraph;
 	}
 
-	private Set<Integer> computeSameWatershed(final Set<Integer> sonsCell)
-			throws IOException {
-		final Set<Integer> parentsCell = new HashSet<Integer>();
-		for (int sonIdx : sonsCell) {
-			sameWatershed[sonIdx] = belongsToTheWatershed;
-			parentsCell.addAll(hydrologyUtilities
-					.fromCellSlopeDirectionIdxToContributiveArea(sonIdx));
+	private static boolean isBuiltOn(final D8FlowDirections graphDirections,
+			final D8FlowDirections flowDirections) {
+		if (graphDirections == flowDirections) {
+			return true;
+		}
+		return (graphDirections.getNCols() == flowDirections.getNCols())
+				&& Arrays.equals(graphDirections.getDirections(),
+						flowDirections.getDirections());
+	}
+
+	private void computeSameWatershed() {
+		sameWatershed = new float[nrows * ncols];
+		for (int idx : reverseFlowGraph.getUpstreamCells(outletIdx)) {
+			sameWatershed[idx] = belongsToTheWatershed;
 		}
-		return parentsCell;
 	}
 }
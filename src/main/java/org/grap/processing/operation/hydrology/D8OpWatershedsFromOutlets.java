@@ -0,0 +1,274 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import ij.process.ImageProcessor;
+
+import java.awt.geom.Point2D;
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+
+/**
+ * Labels, in a single upstream breadth first sweep over the reverse flow
+ * graph, the catchments of a set of outlets. Each cell receives the label of
+ * the nearest outlet it drains to (1 for the first outlet, 2 for the second
+ * one and so on), or {@link #ndv} if it does not drain to any of them.
+ * 
+ * The same sweep also produces the "all outlets" and "all watersheds" products
+ * (see {@link D8OpAllOutlets} and {@link D8OpAllWatersheds}) : the terminal
+ * cells of the flow directions grid (see
+ * {@link D8FlowDirections#getTerminalCells()}) and the basin each cell belongs
+ * to.
+ * When no outlet is given, these terminal cells are used as outlets.
+ * 
+ * Labels are computed as integers : they are available without any loss of
+ * precision thanks to {@link #getWatershedLabels()} and
+ * {@link #getAllWatershedLabels()}, whereas the returned GeoRaster stores them
+ * as floats.
+ */
+public class D8OpWatershedsFromOutlets extends D8OpFlowAbstract implements
+		Operation {
+	public final static float ndv = 0;
+	public final static float isAnOutletValue = 1;
+
+	private int[] outletsIdx;
+	private Coordinate[] outletsCoordinates;
+	private GeoRaster grOutlets;
+
+	private D8FlowDirections flowDirections;
+	private RasterMetadata rasterMetadata;
+	private int[] terminalCells;
+	private int[] watershedLabels;
+	private int[] allWatershedLabels;
+	private int nbOfWatersheds;
+
+	/**
+	 * All the terminal cells of the flow directions grid are used as outlets.
+	 */
+	public D8OpWatershedsFromOutlets() {
+	}
+
+	/**
+	 * @param outletsIdx
+	 *            indices (row * ncols + col) of the outlets
+	 */
+	public D8OpWatershedsFromOutlets(final int[] outletsIdx) {
+		this.outletsIdx = outletsIdx;
+	}
+
+	/**
+	 * @param outletsCoordinates
+	 *            real world coordinates of the outlets
+	 */
+	public D8OpWatershedsFromOutlets(final Coordinate[] outletsCoordinates) {
+		this.outletsCoordinates = outletsCoordinates;
+	}
+
+	/**
+	 * @param grOutlets
+	 *            a raster of points, with the same extent and resolution than
+	 *            the flow directions grid, where each non-zero and non
+	 *            nodataValue cell is an outlet. Outlets are labelled in the
+	 *            order of a row by row scan.
+	 */
+	public D8OpWatershedsFromOutlets(final GeoRaster grOutlets) {
+		this.grOutlets = grOutlets;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			this.flowDirections = flowDirections;
+			rasterMetadata = flowDirections.getMetadata();
+			final int[] outlets = getOutlets();
+			labelWatersheds(outlets, pm);
+
+			return (null == outlets) ? getAllWatersheds() : toGeoRaster(
+					watershedLabels, ndv);
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	private int[] getOutlets() throws IOException {
+		final int ncols = rasterMetadata.getNCols();
+		final int nrows = rasterMetadata.getNRows();
+
+		if (null != outletsIdx) {
+			return outletsIdx;
+		} else if (null != outletsCoordinates) {
+			final int[] outlets = new int[outletsCoordinates.length];
+			for (int k = 0; k < outlets.length; k++) {
+				final Point2D pixel = rasterMetadata.toPixel(
+						outletsCoordinates[k].x, outletsCoordinates[k].y);
+				final int x = (int) pixel.getX();
+				final int y = (int) pixel.getY();
+				outlets[k] = ((0 > x) || (ncols <= x) || (0 > y) || (nrows <= y)) ? -1
+						: y * ncols + x;
+			}
+			return outlets;
+		} else if (null != grOutlets) {
+			final ImageProcessor processor = grOutlets.getImagePlus()
+					.getProcessor();
+			final float outletsNdv = (float) grOutlets.getNoDataValue();
+			int nbOfOutlets = 0;
+			int[] outlets = new int[16];
+			for (int y = 0, i = 0; y < nrows; y++) {
+				for (int x = 0; x < ncols; x++, i++) {
+					final float value = processor.getPixelValue(x, y);
+					if (!Float.isNaN(value) && (0 != value)
+							&& (outletsNdv != value)) {
+						if (nbOfOutlets == outlets.length) {
+							final int[] tmp = new int[2 * outlets.length];
+							System.arraycopy(outlets, 0, tmp, 0, nbOfOutlets);
+							outlets = tmp;
+						}
+						outlets[nbOfOutlets++] = i;
+					}
+				}
+			}
+			final int[] result = new int[nbOfOutlets];
+			System.arraycopy(outlets, 0, result, 0, nbOfOutlets);
+			return result;
+		}
+		return null;
+	}
+
+	private void labelWatersheds(final int[] outlets, ProgressMonitor pm) {
+		final int nbCells = flowDirections.getNbCells();
+
+		// terminal cells are the roots of the reverse flow graph
+		terminalCells = flowDirections.getTerminalCells();
+		final int nbOfTerminalCells = terminalCells.length;
+		allWatershedLabels = new int[nbCells];
+		for (int k = 0; k < nbOfTerminalCells; k++) {
+			allWatershedLabels[terminalCells[k]] = k + 1;
+		}
+		nbOfWatersheds = nbOfTerminalCells;
+
+		if (null == outlets) {
+			watershedLabels = allWatershedLabels;
+		} else {
+			watershedLabels = new int[nbCells];
+			for (int k = 0; k < outlets.length; k++) {
+				if ((-1 != outlets[k])
+						&& !flowDirections.isOutside(outlets[k])) {
+					watershedLabels[outlets[k]] = k + 1;
+				}
+			}
+		}
+
+		// single sweep, from downstream to upstream (the border cells do not
+		// belong to any watershed)
+		final int[] order = new D8ReverseFlowGraph(flowDirections, true)
+				.getUpstreamOrder(terminalCells);
+		final int step = Math.max(1, order.length / 100);
+		for (int k = nbOfTerminalCells; k < order.length; k++) {
+			if (0 == k % step) {
+				if (pm.isCancelled()) {
+					break;
+				} else {
+					pm.progressTo((int) (100L * k / order.length));
+				}
+			}
+
+			final int cell = order[k];
+			final int next = flowDirections.getDownstream(cell);
+			allWatershedLabels[cell] = allWatershedLabels[next];
+			if (0 == watershedLabels[cell]) {
+				watershedLabels[cell] = watershedLabels[next];
+			}
+		}
+	}
+
+	private GeoRaster toGeoRaster(final int[] labels, final float noDataValue)
+			throws IOException {
+		final float[] pixels = new float[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			pixels[i] = labels[i];
+		}
+		final GeoRaster geoRaster = GeoRasterFactory.createGeoRaster(pixels,
+				rasterMetadata);
+		geoRaster.setNodataValue(noDataValue);
+		return geoRaster;
+	}
+
+	/**
+	 * @return the label of the catchment of each cell (0 if the cell does not
+	 *         drain to any of the given outlets)
+	 */
+	public int[] getWatershedLabels() {
+		return watershedLabels;
+	}
+
+	/**
+	 * @return the label of the basin of each cell (0 for nodataValue and
+	 *         border cells)
+	 */
+	public int[] getAllWatershedLabels() {
+		return allWatershedLabels;
+	}
+
+	/**
+	 * @return the indices of all the terminal cells of the flow directions
+	 *         grid, the label of the basin drained by terminalCells[k] being
+	 *         k + 1
+	 */
+	public int[] getAllOutletsIndices() {
+		return terminalCells;
+	}
+
+	public int getNbOfWatersheds() {
+		return nbOfWatersheds;
+	}
+
+	public GeoRaster getAllWatersheds() throws IOException {
+		return toGeoRaster(allWatershedLabels, ndv);
+	}
+
+	public GeoRaster getAllOutlets() throws IOException {
+		final float[] pixels = new float[allWatershedLabels.length];
+		for (int terminalCell : terminalCells) {
+			pixels[terminalCell] = isAnOutletValue;
+		}
+		final GeoRaster geoRaster = GeoRasterFactory.createGeoRaster(pixels,
+				rasterMetadata);
+		geoRaster.setNodataValue(ndv);
+		return geoRaster;
+	}
+}
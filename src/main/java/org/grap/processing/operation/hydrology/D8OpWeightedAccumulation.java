@@ -0,0 +1,165 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Weighted D8 flow accumulation : each cell receives its own weight (rainfall,
+ * runoff coefficient, pollutant load...) plus the accumulation of all its
+ * upstream neighbours. Several weights GeoRasters may be given : all of them
+ * are accumulated in the same topological sweep, each of them producing its
+ * own output band (so that an additional weights layer only costs an
+ * additional array, not an additional pass). A null weights GeoRaster counts
+ * the contributing cells, as {@link D8OpAccumulation} does. The nodataValue
+ * weights count for 0.
+ * 
+ * Each basin is collected by an upstream breadth first traversal started from
+ * its terminal cell, and then accumulated in the reverse order. The basins are
+ * shared between several threads (see {@link D8ReverseFlowGraph#visitBasins}).
+ * 
+ * The execute method returns the first band, the whole set of bands being
+ * available thanks to {@link #getAccumulations()}.
+ */
+public class D8OpWeightedAccumulation extends D8OpFlowAbstract implements
+		Operation {
+	private final GeoRaster[] grWeights;
+	private GeoRaster[] grAccumulations;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	/**
+	 * @param grWeights
+	 *            one weights GeoRaster per output band, a null one counts the
+	 *            contributing cells
+	 */
+	public D8OpWeightedAccumulation(final GeoRaster... grWeights) {
+		this.grWeights = (0 == grWeights.length) ? new GeoRaster[] { null }
+				: grWeights;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	@Override
+	public GeoRaster evaluateResult(D8FlowDirections flowDirections,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+			final float[][] weights = new float[grWeights.length][];
+			for (int b = 0; b < grWeights.length; b++) {
+				weights[b] = HydrologyUtilities.getWeights(grWeights[b],
+						rasterMetadata.getNRows(), rasterMetadata.getNCols());
+			}
+			final float[][] accumulations = accumulate(flowDirections,
+					weights, pm);
+			if (null == accumulations) {
+				return null;
+			}
+			grAccumulations = new GeoRaster[accumulations.length];
+			for (int b = 0; b < accumulations.length; b++) {
+				grAccumulations[b] = GeoRasterFactory.createGeoRaster(
+						accumulations[b], rasterMetadata);
+				grAccumulations[b].setNodataValue(flowDirections
+						.getNoDataValue());
+			}
+			return grAccumulations[0];
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * @return one accumulation GeoRaster per weights GeoRaster, in the order
+	 *         of the constructor parameters
+	 */
+	public GeoRaster[] getAccumulations() {
+		return grAccumulations;
+	}
+
+	/**
+	 * Accumulates several weights arrays in the same topological sweep.
+	 * 
+	 * @param flowDirections
+	 * @param weights
+	 *            one array of weights per band, a null band counts the
+	 *            contributing cells
+	 * @param pm
+	 * @return one accumulations array per band, the nodataValue and border
+	 *         cells being equal to the nodataValue of the flow directions,
+	 *         null if cancelled
+	 * @throws OperationException
+	 */
+	public float[][] accumulate(final D8FlowDirections flowDirections,
+			final float[][] weights, ProgressMonitor pm)
+			throws OperationException {
+		final int nbCells = flowDirections.getNbCells();
+		final int nbBands = weights.length;
+		final float ndv = flowDirections.getNoDataValue();
+		final float[][] accumulations = new float[nbBands][nbCells];
+		for (int i = 0; i < nbCells; i++) {
+			final boolean outside = flowDirections.isOutside(i);
+			for (int b = 0; b < nbBands; b++) {
+				if (outside) {
+					accumulations[b][i] = ndv;
+				} else {
+					accumulations[b][i] = (null == weights[b]) ? 1
+							: weights[b][i];
+				}
+			}
+		}
+
+		// the reverse upstream order is a topological order of the basins
+		// (from their springs to their terminal cells)
+		final D8ReverseFlowGraph.BasinsVisitor visitor = new D8ReverseFlowGraph.BasinsVisitor() {
+			public void visit(final int[] order, final int firstRoot,
+					final int nbOfRoots) {
+				for (int k = order.length - 1; k >= nbOfRoots; k--) {
+					final int cell = order[k];
+					final int next = flowDirections.getDownstream(cell);
+					for (int b = 0; b < nbBands; b++) {
+						accumulations[b][next] += accumulations[b][cell];
+					}
+				}
+			}
+		};
+		final boolean done = new D8ReverseFlowGraph(flowDirections, true)
+				.visitBasins(flowDirections.getTerminalCells(), nbOfThreads,
+						visitor, pm);
+		return done ? accumulations : null;
+	}
+}
@@ -0,0 +1,371 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Reverse D8 flow graph stored in a compressed sparse row (CSR) layout : the
+ * upstream neighbours (the "children") of cell i are stored in
+ * children[offsets[i]] ... children[offsets[i + 1] - 1].
+ * 
+ * The graph is built once, in two linear passes over a
+ * {@link D8FlowDirections} grid. Then, any upstream query (all the cells
+ * upstream of a given cell, upstream area, upstream mask) only visits the
+ * cells of the resulting catchment, without any allocation per visited cell.
+ * 
+ * The flow directions grid is supposed to be acyclic, as the one produced by
+ * {@link D8OpDirection}.
+ */
+public class D8ReverseFlowGraph {
+	private final D8FlowDirections flowDirections;
+	private final int[] offsets;
+	private final int[] children;
+	private final int ncols;
+	private final int nrows;
+	private final boolean insideOnly;
+
+	/**
+	 * Visitor of the basins processed by {@link D8ReverseFlowGraph#visitBasins}
+	 */
+	public interface BasinsVisitor {
+		/**
+		 * @param order
+		 *            the roots firstRoot to firstRoot + nbOfRoots - 1,
+		 *            followed by all the cells upstream of them, in upstream
+		 *            order (see {@link D8ReverseFlowGraph#getUpstreamOrder})
+		 * @param firstRoot
+		 * @param nbOfRoots
+		 */
+		public void visit(final int[] order, final int firstRoot,
+				final int nbOfRoots);
+	}
+
+	public D8ReverseFlowGraph(final D8FlowDirections flowDirections) {
+		this(flowDirections, false);
+	}
+
+	/**
+	 * @param flowDirections
+	 * @param insideOnly
+	 *            if true, the nodataValue and border cells (see
+	 *            {@link D8FlowDirections#isOutside(int)}) are left out of the
+	 *            graph : they neither have nor are children
+	 */
+	public D8ReverseFlowGraph(final D8FlowDirections flowDirections,
+			final boolean insideOnly) {
+		this.flowDirections = flowDirections;
+		this.insideOnly = insideOnly;
+		ncols = flowDirections.getNCols();
+		nrows = flowDirections.getNRows();
+		final int nbCells = flowDirections.getNbCells();
+
+		// 1st pass: in-degree of each cell
+		offsets = new int[nbCells + 1];
+		for (int i = 0; i < nbCells; i++) {
+			final int next = getParent(i);
+			if (-1 != next) {
+				offsets[next + 1]++;
+			}
+		}
+		for (int i = 0; i < nbCells; i++) {
+			offsets[i + 1] += offsets[i];
+		}
+
+		// 2nd pass: fill in the children array
+		children = new int[offsets[nbCells]];
+		final int[] cursors = new int[nbCells];
+		System.arraycopy(offsets, 0, cursors, 0, nbCells);
+		for (int i = 0; i < nbCells; i++) {
+			final int next = getParent(i);
+			if (-1 != next) {
+				children[cursors[next]++] = i;
+			}
+		}
+	}
+
+	public D8FlowDirections getFlowDirections() {
+		return flowDirections;
+	}
+
+	public int getNbCells() {
+		return offsets.length - 1;
+	}
+
+	/**
+	 * @param i
+	 * @return the number of cells that directly flow into cell i
+	 */
+	public int getInDegree(final int i) {
+		return offsets[i + 1] - offsets[i];
+	}
+
+	/**
+	 * @param i
+	 * @param k
+	 * @return the k-th cell that directly flows into cell i
+	 */
+	public int getChild(final int i, final int k) {
+		return children[offsets[i] + k];
+	}
+
+	/**
+	 * Gives a direct access to the CSR offsets array (of length nbCells + 1).
+	 * It must not be modified.
+	 * 
+	 * @return
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Gives a direct access to the CSR children array. It must not be
+	 * modified.
+	 * 
+	 * @return
+	 */
+	public int[] getChildren() {
+		return children;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the indices of all the cells upstream of cell (x, y), including
+	 *         cell (x, y) itself, in breadth first order. An empty array is
+	 *         returned if (x, y) is outside of the grid.
+	 */
+	public int[] getUpstreamCells(final int x, final int y) {
+		return isInside(x, y) ? getUpstreamCells(y * ncols + x) : new int[0];
+	}
+
+	/**
+	 * @param idx
+	 * @return the indices of all the cells upstream of cell idx, including cell
+	 *         idx itself, in breadth first order.
+	 */
+	public int[] getUpstreamCells(final int idx) {
+		return getUpstreamOrder(new int[] { idx });
+	}
+
+	/**
+	 * Breadth first traversal of the reverse flow graph from several seeds at
+	 * once. As the traversal goes upstream, each cell appears in the result
+	 * after the cell it flows into : the result is a topological order that
+	 * can be used to propagate any value from downstream to upstream in a
+	 * single loop.
+	 * 
+	 * The seeds must be independent, that is to say none of them may be
+	 * upstream of another one (for example the outlets of all the basins of
+	 * the grid).
+	 * 
+	 * @param seeds
+	 * @return the seeds followed by all the cells upstream of them
+	 */
+	public int[] getUpstreamOrder(final int[] seeds) {
+		// the result array is also used as the BFS queue
+		int[] queue = new int[Math.min(Math.max(1024, seeds.length),
+				getNbCells())];
+		System.arraycopy(seeds, 0, queue, 0, seeds.length);
+		int head = 0;
+		int tail = seeds.length;
+		while (head < tail) {
+			final int cur = queue[head++];
+			final int end = offsets[cur + 1];
+			for (int k = offsets[cur]; k < end; k++) {
+				if (tail == queue.length) {
+					queue = grow(queue, tail);
+				}
+				queue[tail++] = children[k];
+			}
+		}
+		return trim(queue, tail);
+	}
+
+	/**
+	 * Upstream traversal of independent basins shared between several threads
+	 * : each thread receives a chunk of roots and the upstream order of the
+	 * cells that drain to them. The progression is reported, and the
+	 * cancellation checked, between the batches of basins.
+	 * 
+	 * @param roots
+	 *            independent seeds, such as
+	 *            {@link D8FlowDirections#getTerminalCells()}
+	 * @param nbOfThreads
+	 * @param visitor
+	 * @param pm
+	 * @return false if the traversal has been cancelled
+	 * @throws OperationException
+	 */
+	public boolean visitBasins(final int[] roots, final int nbOfThreads,
+			final BasinsVisitor visitor, final ProgressMonitor pm)
+			throws OperationException {
+		final int batchSize = Math.max(4 * nbOfThreads,
+				(roots.length + 99) / 100);
+		for (int first = 0; first < roots.length; first += batchSize) {
+			if (pm.isCancelled()) {
+				return false;
+			}
+			pm.progressTo((int) (100L * first / roots.length));
+			final int batchStart = first;
+			MultiThreads.execute(Math.min(batchSize, roots.length - first),
+					nbOfThreads, new MultiThreads.Chunk() {
+						public void process(final int start, final int end) {
+							final int[] seeds = new int[end - start];
+							System.arraycopy(roots, batchStart + start, seeds,
+									0, seeds.length);
+							visitor.visit(getUpstreamOrder(seeds), batchStart
+									+ start, seeds.length);
+						}
+					});
+		}
+		return true;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the number of cells upstream of cell (x, y), including cell (x,
+	 *         y) itself
+	 */
+	public int getUpstreamCellsCount(final int x, final int y) {
+		return isInside(x, y) ? getUpstreamCellsCount(y * ncols + x) : 0;
+	}
+
+	public int getUpstreamCellsCount(final int idx) {
+		return getUpstreamCells(idx).length;
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return the upstream area of cell (x, y) in the (squared) units of the
+	 *         raster metadata
+	 */
+	public double getUpstreamArea(final int x, final int y) {
+		return getUpstreamCellsCount(x, y) * getCellArea();
+	}
+
+	public double getUpstreamArea(final int idx) {
+		return getUpstreamCellsCount(idx) * getCellArea();
+	}
+
+	/**
+	 * @param x
+	 * @param y
+	 * @return a mask where all the cells upstream of cell (x, y), including
+	 *         cell (x, y) itself, are equal to true
+	 */
+	public boolean[] getUpstreamMask(final int x, final int y) {
+		final boolean[] mask = new boolean[getNbCells()];
+		if (isInside(x, y)) {
+			fillUpstreamMask(y * ncols + x, mask);
+		}
+		return mask;
+	}
+
+	public boolean[] getUpstreamMask(final int idx) {
+		final boolean[] mask = new boolean[getNbCells()];
+		fillUpstreamMask(idx, mask);
+		return mask;
+	}
+
+	/**
+	 * Sets to true, in the given mask, all the cells upstream of cell idx.
+	 * Cells already set to true are not visited again, so that the same mask
+	 * can be used to accumulate several catchments.
+	 * 
+	 * @param idx
+	 * @param mask
+	 * @return the number of newly marked cells
+	 */
+	public int fillUpstreamMask(final int idx, final boolean[] mask) {
+		if (mask[idx]) {
+			return 0;
+		}
+		int[] queue = new int[Math.min(1024, getNbCells())];
+		int head = 0;
+		int tail = 0;
+		mask[idx] = true;
+		queue[tail++] = idx;
+		while (head < tail) {
+			final int cur = queue[head++];
+			final int end = offsets[cur + 1];
+			for (int k = offsets[cur]; k < end; k++) {
+				final int child = children[k];
+				if (!mask[child]) {
+					if (tail == queue.length) {
+						queue = grow(queue, tail);
+					}
+					mask[child] = true;
+					queue[tail++] = child;
+				}
+			}
+		}
+		return tail;
+	}
+
+	private int[] grow(final int[] queue, final int length) {
+		final int[] tmp = new int[Math.min(2 * queue.length, getNbCells())];
+		System.arraycopy(queue, 0, tmp, 0, length);
+		return tmp;
+	}
+
+	private static int[] trim(final int[] queue, final int length) {
+		if (length == queue.length) {
+			return queue;
+		} else {
+			final int[] result = new int[length];
+			System.arraycopy(queue, 0, result, 0, length);
+			return result;
+		}
+	}
+
+	private int getParent(final int i) {
+		final int next = flowDirections.getDownstream(i);
+		if (insideOnly && (-1 != next)
+				&& (flowDirections.isOutside(i) || flowDirections
+						.isOutside(next))) {
+			return -1;
+		}
+		return next;
+	}
+
+	private boolean isInside(final int x, final int y) {
+		return (0 <= x) && (ncols > x) && (0 <= y) && (nrows > y);
+	}
+
+	private double getCellArea() {
+		return Math.abs(flowDirections.getMetadata().getPixelSize_X()
+				* flowDirections.getMetadata().getPixelSize_Y());
+	}
+}
@@ -0,0 +1,459 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.io.EsriGRIDReader;
+import org.grap.io.EsriGRIDWriter;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Out of core version of {@link D8OpAccumulation} : the D8 directions grid is
+ * read from an ESRI ascii grid file and the accumulations are written into
+ * another one, tile by tile, so that the memory footprint only depends on the
+ * size and the number of the tiles processed at the same time, and not on
+ * the size of the DEM. As the ascii grids are streamed sequentially, the
+ * tiles are bands of tileHeight complete rows.
+ * 
+ * The first pass computes the local accumulations of each tile (in parallel).
+ * Only the cells that flow into another tile (the exits) are kept, with the
+ * exit each cell of the first and last rows drains to. This small inter-tile
+ * graph is then solved (in topological order) to get the global accumulation
+ * of each exit. The second pass re-reads each tile, injects the inflows of
+ * the upstream tiles and writes the final accumulations.
+ */
+public class D8TiledAccumulation {
+	private final static int[] DX = D8FlowDirections.DX;
+	private final static int[] DY = D8FlowDirections.DY;
+
+	private final String directionsFileName;
+	private final String accumulationsFileName;
+	private final int tileHeight;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	private RasterMetadata rasterMetadata;
+	private int ncols;
+	private int nrows;
+	private float ndv;
+	private Tile[] tiles;
+
+	/**
+	 * @param directionsFileName
+	 *            an ESRI ascii grid of D8 directions (as produced by
+	 *            {@link D8OpDirection})
+	 * @param accumulationsFileName
+	 *            the ESRI ascii grid to be written
+	 * @param tileHeight
+	 *            the number of rows per tile
+	 */
+	public D8TiledAccumulation(final String directionsFileName,
+			final String accumulationsFileName, final int tileHeight) {
+		this.directionsFileName = directionsFileName;
+		this.accumulationsFileName = accumulationsFileName;
+		this.tileHeight = tileHeight;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	public void execute(ProgressMonitor pm) throws OperationException {
+		try {
+			computeLocalAccumulations(pm);
+			if (pm.isCancelled()) {
+				return;
+			}
+			solveInterTilesGraph();
+			writeAccumulations(pm);
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * 1st pass : local accumulation of each tile, keeping only the exits and
+	 * the drainage of the first and last rows.
+	 */
+	private void computeLocalAccumulations(final ProgressMonitor pm)
+			throws IOException, OperationException {
+		final EsriGRIDReader reader = new EsriGRIDReader(directionsFileName);
+		rasterMetadata = reader.openRows();
+		try {
+			ncols = rasterMetadata.getNCols();
+			nrows = rasterMetadata.getNRows();
+			ndv = rasterMetadata.getNoDataValue();
+			tiles = new Tile[(nrows + tileHeight - 1) / tileHeight];
+			for (int t = 0; t < tiles.length; t++) {
+				tiles[t] = new Tile(t * tileHeight, Math.min(tileHeight, nrows
+						- t * tileHeight));
+			}
+
+			for (int t = 0; t < tiles.length; t += nbOfThreads) {
+				if (pm.isCancelled()) {
+					return;
+				}
+				pm.progressTo(50 * t / tiles.length);
+				final int first = t;
+				final int nb = Math.min(nbOfThreads, tiles.length - t);
+				for (int k = first; k < first + nb; k++) {
+					tiles[k].read(reader);
+				}
+				MultiThreads.execute(nb, nbOfThreads,
+						new MultiThreads.Chunk() {
+							public void process(int start, int end) {
+								for (int k = start; k < end; k++) {
+									tiles[first + k].computeExits();
+								}
+							}
+						});
+			}
+		} finally {
+			reader.closeRows();
+		}
+	}
+
+	/**
+	 * The global accumulation of an exit is its local accumulation plus the
+	 * global accumulations of all the upstream exits whose target cell drains
+	 * to it. Exits are processed in topological order.
+	 */
+	private void solveInterTilesGraph() {
+		int nbOfExits = 0;
+		final int[] exitsOffsets = new int[tiles.length + 1];
+		for (int t = 0; t < tiles.length; t++) {
+			exitsOffsets[t] = nbOfExits;
+			nbOfExits += tiles[t].nbOfExits;
+		}
+		exitsOffsets[tiles.length] = nbOfExits;
+
+		// downstream exit of each exit (through its target cell)
+		final int[] next = new int[nbOfExits];
+		final int[] inDegrees = new int[nbOfExits];
+		for (int t = 0, e = 0; t < tiles.length; t++) {
+			final Tile tile = tiles[t];
+			for (int j = 0; j < tile.nbOfExits; j++, e++) {
+				final int targetRow = tile.exitTargetRows[j];
+				final Tile target = tiles[targetRow / tileHeight];
+				final int drain = target.getDrain(targetRow,
+						tile.exitTargetCols[j]);
+				next[e] = (-1 == drain) ? -1 : exitsOffsets[targetRow
+						/ tileHeight]
+						+ drain;
+				if (-1 != next[e]) {
+					inDegrees[next[e]]++;
+				}
+			}
+		}
+
+		final double[] accumulations = new double[nbOfExits];
+		for (int t = 0; t < tiles.length; t++) {
+			System.arraycopy(tiles[t].exitAccumulations, 0, accumulations,
+					exitsOffsets[t], tiles[t].nbOfExits);
+		}
+		final int[] queue = new int[nbOfExits];
+		int tail = 0;
+		for (int e = 0; e < nbOfExits; e++) {
+			if (0 == inDegrees[e]) {
+				queue[tail++] = e;
+			}
+		}
+		for (int head = 0; head < tail; head++) {
+			final int e = queue[head];
+			if (-1 != next[e]) {
+				accumulations[next[e]] += accumulations[e];
+				if (0 == --inDegrees[next[e]]) {
+					queue[tail++] = next[e];
+				}
+			}
+		}
+
+		for (int t = 0; t < tiles.length; t++) {
+			System.arraycopy(accumulations, exitsOffsets[t],
+					tiles[t].exitAccumulations, 0, tiles[t].nbOfExits);
+		}
+	}
+
+	/**
+	 * 2nd pass : local accumulation of each tile with the inflows of the
+	 * upstream tiles, written in the rows order.
+	 */
+	private void writeAccumulations(final ProgressMonitor pm)
+			throws IOException, OperationException {
+		final EsriGRIDReader reader = new EsriGRIDReader(directionsFileName);
+		final EsriGRIDWriter writer = new EsriGRIDWriter(
+				accumulationsFileName, rasterMetadata);
+		reader.openRows();
+		writer.openRows();
+		try {
+			for (int t = 0; t < tiles.length; t += nbOfThreads) {
+				if (pm.isCancelled()) {
+					return;
+				}
+				pm.progressTo(50 + 50 * t / tiles.length);
+				final int first = t;
+				final int nb = Math.min(nbOfThreads, tiles.length - t);
+				for (int k = first; k < first + nb; k++) {
+					tiles[k].read(reader);
+				}
+				final float[][] results = new float[nb][];
+				MultiThreads.execute(nb, nbOfThreads,
+						new MultiThreads.Chunk() {
+							public void process(int start, int end) {
+								for (int k = start; k < end; k++) {
+									results[k] = tiles[first + k]
+											.computeAccumulations();
+								}
+							}
+						});
+				for (int k = 0; k < nb; k++) {
+					writer.writeRows(results[k]);
+				}
+			}
+		} finally {
+			reader.closeRows();
+			writer.closeRows();
+		}
+	}
+
+	/**
+	 * A band of complete rows. Its directions are only kept in memory while
+	 * it is processed.
+	 */
+	private class Tile {
+		private final int firstRow;
+		private final int height;
+		private byte[] directions;
+
+		/* the cells that flow into another tile */
+		private int nbOfExits;
+		private int[] exitTargetRows;
+		private int[] exitTargetCols;
+		private double[] exitAccumulations;
+
+		/* exit drained by each cell of the first and last rows (-1 if none) */
+		private int[] firstRowDrains;
+		private int[] lastRowDrains;
+
+		Tile(final int firstRow, final int height) {
+			this.firstRow = firstRow;
+			this.height = height;
+		}
+
+		void read(final EsriGRIDReader reader) throws IOException {
+			final float[] values = reader.readRows(height);
+			directions = new byte[values.length];
+			for (int i = 0; i < values.length; i++) {
+				directions[i] = (ndv == values[i]) ? D8FlowDirections.NO_DATA
+						: D8FlowDirections.toCode(values[i]);
+			}
+		}
+
+		int getDrain(final int row, final int col) {
+			if (row == firstRow) {
+				return firstRowDrains[col];
+			} else if (row == firstRow + height - 1) {
+				return lastRowDrains[col];
+			}
+			// not reachable : a target cell is always on an edge row
+			return -1;
+		}
+
+		private boolean isOutside(final int row, final int col) {
+			return (0 == col) || (ncols - 1 == col) || (0 == row)
+					|| (nrows - 1 == row);
+		}
+
+		/**
+		 * @return the local index of the downstream cell inside the tile, -1
+		 *         if there is none, or -2 - the row of the target cell if the
+		 *         downstream cell belongs to another tile
+		 */
+		private int getDownstream(final int i) {
+			final byte code = directions[i];
+			if (code <= 0) {
+				return -1;
+			}
+			final int row = firstRow + i / ncols + DY[code];
+			final int col = i % ncols + DX[code];
+			if ((0 > col) || (ncols <= col) || (0 > row) || (nrows <= row)
+					|| isOutside(row, col)) {
+				return -1;
+			}
+			if ((firstRow > row) || (firstRow + height <= row)) {
+				return -2 - row;
+			}
+			final int next = (row - firstRow) * ncols + col;
+			if (D8FlowDirections.NO_DATA == directions[next]) {
+				return -1;
+			}
+			return next;
+		}
+
+		private boolean isNoData(final int i) {
+			return (D8FlowDirections.NO_DATA == directions[i])
+					|| isOutside(firstRow + i / ncols, i % ncols);
+		}
+
+		/**
+		 * Accumulates the tile cells (each cell counting for 1 plus the given
+		 * inflows) in topological order.
+		 */
+		private double[] accumulate(final double[] inflows) {
+			final int nbCells = directions.length;
+			final double[] accumulations = new double[nbCells];
+			final byte[] inDegrees = new byte[nbCells];
+			for (int i = 0; i < nbCells; i++) {
+				if (!isNoData(i)) {
+					final int next = getDownstream(i);
+					if (0 <= next) {
+						inDegrees[next]++;
+					}
+				}
+			}
+			final int[] queue = new int[nbCells];
+			int tail = 0;
+			for (int i = 0; i < nbCells; i++) {
+				if (!isNoData(i)) {
+					accumulations[i] = (null == inflows) ? 1 : 1 + inflows[i];
+					if (0 == inDegrees[i]) {
+						queue[tail++] = i;
+					}
+				}
+			}
+			for (int head = 0; head < tail; head++) {
+				final int i = queue[head];
+				final int next = getDownstream(i);
+				if (0 <= next) {
+					accumulations[next] += accumulations[i];
+					if (0 == --inDegrees[next]) {
+						queue[tail++] = next;
+					}
+				}
+			}
+			return accumulations;
+		}
+
+		void computeExits() {
+			final int nbCells = directions.length;
+			final double[] accumulations = accumulate(null);
+
+			// exits...
+			final int[] drains = new int[nbCells];
+			nbOfExits = 0;
+			for (int i = 0; i < nbCells; i++) {
+				drains[i] = -1;
+				if (!isNoData(i) && (-1 > getDownstream(i))) {
+					nbOfExits++;
+				}
+			}
+			exitTargetRows = new int[nbOfExits];
+			exitTargetCols = new int[nbOfExits];
+			exitAccumulations = new double[nbOfExits];
+			for (int i = 0, j = 0; i < nbCells; i++) {
+				if (!isNoData(i)) {
+					final int next = getDownstream(i);
+					if (-1 > next) {
+						exitTargetRows[j] = -2 - next;
+						exitTargetCols[j] = i % ncols + DX[directions[i]];
+						exitAccumulations[j] = accumulations[i];
+						drains[i] = j++;
+					}
+				}
+			}
+
+			// ... and the exit each cell drains to, from downstream to
+			// upstream
+			final int[] queue = new int[nbCells];
+			int tail = 0;
+			for (int i = 0; i < nbCells; i++) {
+				if (-1 != drains[i]) {
+					queue[tail++] = i;
+				}
+			}
+			for (int head = 0; head < tail; head++) {
+				final int i = queue[head];
+				final int x = i % ncols;
+				for (int k = 1; k <= 8; k++) {
+					final int xx = x + DX[k];
+					final int u = i + DY[k] * ncols + DX[k];
+					if ((0 <= xx) && (ncols > xx) && (0 <= u) && (nbCells > u)
+							&& (D8FlowDirections.OPPOSITE[k] == directions[u])
+							&& !isNoData(u)) {
+						drains[u] = drains[i];
+						queue[tail++] = u;
+					}
+				}
+			}
+
+			firstRowDrains = new int[ncols];
+			lastRowDrains = new int[ncols];
+			System.arraycopy(drains, 0, firstRowDrains, 0, ncols);
+			System.arraycopy(drains, nbCells - ncols, lastRowDrains, 0, ncols);
+			directions = null;
+		}
+
+		float[] computeAccumulations() {
+			final int nbCells = directions.length;
+			final double[] inflows = new double[nbCells];
+			for (Tile upstream : getNeighbours()) {
+				for (int j = 0; j < upstream.nbOfExits; j++) {
+					final int row = upstream.exitTargetRows[j];
+					if ((firstRow <= row) && (firstRow + height > row)) {
+						inflows[(row - firstRow) * ncols
+								+ upstream.exitTargetCols[j]] += upstream.exitAccumulations[j];
+					}
+				}
+			}
+
+			final double[] accumulations = accumulate(inflows);
+			final float[] result = new float[nbCells];
+			for (int i = 0; i < nbCells; i++) {
+				result[i] = isNoData(i) ? ndv : (float) accumulations[i];
+			}
+			directions = null;
+			return result;
+		}
+
+		private Tile[] getNeighbours() {
+			final int t = firstRow / tileHeight;
+			if (1 == tiles.length) {
+				return new Tile[0];
+			} else if (0 == t) {
+				return new Tile[] { tiles[1] };
+			} else if (tiles.length - 1 == t) {
+				return new Tile[] { tiles[t - 1] };
+			}
+			return new Tile[] { tiles[t - 1], tiles[t + 1] };
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * D-infinity routing (Tarboton, 1997) : the steepest downslope direction is
+ * searched over the 8 triangular facets around each cell, and the flow is
+ * shared between the two neighbours that bound the selected facet,
+ * proportionally to the angle between the flow direction and each of them.
+ * 
+ * The execute method returns the flow angles (in radians, counter-clockwise
+ * from the east, as in TauDEM), sink and flat areas pixels being equal to
+ * {@link #indecisionAngle}. The flow proportions are available through
+ * {@link #getFlowProportions(GeoRaster, ProgressMonitor)}.
+ */
+public class DInfOpDirection extends MultipleFlowOpAbstract implements
+		Operation {
+	public final static float indecisionAngle = -1;
+
+	/* for each facet : cardinal and diagonal D8 codes, ac and af factors */
+	private final static int[] CARDINAL = new int[] { 1, 3, 3, 5, 5, 7, 7, 1 };
+	private final static int[] DIAGONAL = new int[] { 2, 2, 4, 4, 6, 6, 8, 8 };
+	private final static int[] AC = new int[] { 0, 1, 1, 2, 2, 3, 3, 4 };
+	private final static int[] AF = new int[] { 1, -1, 1, -1, 1, -1, 1, -1 };
+
+	private float[] angles;
+
+	@Override
+	public GeoRaster evaluateResult(GeoRaster grDEM, ProgressMonitor pm)
+			throws OperationException {
+		try {
+			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
+					grDEM);
+			getFlowProportions(grDEM, pm);
+			final GeoRaster grAngles = GeoRasterFactory.createGeoRaster(angles,
+					grDEM.getMetadata());
+			grAngles.setNodataValue(hydrologyUtilities.ndv);
+			return grAngles;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	@Override
+	protected void startSweep(final int nbCells) {
+		angles = new float[nbCells];
+	}
+
+	@Override
+	protected void noDataCell(final int i, final float ndv) {
+		angles[i] = ndv;
+	}
+
+	@Override
+	protected boolean computeWeights(final float[] elevations, final int i,
+			final double[] weights) {
+		final float z = elevations[i];
+		double maxSlope = 0;
+		int bestFacet = -1;
+		double bestAngle = 0;
+		double bestMaxAngle = 0;
+
+		for (int f = 0; f < 8; f++) {
+			final float z1 = elevations[i + offsets[CARDINAL[f]]];
+			final float z2 = elevations[i + offsets[DIAGONAL[f]]];
+			if (Float.isNaN(z1) || Float.isNaN(z2)) {
+				continue;
+			}
+			// east and west facets : d1 is the cell width
+			final double d1 = (1 == CARDINAL[f] % 4) ? cellWidth : cellHeight;
+			final double d2 = (1 == CARDINAL[f] % 4) ? cellHeight : cellWidth;
+			final double s1 = (z - z1) / d1;
+			final double s2 = (z1 - z2) / d2;
+			final double maxAngle = Math.atan2(d2, d1);
+			double angle = Math.atan2(s2, s1);
+			double slope = Math.sqrt(s1 * s1 + s2 * s2);
+			if (angle < 0) {
+				angle = 0;
+				slope = s1;
+			} else if (angle > maxAngle) {
+				angle = maxAngle;
+				slope = (z - z2) / Math.sqrt(d1 * d1 + d2 * d2);
+			}
+			if (slope > maxSlope) {
+				maxSlope = slope;
+				bestFacet = f;
+				bestAngle = angle;
+				bestMaxAngle = maxAngle;
+			}
+		}
+
+		if (-1 == bestFacet) {
+			angles[i] = indecisionAngle;
+			return false;
+		}
+		final double diagonalPart = bestAngle / bestMaxAngle;
+		weights[CARDINAL[bestFacet] - 1] = 1 - diagonalPart;
+		weights[DIAGONAL[bestFacet] - 1] = diagonalPart;
+		double flowAngle = AF[bestFacet] * bestAngle + AC[bestFacet] * Math.PI
+				/ 2;
+		if (flowAngle >= 2 * Math.PI) {
+			flowAngle -= 2 * Math.PI;
+		}
+		angles[i] = (float) flowAngle;
+		return true;
+	}
+}
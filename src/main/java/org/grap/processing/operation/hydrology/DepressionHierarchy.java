@@ -0,0 +1,712 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.util.Arrays;
+
+import org.grap.model.RasterMetadata;
+
+/**
+ * Hierarchy of the depressions of a DEM, following Barnes, Callaghan and
+ * Wickert (2020), "Computing water flow through complex landscapes - Part 2 :
+ * Finding hierarchies in depressions and morphological segmentations".
+ * 
+ * A priority-flood started from the edges (the grid borders and the cells
+ * next to a nodataValue cell, that form the "ocean") and from all the pits
+ * (each group of connected minimum cells of equal elevation) labels every cell
+ * with the leaf depression it belongs to, and records the lowest saddles
+ * between the labels. The saddles are then processed in increasing elevation
+ * order with a union-find : two depressions that meet at a saddle are the
+ * children of a new meta-depression, whereas a depression that meets the
+ * ocean is a root of the hierarchy. Each depression is thus described by its
+ * outlet elevation, its spill cell, its parent, its children and the
+ * depression it overflows into. All the volumes are then obtained from the
+ * cells sorted by elevation (that is to say in the priority-flood order).
+ * 
+ * The depressions are numbered from 1 (the leaves coming first, then the
+ * meta-depressions, each one after its children); 0 stands for the ocean (no
+ * depression, no parent). Everything is stored in primitive arrays.
+ * 
+ * The storage of a given amount of water (see {@link Filling}) is answered
+ * from the hierarchy, without running any fill on the DEM.
+ */
+public class DepressionHierarchy {
+	public final static int OCEAN = 0;
+
+	private final static int[] DX = new int[] { 1, 1, 0, -1, -1, -1, 0, 1 };
+	private final static int[] DY = new int[] { 0, 1, 1, 1, 0, -1, -1, -1 };
+
+	private final int ncols;
+	private final int nrows;
+	private final double cellArea;
+	private final float[] elevations;
+	private final int[] labels;
+
+	private int nbOfLeaves;
+	private int nbOfDepressions;
+	private int[] parents;
+	private int[] children;
+	private float[] outletElevations;
+	private int[] spillCells;
+	private int[] overflowDepressions;
+	private int[] overflowLeaves;
+	private int[] pitCells;
+	private int[] cellCounts;
+	private double[] volumes;
+	// marginal cells elevations, grouped by depression and sorted
+	private int[] marginalStarts;
+	private float[] marginalElevations;
+
+	// saddles between labels, recorded by the priority-flood
+	private int nbOfSaddles;
+	private int[] saddleLabels = new int[64];
+	private int[] saddleCells = new int[32];
+	private float[] saddleElevations = new float[32];
+
+	/**
+	 * @param elevations
+	 *            the DEM values, in rows order, the nodataValue pixels being
+	 *            equal to NaN (see {@link HydrologyUtilities#getPixelValues()})
+	 * @param rasterMetadata
+	 */
+	public DepressionHierarchy(final float[] elevations,
+			final RasterMetadata rasterMetadata) {
+		this.elevations = elevations;
+		ncols = rasterMetadata.getNCols();
+		nrows = rasterMetadata.getNRows();
+		cellArea = Math.abs((double) rasterMetadata.getPixelSize_X()
+				* rasterMetadata.getPixelSize_Y());
+		labels = new int[elevations.length];
+
+		final int[] order = flood();
+		buildHierarchy();
+		computeVolumes(order);
+		saddleLabels = null;
+		saddleCells = null;
+		saddleElevations = null;
+	}
+
+	/**
+	 * Priority-flood from the ocean and from the pits.
+	 * 
+	 * @return the labelled cells, in the order they have been flooded (that
+	 *         is to say sorted by elevation)
+	 */
+	private int[] flood() {
+		final int nbCells = elevations.length;
+		final LongHeap heap = new LongHeap();
+		Arrays.fill(labels, -1);
+		int nbOfDataCells = 0;
+		final boolean[] pits = new boolean[nbCells];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				final float z = elevations[i];
+				if (Float.isNaN(z)) {
+					continue;
+				}
+				nbOfDataCells++;
+				boolean edge = (0 == x) || (0 == y) || (ncols - 1 == x)
+						|| (nrows - 1 == y);
+				boolean pit = true;
+				for (int d = 0; (d < 8) && !edge; d++) {
+					final float zn = elevations[i + DY[d] * ncols + DX[d]];
+					if (Float.isNaN(zn)) {
+						edge = true;
+					} else if (zn < z) {
+						pit = false;
+					}
+				}
+				if (edge) {
+					labels[i] = OCEAN;
+					heap.push(z, i);
+				} else {
+					pits[i] = pit;
+				}
+			}
+		}
+
+		// a group of connected pits of equal elevation is a single leaf
+		int[] queue = new int[64];
+		pitCells = new int[16];
+		for (int i = 0; i < nbCells; i++) {
+			if (pits[i] && (-1 == labels[i])) {
+				nbOfLeaves++;
+				if (nbOfLeaves == pitCells.length) {
+					final int[] tmp = new int[2 * nbOfLeaves];
+					System.arraycopy(pitCells, 0, tmp, 0, nbOfLeaves);
+					pitCells = tmp;
+				}
+				pitCells[nbOfLeaves] = i;
+				labels[i] = nbOfLeaves;
+				queue[0] = i;
+				for (int head = 0, tail = 1; head < tail; head++) {
+					final int cell = queue[head];
+					heap.push(elevations[cell], cell);
+					for (int d = 0; d < 8; d++) {
+						final int n = cell + DY[d] * ncols + DX[d];
+						if (pits[n] && (-1 == labels[n])
+								&& (elevations[n] == elevations[i])) {
+							labels[n] = nbOfLeaves;
+							if (tail == queue.length) {
+								final int[] tmp = new int[2 * tail];
+								System.arraycopy(queue, 0, tmp, 0, tail);
+								queue = tmp;
+							}
+							queue[tail++] = n;
+						}
+					}
+				}
+			}
+		}
+
+		// every cell that is neither an edge nor a pit has a lower neighbour :
+		// it is labelled before any higher cell is flooded
+		final boolean[] flooded = pits;
+		Arrays.fill(flooded, false);
+		final int[] order = new int[nbOfDataCells];
+		int nbFlooded = 0;
+		while (!heap.isEmpty()) {
+			final int cell = heap.pop();
+			flooded[cell] = true;
+			order[nbFlooded++] = cell;
+			final int x = cell % ncols;
+			final int y = cell / ncols;
+			final int label = labels[cell];
+			for (int d = 0; d < 8; d++) {
+				final int nx = x + DX[d];
+				final int ny = y + DY[d];
+				if ((0 > nx) || (0 > ny) || (ncols <= nx) || (nrows <= ny)) {
+					continue;
+				}
+				final int n = ny * ncols + nx;
+				if (Float.isNaN(elevations[n])) {
+					continue;
+				}
+				if (-1 == labels[n]) {
+					labels[n] = label;
+					heap.push(elevations[n], n);
+				} else if (flooded[n] && (labels[n] != label)) {
+					addSaddle(label, labels[n],
+							(elevations[cell] >= elevations[n]) ? cell : n);
+				}
+			}
+		}
+		return order;
+	}
+
+	private void addSaddle(final int labelA, final int labelB, final int cell) {
+		if (nbOfSaddles == saddleCells.length) {
+			saddleCells = Arrays.copyOf(saddleCells, 2 * nbOfSaddles);
+			saddleElevations = Arrays.copyOf(saddleElevations,
+					2 * nbOfSaddles);
+			saddleLabels = Arrays.copyOf(saddleLabels, 4 * nbOfSaddles);
+		}
+		saddleLabels[2 * nbOfSaddles] = labelA;
+		saddleLabels[2 * nbOfSaddles + 1] = labelB;
+		saddleCells[nbOfSaddles] = cell;
+		saddleElevations[nbOfSaddles] = elevations[cell];
+		nbOfSaddles++;
+	}
+
+	/**
+	 * Kruskal-like processing of the saddles, in increasing elevation order.
+	 */
+	private void buildHierarchy() {
+		final int size = 2 * nbOfLeaves + 1;
+		parents = new int[size];
+		children = new int[2 * size];
+		outletElevations = new float[size];
+		Arrays.fill(outletElevations, Float.POSITIVE_INFINITY);
+		spillCells = new int[size];
+		Arrays.fill(spillCells, -1);
+		overflowDepressions = new int[size];
+		overflowLeaves = new int[size];
+		final int[] roots = new int[size];
+		for (int d = 0; d < size; d++) {
+			roots[d] = d;
+		}
+
+		final long[] keys = new long[nbOfSaddles];
+		for (int s = 0; s < nbOfSaddles; s++) {
+			keys[s] = LongHeap.key(saddleElevations[s], s);
+		}
+		Arrays.sort(keys);
+
+		nbOfDepressions = nbOfLeaves;
+		for (long key : keys) {
+			final int s = (int) key;
+			final int leafA = saddleLabels[2 * s];
+			final int leafB = saddleLabels[2 * s + 1];
+			final int a = find(roots, leafA);
+			final int b = find(roots, leafB);
+			if (a == b) {
+				continue;
+			}
+			final float z = saddleElevations[s];
+			if ((OCEAN == a) || (OCEAN == b)) {
+				// the depression overflows into the ocean, possibly through
+				// a depression that already does
+				final int d = (OCEAN == a) ? b : a;
+				outletElevations[d] = z;
+				spillCells[d] = saddleCells[s];
+				overflowDepressions[d] = OCEAN;
+				overflowLeaves[d] = (OCEAN == a) ? leafA : leafB;
+				roots[d] = OCEAN;
+			} else {
+				final int m = ++nbOfDepressions;
+				children[2 * m] = Math.min(a, b);
+				children[2 * m + 1] = Math.max(a, b);
+				parents[a] = m;
+				parents[b] = m;
+				outletElevations[a] = z;
+				outletElevations[b] = z;
+				spillCells[a] = saddleCells[s];
+				spillCells[b] = saddleCells[s];
+				overflowDepressions[a] = b;
+				overflowDepressions[b] = a;
+				overflowLeaves[a] = leafB;
+				overflowLeaves[b] = leafA;
+				roots[a] = m;
+				roots[b] = m;
+			}
+		}
+	}
+
+	private static int find(final int[] roots, int d) {
+		while (roots[d] != d) {
+			roots[d] = roots[roots[d]];
+			d = roots[d];
+		}
+		return d;
+	}
+
+	/**
+	 * Each cell is a marginal cell of the lowest depression (from its leaf
+	 * upward) whose outlet is above it. The marginal cells are grouped by
+	 * depression, keeping the flood order, and the counts and elevation sums
+	 * are then accumulated from the children to their parent.
+	 */
+	private void computeVolumes(final int[] order) {
+		final int size = nbOfDepressions + 1;
+		final int[] owners = new int[order.length];
+		marginalStarts = new int[size + 1];
+		for (int k = 0; k < order.length; k++) {
+			final int cell = order[k];
+			final float z = elevations[cell];
+			int d = labels[cell];
+			while ((OCEAN != d) && (z >= outletElevations[d])) {
+				d = parents[d];
+			}
+			owners[k] = d;
+			marginalStarts[d + 1]++;
+		}
+		for (int d = 0; d < size; d++) {
+			marginalStarts[d + 1] += marginalStarts[d];
+		}
+		marginalElevations = new float[order.length];
+		final int[] next = Arrays.copyOf(marginalStarts, size);
+		for (int k = 0; k < order.length; k++) {
+			marginalElevations[next[owners[k]]++] = elevations[order[k]];
+		}
+
+		cellCounts = new int[size];
+		volumes = new double[size];
+		final double[] sums = new double[size];
+		for (int d = 1; d < size; d++) {
+			int count = marginalStarts[d + 1] - marginalStarts[d];
+			double sum = 0;
+			for (int k = marginalStarts[d]; k < marginalStarts[d + 1]; k++) {
+				sum += marginalElevations[k];
+			}
+			if (!isLeaf(d)) {
+				for (int c = 2 * d; c < 2 * d + 2; c++) {
+					count += cellCounts[children[c]];
+					sum += sums[children[c]];
+				}
+			}
+			cellCounts[d] = count;
+			sums[d] = sum;
+			volumes[d] = (count * (double) outletElevations[d] - sum)
+					* cellArea;
+		}
+	}
+
+	public int getNbOfLeaves() {
+		return nbOfLeaves;
+	}
+
+	/**
+	 * @return the number of depressions (leaves and meta-depressions)
+	 */
+	public int getNbOfDepressions() {
+		return nbOfDepressions;
+	}
+
+	/**
+	 * @return the leaf depression of each cell, {@link #OCEAN} for the cells
+	 *         that drain to the edges and -1 for the nodataValue cells
+	 */
+	public int[] getLabels() {
+		return labels;
+	}
+
+	public boolean isLeaf(final int depression) {
+		return depression <= nbOfLeaves;
+	}
+
+	/**
+	 * @param depression
+	 * @return the meta-depression that contains the given one, {@link #OCEAN}
+	 *         for the roots of the hierarchy
+	 */
+	public int getParent(final int depression) {
+		return parents[depression];
+	}
+
+	/**
+	 * @param depression
+	 * @return the two children of a meta-depression, an empty array for a leaf
+	 */
+	public int[] getChildren(final int depression) {
+		if (isLeaf(depression)) {
+			return new int[0];
+		}
+		return new int[] { children[2 * depression],
+				children[2 * depression + 1] };
+	}
+
+	/**
+	 * @param depression
+	 * @return the elevation of the saddle the depression spills over (the
+	 *         water level of the depression when it is full)
+	 */
+	public float getOutletElevation(final int depression) {
+		return outletElevations[depression];
+	}
+
+	/**
+	 * @param depression
+	 * @return the index of the saddle cell the depression spills over
+	 */
+	public int getSpillCell(final int depression) {
+		return spillCells[depression];
+	}
+
+	/**
+	 * @param depression
+	 * @return the depression the given one overflows into : its sibling, or
+	 *         {@link #OCEAN} for the roots of the hierarchy
+	 */
+	public int getOverflowDepression(final int depression) {
+		return overflowDepressions[depression];
+	}
+
+	/**
+	 * @param depression
+	 * @return the leaf depression that receives the overflow of the given one
+	 *         ({@link #OCEAN} if it spills directly into the ocean)
+	 */
+	public int getOverflowLeaf(final int depression) {
+		return overflowLeaves[depression];
+	}
+
+	/**
+	 * @param leaf
+	 * @return the index of one of the lowest cells of a leaf depression
+	 */
+	public int getPitCell(final int leaf) {
+		return pitCells[leaf];
+	}
+
+	/**
+	 * @param depression
+	 * @return the number of cells under water when the depression is full
+	 */
+	public int getCellCount(final int depression) {
+		return cellCounts[depression];
+	}
+
+	/**
+	 * @param depression
+	 * @return the volume of water (in cubic map units) the depression holds
+	 *         when it is full, its children included
+	 */
+	public double getVolume(final int depression) {
+		return volumes[depression];
+	}
+
+	/**
+	 * @return a new and empty state of the fill-spill-merge process
+	 */
+	public Filling newFilling() {
+		return new Filling();
+	}
+
+	/**
+	 * Fill-spill-merge state : the volume of water stored in each depression
+	 * (its children included). The water poured into a leaf fills it; once
+	 * full, a depression overflows into the leaf beyond its spill cell, and
+	 * when both children of a meta-depression are full, the meta-depression
+	 * itself fills up. The water that spills out of the roots of the
+	 * hierarchy is lost in the ocean.
+	 */
+	public class Filling {
+		private final double[] stored = new double[nbOfDepressions + 1];
+		private double outflow;
+
+		/**
+		 * Pours the given volume of water on the given cell.
+		 * 
+		 * @param cell
+		 * @param volume
+		 *            in cubic map units
+		 */
+		public void pour(final int cell, final double volume) {
+			final int leaf = labels[cell];
+			if (0 < leaf) {
+				pourIntoLeaf(leaf, volume);
+			} else if (OCEAN == leaf) {
+				outflow += volume;
+			}
+		}
+
+		/**
+		 * Pours the given depth of water on each cell of the DEM (an uniform
+		 * rainfall).
+		 * 
+		 * @param depth
+		 *            in map units
+		 */
+		public void rain(final double depth) {
+			final int[] nbOfCells = new int[nbOfLeaves + 1];
+			for (int label : labels) {
+				if (-1 != label) {
+					nbOfCells[label]++;
+				}
+			}
+			outflow += nbOfCells[OCEAN] * depth * cellArea;
+			for (int leaf = 1; leaf <= nbOfLeaves; leaf++) {
+				pourIntoLeaf(leaf, nbOfCells[leaf] * depth * cellArea);
+			}
+		}
+
+		private void pourIntoLeaf(int depression, double volume) {
+			while (0 < volume) {
+				final double free = volumes[depression] - stored[depression];
+				if (0 < free) {
+					final double added = Math.min(volume, free);
+					for (int d = depression; OCEAN != d; d = parents[d]) {
+						stored[d] += added;
+					}
+					volume -= added;
+					if (0 == volume) {
+						return;
+					}
+					// no rounding left
+					stored[depression] = volumes[depression];
+				}
+				// the depression is full
+				final int parent = parents[depression];
+				if ((OCEAN == parent)
+						|| !isFull(overflowDepressions[depression])) {
+					depression = overflowLeaves[depression];
+					if (OCEAN == depression) {
+						outflow += volume;
+						return;
+					}
+				} else {
+					depression = parent;
+				}
+			}
+		}
+
+		public boolean isFull(final int depression) {
+			return stored[depression] >= volumes[depression];
+		}
+
+		private boolean isAboveChildren(final int depression) {
+			return stored[depression] > volumes[children[2 * depression]]
+					+ volumes[children[2 * depression + 1]];
+		}
+
+		/**
+		 * @param depression
+		 * @return the volume of water stored in the depression, its children
+		 *         included
+		 */
+		public double getStoredVolume(final int depression) {
+			return stored[depression];
+		}
+
+		/**
+		 * @return the volume of water lost in the ocean
+		 */
+		public double getOutflow() {
+			return outflow;
+		}
+
+		/**
+		 * @param depression
+		 * @return the elevation of the water surface over the marginal cells
+		 *         of the depression (NaN if none of them is under water)
+		 */
+		public double getWaterLevel(final int depression) {
+			final double target = stored[depression] / cellArea;
+			int n = 0;
+			double v = 0;
+			double z;
+			if (isLeaf(depression)) {
+				if (0 == target) {
+					return Double.NaN;
+				}
+				z = elevations[pitCells[depression]];
+			} else {
+				for (int c = 2 * depression; c < 2 * depression + 2; c++) {
+					n += cellCounts[children[c]];
+					v += volumes[children[c]] / cellArea;
+				}
+				if (target <= v) {
+					return Double.NaN;
+				}
+				z = outletElevations[children[2 * depression]];
+			}
+			// piecewise linear storage curve, the marginal cells being sorted
+			final int end = marginalStarts[depression + 1];
+			for (int k = marginalStarts[depression]; k < end; k++) {
+				final float e = marginalElevations[k];
+				final double ve = v + n * (e - z);
+				if ((0 < n) && (target <= ve)) {
+					return z + (target - v) / n;
+				}
+				v = ve;
+				z = e;
+				n++;
+			}
+			if (0 == n) {
+				return outletElevations[depression];
+			}
+			return Math.min(outletElevations[depression], z + (target - v)
+					/ n);
+		}
+
+		/**
+		 * @return the water depth over each cell, 0 for the dry cells and NaN
+		 *         for the nodataValue cells
+		 */
+		public float[] getWaterDepths() {
+			final double[] levels = new double[nbOfDepressions + 1];
+			for (int d = 1; d <= nbOfDepressions; d++) {
+				levels[d] = isFull(d) ? outletElevations[d]
+						: getWaterLevel(d);
+			}
+			final float[] depths = new float[labels.length];
+			for (int i = 0; i < labels.length; i++) {
+				if (-1 == labels[i]) {
+					depths[i] = Float.NaN;
+					continue;
+				}
+				// the water surface of the highest wet depression above the
+				// cell
+				double level = Double.NaN;
+				for (int d = labels[i]; OCEAN != d; d = parents[d]) {
+					if (isFull(d)) {
+						level = levels[d];
+					} else {
+						if (isLeaf(d) || isAboveChildren(d)) {
+							level = levels[d];
+						}
+						break;
+					}
+				}
+				depths[i] = (level > elevations[i]) ? (float) (level
+						- elevations[i]) : 0;
+			}
+			return depths;
+		}
+	}
+
+	/**
+	 * Binary min-heap of cells, ordered by elevation then by index. Each entry
+	 * is a single long : the elevation bits (mapped to a signed order) in the
+	 * high half and the index in the low one.
+	 */
+	static class LongHeap {
+		private long[] keys = new long[64];
+		private int size;
+
+		static long key(final float z, final int i) {
+			int bits = Float.floatToIntBits(z);
+			bits ^= (bits >> 31) & 0x7fffffff;
+			return ((long) bits << 32) | i;
+		}
+
+		boolean isEmpty() {
+			return 0 == size;
+		}
+
+		void push(final float z, final int i) {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, 2 * size);
+			}
+			final long key = key(z, i);
+			int k = size++;
+			while (0 < k) {
+				final int parent = (k - 1) >> 1;
+				if (keys[parent] <= key) {
+					break;
+				}
+				keys[k] = keys[parent];
+				k = parent;
+			}
+			keys[k] = key;
+		}
+
+		int pop() {
+			final int top = (int) keys[0];
+			final long last = keys[--size];
+			int k = 0;
+			while (true) {
+				int child = 2 * k + 1;
+				if (child >= size) {
+					break;
+				}
+				if ((child + 1 < size) && (keys[child + 1] < keys[child])) {
+					child++;
+				}
+				if (last <= keys[child]) {
+					break;
+				}
+				keys[k] = keys[child];
+				k = child;
+			}
+			keys[k] = last;
+			return top;
+		}
+	}
+}
@@ -0,0 +1,228 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+
+/**
+ * Compact storage of the flow proportions produced by a multiple flow
+ * directions method (see {@link MFDOpDirection} and {@link DInfOpDirection}).
+ * The fraction of the flow of a cell that is sent towards each of its 8
+ * neighbours (indexed with the TauDEM D8 codes, see
+ * {@link D8FlowDirections}) is quantized into an unsigned byte : the 8 quanta
+ * of a cell always sum to {@link #QUANTA} (or to 0 for a sink, a flat area or
+ * a nodataValue cell), so that the mass is exactly preserved along the
+ * routing, for 8 bytes per cell (instead of 8 floats).
+ */
+public class FlowProportions {
+	public final static int QUANTA = 255;
+	private final static float FLOAT_QUANTA = QUANTA;
+
+	private final byte[] proportions;
+	private final boolean[] noData;
+	private final int ncols;
+	private final int nrows;
+	private final RasterMetadata rasterMetadata;
+	private final float ndv;
+	private final int[] offsets;
+
+	public FlowProportions(final RasterMetadata rasterMetadata, final float ndv) {
+		this.rasterMetadata = rasterMetadata;
+		this.ndv = ndv;
+		ncols = rasterMetadata.getNCols();
+		nrows = rasterMetadata.getNRows();
+		proportions = new byte[8 * nrows * ncols];
+		noData = new boolean[nrows * ncols];
+
+		offsets = new int[9];
+		for (int k = 1; k <= 8; k++) {
+			offsets[k] = D8FlowDirections.DY[k] * ncols
+					+ D8FlowDirections.DX[k];
+		}
+	}
+
+	/**
+	 * Single flow direction proportions : each cell sends all its flow
+	 * towards its D8 downstream cell.
+	 * 
+	 * @param flowDirections
+	 * @return
+	 */
+	public static FlowProportions fromD8(final D8FlowDirections flowDirections) {
+		final FlowProportions result = new FlowProportions(flowDirections
+				.getMetadata(), flowDirections.getNoDataValue());
+		for (int i = 0; i < result.noData.length; i++) {
+			if (flowDirections.isNoData(i)) {
+				result.noData[i] = true;
+			} else {
+				final byte code = flowDirections.getDirection(i);
+				if (code > 0) {
+					result.proportions[8 * i + code - 1] = (byte) QUANTA;
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Quantizes the given weights (indexed from 0 to 7 for the D8 codes 1 to
+	 * 8) into the proportions of cell i, using the largest remainder method
+	 * so that the quanta sum exactly to {@link #QUANTA}.
+	 * 
+	 * @param i
+	 * @param weights
+	 *            positive (or null) weights, whose sum is strictly positive
+	 */
+	public void setProportions(final int i, final double[] weights) {
+		double sum = 0;
+		for (int k = 0; k < 8; k++) {
+			sum += weights[k];
+		}
+		final int offset = 8 * i;
+		int remaining = QUANTA;
+		for (int k = 0; k < 8; k++) {
+			final int quanta = (int) (QUANTA * weights[k] / sum);
+			proportions[offset + k] = (byte) quanta;
+			remaining -= quanta;
+		}
+		// at most 7 quanta remain : give them to the largest remainders
+		while (0 < remaining) {
+			int best = -1;
+			double bestRemainder = -1;
+			for (int k = 0; k < 8; k++) {
+				final double remainder = QUANTA * weights[k] / sum
+						- (0xFF & proportions[offset + k]);
+				if (remainder > bestRemainder) {
+					best = k;
+					bestRemainder = remainder;
+				}
+			}
+			proportions[offset + best]++;
+			remaining--;
+		}
+	}
+
+	public void setNoData(final int i) {
+		noData[i] = true;
+	}
+
+	public boolean isNoData(final int i) {
+		return noData[i];
+	}
+
+	/**
+	 * @param i
+	 * @param code
+	 *            a D8 direction code (1 to 8)
+	 * @return the fraction of the flow of cell i sent towards its neighbour
+	 *         pointed by code
+	 */
+	public float getProportion(final int i, final int code) {
+		return (0xFF & proportions[8 * i + code - 1]) / FLOAT_QUANTA;
+	}
+
+	/**
+	 * Fills the given buffers (of length 8 at least) with the indices of the
+	 * neighbours that receive a part of the flow of cell i, and with the
+	 * corresponding fractions.
+	 * 
+	 * @param i
+	 * @param receivers
+	 * @param fractions
+	 * @return the number of receivers
+	 */
+	public int getReceivers(final int i, final int[] receivers,
+			final float[] fractions) {
+		final int x = i % ncols;
+		int nb = 0;
+		for (int k = 1; k <= 8; k++) {
+			final int quanta = 0xFF & proportions[8 * i + k - 1];
+			if (0 != quanta) {
+				final int xx = x + D8FlowDirections.DX[k];
+				final int j = i + offsets[k];
+				if ((0 <= xx) && (ncols > xx) && (0 <= j)
+						&& (noData.length > j) && !noData[j]) {
+					receivers[nb] = j;
+					fractions[nb++] = quanta / FLOAT_QUANTA;
+				}
+			}
+		}
+		return nb;
+	}
+
+	/**
+	 * @return a GeoRaster of the receivers of each cell, as a bit mask (bit
+	 *         k - 1 is set when the neighbour of D8 code k receives some flow)
+	 * @throws IOException
+	 */
+	public GeoRaster getReceiversMask() throws IOException {
+		final float[] pixels = new float[noData.length];
+		for (int i = 0; i < noData.length; i++) {
+			if (noData[i]) {
+				pixels[i] = ndv;
+			} else {
+				int mask = 0;
+				for (int k = 0; k < 8; k++) {
+					if (0 != proportions[8 * i + k]) {
+						mask |= 1 << k;
+					}
+				}
+				pixels[i] = mask;
+			}
+		}
+		final GeoRaster grMask = GeoRasterFactory.createGeoRaster(pixels,
+				rasterMetadata);
+		grMask.setNodataValue(ndv);
+		return grMask;
+	}
+
+	public int getNCols() {
+		return ncols;
+	}
+
+	public int getNRows() {
+		return nrows;
+	}
+
+	public int getNbCells() {
+		return noData.length;
+	}
+
+	public RasterMetadata getMetadata() {
+		return rasterMetadata;
+	}
+
+	public float getNoDataValue() {
+		return ndv;
+	}
+}
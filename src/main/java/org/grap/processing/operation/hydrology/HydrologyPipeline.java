@@ -0,0 +1,354 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Runs the whole hydrological chain (sinks filling, D8 directions,
+ * accumulation, Strahler stream orders, all the watersheds and wetness index)
+ * on a DEM, without wrapping each intermediate result into a GeoRaster : the
+ * stages share primitive buffers (a compact {@link D8FlowDirections} grid and
+ * some float arrays), the D8 directions and slopes are computed in a single
+ * sweep (see {@link HydrologyUtilities#getD8FlowDirections}), and the buffers
+ * are released as soon as no remaining stage needs them.
+ * 
+ * Only the requested products are computed and materialized as GeoRasters.
+ * The wall-clock time and the peak used memory of each stage are reported (see
+ * {@link #getStageReports()} and {@link #getPeakMemory()}) : the used memory
+ * is sampled every {@link #SAMPLING_PERIOD} milliseconds while the pipeline
+ * runs, as well as at the beginning and at the end of each stage.
+ * 
+ * The watersheds are labelled as {@link D8OpWatershedsFromOutlets} does (one
+ * label per terminal cell, in scan order).
+ */
+public class HydrologyPipeline {
+	private final static double ALMOST_ZERO = 0.0011;
+	public final static long SAMPLING_PERIOD = 5;
+
+	private final double minSlope;
+	private final int riverThreshold;
+	private final EnumSet<HydrologyProduct> products;
+	private boolean fillSinks = true;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	private List<StageReport> stageReports;
+	private long peakMemory;
+	private long stagePeakMemory;
+	private long stageStartTime;
+
+	/**
+	 * @param minSlope
+	 *            see {@link OpFillSinks}
+	 * @param riverThreshold
+	 *            see {@link D8OpStrahlerStreamOrder}
+	 * @param products
+	 *            the products to be computed
+	 */
+	public HydrologyPipeline(final double minSlope, final int riverThreshold,
+			final HydrologyProduct... products) {
+		this.minSlope = minSlope;
+		this.riverThreshold = riverThreshold;
+		this.products = EnumSet.noneOf(HydrologyProduct.class);
+		for (HydrologyProduct product : products) {
+			this.products.add(product);
+		}
+	}
+
+	/**
+	 * @param fillSinks
+	 *            if false, the given DEM is supposed to be already filled
+	 */
+	public void setFillSinks(final boolean fillSinks) {
+		this.fillSinks = fillSinks;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	public Map<HydrologyProduct, GeoRaster> execute(final GeoRaster dem,
+			ProgressMonitor pm) throws OperationException {
+		final Map<HydrologyProduct, GeoRaster> results = new EnumMap<HydrologyProduct, GeoRaster>(
+				HydrologyProduct.class);
+		stageReports = new ArrayList<StageReport>();
+		peakMemory = 0;
+
+		final boolean needSlopes = products
+				.contains(HydrologyProduct.SLOPE)
+				|| products.contains(HydrologyProduct.WETNESS_INDEX);
+		final boolean needAccumulations = products
+				.contains(HydrologyProduct.WETNESS_INDEX)
+				|| products.contains(HydrologyProduct.ACCUMULATION)
+				|| products.contains(HydrologyProduct.STRAHLER);
+		final boolean needDirections = needAccumulations || needSlopes
+				|| products.contains(HydrologyProduct.DIRECTION)
+				|| products.contains(HydrologyProduct.WATERSHEDS);
+
+		final Timer memorySampler = new Timer(true);
+		memorySampler.schedule(new TimerTask() {
+			@Override
+			public void run() {
+				sampleMemory();
+			}
+		}, 0, SAMPLING_PERIOD);
+		try {
+			// sinks filling
+			startStage();
+			GeoRaster filledDEM = dem;
+			if (fillSinks) {
+				filledDEM = new OpFillSinks(minSlope).execute(dem, pm);
+			}
+			if (products.contains(HydrologyProduct.FILLED_DEM)) {
+				results.put(HydrologyProduct.FILLED_DEM, filledDEM);
+			}
+			endStage("fill sinks");
+			if (!needDirections || pm.isCancelled()) {
+				return results;
+			}
+
+			// D8 directions and slopes, in a single sweep
+			startStage();
+			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
+					filledDEM);
+			final RasterMetadata rasterMetadata = filledDEM.getMetadata();
+			final float ndv = hydrologyUtilities.ndv;
+			final float[] slopes = needSlopes ? new float[rasterMetadata
+					.getNRows()
+					* rasterMetadata.getNCols()] : null;
+			final D8FlowDirections flowDirections = hydrologyUtilities
+					.getD8FlowDirections(slopes, nbOfThreads);
+			filledDEM = null;
+			if (null != slopes) {
+				// in radians, as the wetness index expects them
+				for (int i = 0; i < slopes.length; i++) {
+					if (ndv != slopes[i]) {
+						slopes[i] = (float) Math.atan(slopes[i]);
+					}
+				}
+			}
+			if (products.contains(HydrologyProduct.DIRECTION)) {
+				results.put(HydrologyProduct.DIRECTION, flowDirections
+						.toGeoRaster());
+			}
+			if (products.contains(HydrologyProduct.SLOPE)) {
+				results.put(HydrologyProduct.SLOPE, toGeoRaster(slopes,
+						rasterMetadata, ndv));
+			}
+			endStage("D8 directions and slopes");
+
+			// accumulation
+			float[] accumulations = null;
+			if (needAccumulations && !pm.isCancelled()) {
+				startStage();
+				accumulations = new D8OpAccumulation().accumulate(
+						flowDirections, pm);
+				if (products.contains(HydrologyProduct.ACCUMULATION)) {
+					results.put(HydrologyProduct.ACCUMULATION, toGeoRaster(
+							accumulations, rasterMetadata, ndv));
+				}
+				endStage("accumulation");
+			}
+
+			// Strahler stream orders
+			if (products.contains(HydrologyProduct.STRAHLER)
+					&& !pm.isCancelled()) {
+				startStage();
+				final D8OpStreamOrders streamOrders = new D8OpStreamOrders(
+						accumulations, riverThreshold);
+				streamOrders.setNumberOfThreads(nbOfThreads);
+				results.put(HydrologyProduct.STRAHLER, streamOrders
+						.evaluateResult(flowDirections, pm));
+				endStage("Strahler stream orders");
+			}
+
+			// all the watersheds
+			if (products.contains(HydrologyProduct.WATERSHEDS)
+					&& !pm.isCancelled()) {
+				startStage();
+				final D8OpWatershedsFromOutlets watersheds = new D8OpWatershedsFromOutlets();
+				results.put(HydrologyProduct.WATERSHEDS, watersheds
+						.evaluateResult(flowDirections, pm));
+				endStage("all watersheds");
+			}
+
+			// wetness index, computed in place of the slopes
+			if (products.contains(HydrologyProduct.WETNESS_INDEX)
+					&& !pm.isCancelled()) {
+				startStage();
+				final float[] wetnessIndex = products
+						.contains(HydrologyProduct.SLOPE) ? new float[slopes.length]
+						: slopes;
+				computeWetnessIndex(slopes, accumulations, rasterMetadata
+						.getPixelSize_X(), ndv, wetnessIndex);
+				results.put(HydrologyProduct.WETNESS_INDEX, toGeoRaster(
+						wetnessIndex, rasterMetadata,
+						GeoRaster.FLOAT_NO_DATA_VALUE));
+				endStage("wetness index");
+			}
+
+			return results;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		} finally {
+			memorySampler.cancel();
+		}
+	}
+
+	public List<StageReport> getStageReports() {
+		return stageReports;
+	}
+
+	/**
+	 * @return the greatest amount of used memory (in bytes) sampled during
+	 *         the last execution
+	 */
+	public synchronized long getPeakMemory() {
+		return peakMemory;
+	}
+
+	private synchronized void sampleMemory() {
+		final Runtime runtime = Runtime.getRuntime();
+		final long usedMemory = runtime.totalMemory() - runtime.freeMemory();
+		if (usedMemory > stagePeakMemory) {
+			stagePeakMemory = usedMemory;
+		}
+		if (usedMemory > peakMemory) {
+			peakMemory = usedMemory;
+		}
+	}
+
+	private void startStage() {
+		synchronized (this) {
+			stagePeakMemory = 0;
+		}
+		sampleMemory();
+		stageStartTime = System.currentTimeMillis();
+	}
+
+	private void endStage(final String name) {
+		final long duration = System.currentTimeMillis() - stageStartTime;
+		sampleMemory();
+		synchronized (this) {
+			stageReports.add(new StageReport(name, duration, stagePeakMemory));
+		}
+	}
+
+	/**
+	 * Same formula as {@link org.grap.processing.operation.topographicIndices.WetnessIndexOp}.
+	 * The result array may be the slopes one.
+	 */
+	private void computeWetnessIndex(final float[] slopes,
+			final float[] accumulations, final float cellSize,
+			final float ndv, final float[] wetnessIndex)
+			throws OperationException {
+		MultiThreads.execute(slopes.length, nbOfThreads,
+				new MultiThreads.Chunk() {
+					public void process(int start, int end) {
+						for (int i = start; i < end; i++) {
+							float dSlope = slopes[i];
+							float dAccFlow = accumulations[i];
+							if (isNoData(dSlope, ndv)
+									|| isNoData(dAccFlow, ndv)) {
+								wetnessIndex[i] = GeoRaster.FLOAT_NO_DATA_VALUE;
+							} else {
+								dAccFlow /= cellSize;
+								dSlope = (float) Math.max(Math.tan(dSlope),
+										ALMOST_ZERO);
+								wetnessIndex[i] = (float) Math.log(dAccFlow
+										/ dSlope);
+							}
+						}
+					}
+				});
+	}
+
+	private static boolean isNoData(final float value, final float ndv) {
+		return Float.isNaN(value) || (GeoRaster.FLOAT_NO_DATA_VALUE == value)
+				|| (ndv == value);
+	}
+
+	private static GeoRaster toGeoRaster(final float[] pixels,
+			final RasterMetadata rasterMetadata, final float ndv)
+			throws IOException {
+		final GeoRaster geoRaster = GeoRasterFactory.createGeoRaster(pixels,
+				rasterMetadata);
+		geoRaster.setNodataValue(ndv);
+		return geoRaster;
+	}
+
+	/**
+	 * Wall-clock time and peak used memory of a pipeline stage.
+	 */
+	public static class StageReport {
+		private final String name;
+		private final long duration;
+		private final long peakMemory;
+
+		StageReport(final String name, final long duration,
+				final long peakMemory) {
+			this.name = name;
+			this.duration = duration;
+			this.peakMemory = peakMemory;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the wall-clock duration of the stage, in milliseconds
+		 */
+		public long getDuration() {
+			return duration;
+		}
+
+		/**
+		 * @return the greatest amount of used memory (in bytes) sampled
+		 *         during the stage
+		 */
+		public long getPeakMemory() {
+			return peakMemory;
+		}
+	}
+}
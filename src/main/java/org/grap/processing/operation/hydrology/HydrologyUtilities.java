@@ -37,6 +37,9 @@ import java.util.Set;
 import java.util.Stack;
 
 import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
 
 public class HydrologyUtilities {
 	public final static float indecisionDirection = -1;
@@ -46,6 +49,7 @@ public class HydrologyUtilities {
 	private final static double FACTOR = 180 / Math.PI;
 
 	private ImageProcessor imageProcessor;
+	private RasterMetadata rasterMetadata;
 	private int ncols;
 	private int nrows;
 
@@ -55,6 +59,12 @@ public class HydrologyUtilities {
 	private final static short[] neighboursDirection = new short[] { 5, 6, 7,
 			8, 1, 2, 3, 4 };
 
+	/* column and row shifts of the 8 neighbours, in the D8 order */
+	private final static int[] neighboursX = new int[] { 1, 1, 0, -1, -1, -1,
+			0, 1 };
+	private final static int[] neighboursY = new int[] { 0, -1, -1, -1, 0, 1,
+			1, 1 };
+
 	/**
 	 * Implementation of some classical D8 analysis algorithms. D8 stands for
 	 * "Deterministic eight neighbour" method by O’Callaghan & Mark (1984)
@@ -76,8 +86,9 @@ public class HydrologyUtilities {
 	 */
 
 	public HydrologyUtilities(final GeoRaster dem) throws IOException {
-		ncols = dem.getMetadata().getNCols();
-		nrows = dem.getMetadata().getNRows();
+		rasterMetadata = dem.getMetadata();
+		ncols = rasterMetadata.getNCols();
+		nrows = rasterMetadata.getNRows();
 		imageProcessor = dem.getImagePlus().getProcessor();
 		ndv = (float) (Double.isNaN(dem.getNoDataValue()) ? GeoRaster.FLOAT_NO_DATA_VALUE
 				: dem.getNoDataValue());
@@ -97,6 +108,14 @@ public class HydrologyUtilities {
 				invPixelSize_Y, invHypotenuse };
 	}
 
+	/**
+	 * @return the inverse of the distance to each of the 8 neighbours, in the
+	 *         D8 order (index k - 1 for direction code k)
+	 */
+	public float[] getInvD8Distances() {
+		return invD8Distances;
+	}
+
 	public boolean isABorder(final int x, final int y) {
 		return (0 == x) || (ncols - 1 == x) || (0 == y) || (nrows - 1 == y);
 	}
@@ -118,52 +137,154 @@ public class HydrologyUtilities {
 		}
 	}
 
-	private static int getIdxForMaxValue(final float[] values) {
-		float max = 0;
-		int result = -1;
-		for (int i = 0; i < values.length; i++) {
-			if ((!Float.isNaN(values[i])) && (values[i] > max)) {
-				result = i;
-				max = values[i];
+	/**
+	 * @return all the pixel values, in rows order, the nodataValue pixels
+	 *         being equal to NaN
+	 */
+	public float[] getPixelValues() {
+		final float[] values = new float[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				values[i] = getPixelValue(x, y);
 			}
 		}
-		return result;
+		return values;
+	}
+
+	/**
+	 * Reads a weights GeoRaster (rainfall, runoff coefficient, pollutant
+	 * load...) used by the weighted accumulation operations : nodataValue
+	 * weights count for 0.
+	 * 
+	 * @param grWeights
+	 * @param nrows
+	 * @param ncols
+	 * @return the weights in rows order, null if grWeights is null
+	 * @throws IOException
+	 */
+	public static float[] getWeights(final GeoRaster grWeights,
+			final int nrows, final int ncols) throws IOException {
+		if (null == grWeights) {
+			return null;
+		}
+		final ImageProcessor processor = grWeights.getImagePlus()
+				.getProcessor();
+		final float weightsNdv = (float) grWeights.getNoDataValue();
+		final float[] weights = new float[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				final float weight = processor.getPixelValue(x, y);
+				weights[i] = (Float.isNaN(weight) || (weightsNdv == weight)) ? 0
+						: weight;
+			}
+		}
+		return weights;
+	}
+
+	/**
+	 * Reads a mask GeoRaster (lakes, stream network...) : the selected cells
+	 * are the non null and non nodataValue ones.
+	 * 
+	 * @param grMask
+	 * @param nrows
+	 * @param ncols
+	 * @return one boolean per cell, in rows order
+	 * @throws IOException
+	 */
+	public static boolean[] getMask(final GeoRaster grMask, final int nrows,
+			final int ncols) throws IOException {
+		final ImageProcessor processor = grMask.getImagePlus().getProcessor();
+		final float maskNdv = (float) grMask.getNoDataValue();
+		final boolean[] mask = new boolean[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				final float value = processor.getPixelValue(x, y);
+				mask[i] = !Float.isNaN(value) && (0 != value)
+						&& (maskNdv != value);
+			}
+		}
+		return mask;
 	}
 
 	private float[] getD8DirectionAndD8Slope(final int x, final int y) {
+		final float[] result = new float[2];
+		getD8DirectionAndD8Slope(x, y, result);
+		return result;
+	}
+
+	/**
+	 * Steepest descent of cell (x, y), without any allocation.
+	 * 
+	 * @param x
+	 * @param y
+	 * @param result
+	 *            receives the D8 direction (ndv for a nodataValue or a border
+	 *            cell) and the corresponding slope
+	 */
+	private void getD8DirectionAndD8Slope(final int x, final int y,
+			final float[] result) {
 		final float currentElevation = getPixelValue(x, y);
 
 		if (Float.isNaN(currentElevation) || isABorder(x, y)) {
-			return new float[] { ndv, ndv };
+			result[0] = ndv;
+			result[1] = ndv;
 		} else {
-			final float[] ratios = new float[] {
-					(currentElevation - getPixelValue(x + 1, y))
-							* invD8Distances[0],
-					(currentElevation - getPixelValue(x + 1, y - 1))
-							* invD8Distances[1],
-					(currentElevation - getPixelValue(x, y - 1))
-							* invD8Distances[2],
-					(currentElevation - getPixelValue(x - 1, y - 1))
-							* invD8Distances[3],
-					(currentElevation - getPixelValue(x - 1, y))
-							* invD8Distances[4],
-					(currentElevation - getPixelValue(x - 1, y + 1))
-							* invD8Distances[5],
-					(currentElevation - getPixelValue(x, y + 1))
-							* invD8Distances[6],
-					(currentElevation - getPixelValue(x + 1, y + 1))
-							* invD8Distances[7] };
-			final int tmpIdx = getIdxForMaxValue(ratios);
-			if (-1 == tmpIdx) {
+			float max = 0;
+			int maxIdx = -1;
+			for (int k = 0; k < 8; k++) {
+				final float ratio = (currentElevation - getPixelValue(x
+						+ neighboursX[k], y + neighboursY[k]))
+						* invD8Distances[k];
+				if ((!Float.isNaN(ratio)) && (ratio > max)) {
+					maxIdx = k;
+					max = ratio;
+				}
+			}
+			if (-1 == maxIdx) {
 				// maybe an outlet or a sink
-				return new float[] { indecisionDirection, indecisionAngle };
+				result[0] = indecisionDirection;
+				result[1] = indecisionAngle;
 			} else {
-				return new float[] { 1 + tmpIdx, ratios[tmpIdx] };
-				// return new float[] { 1 << tmpIdx, ratios[tmpIdx] };
+				result[0] = 1 + maxIdx;
+				result[1] = max;
 			}
 		}
 	}
 
+	/**
+	 * Computes the same D8 directions and slopes as
+	 * {@link #getD8Direction(int, int)} and {@link #getSlope(int, int)} for
+	 * all the cells, in a single sweep shared between several threads by rows
+	 * bands.
+	 * 
+	 * @param slopes
+	 *            filled with the slopes, if not null
+	 * @param nbOfThreads
+	 * @return the D8 directions as a compact grid
+	 * @throws OperationException
+	 */
+	public D8FlowDirections getD8FlowDirections(final float[] slopes,
+			final int nbOfThreads) throws OperationException {
+		final byte[] directions = new byte[nrows * ncols];
+		MultiThreads.execute(nrows, nbOfThreads, new MultiThreads.Chunk() {
+			public void process(int start, int end) {
+				final float[] result = new float[2];
+				for (int y = start; y < end; y++) {
+					for (int x = 0, i = y * ncols; x < ncols; x++, i++) {
+						getD8DirectionAndD8Slope(x, y, result);
+						final float direction = result[0];
+						directions[i] = (ndv == direction) ? D8FlowDirections.NO_DATA
+								: D8FlowDirections.toCode(direction);
+						if (null != slopes) {
+							slopes[i] = result[1];
+						}
+					}
+				}
+			}
+		});
+		return new D8FlowDirections(directions, rasterMetadata, ndv);
+	}
+
 	public float getD8Direction(final int x, final int y) {
 		return getD8DirectionAndD8Slope(x, y)[0];
 	}
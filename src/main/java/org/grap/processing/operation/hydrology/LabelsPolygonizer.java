@@ -0,0 +1,439 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import ij.process.ImageProcessor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Converts an integer labels raster (such as the watersheds produced by
+ * {@link D8OpWatershedsFromOutlets}, {@link D8OpAllWatersheds} or
+ * {@link D8OpWatershedsWithThreshold}) into one JTS Polygon or MultiPolygon
+ * per label, holes included.
+ * 
+ * The raster is split into strips of rows that are processed in parallel :
+ * the 4-connected regions of each strip are first identified thanks to a
+ * scanline union-find, and the strips are then stitched by merging the
+ * regions on both sides of each strip edge. The boundaries of each region
+ * are finally traced along the cell edges (the regions being shared between
+ * several threads) : only the corners are kept, so that a straight boundary
+ * produces a single segment whatever the strips it crosses. The outer ring of
+ * a region is its shell, the other ones are its holes.
+ */
+public class LabelsPolygonizer {
+	private final static GeometryFactory geometryFactory = new GeometryFactory();
+
+	/* headings along the cell edges : west, south, east and north */
+	private final static int[] HX = new int[] { -1, 0, 1, 0 };
+	private final static int[] HY = new int[] { 0, 1, 0, -1 };
+
+	private final int[] labels;
+	private final int noLabel;
+	private final int ncols;
+	private final int nrows;
+	private final RasterMetadata rasterMetadata;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	private int[] components;
+	private int[] componentsLabels;
+	private int nbOfComponents;
+
+	/**
+	 * @param labels
+	 *            one label per cell, in rows order
+	 * @param rasterMetadata
+	 * @param noLabel
+	 *            the value of the cells that do not belong to any region
+	 */
+	public LabelsPolygonizer(final int[] labels,
+			final RasterMetadata rasterMetadata, final int noLabel) {
+		this.labels = labels;
+		this.rasterMetadata = rasterMetadata;
+		this.noLabel = noLabel;
+		ncols = rasterMetadata.getNCols();
+		nrows = rasterMetadata.getNRows();
+	}
+
+	/**
+	 * Builds a polygonizer from a labels GeoRaster : the label of a cell is
+	 * the integer part of its value, the nodataValue (and NaN) cells do not
+	 * belong to any region.
+	 * 
+	 * @param grLabels
+	 * @param noLabel
+	 *            a label value that does not appear in the GeoRaster
+	 * @return
+	 * @throws IOException
+	 */
+	public static LabelsPolygonizer fromGeoRaster(final GeoRaster grLabels,
+			final int noLabel) throws IOException {
+		final RasterMetadata rasterMetadata = grLabels.getMetadata();
+		final int nrows = rasterMetadata.getNRows();
+		final int ncols = rasterMetadata.getNCols();
+		final ImageProcessor processor = grLabels.getImagePlus()
+				.getProcessor();
+		final float labelsNdv = (float) grLabels.getNoDataValue();
+		final int[] labels = new int[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				final float value = processor.getPixelValue(x, y);
+				labels[i] = (Float.isNaN(value) || (labelsNdv == value)) ? noLabel
+						: (int) value;
+			}
+		}
+		return new LabelsPolygonizer(labels, rasterMetadata, noLabel);
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	/**
+	 * @param pm
+	 * @return a Polygon (or a MultiPolygon if the label is made of several
+	 *         4-connected regions) per label, in real world coordinates
+	 * @throws OperationException
+	 */
+	public Map<Integer, Geometry> polygonize(final ProgressMonitor pm)
+			throws OperationException {
+		final Map<Integer, Geometry> result = new TreeMap<Integer, Geometry>();
+		labelComponents();
+		if (pm.isCancelled()) {
+			return result;
+		}
+
+		// counting sort of the labelled cells by region
+		final int[] offsets = new int[nbOfComponents + 1];
+		for (int i = 0; i < components.length; i++) {
+			if (-1 != components[i]) {
+				offsets[components[i] + 1]++;
+			}
+		}
+		for (int c = 0; c < nbOfComponents; c++) {
+			offsets[c + 1] += offsets[c];
+		}
+		final int[] cells = new int[offsets[nbOfComponents]];
+		final int[] fill = new int[nbOfComponents];
+		for (int i = 0; i < components.length; i++) {
+			final int c = components[i];
+			if (-1 != c) {
+				cells[offsets[c] + fill[c]++] = i;
+			}
+		}
+		if (pm.isCancelled()) {
+			return result;
+		}
+
+		final Geometry[] polygons = new Geometry[nbOfComponents];
+		final byte[] visited = new byte[labels.length];
+		MultiThreads.execute(nbOfComponents, nbOfThreads,
+				new MultiThreads.Chunk() {
+					public void process(int start, int end) {
+						final RingTracer tracer = new RingTracer(visited);
+						for (int c = start; c < end; c++) {
+							polygons[c] = tracer.trace(cells, offsets[c],
+									offsets[c + 1]);
+						}
+					}
+				});
+
+		// gather the regions of each label
+		final Map<Integer, List<Polygon>> byLabel = new TreeMap<Integer, List<Polygon>>();
+		for (int c = 0; c < nbOfComponents; c++) {
+			List<Polygon> list = byLabel.get(componentsLabels[c]);
+			if (null == list) {
+				list = new ArrayList<Polygon>(1);
+				byLabel.put(componentsLabels[c], list);
+			}
+			for (int n = 0; n < polygons[c].getNumGeometries(); n++) {
+				list.add((Polygon) polygons[c].getGeometryN(n));
+			}
+		}
+		for (Map.Entry<Integer, List<Polygon>> entry : byLabel.entrySet()) {
+			final List<Polygon> list = entry.getValue();
+			result.put(entry.getKey(), (1 == list.size()) ? list.get(0)
+					: geometryFactory.createMultiPolygon(list
+							.toArray(new Polygon[list.size()])));
+		}
+		return result;
+	}
+
+	/**
+	 * Scanline union-find labelling of the 4-connected regions, strip by
+	 * strip, followed by the stitching of the strips. The roots always are
+	 * the smallest cell index of their region.
+	 */
+	private void labelComponents() throws OperationException {
+		final int[] parents = new int[labels.length];
+		final boolean[] stripStarts = new boolean[nrows];
+		MultiThreads.execute(nrows, nbOfThreads, new MultiThreads.Chunk() {
+			public void process(int start, int end) {
+				stripStarts[start] = true;
+				for (int y = start; y < end; y++) {
+					for (int x = 0, i = y * ncols; x < ncols; x++, i++) {
+						parents[i] = i;
+						if (noLabel == labels[i]) {
+							continue;
+						}
+						if ((0 < x) && (labels[i - 1] == labels[i])) {
+							union(parents, i - 1, i);
+						}
+						if ((start < y) && (labels[i - ncols] == labels[i])) {
+							union(parents, i - ncols, i);
+						}
+					}
+				}
+			}
+		});
+
+		// stitch the strips
+		for (int y = 1; y < nrows; y++) {
+			if (stripStarts[y]) {
+				for (int x = 0, i = y * ncols; x < ncols; x++, i++) {
+					if ((noLabel != labels[i])
+							&& (labels[i - ncols] == labels[i])) {
+						union(parents, i - ncols, i);
+					}
+				}
+			}
+		}
+
+		components = new int[labels.length];
+		nbOfComponents = 0;
+		int[] tmpLabels = new int[16];
+		for (int i = 0; i < labels.length; i++) {
+			if (noLabel == labels[i]) {
+				components[i] = -1;
+			} else {
+				final int root = find(parents, i);
+				if (root == i) {
+					if (nbOfComponents == tmpLabels.length) {
+						final int[] tmp = new int[2 * nbOfComponents];
+						System.arraycopy(tmpLabels, 0, tmp, 0, nbOfComponents);
+						tmpLabels = tmp;
+					}
+					tmpLabels[nbOfComponents] = labels[i];
+					components[i] = nbOfComponents++;
+				} else {
+					components[i] = components[root];
+				}
+			}
+		}
+		componentsLabels = tmpLabels;
+	}
+
+	private static int find(final int[] parents, int i) {
+		while (parents[i] != i) {
+			parents[i] = parents[parents[i]];
+			i = parents[i];
+		}
+		return i;
+	}
+
+	private static void union(final int[] parents, final int i, final int j) {
+		final int ri = find(parents, i);
+		final int rj = find(parents, j);
+		if (ri < rj) {
+			parents[rj] = ri;
+		} else if (rj < ri) {
+			parents[ri] = rj;
+		}
+	}
+
+	private boolean sameLabel(final int x, final int y, final int label) {
+		return (0 <= x) && (ncols > x) && (0 <= y) && (nrows > y)
+				&& (labels[y * ncols + x] == label);
+	}
+
+	/**
+	 * Traces the rings of a single region. A boundary edge is identified by
+	 * the cell it belongs to and by its heading (the cell lying on the left
+	 * of the heading, when the rows go downwards) : west for the top edge,
+	 * south for the left edge, east for the bottom edge and north for the
+	 * right edge. The visited edges are flagged in the visited array, that is
+	 * only written for the cells of the regions owned by the tracer.
+	 */
+	private class RingTracer {
+		private final byte[] visited;
+		private int[] ringX = new int[64];
+		private int[] ringY = new int[64];
+		private int ringSize;
+		private boolean pinched;
+
+		RingTracer(final byte[] visited) {
+			this.visited = visited;
+		}
+
+		Geometry trace(final int[] cells, final int first, final int last) {
+			LinearRing shell = null;
+			final List<LinearRing> holes = new ArrayList<LinearRing>();
+			pinched = false;
+			for (int k = first; k < last; k++) {
+				final int i = cells[k];
+				final int x = i % ncols;
+				final int y = i / ncols;
+				for (int h = 0; h < 4; h++) {
+					if (0 == (visited[i] & (1 << h))
+							&& !sameLabel(x - HY[h], y + HX[h], labels[i])) {
+						final long area = traceRing(x, y, h);
+						final LinearRing ring = toLinearRing();
+						if (0 > area) {
+							shell = ring;
+						} else {
+							holes.add(ring);
+						}
+					}
+				}
+			}
+			final Polygon polygon = geometryFactory.createPolygon(shell, holes
+					.toArray(new LinearRing[holes.size()]));
+			// a ring that touches itself at a corner is not a valid JTS ring
+			return pinched ? polygon.buffer(0) : polygon;
+		}
+
+		/**
+		 * @return twice the signed area of the ring (in cell units), negative
+		 *         for the shell, positive for the holes
+		 */
+		private long traceRing(final int startX, final int startY,
+				final int startHeading) {
+			final int label = labels[startY * ncols + startX];
+			int x = startX;
+			int y = startY;
+			int h = startHeading;
+			ringSize = 0;
+			addVertex(startVertexX(x, h), startVertexY(y, h));
+			do {
+				visited[y * ncols + x] |= 1 << h;
+				// the cell ahead, on the same side of the boundary, and the
+				// one beyond the boundary
+				final int nx = HY[h];
+				final int ny = -HX[h];
+				final int aheadX = x + HX[h];
+				final int aheadY = y + HY[h];
+				final int nextH;
+				if (sameLabel(aheadX, aheadY, label)) {
+					if (sameLabel(aheadX - nx, aheadY - ny, label)) {
+						// outward turn
+						x = aheadX - nx;
+						y = aheadY - ny;
+						nextH = (h + 3) % 4;
+					} else {
+						x = aheadX;
+						y = aheadY;
+						nextH = h;
+					}
+				} else {
+					if (sameLabel(aheadX - nx, aheadY - ny, label)
+							&& (components[(aheadY - ny) * ncols + aheadX - nx] == components[y
+									* ncols + x])) {
+						pinched = true;
+					}
+					// inward turn
+					nextH = (h + 1) % 4;
+				}
+				if (nextH != h) {
+					addVertex(startVertexX(x, nextH), startVertexY(y, nextH));
+				}
+				h = nextH;
+			} while ((x != startX) || (y != startY) || (h != startHeading));
+			if ((ringX[ringSize - 1] != ringX[0])
+					|| (ringY[ringSize - 1] != ringY[0])) {
+				// the start vertex lies in the middle of a straight edge
+				System.arraycopy(ringX, 1, ringX, 0, ringSize - 1);
+				System.arraycopy(ringY, 1, ringY, 0, ringSize - 1);
+				ringX[ringSize - 1] = ringX[0];
+				ringY[ringSize - 1] = ringY[0];
+			}
+
+			long area = 0;
+			for (int k = 0; k < ringSize - 1; k++) {
+				area += (long) ringX[k] * ringY[k + 1] - (long) ringX[k + 1]
+						* ringY[k];
+			}
+			return area;
+		}
+
+		private int startVertexX(final int x, final int h) {
+			return x + ((0 == h) || (3 == h) ? 1 : 0);
+		}
+
+		private int startVertexY(final int y, final int h) {
+			return y + ((2 == h) || (3 == h) ? 1 : 0);
+		}
+
+		private void addVertex(final int vx, final int vy) {
+			if (ringSize == ringX.length) {
+				final int[] tmpX = new int[2 * ringSize];
+				final int[] tmpY = new int[2 * ringSize];
+				System.arraycopy(ringX, 0, tmpX, 0, ringSize);
+				System.arraycopy(ringY, 0, tmpY, 0, ringSize);
+				ringX = tmpX;
+				ringY = tmpY;
+			}
+			ringX[ringSize] = vx;
+			ringY[ringSize] = vy;
+			ringSize++;
+		}
+
+		/**
+		 * The vertices are the cells' corners : the center of the upper left
+		 * cell is at (0.5, 0.5).
+		 */
+		private LinearRing toLinearRing() {
+			final double xul = rasterMetadata.getXulcorner();
+			final double yul = rasterMetadata.getYulcorner();
+			final double pixelSizeX = rasterMetadata.getPixelSize_X();
+			final double pixelSizeY = rasterMetadata.getPixelSize_Y();
+			final Coordinate[] coordinates = new Coordinate[ringSize];
+			for (int k = 0; k < ringSize; k++) {
+				coordinates[k] = new Coordinate(xul + (ringX[k] - 0.5)
+						* pixelSizeX, yul + (ringY[k] - 0.5) * pixelSizeY);
+			}
+			return geometryFactory.createLinearRing(coordinates);
+		}
+	}
+}
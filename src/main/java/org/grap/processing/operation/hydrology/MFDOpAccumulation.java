@@ -0,0 +1,275 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Weighted flow accumulation along multiple flow directions (see
+ * {@link MFDOpDirection}, {@link DInfOpDirection} and
+ * {@link FlowProportions#fromD8(D8FlowDirections)}). Each cell receives its
+ * own weight plus the given fraction of the accumulation of each upstream
+ * neighbour.
+ * 
+ * The flow graph is first split into independent sub-basins (its connected
+ * components, thanks to a union-find), that are shared between several
+ * threads. Each sub-basin is then swept in topological order (a cell is
+ * processed as soon as all its upstream neighbours have been processed).
+ * 
+ * The GeoRaster given to the execute method holds the weights (nodataValue
+ * weights count for 0). Use {@link #accumulate(float[], ProgressMonitor)}
+ * with a null weights array to count the contributing cells. Several weights
+ * GeoRasters may be accumulated in the same sweep, each of them producing its
+ * own output band.
+ */
+public class MFDOpAccumulation implements Operation {
+	private final FlowProportions flowProportions;
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	public MFDOpAccumulation(final FlowProportions flowProportions) {
+		this.flowProportions = flowProportions;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	public GeoRaster execute(final GeoRaster grWeights, ProgressMonitor pm)
+			throws OperationException {
+		return executeBands(new GeoRaster[] { grWeights }, pm)[0];
+	}
+
+	/**
+	 * Accumulates all the given weights GeoRasters in the same sweep.
+	 * 
+	 * @param grWeights
+	 *            a null item counts the contributing cells
+	 * @param pm
+	 * @return one accumulation GeoRaster per weights GeoRaster
+	 * @throws OperationException
+	 */
+	public GeoRaster[] executeBands(final GeoRaster[] grWeights,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			final float[][] weights = new float[grWeights.length][];
+			for (int b = 0; b < grWeights.length; b++) {
+				weights[b] = HydrologyUtilities.getWeights(grWeights[b],
+						flowProportions.getNRows(), flowProportions.getNCols());
+			}
+			final float[][] accumulations = accumulateBands(weights, pm);
+			final GeoRaster[] grAccumulations = new GeoRaster[accumulations.length];
+			for (int b = 0; b < accumulations.length; b++) {
+				grAccumulations[b] = GeoRasterFactory.createGeoRaster(
+						accumulations[b], flowProportions.getMetadata());
+				grAccumulations[b].setNodataValue(flowProportions
+						.getNoDataValue());
+			}
+			return grAccumulations;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * @param weights
+	 *            one weight per cell, or null to count the contributing cells
+	 * @param pm
+	 * @return the accumulations, nodataValue cells being equal to the
+	 *         nodataValue of the flow proportions
+	 * @throws OperationException
+	 */
+	public float[] accumulate(final float[] weights, ProgressMonitor pm)
+			throws OperationException {
+		return accumulateBands(new float[][] { weights }, pm)[0];
+	}
+
+	/**
+	 * Accumulates several weights arrays in the same topological sweep :
+	 * each additional weights array only costs an additional accumulations
+	 * array.
+	 * 
+	 * @param weights
+	 *            one array of weights per band, a null band counts the
+	 *            contributing cells
+	 * @param pm
+	 * @return one accumulations array per band
+	 * @throws OperationException
+	 */
+	public float[][] accumulateBands(final float[][] weights,
+			ProgressMonitor pm) throws OperationException {
+		final int nbCells = flowProportions.getNbCells();
+		final int nbBands = weights.length;
+		final float[][] accumulations = new float[nbBands][nbCells];
+		final float ndv = flowProportions.getNoDataValue();
+		for (int b = 0; b < nbBands; b++) {
+			final float[] bandWeights = weights[b];
+			final float[] bandAccumulations = accumulations[b];
+			for (int i = 0; i < nbCells; i++) {
+				if (flowProportions.isNoData(i)) {
+					bandAccumulations[i] = ndv;
+				} else {
+					bandAccumulations[i] = (null == bandWeights) ? 1
+							: bandWeights[i];
+				}
+			}
+		}
+
+		final SubBasins subBasins = new SubBasins();
+		if (pm.isCancelled()) {
+			return accumulations;
+		}
+
+		final byte[] inDegrees = new byte[nbCells];
+		MultiThreads.execute(subBasins.nbOfSubBasins, nbOfThreads,
+				new MultiThreads.Chunk() {
+					public void process(int start, int end) {
+						final int[] receivers = new int[8];
+						final float[] fractions = new float[8];
+						int[] queue = new int[64];
+						for (int s = start; s < end; s++) {
+							final int first = subBasins.offsets[s];
+							final int last = subBasins.offsets[s + 1];
+							for (int k = first; k < last; k++) {
+								final int nb = flowProportions.getReceivers(
+										subBasins.cells[k], receivers,
+										fractions);
+								for (int n = 0; n < nb; n++) {
+									inDegrees[receivers[n]]++;
+								}
+							}
+							if (queue.length < last - first) {
+								queue = new int[last - first];
+							}
+							int tail = 0;
+							for (int k = first; k < last; k++) {
+								if (0 == inDegrees[subBasins.cells[k]]) {
+									queue[tail++] = subBasins.cells[k];
+								}
+							}
+							for (int head = 0; head < tail; head++) {
+								final int cell = queue[head];
+								final int nb = flowProportions.getReceivers(
+										cell, receivers, fractions);
+								for (int n = 0; n < nb; n++) {
+									final int receiver = receivers[n];
+									for (int b = 0; b < nbBands; b++) {
+										accumulations[b][receiver] += fractions[n]
+												* accumulations[b][cell];
+									}
+									if (0 == --inDegrees[receiver]) {
+										queue[tail++] = receiver;
+									}
+								}
+							}
+						}
+					}
+				});
+		return accumulations;
+	}
+
+	/**
+	 * The connected components of the flow graph, as lists of cells indices.
+	 */
+	private class SubBasins {
+		private int nbOfSubBasins;
+		private int[] offsets;
+		private int[] cells;
+
+		SubBasins() {
+			final int nbCells = flowProportions.getNbCells();
+			final int[] parents = new int[nbCells];
+			for (int i = 0; i < nbCells; i++) {
+				parents[i] = i;
+			}
+			final int[] receivers = new int[8];
+			final float[] fractions = new float[8];
+			for (int i = 0; i < nbCells; i++) {
+				if (!flowProportions.isNoData(i)) {
+					final int nb = flowProportions.getReceivers(i, receivers,
+							fractions);
+					for (int n = 0; n < nb; n++) {
+						union(parents, i, receivers[n]);
+					}
+				}
+			}
+
+			// sub-basin number of each root, then counting sort of the cells
+			final int[] labels = new int[nbCells];
+			nbOfSubBasins = 0;
+			for (int i = 0; i < nbCells; i++) {
+				if (!flowProportions.isNoData(i) && (i == find(parents, i))) {
+					labels[i] = nbOfSubBasins++;
+				}
+			}
+			offsets = new int[nbOfSubBasins + 1];
+			for (int i = 0; i < nbCells; i++) {
+				if (!flowProportions.isNoData(i)) {
+					labels[i] = labels[find(parents, i)];
+					offsets[labels[i] + 1]++;
+				}
+			}
+			for (int b = 0; b < nbOfSubBasins; b++) {
+				offsets[b + 1] += offsets[b];
+			}
+			cells = new int[offsets[nbOfSubBasins]];
+			final int[] positions = parents;
+			System.arraycopy(offsets, 0, positions, 0, nbOfSubBasins);
+			for (int i = 0; i < nbCells; i++) {
+				if (!flowProportions.isNoData(i)) {
+					cells[positions[labels[i]]++] = i;
+				}
+			}
+		}
+
+		private int find(final int[] parents, int i) {
+			while (parents[i] != i) {
+				parents[i] = parents[parents[i]];
+				i = parents[i];
+			}
+			return i;
+		}
+
+		private void union(final int[] parents, final int a, final int b) {
+			final int ra = find(parents, a);
+			final int rb = find(parents, b);
+			if (ra < rb) {
+				parents[rb] = ra;
+			} else if (rb < ra) {
+				parents[ra] = rb;
+			}
+		}
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Multiple flow directions routing : the flow of a cell is shared between
+ * all its downslope neighbours, proportionally to (tan B)^p * L, where tan B
+ * is the slope towards the neighbour and L an optional contour length. Two
+ * classical parameterizations are available :
+ * 
+ * Freeman (1991) : p = 1.1, no contour length ({@link #freeman()}),
+ * 
+ * Quinn et al. (1991) : p = 1, contour length equal to 0.5 (cardinal
+ * neighbours) or 0.354 (diagonal neighbours) ({@link #quinn()}).
+ * 
+ * The execute method returns the receivers bit mask of each cell (see
+ * {@link FlowProportions#getReceiversMask()}). The flow proportions are
+ * available through {@link #getFlowProportions(GeoRaster, ProgressMonitor)}.
+ */
+public class MFDOpDirection extends MultipleFlowOpAbstract implements
+		Operation {
+	private final static double CARDINAL_CONTOUR_LENGTH = 0.5;
+	private final static double DIAGONAL_CONTOUR_LENGTH = 0.354;
+
+	private final double exponent;
+	private final boolean contourLengths;
+
+	/**
+	 * @param exponent
+	 *            the flow partition exponent p
+	 * @param contourLengths
+	 *            true to weight each direction by its contour length
+	 */
+	public MFDOpDirection(final double exponent, final boolean contourLengths) {
+		this.exponent = exponent;
+		this.contourLengths = contourLengths;
+	}
+
+	public static MFDOpDirection freeman() {
+		return new MFDOpDirection(1.1, false);
+	}
+
+	public static MFDOpDirection quinn() {
+		return new MFDOpDirection(1, true);
+	}
+
+	@Override
+	public GeoRaster evaluateResult(GeoRaster grDEM, ProgressMonitor pm)
+			throws OperationException {
+		try {
+			return getFlowProportions(grDEM, pm).getReceiversMask();
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	@Override
+	protected boolean computeWeights(final float[] elevations, final int i,
+			final double[] weights) {
+		final float z = elevations[i];
+		boolean downslope = false;
+		for (int k = 1; k <= 8; k++) {
+			final float zk = elevations[i + offsets[k]];
+			if (z > zk) {
+				// false if zk is NaN
+				final double tanB = (z - zk) / distances[k];
+				double weight = (1 == exponent) ? tanB : Math
+						.pow(tanB, exponent);
+				if (contourLengths) {
+					weight *= (0 == k % 2) ? DIAGONAL_CONTOUR_LENGTH
+							: CARDINAL_CONTOUR_LENGTH;
+				}
+				weights[k - 1] = weight;
+				downslope = true;
+			}
+		}
+		return downslope;
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.MultiThreads;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Common ancestor of the multiple flow directions operations. The flow
+ * proportions of each cell are computed from its 8 neighbours elevations, in
+ * a single sweep over the DEM shared between several threads by rows bands,
+ * and stored into a compact {@link FlowProportions} grid.
+ */
+public abstract class MultipleFlowOpAbstract extends D8OpAbstract {
+	protected final static int[] DX = D8FlowDirections.DX;
+	protected final static int[] DY = D8FlowDirections.DY;
+
+	private int nbOfThreads = MultiThreads.getDefaultNumberOfThreads();
+
+	/* index shift and length of the step towards each neighbour (D8 codes) */
+	protected int[] offsets;
+	protected float[] distances;
+	protected float cellWidth;
+	protected float cellHeight;
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	/**
+	 * Computes the flow proportions of the given DEM.
+	 * 
+	 * @param grDEM
+	 * @param pm
+	 * @return
+	 * @throws OperationException
+	 */
+	public FlowProportions getFlowProportions(final GeoRaster grDEM,
+			ProgressMonitor pm) throws OperationException {
+		try {
+			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
+					grDEM);
+			final RasterMetadata rasterMetadata = grDEM.getMetadata();
+			final int nrows = rasterMetadata.getNRows();
+			final int ncols = rasterMetadata.getNCols();
+			final float[] elevations = hydrologyUtilities.getPixelValues();
+			final FlowProportions flowProportions = new FlowProportions(
+					rasterMetadata, hydrologyUtilities.ndv);
+
+			cellWidth = rasterMetadata.getPixelSize_X();
+			cellHeight = Math.abs(rasterMetadata.getPixelSize_Y());
+			final float hypotenuse = (float) Math.sqrt(cellWidth * cellWidth
+					+ cellHeight * cellHeight);
+			distances = new float[] { 0, cellWidth, hypotenuse, cellHeight,
+					hypotenuse, cellWidth, hypotenuse, cellHeight, hypotenuse };
+			offsets = new int[9];
+			for (int k = 1; k <= 8; k++) {
+				offsets[k] = DY[k] * ncols + DX[k];
+			}
+			startSweep(nrows * ncols);
+
+			MultiThreads.execute(nrows, nbOfThreads,
+					new MultiThreads.Chunk() {
+						public void process(int start, int end) {
+							final double[] weights = new double[8];
+							for (int y = start; y < end; y++) {
+								for (int x = 0, i = y * ncols; x < ncols; x++, i++) {
+									if (Float.isNaN(elevations[i]) || (0 == x)
+											|| (ncols - 1 == x) || (0 == y)
+											|| (nrows - 1 == y)) {
+										flowProportions.setNoData(i);
+										noDataCell(i, hydrologyUtilities.ndv);
+									} else {
+										for (int k = 0; k < 8; k++) {
+											weights[k] = 0;
+										}
+										if (computeWeights(elevations, i,
+												weights)) {
+											flowProportions.setProportions(i,
+													weights);
+										}
+									}
+								}
+							}
+						}
+					});
+			return flowProportions;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	/**
+	 * Called before the sweep, once the offsets and distances are set.
+	 * 
+	 * @param nbCells
+	 */
+	protected void startSweep(final int nbCells) {
+	}
+
+	/**
+	 * Called for each nodataValue or border cell.
+	 * 
+	 * @param i
+	 * @param ndv
+	 */
+	protected void noDataCell(final int i, final float ndv) {
+	}
+
+	/**
+	 * Computes the (non normalized) part of the flow of the inner and valued
+	 * cell i sent towards each of its neighbours. This method is called
+	 * concurrently for distinct cells.
+	 * 
+	 * @param elevations
+	 *            the DEM, nodataValue cells being equal to NaN
+	 * @param i
+	 * @param weights
+	 *            indexed from 0 to 7 for the D8 codes 1 to 8
+	 * @return false for a sink or a flat area (no downslope neighbour)
+	 */
+	protected abstract boolean computeWeights(final float[] elevations,
+			final int i, final double[] weights);
+}
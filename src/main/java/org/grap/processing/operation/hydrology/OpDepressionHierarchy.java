@@ -0,0 +1,84 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Builds the {@link DepressionHierarchy} of a DEM. Unlike {@link OpFillSinks},
+ * the depressions are not flattened : their volumes, spill cells and nesting
+ * are kept, so that the storage of a given amount of water is obtained from
+ * the hierarchy (see {@link DepressionHierarchy#newFilling()}) instead of by
+ * filling the DEM again.
+ * 
+ * The execute method returns the leaf depression of each cell (0 for the cells
+ * that drain to the edges of the DEM).
+ */
+public class OpDepressionHierarchy implements Operation {
+	public final static float ndv = 0;
+
+	private DepressionHierarchy depressionHierarchy;
+
+	public GeoRaster execute(final GeoRaster grDEM, final ProgressMonitor pm)
+			throws OperationException {
+		try {
+			final RasterMetadata rasterMetadata = grDEM.getMetadata();
+			final float[] elevations = new HydrologyUtilities(grDEM)
+					.getPixelValues();
+			if (pm.isCancelled()) {
+				return null;
+			}
+			depressionHierarchy = new DepressionHierarchy(elevations,
+					rasterMetadata);
+
+			final int[] labels = depressionHierarchy.getLabels();
+			final float[] pixels = new float[labels.length];
+			for (int i = 0; i < labels.length; i++) {
+				pixels[i] = (0 < labels[i]) ? labels[i] : ndv;
+			}
+			final GeoRaster grLabels = GeoRasterFactory.createGeoRaster(
+					pixels, rasterMetadata);
+			grLabels.setNodataValue(ndv);
+			return grLabels;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	public DepressionHierarchy getDepressionHierarchy() {
+		return depressionHierarchy;
+	}
+}
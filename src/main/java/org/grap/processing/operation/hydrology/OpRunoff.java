@@ -0,0 +1,178 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.IOException;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.Operation;
+import org.grap.processing.OperationException;
+import org.grap.processing.cellularAutomata.CARunoff;
+import org.grap.processing.cellularAutomata.cam.ICAN;
+import org.grap.processing.cellularAutomata.cam.NullCANListener;
+import org.grap.processing.cellularAutomata.parallelImpl.PCAN;
+import org.orbisgis.progress.ProgressMonitor;
+
+/**
+ * Time-stepped overland flow simulation : the rain of each step is routed
+ * down the D8 network of the DEM by a {@link CARunoff} kinematic wave, run by a
+ * parallel double-buffered network for a fixed number of steps. The discharge
+ * at the given outlets is streamed step by step to an
+ * {@link IHydrographListener}, and the execute method returns the water
+ * depths reached by the last step.
+ * 
+ * The sinks of the DEM keep their water : fill them beforehand (see
+ * {@link OpFillSinks}) to get the hydrographs of a well drained DEM.
+ */
+public class OpRunoff implements Operation {
+	private final int[] outletsIdx;
+	private final float[] rainfall;
+	private final int nbOfSteps;
+	private final float timeStep;
+	private final float manning;
+
+	private int nbOfThreads = Runtime.getRuntime().availableProcessors();
+	private IHydrographListener hydrographListener;
+	private int nbOfStepsDone;
+
+	/**
+	 * @param outletsIdx
+	 *            indices (row * ncols + col) of the cells whose outflow is
+	 *            streamed
+	 * @param rainfall
+	 *            the rain depth (in the elevation unit of the DEM) of each
+	 *            step, no rain after its last value
+	 * @param nbOfSteps
+	 * @param timeStep
+	 *            the duration of a step (in seconds for the usual SI Manning
+	 *            coefficients)
+	 * @param manning
+	 *            the Manning roughness coefficient of the surface
+	 */
+	public OpRunoff(final int[] outletsIdx, final float[] rainfall,
+			final int nbOfSteps, final float timeStep, final float manning) {
+		this.outletsIdx = outletsIdx;
+		this.rainfall = rainfall;
+		this.nbOfSteps = nbOfSteps;
+		this.timeStep = timeStep;
+		this.manning = manning;
+	}
+
+	public void setNumberOfThreads(final int nbOfThreads) {
+		this.nbOfThreads = nbOfThreads;
+	}
+
+	public void setHydrographListener(
+			final IHydrographListener hydrographListener) {
+		this.hydrographListener = hydrographListener;
+	}
+
+	/**
+	 * @return the number of steps of the last execution (less than nbOfSteps
+	 *         if it has been cancelled)
+	 */
+	public int getNbOfStepsDone() {
+		return nbOfStepsDone;
+	}
+
+	public GeoRaster execute(final GeoRaster grDEM, final ProgressMonitor pm)
+			throws OperationException {
+		try {
+			final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
+					grDEM);
+			final RasterMetadata rasterMetadata = grDEM.getMetadata();
+			final int nrows = rasterMetadata.getNRows();
+			final int ncols = rasterMetadata.getNCols();
+			final float[] slopes = new float[nrows * ncols];
+			final D8FlowDirections flowDirections = hydrologyUtilities
+					.getD8FlowDirections(slopes, nbOfThreads);
+
+			final CARunoff ca = new CARunoff(flowDirections, slopes, manning,
+					timeStep);
+			final PCAN pcan = new PCAN(ca, nbOfThreads);
+			pcan.setProgressMonitor(pm);
+			pcan.setListener(new NullCANListener() {
+				private final float[] discharges = new float[outletsIdx.length];
+
+				public void initialized(final ICAN can, final long duration) {
+					ca.setRain(getRain(0));
+				}
+
+				public void iterationDone(final int iterationsCount,
+						final long duration, final int nbOfEvaluatedCells,
+						final int nbOfModifiedCells) {
+					// the state at the beginning of the step
+					final Object src = (0 == iterationsCount % 2) ? pcan
+							.getRac0() : pcan.getRac1();
+					final float[] depths = (float[]) src;
+					for (int k = 0; k < outletsIdx.length; k++) {
+						final int i = outletsIdx[k];
+						discharges[k] = isValid(i, flowDirections) ? ca
+								.getDischarge(i, depths[i]) : 0;
+					}
+					if (null != hydrographListener) {
+						hydrographListener.stepDone(iterationsCount,
+								discharges);
+					}
+					ca.setRain(getRain(iterationsCount + 1));
+					pm.progressTo(100 * (iterationsCount + 1) / nbOfSteps);
+				}
+			});
+			nbOfStepsDone = pcan.run(nbOfSteps);
+			if (pm.isCancelled()) {
+				return null;
+			}
+
+			final float[] depths = (float[]) pcan.getCANValues();
+			for (int i = 0; i < depths.length; i++) {
+				if (flowDirections.isNoData(i)) {
+					depths[i] = hydrologyUtilities.ndv;
+				}
+			}
+			final GeoRaster grDepths = GeoRasterFactory.createGeoRaster(
+					depths, rasterMetadata);
+			grDepths.setNodataValue(hydrologyUtilities.ndv);
+			return grDepths;
+		} catch (IOException e) {
+			throw new OperationException(e);
+		}
+	}
+
+	private float getRain(final int step) {
+		return (step < rainfall.length) ? rainfall[step] : 0;
+	}
+
+	private static boolean isValid(final int i,
+			final D8FlowDirections flowDirections) {
+		return (0 <= i) && (flowDirections.getNbCells() > i)
+				&& !flowDirections.isNoData(i);
+	}
+}
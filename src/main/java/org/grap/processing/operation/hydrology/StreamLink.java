@@ -0,0 +1,116 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import com.vividsolutions.jts.geom.LineString;
+
+/**
+ * A stream link of a vectorized river network (see {@link D8OpStreamNetwork})
+ * : the river cells between a river start (or a junction) and the next
+ * junction downstream. The links are the edges of a tree that can be used
+ * for network routing : each of them knows its downstream link and its
+ * upstream links.
+ */
+public class StreamLink {
+	public final static int noLinkValue = D8OpStreamOrders.noLinkValue;
+
+	private final int id;
+	private final LineString geometry;
+	private final short strahlerStreamOrder;
+	private final double length;
+	private final double upstreamArea;
+	private final int downstreamLinkId;
+	private int[] upstreamLinkIds;
+
+	StreamLink(final int id, final LineString geometry,
+			final short strahlerStreamOrder, final double length,
+			final double upstreamArea, final int downstreamLinkId) {
+		this.id = id;
+		this.geometry = geometry;
+		this.strahlerStreamOrder = strahlerStreamOrder;
+		this.length = length;
+		this.upstreamArea = upstreamArea;
+		this.downstreamLinkId = downstreamLinkId;
+	}
+
+	/**
+	 * @return the identifier of the link, the same as in the stream links
+	 *         raster of {@link D8OpStreamOrders}
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * @return the path of the link, from its most upstream cell center to the
+	 *         center of the junction cell downstream (if any), in real world
+	 *         coordinates
+	 */
+	public LineString getGeometry() {
+		return geometry;
+	}
+
+	public short getStrahlerStreamOrder() {
+		return strahlerStreamOrder;
+	}
+
+	/**
+	 * @return the length of the link along the D8 directions
+	 */
+	public double getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the area drained by the most downstream cell of the link
+	 */
+	public double getUpstreamArea() {
+		return upstreamArea;
+	}
+
+	/**
+	 * @return the identifier of the link this link flows into, noLinkValue
+	 *         for a link that ends at a river outlet
+	 */
+	public int getDownstreamLinkId() {
+		return downstreamLinkId;
+	}
+
+	/**
+	 * @return the identifiers of the links that flow into this link (none for
+	 *         a river start)
+	 */
+	public int[] getUpstreamLinkIds() {
+		return upstreamLinkIds;
+	}
+
+	void setUpstreamLinkIds(final int[] upstreamLinkIds) {
+		this.upstreamLinkIds = upstreamLinkIds;
+	}
+}
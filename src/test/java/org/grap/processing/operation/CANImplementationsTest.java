@@ -30,15 +30,26 @@ package org.grap.processing.operation;
 
 import org.junit.Test;
 import org.grap.io.GrapTest;
+import org.grap.processing.cellularAutomata.cam.ACAN;
+import org.grap.processing.cellularAutomata.cam.CAFloatStencil;
+import org.grap.processing.cellularAutomata.cam.CANMetrics;
 import org.grap.processing.cellularAutomata.cam.ICA;
+import org.grap.processing.cellularAutomata.cam.ICAByte;
+import org.grap.processing.cellularAutomata.cam.ICADouble;
 import org.grap.processing.cellularAutomata.cam.ICAFloat;
+import org.grap.processing.cellularAutomata.cam.ICAInt;
 import org.grap.processing.cellularAutomata.cam.ICAN;
 import org.grap.processing.cellularAutomata.cam.ICAShort;
+import org.grap.processing.cellularAutomata.cam.IFloatStencil;
+import org.grap.processing.cellularAutomata.cam.Neighbourhood;
 import org.grap.processing.cellularAutomata.parallelImpl.PCAN;
+import org.grap.processing.cellularAutomata.parallelImpl.TCAN;
+import org.grap.processing.cellularAutomata.seqImpl.FSCAN;
 import org.grap.processing.cellularAutomata.seqImpl.SCAN;
 import org.grap.processing.cellularAutomata.useless.CAGetAllSubWatershed;
 import org.grap.processing.cellularAutomata.useless.CASlopesAccumulation;
 import org.grap.processing.cellularAutomata.useless.CASlopesDirections;
+import org.orbisgis.progress.NullProgressMonitor;
 
 import static org.junit.Assert.*;
 
@@ -67,35 +78,313 @@ public class CANImplementationsTest extends GrapTest {
 				ncols));
 	}
 
-	private void compareParAndSeqImpl(final ICA ca) {
-		final ICAN scan = new SCAN(ca);
-		final ICAN pcan = new PCAN(ca);
+	@Test
+	public void testSeqAndParImplementationsOnALargerGrid() throws Exception {
+		final int nrows = 23;
+		final int ncols = 31;
+		final float[] DEM = new float[nrows * ncols];
+		for (int r = 0, i = 0; r < nrows; r++) {
+			for (int c = 0; c < ncols; c++, i++) {
+				DEM[i] = (float) (Math.abs(r - 11) + Math.abs(c - 15) + (i * 7)
+						% 5);
+			}
+		}
+
+		compareParAndSeqImpl(new CASlopesDirections(DEM, nrows, ncols));
+		compareParAndSeqImpl(new CASlopesAccumulation(slopesDirections, nrows,
+				ncols));
+		compareParAndSeqImpl(new CAGetAllSubWatershed(slopesDirections, nrows,
+				ncols));
+	}
 
-		// System.out.println(ca.getClass().getSimpleName());
+	private void compareParAndSeqImpl(final ICA ca) {
+		final SCAN scan = new SCAN(ca);
 		final int scanNbOfIter = scan.getStableState();
-		final int pcanNbOfIter = pcan.getStableState();
-		// TODO assertTrue(scanNbOfIter == pcanNbOfIter);
 
+		final FSCAN fscan = new FSCAN(ca);
+		assertEquals(scanNbOfIter, fscan.getStableState());
+		assertEquals(scanNbOfIter, fscan.getActiveCellsCounts().length);
+		assertEquals(scan.getNbCells(), fscan.getActiveCellsCounts()[0]);
+		assertCANValuesEquals(ca, scan, fscan);
+
+		for (int nbOfThreads = 1; nbOfThreads <= 4; nbOfThreads++) {
+			final ICAN pcan = new PCAN(ca, nbOfThreads);
+			final int pcanNbOfIter = pcan.getStableState();
+			assertEquals(scanNbOfIter, pcanNbOfIter);
+			assertCANValuesEquals(ca, scan, pcan);
+
+			// tiles of 1 to 4 cells, so that some of them are skipped
+			final TCAN tcan = new TCAN(ca, nbOfThreads, nbOfThreads);
+			assertEquals(scanNbOfIter, tcan.getStableState());
+			assertCANValuesEquals(ca, scan, tcan);
+		}
+
+		if (ca instanceof CASlopesDirections) {
+			slopesDirections = (short[]) scan.getCANValues();
+		}
+	}
+
+	private void assertCANValuesEquals(final ICA ca, final ICAN expected,
+			final ICAN actual) {
 		if (ca instanceof ICAShort) {
-			final short[] seq = (short[]) scan.getCANValues();
-			final short[] par = (short[]) pcan.getCANValues();
-                        assertEquals(seq.length, par.length);
+			final short[] seq = (short[]) expected.getCANValues();
+			final short[] par = (short[]) actual.getCANValues();
+			assertEquals(seq.length, par.length);
 			for (int i = 0; i < seq.length; i++) {
 				assertEquals(seq[i], par[i]);
 			}
 		} else if (ca instanceof ICAFloat) {
-			final float[] seq = (float[]) scan.getCANValues();
-			final float[] par = (float[]) pcan.getCANValues();
+			final float[] seq = (float[]) expected.getCANValues();
+			final float[] par = (float[]) actual.getCANValues();
+			assertEquals(seq.length, par.length);
+			for (int i = 0; i < seq.length; i++) {
+				assertEquals(Float.floatToIntBits(seq[i]), Float
+						.floatToIntBits(par[i]));
+			}
+		} else if (ca instanceof ICAInt) {
+			assertArrayEquals((int[]) expected.getCANValues(), (int[]) actual
+					.getCANValues());
+		} else if (ca instanceof ICADouble) {
+			final double[] seq = (double[]) expected.getCANValues();
+			final double[] par = (double[]) actual.getCANValues();
 			assertEquals(seq.length, par.length);
 			for (int i = 0; i < seq.length; i++) {
-				assertEquals(seq[i], par[i], 10e-5);
+				assertEquals(Double.doubleToLongBits(seq[i]), Double
+						.doubleToLongBits(par[i]));
 			}
+		} else if (ca instanceof ICAByte) {
+			assertArrayEquals((byte[]) expected.getCANValues(),
+					(byte[]) actual.getCANValues());
 		} else {
 			fail();
 		}
+	}
 
-		if (ca instanceof CASlopesDirections) {
-			slopesDirections = (short[]) scan.getCANValues();
+	@Test
+	public void testIntDoubleAndByteImplementations() throws Exception {
+		final int nrows = 19;
+		final int ncols = 27;
+		final boolean[] zones = new boolean[nrows * ncols];
+		for (int i = 0; i < zones.length; i++) {
+			zones[i] = 0 == (i * 31 % 7) % 3;
+		}
+
+		// labels above 32767
+		final ICAInt maxLabels = new ICAInt() {
+			public int getNCols() {
+				return ncols;
+			}
+
+			public int getNRows() {
+				return nrows;
+			}
+
+			public int init(int r, int c, int i) {
+				return 40000 + i;
+			}
+
+			public int localTransition(int[] rac, int r, int c, int i) {
+				int max = rac[i];
+				for (int n : getZoneNeighbours(zones, nrows, ncols, r, c, i)) {
+					max = Math.max(max, rac[n]);
+				}
+				return max;
+			}
+		};
+		compareParAndSeqImpl(maxLabels);
+		final SCAN scan = new SCAN(maxLabels);
+		scan.getStableState();
+		final int[] labels = (int[]) scan.getCANValues();
+		assertEquals(40000 + nrows * ncols - 1, labels[nrows * ncols - 1]);
+
+		compareParAndSeqImpl(new ICADouble() {
+			public int getNCols() {
+				return ncols;
+			}
+
+			public int getNRows() {
+				return nrows;
+			}
+
+			public double init(int r, int c, int i) {
+				return (0 == i % 11) ? Double.NaN : i / 3d;
+			}
+
+			public double localTransition(double[] rac, int r, int c, int i) {
+				double max = rac[i];
+				for (int n : getZoneNeighbours(zones, nrows, ncols, r, c, i)) {
+					max = Math.max(max, rac[n]);
+				}
+				return max;
+			}
+		});
+
+		compareParAndSeqImpl(new ICAByte() {
+			public int getNCols() {
+				return ncols;
+			}
+
+			public int getNRows() {
+				return nrows;
+			}
+
+			public byte init(int r, int c, int i) {
+				return (byte) (i % 100);
+			}
+
+			public byte localTransition(byte[] rac, int r, int c, int i) {
+				byte max = rac[i];
+				for (int n : getZoneNeighbours(zones, nrows, ncols, r, c, i)) {
+					max = (byte) Math.max(max, rac[n]);
+				}
+				return max;
+			}
+		});
+	}
+
+	@Test
+	public void testListenerAndCancellation() throws Exception {
+		final int nrows = 23;
+		final int ncols = 31;
+		final float[] DEM = new float[nrows * ncols];
+		for (int i = 0; i < DEM.length; i++) {
+			DEM[i] = Math.abs(i / ncols - 11) + Math.abs(i % ncols - 15);
+		}
+		final SCAN directions = new SCAN(new CASlopesDirections(DEM, nrows,
+				ncols));
+		directions.getStableState();
+		final ICA ca = new CASlopesAccumulation((short[]) directions
+				.getCANValues(), nrows, ncols);
+
+		final FSCAN fscan = new FSCAN(ca);
+		final ACAN[] cans = new ACAN[] { new SCAN(ca), fscan, new PCAN(ca, 2),
+				new TCAN(ca, 2, 4) };
+		for (ACAN can : cans) {
+			final CANMetrics metrics = new CANMetrics();
+			can.setListener(metrics);
+			final int nbOfIter = can.getStableState();
+			assertEquals(nbOfIter, metrics.getIterationsCount());
+			assertFalse(metrics.isCancelled());
+			final int[] curve = metrics.getConvergenceCurve();
+			assertEquals(0, curve[nbOfIter - 1]);
+			for (int k = 0; k < nbOfIter - 1; k++) {
+				assertTrue(0 < curve[k]);
+			}
+			assertEquals(nrows * ncols, metrics.getEvaluatedCells()[0]);
+			assertEquals(nbOfIter, metrics.getCellsPerSecond().length);
+			assertTrue(metrics.getTotalDuration() >= metrics.getInitDuration());
+		}
+		final CANMetrics metrics = new CANMetrics();
+		fscan.setListener(metrics);
+		fscan.getStableState();
+		assertArrayEquals(fscan.getActiveCellsCounts(), metrics
+				.getEvaluatedCells());
+
+		// stops after the second step
+		for (ACAN can : new ACAN[] { new SCAN(ca), new FSCAN(ca),
+				new PCAN(ca, 2), new TCAN(ca, 2, 4) }) {
+			final CANMetrics cancelled = new CANMetrics();
+			can.setListener(cancelled);
+			can.setProgressMonitor(new NullProgressMonitor() {
+				@Override
+				public boolean isCancelled() {
+					return 2 <= cancelled.getIterationsCount();
+				}
+			});
+			assertEquals(2, can.getStableState());
+			assertTrue(cancelled.isCancelled());
+		}
+	}
+
+	@Test
+	public void testStencil() throws Exception {
+		final int nrows = 7;
+		final int ncols = 9;
+		final float ndv = -1;
+		final float[] field = new float[nrows * ncols];
+		for (int i = 0; i < field.length; i++) {
+			field[i] = (0 == i % 11) ? ndv : i % 4;
+		}
+		// init : number of valid 4-neighbours, then the maximum spreads over
+		// the valid cells
+		final IFloatStencil count = new IFloatStencil() {
+			public float apply(final float center, final float[] neighbours,
+					final int i) {
+				int nb = 0;
+				for (float neighbour : neighbours) {
+					if (!Float.isNaN(neighbour)) {
+						nb++;
+					}
+				}
+				return nb;
+			}
+		};
+		final IFloatStencil max = new IFloatStencil() {
+			public float apply(final float center, final float[] neighbours,
+					final int i) {
+				float result = center;
+				for (float neighbour : neighbours) {
+					if (neighbour > result) {
+						result = neighbour;
+					}
+				}
+				return result;
+			}
+		};
+
+		for (CAFloatStencil.Border border : CAFloatStencil.Border.values()) {
+			final CAFloatStencil ca = new CAFloatStencil(nrows, ncols, field,
+					ndv, Neighbourhood.VON_NEUMANN, border, count, max);
+			compareParAndSeqImpl(ca);
+
+			final float[] initial = new float[nrows * ncols];
+			ca.init(initial, 0, nrows, 0, ncols);
+			for (int r = 0, i = 0; r < nrows; r++) {
+				for (int c = 0; c < ncols; c++, i++) {
+					assertEquals(initial[i], ca.init(r, c, i), 0);
+					final boolean isABorder = (0 == r) || (nrows - 1 == r)
+							|| (0 == c) || (ncols - 1 == c);
+					if ((ndv == field[i])
+							|| (isABorder && (CAFloatStencil.Border.NODATA
+									== border))) {
+						assertEquals(ndv, initial[i], 0);
+						continue;
+					}
+					int nb = 0;
+					for (int k = 0; k < 4; k++) {
+						final int rr = r + Neighbourhood.VON_NEUMANN
+								.getRowShift(k);
+						final int cc = c + Neighbourhood.VON_NEUMANN
+								.getColShift(k);
+						if ((0 <= rr) && (nrows > rr) && (0 <= cc)
+								&& (ncols > cc)
+								&& (ndv != field[rr * ncols + cc])) {
+							nb++;
+						}
+					}
+					assertEquals(nb, initial[i], 0);
+				}
+			}
+		}
+	}
+
+	private static int[] getZoneNeighbours(final boolean[] zones,
+			final int nrows, final int ncols, final int r, final int c,
+			final int i) {
+		final int[] tmp = new int[8];
+		int nb = 0;
+		for (int nr = Math.max(0, r - 1); nr <= Math.min(nrows - 1, r + 1);
+				nr++) {
+			for (int nc = Math.max(0, c - 1); nc <= Math.min(ncols - 1, c + 1);
+					nc++) {
+				final int n = nr * ncols + nc;
+				if ((n != i) && (zones[n] == zones[i])) {
+					tmp[nb++] = n;
+				}
+			}
 		}
+		final int[] neighbours = new int[nb];
+		System.arraycopy(tmp, 0, neighbours, 0, nb);
+		return neighbours;
 	}
 }
\ No newline at end of file
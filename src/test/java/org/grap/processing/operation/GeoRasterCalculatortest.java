@@ -28,11 +28,15 @@
  */
 package org.grap.processing.operation;
 
+import java.util.Arrays;
+
 import org.junit.Test;
 import org.grap.io.GrapTest;
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
 import org.grap.processing.Operation;
+import org.grap.processing.operation.algebra.AlignedView;
 
 import static org.junit.Assert.*;
 
@@ -52,7 +56,117 @@ public class GeoRasterCalculatortest extends GrapTest {
 		float[] pixels = gResult.getFloatPixels();
 
 		for (float pixel : pixels) {
-			assertTrue((0 == pixel) || (Float.isNaN(pixel)));
+			assertTrue((0 == pixel) || (GeoRasterCalculator.ndv == pixel));
+		}
+	}
+
+	@Test
+	public void testNoDataValue() throws Exception {
+		final float nd = GeoRaster.FLOAT_NO_DATA_VALUE;
+		final RasterMetadata metadata = new RasterMetadata(0, 2, 1, -1, 3, 2);
+		final GeoRaster gr1 = GeoRasterFactory.createGeoRaster(new float[] {
+				6, nd, 3, 5, 0, -1 }, metadata);
+		gr1.setNodataValue(nd);
+		final GeoRaster gr2 = GeoRasterFactory.createGeoRaster(new float[] {
+				2, 4, nd, Float.NaN, 0, 3 }, metadata);
+		gr2.setNodataValue(nd);
+
+		final GeoRasterCalculator divide = new GeoRasterCalculator(gr2,
+				GeoRasterCalculator.DIVIDE);
+		for (int nbOfThreads = 1; nbOfThreads <= 3; nbOfThreads++) {
+			divide.setNumberOfThreads(nbOfThreads);
+			final GeoRaster grResult = gr1.doOperation(divide);
+			assertEquals(nd, grResult.getNoDataValue(), 0);
+			assertArrayEquals(new float[] { 3, nd, nd, nd, nd, -1 / 3f },
+					grResult.getFloatPixels(), 1e-6f);
+		}
+		assertArrayEquals(new float[] { 4, nd, nd, nd, 0, 4 }, gr1.doOperation(
+				new GeoRasterCalculator(gr2, GeoRasterCalculator.DIFFERENCE))
+				.getFloatPixels(), 0);
+		assertArrayEquals(new float[] { 2, nd, nd, nd, 0, 3 }, gr1.doOperation(
+				new GeoRasterCalculator(gr2, GeoRasterCalculator.AND))
+				.getFloatPixels(), 0);
+		// the first raster is left untouched
+		assertEquals(6, gr1.getFloatPixels()[0], 0);
+	}
+
+	@Test
+	public void testMismatchedGrids() throws Exception {
+		final float[] pixels = new float[16];
+		for (int i = 0; i < pixels.length; i++) {
+			pixels[i] = i;
 		}
+		final GeoRaster gr1 = GeoRasterFactory.createGeoRaster(pixels,
+				new RasterMetadata(0.5, 3.5, 1, -1, 4, 4));
+
+		// same extent, twice the pixel size
+		final GeoRaster gr2 = GeoRasterFactory.createGeoRaster(new float[] {
+				10, 20, 30, 40 }, new RasterMetadata(1, 3, 2, -2, 2, 2));
+		final GeoRasterCalculator copy = new GeoRasterCalculator(gr2,
+				GeoRasterCalculator.COPY);
+		assertArrayEquals(new float[] { 10, 10, 20, 20, 10, 10, 20, 20, 30,
+				30, 40, 40, 30, 30, 40, 40 }, gr1.doOperation(copy)
+				.getFloatPixels(), 0);
+		copy.setSampling(AlignedView.Sampling.BILINEAR);
+		final float[] bilinear = gr1.doOperation(copy).getFloatPixels();
+		assertEquals(10, bilinear[0], 0);
+		assertEquals(12.5, bilinear[1], 1e-6);
+		assertEquals(17.5, bilinear[5], 1e-6);
+		assertEquals(40, bilinear[15], 0);
+
+		// shifted origin : the result covers the intersection only
+		final float[] ones = new float[16];
+		Arrays.fill(ones, 1);
+		final GeoRaster gr3 = GeoRasterFactory.createGeoRaster(ones,
+				new RasterMetadata(2.5, 2.5, 1, -1, 4, 4));
+		final GeoRaster result = gr1.doOperation(new GeoRasterCalculator(
+				gr3, GeoRasterCalculator.SUBSTRACT));
+		assertEquals(2, result.getMetadata().getNCols());
+		assertEquals(3, result.getMetadata().getNRows());
+		assertEquals(2.5, result.getMetadata().getXulcorner(), 0);
+		assertEquals(2.5, result.getMetadata().getYulcorner(), 0);
+		assertArrayEquals(new float[] { 5, 6, 9, 10, 13, 14 }, result
+				.getFloatPixels(), 0);
+	}
+
+	@Test
+	public void testAlignedView() throws Exception {
+		final float nd = GeoRaster.FLOAT_NO_DATA_VALUE;
+		final GeoRaster gr = GeoRasterFactory.createGeoRaster(new float[] { 0,
+				1, 2, 3, 4, nd }, new RasterMetadata(0, 2, 1, -1, 3, 2));
+		gr.setNodataValue(nd);
+
+		// one pixel up and to the left, and wider than the source
+		final RasterMetadata target = new RasterMetadata(-1, 3, 1, -1, 6, 4);
+		final float[] expected = new float[] { Float.NaN, Float.NaN,
+				Float.NaN, Float.NaN, Float.NaN, Float.NaN, //
+				Float.NaN, 0, 1, 2, Float.NaN, Float.NaN, //
+				Float.NaN, 3, 4, Float.NaN, Float.NaN, Float.NaN, //
+				Float.NaN, Float.NaN, Float.NaN, Float.NaN, Float.NaN,
+				Float.NaN };
+		for (AlignedView.Sampling sampling : AlignedView.Sampling.values()) {
+			final AlignedView view = new AlignedView(gr, target, sampling);
+			assertTrue(view.isAligned());
+			final float[] row = new float[6];
+			for (int r = 0; r < 4; r++) {
+				view.getRow(r, row);
+				for (int c = 0; c < 6; c++) {
+					assertEquals(expected[r * 6 + c], row[c], 0);
+					assertEquals(expected[r * 6 + c], view.get(c, r), 0);
+				}
+			}
+		}
+
+		// far away on the right
+		final AlignedView outside = new AlignedView(gr, new RasterMetadata(
+				10, 2, 1, -1, 2, 2), AlignedView.Sampling.NEAREST);
+		assertTrue(outside.isAligned());
+		final float[] row = new float[2];
+		outside.getRow(1, row);
+		assertArrayEquals(new float[] { Float.NaN, Float.NaN }, row, 0);
+
+		// half a pixel apart
+		assertFalse(new AlignedView(gr, new RasterMetadata(0.5, 2, 1, -1, 3,
+				2), AlignedView.Sampling.NEAREST).isAligned());
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,118 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.operation.algebra.Expression;
+import org.grap.processing.operation.algebra.ExpressionParser;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GeoRasterExpressionTest {
+	private final static float ND = GeoRaster.FLOAT_NO_DATA_VALUE;
+
+	private final static RasterMetadata metadata = new RasterMetadata(0, 2,
+			1, -1, 3, 2);
+
+	private static GeoRaster createGeoRaster(final float[] pixels)
+			throws Exception {
+		final GeoRaster gr = GeoRasterFactory.createGeoRaster(pixels,
+				metadata);
+		gr.setNodataValue(ND);
+		return gr;
+	}
+
+	@Test
+	public void testNDVI() throws Exception {
+		final GeoRaster nir = createGeoRaster(new float[] { 5, 4, 3, ND, 1, 0 });
+		final GeoRaster red = createGeoRaster(new float[] { 1, 4, 1, 2, ND, 0 });
+		final Map<String, GeoRaster> inputs = new HashMap<String, GeoRaster>();
+		inputs.put("nir", nir);
+		inputs.put("red", red);
+
+		final GeoRasterExpression op = new GeoRasterExpression(
+				"(nir - red) / (nir + red)", inputs);
+		for (int nbOfThreads = 1; nbOfThreads <= 3; nbOfThreads++) {
+			op.setNumberOfThreads(nbOfThreads);
+			final float[] ndvi = nir.doOperation(op).getFloatPixels();
+			assertEquals(4 / 6f, ndvi[0], 1e-6);
+			assertEquals(0, ndvi[1], 0);
+			assertEquals(0.5, ndvi[2], 1e-6);
+			// a nodataValue input, then 0 / 0
+			assertEquals(ND, ndvi[3], 0);
+			assertEquals(ND, ndvi[4], 0);
+			assertEquals(ND, ndvi[5], 0);
+		}
+	}
+
+	@Test
+	public void testFunctionsAndConditions() throws Exception {
+		final GeoRaster dem = createGeoRaster(new float[] { 50, 100, 150, 200,
+				-4, ND });
+		final Map<String, GeoRaster> inputs = new HashMap<String, GeoRaster>();
+		inputs.put("dem", dem);
+		final float[] result = dem.doOperation(
+				new GeoRasterExpression("if(dem >= 100, max(dem - 100, 2 * "
+						+ "25), sqrt(dem)) + -2 ^ 2", inputs))
+				.getFloatPixels();
+		assertArrayEquals(new float[] { (float) Math.sqrt(50) - 4, 46, 46,
+				96, ND, ND }, result, 1e-5f);
+	}
+
+	@Test
+	public void testParser() throws Exception {
+		final ExpressionParser parser = new ExpressionParser(
+				"a * (2 + 3 * 4) - abs(-b) % 4 + 1e1");
+		final Expression root = parser.parse();
+		assertEquals(2, parser.getVariables().size());
+		parser.getVariables().get(0).bind(new float[] { 2 });
+		parser.getVariables().get(1).bind(new float[] { -7 });
+		assertEquals(2 * 14 - 3 + 10, root.evaluate(0), 0);
+
+		for (String invalid : new String[] { "a +", "(a", "a b", "foo(a)",
+				"min(a)", "1.2.3", "a $ b" }) {
+			try {
+				new ExpressionParser(invalid).parse();
+				fail(invalid);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+		try {
+			new GeoRasterExpression("a + c", new HashMap<String, GeoRaster>());
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -31,6 +31,7 @@ package org.grap.processing.operation;
 import org.grap.io.GrapTest;
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
 import org.grap.processing.Operation;
 import org.junit.Test;
 
@@ -57,7 +58,7 @@ public class Mathtest extends GrapTest {
 
 		for (int i = 0; i < pixelsResult.length; i++) {
 			if (Float.isNaN(pixelsSrc[i])) {
-				assertTrue(Float.isNaN(pixelsResult[i]));
+				assertEquals(GeoRasterMath.ndv, pixelsResult[i], 0);
 			} else {
 				assertTrue(Math.abs(pixelsSrc[i]
 						- (pixelsResult[i] - addedValue)) < EPSILON);
@@ -83,7 +84,7 @@ public class Mathtest extends GrapTest {
 
 		for (int i = 0; i < pixelsResult.length; i++) {
 			if (Float.isNaN(pixelsSrc[i])) {
-				assertTrue(Float.isNaN(pixelsResult[i]));
+				assertEquals(GeoRasterMath.ndv, pixelsResult[i], 0);
 			} else {
 				assertTrue(Math.abs(pixelsSrc[i]
 						- (pixelsResult[i] + addedValue)) < EPSILON);
@@ -109,7 +110,7 @@ public class Mathtest extends GrapTest {
 
 		for (int i = 0; i < pixelsResult.length; i++) {
 			if (Float.isNaN(pixelsSrc[i])) {
-				assertTrue(Float.isNaN(pixelsResult[i]));
+				assertEquals(GeoRasterMath.ndv, pixelsResult[i], 0);
 			} else {
 				assertTrue(Math.abs(pixelsSrc[i]
 						- (pixelsResult[i] / addedValue)) < EPSILON);
@@ -135,7 +136,7 @@ public class Mathtest extends GrapTest {
 
 		for (int i = 0; i < pixelsResult.length; i++) {
 			if (Float.isNaN(pixelsSrc[i])) {
-				assertTrue(Float.isNaN(pixelsResult[i]));
+				assertEquals(GeoRasterMath.ndv, pixelsResult[i], 0);
 			} else {
 				assertTrue(Math.abs(pixelsSrc[i]
 						- (pixelsResult[i] * addedValue)) < EPSILON);
@@ -156,11 +157,40 @@ public class Mathtest extends GrapTest {
 		float[] pixelsResult = gResult.getFloatPixels();
 
 		for (int i = 0; i < pixelsResult.length; i++) {
-			if (Float.isNaN(pixelsResult[i])) {
-				assertTrue(Float.isNaN(pixelsResult[i]));
+			if (GeoRasterMath.ndv == pixelsResult[i]) {
+				assertEquals(GeoRasterMath.ndv, gResult.getNoDataValue(), 0);
 			} else {
 				assertTrue(pixelsResult[i] > 0);
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void testNoDataValue() throws Exception {
+		final float nd = GeoRaster.FLOAT_NO_DATA_VALUE;
+		final GeoRaster gr = GeoRasterFactory.createGeoRaster(new float[] {
+				-4, nd, 9, Float.NaN, 0, 2 }, new RasterMetadata(0, 2, 1, -1,
+				3, 2));
+		gr.setNodataValue(nd);
+
+		final GeoRasterMath add = new GeoRasterMath(5, GeoRasterMath.ADD);
+		for (int nbOfThreads = 1; nbOfThreads <= 3; nbOfThreads++) {
+			add.setNumberOfThreads(nbOfThreads);
+			final GeoRaster grResult = gr.doOperation(add);
+			assertEquals(nd, grResult.getNoDataValue(), 0);
+			assertArrayEquals(new float[] { 1, nd, 14, nd, 5, 7 }, grResult
+					.getFloatPixels(), 0);
+		}
+		// the source raster is left untouched
+		assertEquals(-4, gr.getFloatPixels()[0], 0);
+
+		assertArrayEquals(new float[] { 0, nd, 3, nd, 0, (float) Math.sqrt(2) },
+				gr.doOperation(new GeoRasterMath(GeoRasterMath.SQRT))
+						.getFloatPixels(), EPSILON);
+		assertArrayEquals(new float[] { nd, nd, nd, nd, nd, nd }, gr
+				.doOperation(new GeoRasterMath(0, GeoRasterMath.DIVIDE))
+				.getFloatPixels(), 0);
+		assertArrayEquals(new float[] { 0, nd, 9, nd, 0, 2 }, gr.doOperation(
+				new GeoRasterMath(0, GeoRasterMath.MIN)).getFloatPixels(), 0);
+	}
+}
@@ -30,13 +30,121 @@ package org.grap.processing.operation.hydrology;
 
 import ij.ImagePlus;
 
+import java.io.IOException;
+
 import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
 import org.grap.model.RasterMetadata;
 
 public class D8Commons {
+	protected static final float ND = GeoRaster.FLOAT_NO_DATA_VALUE;
 
 	private static final double EPSILON = 1E-6;
 
+	/**
+	 * A single hydrological path of 12 cells (from cell 11 down to the sink at
+	 * cell 68), surrounded by nodataValue cells.
+	 */
+	public static GeoRaster getPathDEM() throws IOException {
+		final float[] demArray = new float[] {//
+		ND, ND, ND, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, 99, ND, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, ND, 95, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, ND, 90, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, ND, 85, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, 80, ND, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, ND, 75, 70, 65, 60, ND, ND, 45, ND,// 
+				ND, ND, ND, ND, ND, ND, 55, 50, ND, ND,// 
+				ND, ND, ND, ND, ND, ND, ND, ND, ND, ND,// 
+				ND, ND, ND, ND, ND, ND, ND, ND, ND, ND,// 
+		};
+		final GeoRaster dem = GeoRasterFactory.createGeoRaster(demArray,
+				new RasterMetadata(0, 15, 1, -1, 10, 10));
+		dem.setNodataValue(ND);
+		return dem;
+	}
+
+	/**
+	 * A V shaped valley of 9 columns and 7 rows, without any nodataValue nor
+	 * sink, that drains through its bottom border.
+	 */
+	public static GeoRaster getValleyDEM() throws IOException {
+		final int ncols = 9;
+		final int nrows = 7;
+		final float[] demArray = new float[ncols * nrows];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				demArray[i] = 2 * Math.abs(x - 4) + (nrows - 1 - y);
+			}
+		}
+		final GeoRaster dem = GeoRasterFactory.createGeoRaster(demArray,
+				new RasterMetadata(0, nrows, 1, -1, ncols, nrows));
+		dem.setNodataValue(ND);
+		return dem;
+	}
+
+	/**
+	 * Two rivers' starts (6 and 8) joining in 12, a third one (16) joining in
+	 * 17, down to the terminal cell 22.
+	 */
+	public static D8FlowDirections getSmallRiverTree() {
+		final byte[] directions = new byte[] {//
+		0, 0, 0, 0, 0,//
+				0, 8, 0, 6, 0,//
+				0, 0, 7, 0, 0,//
+				0, 1, 7, 0, 0,//
+				0, 0, -1, 0, 0,//
+				0, 0, 0, 0, 0,//
+		};
+		return new D8FlowDirections(directions, new RasterMetadata(0, 6, 1,
+				-1, 5, 6), ND);
+	}
+
+	/**
+	 * A river tree of 17 cells down to the terminal cell 45 : the main stem
+	 * 45, 38, 31, 24, 25, 19, 11 is joined by the tributaries 39 (from 40), 30
+	 * (from 29), 23 (from 15, itself fed by 8 and 9), 18 and 12.
+	 */
+	public static D8FlowDirections getRiverTree() {
+		final byte[] directions = new byte[] {//
+		0, 0, 0, 0, 0, 0, 0,//
+				0, 7, 6, 0, 8, 7, 0,//
+				0, 8, 0, 0, 1, 6, 0,//
+				0, 0, 1, 7, 5, 0, 0,//
+				0, 1, 1, 7, 0, 0, 0,//
+				0, 0, 0, 7, 5, 5, 0,//
+				0, 0, 0, -1, 0, 0, 0,//
+				0, 0, 0, 0, 0, 0, 0,//
+		};
+		return new D8FlowDirections(directions, new RasterMetadata(0, 8, 1,
+				-1, 7, 8), ND);
+	}
+
+	/**
+	 * Brute force walk along a hydrological path.
+	 * 
+	 * @param flowDirections
+	 * @param i
+	 * @return the cells from i down to its terminal cell, an empty array if i
+	 *         is a nodataValue or a border cell
+	 */
+	public static int[] getPath(final D8FlowDirections flowDirections,
+			final int i) {
+		int length = 0;
+		int cell = i;
+		while ((-1 != cell) && !flowDirections.isOutside(cell)) {
+			cell = flowDirections.getDownstream(cell);
+			length++;
+		}
+		final int[] path = new int[length];
+		cell = i;
+		for (int k = 0; k < length; k++) {
+			path[k] = cell;
+			cell = flowDirections.getDownstream(cell);
+		}
+		return path;
+	}
+
 	public static boolean equals(final GeoRaster gr1, final GeoRaster gr2)
 			throws Exception {
 		return equals(gr1, gr2, false);
@@ -0,0 +1,119 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.junit.Before;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8FlowDirectionsTest extends D8Commons {
+	private GeoRaster dem;
+	private GeoRaster direction;
+	private D8FlowDirections flowDirections;
+
+	@Before
+	public void setUp() throws Exception {
+		dem = getPathDEM();
+		direction = dem.doOperation(new D8OpDirection());
+		flowDirections = new D8OpDirection().getFlowDirections(dem,
+				new NullProgressMonitor());
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		checkRoundTrip(dem);
+		checkRoundTrip(getValleyDEM());
+	}
+
+	private void checkRoundTrip(final GeoRaster grDEM) throws Exception {
+		final GeoRaster grDirection = grDEM.doOperation(new D8OpDirection());
+		final float[] expected = grDirection.getFloatPixels();
+		final float[] fromGeoRaster = D8FlowDirections.fromGeoRaster(
+				grDirection).toGeoRaster().getFloatPixels();
+		final float[] fromDEM = new D8OpDirection().getFlowDirections(grDEM,
+				new NullProgressMonitor()).toGeoRaster().getFloatPixels();
+		assertEquals(expected.length, fromDEM.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], fromGeoRaster[i], 0);
+			assertEquals(expected[i], fromDEM[i], 0);
+		}
+	}
+
+	@Test
+	public void testDownstreamAndUpstream() throws Exception {
+		assertEquals(D8FlowDirections.NO_DATA, flowDirections.getDirection(0));
+		assertEquals(D8FlowDirections.INDECISION, flowDirections
+				.getDirection(68));
+
+		int nb = 1;
+		int idx = 11;
+		double length = 0;
+		while (-1 != flowDirections.getDownstream(idx)) {
+			length += flowDirections.getDistance(idx);
+			idx = flowDirections.getDownstream(idx);
+			nb++;
+		}
+		assertEquals(68, idx);
+		assertEquals(12, nb);
+		assertEquals(5 * Math.sqrt(2) + 6, length, 1E-5);
+
+		final int[] upstream = new int[8];
+		assertEquals(1, flowDirections.getUpstream(68, upstream));
+		assertEquals(77, upstream[0]);
+		assertEquals(1, flowDirections.getUpstream(77, upstream));
+		assertEquals(76, upstream[0]);
+		assertEquals(0, flowDirections.getUpstream(11, upstream));
+	}
+
+	@Test
+	public void testAccumulationFromFlowDirections() throws Exception {
+		checkAccumulation(direction, flowDirections);
+		assertEquals(12, new D8OpAccumulation().execute(flowDirections,
+				new NullProgressMonitor()).getFloatPixels()[68], 0);
+
+		final GeoRaster valley = getValleyDEM();
+		checkAccumulation(valley.doOperation(new D8OpDirection()),
+				new D8OpDirection().getFlowDirections(valley,
+						new NullProgressMonitor()));
+	}
+
+	private void checkAccumulation(final GeoRaster grDirection,
+			final D8FlowDirections grid) throws Exception {
+		final float[] expected = grDirection.doOperation(
+				new D8OpAccumulation()).getFloatPixels();
+		final float[] accumulation = new D8OpAccumulation().execute(grid,
+				new NullProgressMonitor()).getFloatPixels();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], accumulation[i], 0);
+		}
+	}
+}
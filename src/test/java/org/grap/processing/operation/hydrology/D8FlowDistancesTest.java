@@ -0,0 +1,146 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8FlowDistancesTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getPathDEM(), new NullProgressMonitor());
+		final D8FlowDistances flowDistances = new D8FlowDistances(
+				flowDirections);
+		flowDistances.setNumberOfThreads(2);
+		final float[] toTheOutlet = flowDistances
+				.getDistancesToTheOutlet(new NullProgressMonitor());
+		assertEquals(5 * Math.sqrt(2) + 6, toTheOutlet[11], 1E-5);
+		assertEquals(0, toTheOutlet[68], 0);
+		assertEquals(ND, toTheOutlet[0], 0);
+
+		final boolean[] lake = new boolean[flowDirections.getNbCells()];
+		lake[64] = true;
+		final float[] toTheLake = new D8OpDistanceToTargets(lake).execute(
+				flowDirections, new NullProgressMonitor()).getFloatPixels();
+		assertEquals(0, toTheLake[64], 0);
+		assertEquals(1, toTheLake[63], 0);
+		assertEquals(2 + Math.sqrt(2), toTheLake[51], 1E-5);
+		assertEquals(3 * Math.sqrt(2) + 4, toTheLake[11], 1E-5);
+		// downstream of the lake
+		assertEquals(ND, toTheLake[68], 0);
+		assertEquals(ND, toTheLake[65], 0);
+
+		final NullProgressMonitor cancelled = new NullProgressMonitor() {
+			@Override
+			public boolean isCancelled() {
+				return true;
+			}
+		};
+		assertNull(new D8OpDistanceToTheOutlet().execute(flowDirections,
+				cancelled));
+		assertNull(new D8OpDistanceToTargets(lake).execute(flowDirections,
+				cancelled));
+	}
+
+	@Test
+	public void testRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final D8FlowDistances flowDistances = new D8FlowDistances(
+				flowDirections);
+		flowDistances.setNumberOfThreads(2);
+		final float[] toTheOutlet = flowDistances
+				.getDistancesToTheOutlet(new NullProgressMonitor());
+		assertEquals(5 + Math.sqrt(2), toTheOutlet[8], 1E-5);
+		checkAgainstPaths(flowDirections, null, true, toTheOutlet);
+
+		final boolean[] targets = new boolean[flowDirections.getNbCells()];
+		targets[24] = true;
+		targets[39] = true;
+		checkAgainstPaths(flowDirections, targets, false, flowDistances
+				.getDistancesToTargets(targets, false,
+						new NullProgressMonitor()));
+		checkAgainstPaths(flowDirections, targets, true, flowDistances
+				.getDistancesToTargets(targets, true,
+						new NullProgressMonitor()));
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getValleyDEM(), new NullProgressMonitor());
+		final RasterMetadata rasterMetadata = flowDirections.getMetadata();
+		final D8FlowDistances flowDistances = new D8FlowDistances(
+				flowDirections);
+		flowDistances.setNumberOfThreads(3);
+		checkAgainstPaths(flowDirections, null, true, flowDistances
+				.getDistancesToTheOutlet(new NullProgressMonitor()));
+
+		// the bottom of the valley
+		final boolean[] targets = new boolean[flowDirections.getNbCells()];
+		for (int y = 0; y < rasterMetadata.getNRows(); y++) {
+			targets[y * rasterMetadata.getNCols() + 4] = true;
+		}
+		checkAgainstPaths(flowDirections, targets, false, flowDistances
+				.getDistancesToTargets(targets, false,
+						new NullProgressMonitor()));
+	}
+
+	/**
+	 * The distances are checked against the hydrological paths : the sum of
+	 * the D8 steps down to the first target, or out of the terminal cell.
+	 */
+	private void checkAgainstPaths(final D8FlowDirections flowDirections,
+			final boolean[] targets, final boolean toTheOutletOtherwise,
+			final float[] distances) {
+		for (int i = 0; i < flowDirections.getNbCells(); i++) {
+			if (flowDirections.isOutside(i)) {
+				assertEquals(ND, distances[i], 0);
+				continue;
+			}
+			double distance = 0;
+			boolean drained = false;
+			for (int cell : getPath(flowDirections, i)) {
+				if ((null != targets) && targets[cell]) {
+					drained = true;
+					break;
+				}
+				distance += flowDirections.getDistance(cell);
+			}
+			if (drained || toTheOutletOtherwise) {
+				assertEquals(distance, distances[i], 1E-5);
+			} else {
+				assertTrue(Float.isNaN(distances[i]));
+			}
+		}
+	}
+}
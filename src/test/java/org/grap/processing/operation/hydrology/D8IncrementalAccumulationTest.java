@@ -0,0 +1,108 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8IncrementalAccumulationTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final GeoRaster dem = getPathDEM();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final float[] accumulations = new D8OpAccumulation().accumulate(
+				flowDirections, new NullProgressMonitor());
+		final D8IncrementalAccumulation incremental = new D8IncrementalAccumulation(
+				flowDirections, accumulations);
+
+		// an embankment cuts the path at cell 51
+		final float[] editedArray = dem.getFloatPixels().clone();
+		editedArray[51] = ND;
+		final GeoRaster editedDEM = GeoRasterFactory.createGeoRaster(
+				editedArray, dem.getMetadata());
+		editedDEM.setNodataValue(ND);
+		assertTrue(incremental.update(editedDEM, 1, 5, 1, 1) > 0);
+
+		assertEquals(ND, accumulations[51], 0);
+		assertEquals(4, accumulations[42], 0);
+		assertEquals(D8FlowDirections.INDECISION, flowDirections
+				.getDirection(42));
+		assertEquals(1, accumulations[62], 0);
+		assertEquals(7, accumulations[68], 0);
+		checkAgainstRecomputation(editedDEM, flowDirections, accumulations);
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final GeoRaster dem = getValleyDEM();
+		final int ncols = dem.getMetadata().getNCols();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final float[] accumulations = new D8OpAccumulation().accumulate(
+				flowDirections, new NullProgressMonitor());
+		final float[] initialAccumulations = accumulations.clone();
+		final D8IncrementalAccumulation incremental = new D8IncrementalAccumulation(
+				flowDirections, accumulations);
+
+		// a mound dams the bottom of the valley at (4, 3)...
+		final float[] editedArray = dem.getFloatPixels().clone();
+		editedArray[3 * ncols + 4] = 20;
+		final GeoRaster editedDEM = GeoRasterFactory.createGeoRaster(
+				editedArray, dem.getMetadata());
+		editedDEM.setNodataValue(ND);
+		assertTrue(incremental.update(editedDEM, 4, 3, 1, 1) > 0);
+		assertEquals(D8FlowDirections.INDECISION, flowDirections
+				.getDirection(2 * ncols + 4));
+		checkAgainstRecomputation(editedDEM, flowDirections, accumulations);
+
+		// ... then it is removed
+		assertTrue(incremental.update(dem, 4, 3, 1, 1) > 0);
+		checkAgainstRecomputation(dem, flowDirections, accumulations);
+		assertArrayEquals(initialAccumulations, accumulations, 0);
+	}
+
+	private void checkAgainstRecomputation(final GeoRaster dem,
+			final D8FlowDirections flowDirections, final float[] accumulations)
+			throws Exception {
+		final D8FlowDirections expectedDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final float[] expected = new D8OpAccumulation().accumulate(
+				expectedDirections, new NullProgressMonitor());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expectedDirections.getDirection(i), flowDirections
+					.getDirection(i));
+			assertEquals(expected[i], accumulations[i], 0);
+		}
+	}
+}
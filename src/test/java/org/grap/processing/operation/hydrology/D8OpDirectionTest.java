@@ -32,7 +32,9 @@ import org.grap.io.GrapTest;
 import org.junit.Test;
 import org.grap.model.GeoRaster;
 import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
 import org.grap.processing.Operation;
+import org.orbisgis.progress.NullProgressMonitor;
 
 import static org.junit.Assert.*;
 
@@ -43,6 +45,32 @@ public class D8OpDirectionTest extends D8Commons {
 		assertTrue(test("hydrology/dem.asc", "hydrology/TauDEM/d8direction.asc"));
 	}
 
+	@Test
+	public void testParallel() throws Exception {
+		final float[] demArray = new float[] {//
+		9, 9, 9, 9, 9, 9,//
+				9, 7, 6, 5, 7, 9,//
+				9, 6, 4, 3, 5, 9,//
+				9, 5, 3, 1, 4, 9,//
+				9, 9, 9, 0, 9, 9 };
+		GeoRaster dem = GeoRasterFactory.createGeoRaster(demArray,
+				new RasterMetadata(0, 5, 1, -1, 6, 5));
+		dem.open();
+		D8OpDirection d8OpDirection = new D8OpDirection();
+		GeoRaster sequential = d8OpDirection.sequential(dem,
+				new NullProgressMonitor());
+		GeoRaster parallel = d8OpDirection.parallel(dem,
+				new NullProgressMonitor());
+		assertTrue(equals(sequential, parallel, true));
+
+		assertNull(d8OpDirection.parallel(dem, new NullProgressMonitor() {
+			@Override
+			public boolean isCancelled() {
+				return true;
+			}
+		}));
+	}
+
 	private boolean test(String inFile, String refFile) throws Exception {
 		GeoRaster dem = GeoRasterFactory.createGeoRaster(GrapTest.internalData + inFile);
 		Operation d8OpDirection = new D8OpDirection();
@@ -0,0 +1,104 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8OpHeightAboveNearestDrainageTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final GeoRaster dem = getPathDEM();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final boolean[] streams = new boolean[flowDirections.getNbCells()];
+		streams[64] = true;
+		streams[76] = true;
+		final D8OpHeightAboveNearestDrainage op = new D8OpHeightAboveNearestDrainage(
+				dem, streams);
+		op.setNumberOfThreads(2);
+		final float[] hand = op.execute(flowDirections,
+				new NullProgressMonitor()).getFloatPixels();
+		assertEquals(34, hand[11], 0);
+		assertEquals(5, hand[63], 0);
+		assertEquals(0, hand[64], 0);
+		assertEquals(5, hand[65], 0);
+		assertEquals(0, hand[76], 0);
+		// downstream of the streams
+		assertEquals(ND, hand[77], 0);
+		assertEquals(ND, hand[0], 0);
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final GeoRaster dem = getValleyDEM();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final float[] accumulations = new D8OpAccumulation().accumulate(
+				flowDirections, new NullProgressMonitor());
+
+		// the stream links GeoRaster is used as the stream mask
+		final D8OpStreamOrders streamOrders = new D8OpStreamOrders(
+				accumulations, 4);
+		streamOrders.execute(flowDirections, new NullProgressMonitor());
+		final int[] links = streamOrders.getStreamLinks();
+		final boolean[] streams = new boolean[links.length];
+		int nbOfStreamCells = 0;
+		for (int i = 0; i < links.length; i++) {
+			streams[i] = (D8OpStreamOrders.noLinkValue != links[i]);
+			if (streams[i]) {
+				nbOfStreamCells++;
+			}
+		}
+		assertTrue(nbOfStreamCells > 0);
+
+		final D8OpHeightAboveNearestDrainage op = new D8OpHeightAboveNearestDrainage(
+				dem, streamOrders.getStreamLink());
+		op.setNumberOfThreads(3);
+		final float[] hand = op.execute(flowDirections,
+				new NullProgressMonitor()).getFloatPixels();
+
+		final float[] elevations = dem.getFloatPixels();
+		for (int i = 0; i < hand.length; i++) {
+			float expected = ND;
+			if (!flowDirections.isOutside(i)) {
+				for (int cell : getPath(flowDirections, i)) {
+					if (streams[cell]) {
+						expected = elevations[i] - elevations[cell];
+						break;
+					}
+				}
+			}
+			assertEquals(expected, hand[i], 1E-5);
+		}
+	}
+}
@@ -0,0 +1,155 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.util.Arrays;
+
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8OpPfafstetterTest extends D8Commons {
+	@Test
+	public void testSmallRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getSmallRiverTree();
+		final D8OpPfafstetter pfafstetter = new D8OpPfafstetter(
+				new D8OpAccumulation().execute(flowDirections,
+						new NullProgressMonitor()), 1, 2);
+		pfafstetter.setNumberOfThreads(2);
+		pfafstetter.execute(flowDirections, new NullProgressMonitor());
+		final int[] codes = pfafstetter.getCodes();
+		// main stem 22, 17, 12, 6 joined by the tributaries 16 and 8
+		assertEquals(10, codes[22]);
+		assertEquals(10, codes[17]);
+		assertEquals(20, codes[16]);
+		assertEquals(30, codes[12]);
+		assertEquals(40, codes[8]);
+		assertEquals(50, codes[6]);
+		assertEquals(0, codes[0]);
+		final int[] firstLevel = pfafstetter.getLabels(1);
+		assertEquals(1, firstLevel[17]);
+		assertEquals(5, firstLevel[6]);
+		assertEquals(3, pfafstetter.getAncestor(30, 1));
+	}
+
+	@Test
+	public void testRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final D8OpPfafstetter pfafstetter = new D8OpPfafstetter(
+				new D8OpAccumulation().accumulate(flowDirections,
+						new NullProgressMonitor()), 1, 2);
+		pfafstetter.setNumberOfThreads(3);
+		pfafstetter.execute(flowDirections, new NullProgressMonitor());
+		assertEquals(2, pfafstetter.getNbOfLevels());
+
+		// the four largest tributaries of the main stem (45, 38, 31, 24, 25,
+		// 19, 11) are 39 (2 cells), 30 (2 cells), 23 (4 cells) and 12
+		final int[] cells = new int[] { 45, 38, 39, 40, 31, 30, 29, 24, 23, 15,
+				9, 8, 25, 19, 18, 12, 11 };
+		final int[] expected = new int[] { 10, 10, 20, 20, 30, 40, 40, 50, 61,
+				61, 62, 63, 70, 70, 70, 80, 90 };
+		final int[] codes = pfafstetter.getCodes();
+		int nbOfCodes = 0;
+		for (int i = 0; i < codes.length; i++) {
+			if (0 != codes[i]) {
+				nbOfCodes++;
+			}
+		}
+		assertEquals(cells.length, nbOfCodes);
+		for (int k = 0; k < cells.length; k++) {
+			assertEquals(expected[k], codes[cells[k]]);
+		}
+
+		// the tributary 23 is itself decomposed at the second level
+		final int[] firstLevel = pfafstetter.getLabels(1);
+		assertEquals(6, firstLevel[23]);
+		assertEquals(6, firstLevel[8]);
+		assertEquals(6, firstLevel[9]);
+		assertEquals(7, firstLevel[25]);
+		assertEquals(6, pfafstetter.getAncestor(62, 1));
+		final int[] sizes = new int[10];
+		for (int i = 0; i < firstLevel.length; i++) {
+			sizes[firstLevel[i]]++;
+		}
+		assertArrayEquals(new int[] { 2, 2, 1, 2, 1, 4, 3, 1, 1 }, Arrays
+				.copyOfRange(sizes, 1, 10));
+
+		// a single basin
+		final int[] basinLabels = pfafstetter.getBasinLabels();
+		for (int i = 0; i < basinLabels.length; i++) {
+			assertEquals(flowDirections.isOutside(i) ? 0 : 1, basinLabels[i]);
+		}
+	}
+
+	@Test
+	public void testThreeInflowsJunction() throws Exception {
+		// a main stem flowing south, joined at the same cell (31) by the
+		// tributaries 29-30 from the west and 33-32 from the east
+		final byte[] directions = new byte[] {//
+		0, 0, 0, 0, 0, 0, 0,//
+				0, 0, 0, 7, 0, 0, 0,//
+				0, 0, 0, 7, 0, 0, 0,//
+				0, 0, 0, 7, 0, 0, 0,//
+				0, 1, 1, 7, 5, 5, 0,//
+				0, 0, 0, 7, 0, 0, 0,//
+				0, 0, 0, 7, 0, 0, 0,//
+				0, 0, 0, -1, 0, 0, 0,//
+				0, 0, 0, 0, 0, 0, 0,//
+		};
+		final D8FlowDirections flowDirections = new D8FlowDirections(
+				directions, new RasterMetadata(0, 9, 1, -1, 7, 9), ND);
+		final float[] accumulations = new D8OpAccumulation().accumulate(
+				flowDirections, new NullProgressMonitor());
+
+		// the downstream part of the main stem, the west tributary, an empty
+		// interbasin, the east tributary and the upstream part of the main
+		// stem
+		final int[] cells = new int[] { 52, 45, 38, 31, 29, 30, 32, 33, 24,
+				17, 10 };
+		final int[] expected = new int[] { 1, 1, 1, 1, 2, 2, 4, 4, 5, 5, 5 };
+		for (int nbOfLevels = 1; nbOfLevels <= 2; nbOfLevels++) {
+			final D8OpPfafstetter pfafstetter = new D8OpPfafstetter(
+					accumulations, 1, nbOfLevels);
+			pfafstetter.execute(flowDirections, new NullProgressMonitor());
+			final int[] firstLevel = pfafstetter.getLabels(1);
+			int nbOfLabels = 0;
+			for (int i = 0; i < firstLevel.length; i++) {
+				if (0 != firstLevel[i]) {
+					nbOfLabels++;
+				}
+			}
+			assertEquals(cells.length, nbOfLabels);
+			for (int k = 0; k < cells.length; k++) {
+				assertEquals(expected[k], firstLevel[cells[k]]);
+			}
+		}
+	}
+}
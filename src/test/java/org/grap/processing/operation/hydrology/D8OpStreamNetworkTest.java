@@ -0,0 +1,129 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8OpStreamNetworkTest extends D8Commons {
+	@Test
+	public void testSmallRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getSmallRiverTree();
+		final D8OpStreamNetwork network = new D8OpStreamNetwork(
+				new D8OpAccumulation().execute(flowDirections,
+						new NullProgressMonitor()), 1);
+		network.setNumberOfThreads(2);
+		network.execute(flowDirections, new NullProgressMonitor());
+		final StreamLink[] streamLinks = network.getLinks();
+		assertEquals(5, streamLinks.length);
+
+		final StreamLink first = streamLinks[0];
+		assertEquals(1, first.getId());
+		assertEquals(1, first.getStrahlerStreamOrder());
+		assertEquals(Math.sqrt(2), first.getLength(), 1E-5);
+		assertEquals(first.getLength(), first.getGeometry().getLength(), 1E-5);
+		assertEquals(1, first.getGeometry().getCoordinateN(0).x, 0);
+		assertEquals(5, first.getGeometry().getCoordinateN(0).y, 0);
+		assertEquals(3, first.getDownstreamLinkId());
+		assertEquals(0, first.getUpstreamLinkIds().length);
+
+		final StreamLink junction = streamLinks[2];
+		assertEquals(2, junction.getStrahlerStreamOrder());
+		assertEquals(3, junction.getUpstreamArea(), 0);
+		assertEquals(5, junction.getDownstreamLinkId());
+		assertArrayEquals(new int[] { 1, 2 }, junction.getUpstreamLinkIds());
+
+		final StreamLink outlet = streamLinks[4];
+		assertEquals(6, outlet.getUpstreamArea(), 0);
+		assertEquals(1, outlet.getLength(), 1E-5);
+		assertEquals(StreamLink.noLinkValue, outlet.getDownstreamLinkId());
+		assertArrayEquals(new int[] { 3, 4 }, outlet.getUpstreamLinkIds());
+		assertArrayEquals(new int[] { 1, 3, 5 }, network.getPathToTheOutlet(1));
+	}
+
+	@Test
+	public void testRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final D8OpStreamNetwork network = new D8OpStreamNetwork(
+				new D8OpAccumulation().accumulate(flowDirections,
+						new NullProgressMonitor()), 1);
+		network.setNumberOfThreads(3);
+		network.execute(flowDirections, new NullProgressMonitor());
+		final StreamLink[] streamLinks = network.getLinks();
+		assertEquals(12, streamLinks.length);
+		for (int k = 0; k < streamLinks.length; k++) {
+			final StreamLink link = streamLinks[k];
+			assertEquals(k + 1, link.getId());
+			assertEquals(link.getLength(), link.getGeometry().getLength(),
+					1E-5);
+			for (int upstreamLinkId : link.getUpstreamLinkIds()) {
+				assertEquals(link.getId(), streamLinks[upstreamLinkId - 1]
+						.getDownstreamLinkId());
+			}
+		}
+
+		// the spring at cell 11
+		final StreamLink spring = streamLinks[2];
+		assertEquals(4, spring.getGeometry().getCoordinateN(0).x, 0);
+		assertEquals(7, spring.getGeometry().getCoordinateN(0).y, 0);
+
+		// 15 and 23, fed by the springs 8 and 9
+		final StreamLink tributary = streamLinks[4];
+		assertEquals(2, tributary.getStrahlerStreamOrder());
+		assertEquals(1 + Math.sqrt(2), tributary.getLength(), 1E-5);
+		assertEquals(4, tributary.getUpstreamArea(), 0);
+		assertEquals(8, tributary.getDownstreamLinkId());
+		assertArrayEquals(new int[] { 1, 2 }, tributary.getUpstreamLinkIds());
+
+		// the single cell 24, between two junctions
+		final StreamLink junction = streamLinks[7];
+		assertEquals(3, junction.getStrahlerStreamOrder());
+		assertEquals(1, junction.getLength(), 1E-5);
+		assertEquals(10, junction.getUpstreamArea(), 0);
+		assertEquals(10, junction.getDownstreamLinkId());
+		assertArrayEquals(new int[] { 5, 7 }, junction.getUpstreamLinkIds());
+
+		// 40 and 39, joining the main stem at 38
+		final StreamLink lastTributary = streamLinks[11];
+		assertEquals(1, lastTributary.getStrahlerStreamOrder());
+		assertEquals(2, lastTributary.getLength(), 1E-5);
+		assertEquals(2, lastTributary.getUpstreamArea(), 0);
+		assertEquals(11, lastTributary.getDownstreamLinkId());
+
+		final StreamLink outlet = streamLinks[10];
+		assertEquals(17, outlet.getUpstreamArea(), 0);
+		assertEquals(1, outlet.getLength(), 1E-5);
+		assertEquals(StreamLink.noLinkValue, outlet.getDownstreamLinkId());
+		assertArrayEquals(new int[] { 10, 12 }, outlet.getUpstreamLinkIds());
+		assertArrayEquals(new int[] { 6, 7, 8, 10, 11 }, network
+				.getPathToTheOutlet(6));
+	}
+}
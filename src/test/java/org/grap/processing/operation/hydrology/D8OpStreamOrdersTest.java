@@ -0,0 +1,118 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8OpStreamOrdersTest extends D8Commons {
+	@Test
+	public void testSmallRiverTree() throws Exception {
+		final D8FlowDirections y = getSmallRiverTree();
+		final GeoRaster accumulation = new D8OpAccumulation().execute(y,
+				new NullProgressMonitor());
+
+		final D8OpStreamOrders op = new D8OpStreamOrders(accumulation, 1);
+		op.setNumberOfThreads(2);
+		op.execute(y, new NullProgressMonitor());
+		final short[] strahler = op.getStrahlerStreamOrders();
+		final int[] shreve = op.getShreveStreamOrders();
+		final int[] links = op.getStreamLinks();
+
+		assertEquals(1, strahler[6]);
+		assertEquals(2, strahler[12]);
+		assertEquals(2, strahler[22]);
+		assertEquals(D8OpStreamOrders.noDataValue, strahler[0]);
+		assertEquals(1, shreve[16]);
+		assertEquals(2, shreve[12]);
+		assertEquals(3, shreve[22]);
+		assertEquals(0, shreve[0]);
+
+		assertEquals(5, op.getNbOfLinks());
+		assertEquals(1, links[6]);
+		assertEquals(2, links[8]);
+		assertEquals(3, links[12]);
+		assertEquals(4, links[16]);
+		assertEquals(5, links[17]);
+		assertEquals(5, links[22]);
+		assertEquals(D8OpStreamOrders.noLinkValue, links[0]);
+	}
+
+	@Test
+	public void testRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final float[] accumulations = new D8OpAccumulation().accumulate(
+				flowDirections, new NullProgressMonitor());
+
+		final D8OpStreamOrders op = new D8OpStreamOrders(accumulations, 1);
+		op.setNumberOfThreads(1);
+		op.execute(flowDirections, new NullProgressMonitor());
+		final short[] strahler = op.getStrahlerStreamOrders();
+		final int[] shreve = op.getShreveStreamOrders();
+		final int[] links = op.getStreamLinks();
+
+		// two order 2 streams (from 15 and 19) meet in 24
+		for (int i : new int[] { 8, 9, 11, 12, 18, 29, 30, 39, 40 }) {
+			assertEquals(1, strahler[i]);
+		}
+		for (int i : new int[] { 15, 23, 19, 25 }) {
+			assertEquals(2, strahler[i]);
+		}
+		for (int i : new int[] { 24, 31, 38, 45 }) {
+			assertEquals(3, strahler[i]);
+		}
+		assertEquals(3, shreve[19]);
+		assertEquals(5, shreve[24]);
+		assertEquals(6, shreve[31]);
+		assertEquals(7, shreve[45]);
+
+		// the links start at the rivers' starts and at the junctions
+		assertEquals(12, op.getNbOfLinks());
+		assertArrayEquals(new int[] { 1, 2, 3, 4, 5, 6, 7, 5, 8, 7, 9, 9,
+				10, 11, 12, 12, 11 }, new int[] { links[8], links[9],
+				links[11], links[12], links[15], links[18], links[19],
+				links[23], links[24], links[25], links[29], links[30],
+				links[31], links[38], links[39], links[40], links[45] });
+
+		// the river threshold prunes the first order streams
+		final D8OpStreamOrders pruned = new D8OpStreamOrders(accumulations, 3);
+		pruned.setNumberOfThreads(2);
+		pruned.execute(flowDirections, new NullProgressMonitor());
+		assertEquals(D8OpStreamOrders.noDataValue, pruned
+				.getStrahlerStreamOrders()[8]);
+		assertEquals(1, pruned.getStrahlerStreamOrders()[15]);
+		assertEquals(2, pruned.getStrahlerStreamOrders()[24]);
+		assertEquals(2, pruned.getStrahlerStreamOrders()[45]);
+		// 31 and 38 are not junctions anymore
+		assertEquals(3, pruned.getNbOfLinks());
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8OpWatershedsFromOutletsTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getPathDEM(), new NullProgressMonitor());
+		final D8OpWatershedsFromOutlets op = new D8OpWatershedsFromOutlets(
+				new int[] { 42, 68, 0 });
+		final float[] watersheds = op.execute(flowDirections,
+				new NullProgressMonitor()).getFloatPixels();
+		final int[] labels = op.getWatershedLabels();
+		for (int i : new int[] { 11, 22, 32, 42 }) {
+			assertEquals(1, labels[i]);
+			assertEquals(1, watersheds[i], 0);
+		}
+		for (int i : new int[] { 51, 62, 63, 64, 65, 76, 77, 68 }) {
+			assertEquals(2, labels[i]);
+		}
+		assertEquals(0, labels[0]);
+
+		// the all outlets and all watersheds products of the same sweep
+		assertEquals(1, op.getNbOfWatersheds());
+		assertArrayEquals(new int[] { 68 }, op.getAllOutletsIndices());
+		assertEquals(1, op.getAllWatershedLabels()[11]);
+		assertEquals(D8OpWatershedsFromOutlets.isAnOutletValue, op
+				.getAllOutlets().getFloatPixels()[68], 0);
+	}
+
+	@Test
+	public void testDataOnTheBorder() throws Exception {
+		// the river tree, with data on its border : a sink (0), and two cells
+		// flowing into the river (6 into 12, 52 into the terminal cell 45)
+		final byte[] directions = getRiverTree().getDirections().clone();
+		directions[0] = -1;
+		directions[6] = 6;
+		directions[52] = 3;
+		final D8FlowDirections flowDirections = new D8FlowDirections(
+				directions, getRiverTree().getMetadata(), ND);
+		final D8OpWatershedsFromOutlets op = new D8OpWatershedsFromOutlets(
+				new int[] { 0, 24 });
+		op.execute(flowDirections, new NullProgressMonitor());
+
+		// the border cells neither are outlets nor belong to any watershed
+		assertArrayEquals(flowDirections.getTerminalCells(), op
+				.getAllOutletsIndices());
+		assertEquals(1, op.getNbOfWatersheds());
+		final int[] allLabels = op.getAllWatershedLabels();
+		final int[] labels = op.getWatershedLabels();
+		for (int i = 0; i < allLabels.length; i++) {
+			assertEquals(flowDirections.isOutside(i) ? 0 : 1, allLabels[i]);
+		}
+		assertEquals(0, labels[0]);
+		assertEquals(0, labels[6]);
+		assertEquals(2, labels[12]);
+		assertEquals(0, labels[52]);
+	}
+
+	@Test
+	public void testRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final int[] outlets = new int[] { 24, 39, 45 };
+		final D8OpWatershedsFromOutlets op = new D8OpWatershedsFromOutlets(
+				outlets);
+		op.execute(flowDirections, new NullProgressMonitor());
+		final int[] labels = op.getWatershedLabels();
+		assertEquals(1, labels[8]);
+		assertEquals(1, labels[19]);
+		assertEquals(2, labels[40]);
+		assertEquals(3, labels[29]);
+		assertEquals(0, labels[0]);
+		checkAgainstPaths(flowDirections, outlets, labels);
+		checkAgainstPaths(flowDirections, new int[] { 45 }, op
+				.getAllWatershedLabels());
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getValleyDEM(), new NullProgressMonitor());
+		final int[] terminalCells = flowDirections.getTerminalCells();
+		final D8OpWatershedsFromOutlets op = new D8OpWatershedsFromOutlets(
+				new int[] { 40, 31 });
+		op.execute(flowDirections, new NullProgressMonitor());
+		checkAgainstPaths(flowDirections, new int[] { 40, 31 }, op
+				.getWatershedLabels());
+
+		// as many watersheds as terminal cells, in scan order
+		assertEquals(terminalCells.length, op.getNbOfWatersheds());
+		assertArrayEquals(terminalCells, op.getAllOutletsIndices());
+		checkAgainstPaths(flowDirections, terminalCells, op
+				.getAllWatershedLabels());
+	}
+
+	/**
+	 * Each cell is labelled with the first outlet met along its hydrological
+	 * path.
+	 */
+	private void checkAgainstPaths(final D8FlowDirections flowDirections,
+			final int[] outlets, final int[] labels) {
+		for (int i = 0; i < flowDirections.getNbCells(); i++) {
+			int expected = 0;
+			for (int cell : getPath(flowDirections, i)) {
+				for (int k = 0; (0 == expected) && (k < outlets.length); k++) {
+					if (cell == outlets[k]) {
+						expected = k + 1;
+					}
+				}
+			}
+			assertEquals(expected, labels[i]);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8OpWeightedAccumulationTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final GeoRaster dem = getPathDEM();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final float[] rainfallArray = new float[flowDirections.getNbCells()];
+		for (int i = 0; i < rainfallArray.length; i++) {
+			rainfallArray[i] = 2;
+		}
+		rainfallArray[11] = ND;
+		final GeoRaster rainfall = GeoRasterFactory.createGeoRaster(
+				rainfallArray, dem.getMetadata());
+		rainfall.setNodataValue(ND);
+
+		final D8OpWeightedAccumulation op = new D8OpWeightedAccumulation(
+				null, rainfall);
+		op.setNumberOfThreads(2);
+		final float[] counts = op.execute(flowDirections,
+				new NullProgressMonitor()).getFloatPixels();
+		final float[] expected = new D8OpAccumulation().execute(
+				flowDirections, new NullProgressMonitor()).getFloatPixels();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], counts[i], 0);
+		}
+
+		final GeoRaster[] bands = op.getAccumulations();
+		assertEquals(2, bands.length);
+		final float[] volumes = bands[1].getFloatPixels();
+		assertEquals(0, volumes[11], 0);
+		assertEquals(2, volumes[22], 0);
+		assertEquals(22, volumes[68], 0);
+		assertEquals(ND, volumes[0], 0);
+
+		final NullProgressMonitor cancelled = new NullProgressMonitor() {
+			@Override
+			public boolean isCancelled() {
+				return true;
+			}
+		};
+		assertNull(new D8OpWeightedAccumulation(null, rainfall).execute(
+				flowDirections, cancelled));
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final GeoRaster dem = getValleyDEM();
+		final RasterMetadata rasterMetadata = dem.getMetadata();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final int nbCells = flowDirections.getNbCells();
+
+		// two bands of distinct weights, the first one with a nodataValue
+		final GeoRaster[] grWeights = new GeoRaster[2];
+		final float[][] weights = new float[2][nbCells];
+		for (int i = 0; i < nbCells; i++) {
+			weights[0][i] = i % rasterMetadata.getNCols();
+			weights[1][i] = 0.5f * (i / rasterMetadata.getNCols());
+		}
+		weights[0][12] = ND;
+		for (int b = 0; b < 2; b++) {
+			grWeights[b] = GeoRasterFactory.createGeoRaster(weights[b],
+					rasterMetadata);
+			grWeights[b].setNodataValue(ND);
+		}
+
+		final D8OpWeightedAccumulation op = new D8OpWeightedAccumulation(
+				grWeights);
+		op.setNumberOfThreads(3);
+		op.execute(flowDirections, new NullProgressMonitor());
+		final GeoRaster[] bands = op.getAccumulations();
+		assertEquals(2, bands.length);
+		for (int b = 0; b < 2; b++) {
+			checkAgainstPaths(flowDirections, weights[b], bands[b]
+					.getFloatPixels());
+		}
+	}
+
+	/**
+	 * Each weight is added to all the cells of its hydrological path, a
+	 * nodataValue weight counting for nothing.
+	 */
+	private void checkAgainstPaths(final D8FlowDirections flowDirections,
+			final float[] weights, final float[] accumulations) {
+		final int nbCells = flowDirections.getNbCells();
+		final double[] expected = new double[nbCells];
+		for (int i = 0; i < nbCells; i++) {
+			if (ND != weights[i]) {
+				for (int cell : getPath(flowDirections, i)) {
+					expected[cell] += weights[i];
+				}
+			}
+		}
+		for (int i = 0; i < nbCells; i++) {
+			if (flowDirections.isOutside(i)) {
+				assertEquals(ND, accumulations[i], 0);
+			} else {
+				assertEquals(expected[i], accumulations[i], 1E-4);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.util.Arrays;
+
+import org.grap.model.GeoRaster;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8ReverseFlowGraphTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getPathDEM(), new NullProgressMonitor());
+		final D8ReverseFlowGraph graph = new D8ReverseFlowGraph(flowDirections);
+		assertEquals(1, graph.getInDegree(68));
+		assertEquals(77, graph.getChild(68, 0));
+		assertEquals(0, graph.getInDegree(11));
+
+		final int[] upstream = graph.getUpstreamCells(8, 6);
+		assertEquals(12, upstream.length);
+		assertEquals(68, upstream[0]);
+		assertEquals(11, upstream[11]);
+		assertEquals(12, graph.getUpstreamCellsCount(8, 6));
+		assertEquals(5, graph.getUpstreamCellsCount(1, 5));
+		assertEquals(12, graph.getUpstreamArea(68), 1E-9);
+		assertEquals(0, graph.getUpstreamCells(-1, 3).length);
+
+		final boolean[] mask = graph.getUpstreamMask(2, 4);
+		int nb = 0;
+		for (boolean inside : mask) {
+			nb += inside ? 1 : 0;
+		}
+		assertEquals(4, nb);
+		assertTrue(mask[11] && mask[22] && mask[32] && mask[42]);
+		// nested catchment: only the downstream cells are added
+		assertEquals(8, graph.fillUpstreamMask(68, mask));
+		assertEquals(0, graph.fillUpstreamMask(22, mask));
+	}
+
+	@Test
+	public void testWatershedFromOutletIndex() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final D8ReverseFlowGraph graph = new D8ReverseFlowGraph(flowDirections);
+		final GeoRaster grDirection = flowDirections.toGeoRaster();
+
+		// the directions are decoded again from the GeoRaster by each run, but
+		// the prebuilt graph is kept
+		for (int outlet : new int[] { 24, 19 }) {
+			final D8OpWatershedFromOutletIndex op = new D8OpWatershedFromOutletIndex(
+					graph, outlet);
+			final float[] watershed = grDirection.doOperation(op)
+					.getFloatPixels();
+			assertSame(graph, op.getReverseFlowGraph());
+			final boolean[] mask = graph.getUpstreamMask(outlet % 7,
+					outlet / 7);
+			final float belongs = D8OpWatershedFromOutletIndex.belongsToTheWatershed;
+			for (int i = 0; i < mask.length; i++) {
+				assertEquals(mask[i], belongs == watershed[i]);
+			}
+		}
+
+		// other directions
+		final D8OpWatershedFromOutletIndex op = new D8OpWatershedFromOutletIndex(
+				graph, 24);
+		op.execute(getSmallRiverTree(), new NullProgressMonitor());
+		assertNotSame(graph, op.getReverseFlowGraph());
+		assertEquals(getSmallRiverTree().getNbCells(), op
+				.getReverseFlowGraph().getNbCells());
+	}
+
+	@Test
+	public void testRiverTree() throws Exception {
+		final D8FlowDirections flowDirections = getRiverTree();
+		final D8ReverseFlowGraph graph = new D8ReverseFlowGraph(flowDirections);
+		assertEquals(3, graph.getInDegree(19));
+		assertEquals(17, graph.getUpstreamCellsCount(45));
+		assertEquals(10, graph.getUpstreamCellsCount(3, 3));
+		final int[] upstream = graph.getUpstreamCells(23);
+		assertEquals(23, upstream[0]);
+		Arrays.sort(upstream);
+		assertArrayEquals(new int[] { 8, 9, 15, 23 }, upstream);
+
+		// the catchment of 24 minus the one of 25
+		final boolean[] mask = graph.getUpstreamMask(25);
+		assertEquals(5, graph.fillUpstreamMask(24, mask));
+		assertTrue(mask[24] && mask[23] && mask[15] && mask[8] && mask[9]);
+		checkAgainstPaths(flowDirections);
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final GeoRaster dem = getValleyDEM();
+		checkAgainstPaths(new D8OpDirection().getFlowDirections(dem,
+				new NullProgressMonitor()));
+	}
+
+	/**
+	 * The in-degrees and the upstream cells of each cell are checked against
+	 * the hydrological paths of all the cells.
+	 */
+	private void checkAgainstPaths(final D8FlowDirections flowDirections) {
+		final D8ReverseFlowGraph graph = new D8ReverseFlowGraph(flowDirections);
+		final int nbCells = flowDirections.getNbCells();
+		final int[] inDegrees = new int[nbCells];
+		final int[] counts = new int[nbCells];
+		for (int i = 0; i < nbCells; i++) {
+			final int next = flowDirections.getDownstream(i);
+			if (-1 != next) {
+				inDegrees[next]++;
+			}
+			for (int cell : getPath(flowDirections, i)) {
+				counts[cell]++;
+			}
+		}
+		for (int i = 0; i < nbCells; i++) {
+			assertEquals(inDegrees[i], graph.getInDegree(i));
+			if (!flowDirections.isOutside(i)) {
+				assertEquals(counts[i], graph.getUpstreamCellsCount(i));
+				final boolean[] mask = graph.getUpstreamMask(i);
+				for (int j = 0; j < nbCells; j++) {
+					boolean upstream = false;
+					for (int cell : getPath(flowDirections, j)) {
+						upstream |= (cell == i);
+					}
+					assertEquals(upstream, mask[j]);
+				}
+			}
+		}
+	}
+}
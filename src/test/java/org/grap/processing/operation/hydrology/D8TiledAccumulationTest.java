@@ -0,0 +1,89 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.File;
+
+import org.grap.io.EsriGRIDReader;
+import org.grap.io.EsriGRIDWriter;
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class D8TiledAccumulationTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getPathDEM(), new NullProgressMonitor());
+		checkTiledAccumulation(flowDirections, new RasterMetadata(0.5, 14.5,
+				1, -1, 10, 10, ND), 3);
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final GeoRaster dem = getValleyDEM();
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		final RasterMetadata rasterMetadata = new RasterMetadata(0.5, 6.5, 1,
+				-1, 9, 7, ND);
+		// tiles smaller and larger than the width of the valley's sides
+		checkTiledAccumulation(flowDirections, rasterMetadata, 2);
+		checkTiledAccumulation(flowDirections, rasterMetadata, 4);
+	}
+
+	private void checkTiledAccumulation(final D8FlowDirections flowDirections,
+			final RasterMetadata rasterMetadata, final int tileSize)
+			throws Exception {
+		final File directionsFile = File.createTempFile("directions", ".asc");
+		final File accumulationsFile = File.createTempFile("accumulations",
+				".asc");
+		directionsFile.deleteOnExit();
+		accumulationsFile.deleteOnExit();
+		new EsriGRIDWriter(directionsFile.getAbsolutePath(), flowDirections
+				.toGeoRaster().getImagePlus(), rasterMetadata).save();
+
+		final D8TiledAccumulation tiledAccumulation = new D8TiledAccumulation(
+				directionsFile.getAbsolutePath(), accumulationsFile
+						.getAbsolutePath(), tileSize);
+		tiledAccumulation.setNumberOfThreads(2);
+		tiledAccumulation.execute(new NullProgressMonitor());
+
+		final float[] expected = new D8OpAccumulation().execute(
+				flowDirections, new NullProgressMonitor()).getFloatPixels();
+		final float[] accumulation = (float[]) new EsriGRIDReader(
+				accumulationsFile.getAbsolutePath()).readImagePlus()
+				.getProcessor().getPixels();
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], accumulation[i], 0);
+		}
+	}
+}
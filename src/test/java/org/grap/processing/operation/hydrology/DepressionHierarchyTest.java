@@ -0,0 +1,154 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DepressionHierarchyTest extends D8Commons {
+	@Test
+	public void testNestedPits() throws Exception {
+		// two pits (2 and 1) separated by a saddle at 5, the deepest one
+		// spilling over the 8 border cell
+		final float[] demArray = new float[] {//
+		9, 9, 9, 9, 9,//
+				9, 2, 5, 1, 9,//
+				9, 9, 9, 9, 8,//
+				9, 9, 9, 9, 9,//
+		};
+		final GeoRaster grDEM = GeoRasterFactory.createGeoRaster(demArray,
+				new RasterMetadata(0, 4, 1, -1, 5, 4));
+		final OpDepressionHierarchy op = new OpDepressionHierarchy();
+		final float[] labels = grDEM.doOperation(op).getFloatPixels();
+		assertEquals(1, labels[6], 0);
+		assertEquals(2, labels[7], 0);
+		assertEquals(2, labels[8], 0);
+		assertEquals(ND, labels[14], 0);
+
+		final DepressionHierarchy hierarchy = op.getDepressionHierarchy();
+		assertEquals(2, hierarchy.getNbOfLeaves());
+		assertEquals(3, hierarchy.getNbOfDepressions());
+		assertEquals(3, hierarchy.getParent(1));
+		assertEquals(3, hierarchy.getParent(2));
+		assertEquals(DepressionHierarchy.OCEAN, hierarchy.getParent(3));
+		assertArrayEquals(new int[] { 1, 2 }, hierarchy.getChildren(3));
+		assertEquals(2, hierarchy.getOverflowDepression(1));
+		assertEquals(5, hierarchy.getOutletElevation(1), 0);
+		assertEquals(7, hierarchy.getSpillCell(1));
+		assertEquals(8, hierarchy.getOutletElevation(3), 0);
+		assertEquals(14, hierarchy.getSpillCell(3));
+		assertEquals(3, hierarchy.getVolume(1), 0);
+		assertEquals(4, hierarchy.getVolume(2), 0);
+		assertEquals(16, hierarchy.getVolume(3), 0);
+
+		final DepressionHierarchy.Filling filling = hierarchy.newFilling();
+		filling.pour(6, 2);
+		assertEquals(4, filling.getWaterLevel(1), 1e-6);
+		assertEquals(2, filling.getWaterDepths()[6], 1e-6);
+		// fills the second pit, overflows into the first one, then both
+		// merge above the saddle
+		filling.pour(8, 10);
+		assertTrue(filling.isFull(1));
+		assertTrue(filling.isFull(2));
+		assertEquals(5 + 5 / 3d, filling.getWaterLevel(3), 1e-6);
+		float[] depths = filling.getWaterDepths();
+		assertEquals(5 / 3d, depths[7], 1e-6);
+		assertEquals(3 + 5 / 3d, depths[6], 1e-6);
+		assertEquals(0, depths[12], 0);
+		filling.pour(8, 10);
+		assertEquals(6, filling.getOutflow(), 1e-6);
+		depths = filling.getWaterDepths();
+		assertEquals(7, depths[8], 1e-6);
+		assertEquals(3, depths[7], 1e-6);
+	}
+
+	@Test
+	public void testSeparatePits() throws Exception {
+		// two pits (2 and 4) that spill directly over the border, at 8 and at
+		// 7 (cell 17)
+		final float[] demArray = new float[] {//
+		8, 8, 8, 8, 8, 8,//
+				8, 2, 9, 9, 4, 8,//
+				8, 9, 10, 10, 9, 7,//
+				8, 9, 9, 9, 9, 8,//
+				8, 8, 8, 8, 8, 8,//
+		};
+		final GeoRaster grDEM = GeoRasterFactory.createGeoRaster(demArray,
+				new RasterMetadata(0, 5, 1, -1, 6, 5));
+		final OpDepressionHierarchy op = new OpDepressionHierarchy();
+		final float[] labels = grDEM.doOperation(op).getFloatPixels();
+		assertEquals(1, labels[7], 0);
+		assertEquals(1, labels[14], 0);
+		assertEquals(2, labels[10], 0);
+		assertEquals(2, labels[15], 0);
+		// the lower slope drains to the border
+		assertEquals(ND, labels[20], 0);
+
+		final DepressionHierarchy hierarchy = op.getDepressionHierarchy();
+		assertEquals(2, hierarchy.getNbOfLeaves());
+		assertEquals(2, hierarchy.getNbOfDepressions());
+		for (int d = 1; d <= 2; d++) {
+			assertTrue(hierarchy.isLeaf(d));
+			assertEquals(DepressionHierarchy.OCEAN, hierarchy.getParent(d));
+			assertEquals(DepressionHierarchy.OCEAN, hierarchy
+					.getOverflowDepression(d));
+			assertEquals(1, hierarchy.getCellCount(d));
+		}
+		assertEquals(7, hierarchy.getPitCell(1));
+		assertEquals(8, hierarchy.getOutletElevation(1), 0);
+		assertEquals(6, hierarchy.getVolume(1), 0);
+		assertEquals(10, hierarchy.getPitCell(2));
+		assertEquals(7, hierarchy.getOutletElevation(2), 0);
+		assertEquals(17, hierarchy.getSpillCell(2));
+		assertEquals(3, hierarchy.getVolume(2), 0);
+
+		// the overflow of a pit does not reach the other one
+		final DepressionHierarchy.Filling filling = hierarchy.newFilling();
+		filling.pour(10, 5);
+		assertTrue(filling.isFull(2));
+		assertEquals(2, filling.getOutflow(), 1e-6);
+		filling.pour(7, 3);
+		assertFalse(filling.isFull(1));
+		assertEquals(5, filling.getWaterLevel(1), 1e-6);
+		float[] depths = filling.getWaterDepths();
+		assertEquals(3, depths[7], 1e-6);
+		assertEquals(3, depths[10], 1e-6);
+
+		// a uniform rainfall on the 30 cells is either stored or lost
+		filling.rain(1);
+		assertTrue(filling.isFull(1));
+		depths = filling.getWaterDepths();
+		assertEquals(6, depths[7], 1e-6);
+		assertEquals(5 + 3 + 30 - 6 - 3, filling.getOutflow(), 1e-6);
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class FlowProportionsTest {
+	private static float ND = GeoRaster.FLOAT_NO_DATA_VALUE;
+
+	private int nrows = 5;
+	private int ncols = 5;
+
+	/**
+	 * @param dx
+	 *            elevation decrease towards the east
+	 * @param dy
+	 *            elevation decrease towards the north
+	 */
+	private GeoRaster plane(final float dx, final float dy) throws Exception {
+		final float[] demArray = new float[nrows * ncols];
+		for (int y = 0, i = 0; y < nrows; y++) {
+			for (int x = 0; x < ncols; x++, i++) {
+				demArray[i] = 100 - dx * x + dy * y;
+			}
+		}
+		final GeoRaster dem = GeoRasterFactory.createGeoRaster(demArray,
+				new RasterMetadata(0, 5, 1, -1, ncols, nrows));
+		dem.setNodataValue(ND);
+		return dem;
+	}
+
+	@Test
+	public void testDInfinity() throws Exception {
+		final DInfOpDirection op = new DInfOpDirection();
+		final FlowProportions east = op.getFlowProportions(plane(1, 0),
+				new NullProgressMonitor());
+		assertTrue(east.isNoData(0));
+		assertEquals(1, east.getProportion(12, 1), 0);
+		assertEquals(0, east.getProportion(12, 2), 0);
+
+		final FlowProportions northEast = op.getFlowProportions(
+				plane(1, 1), new NullProgressMonitor());
+		assertEquals(1, northEast.getProportion(12, 2), 0);
+
+		// half way between the east and the north-east directions
+		final float[] angles = plane(1, (float) Math.tan(Math.PI / 8))
+				.doOperation(op).getFloatPixels();
+		assertEquals(Math.PI / 8, angles[12], 1E-5);
+		final FlowProportions between = op.getFlowProportions(plane(1,
+				(float) Math.tan(Math.PI / 8)), new NullProgressMonitor());
+		assertEquals(0.5, between.getProportion(12, 1), 1.0 / 255);
+		assertEquals(1, between.getProportion(12, 1)
+				+ between.getProportion(12, 2), 0);
+	}
+
+	@Test
+	public void testFreemanAndQuinn() throws Exception {
+		final FlowProportions freeman = MFDOpDirection.freeman()
+				.getFlowProportions(plane(1, 0), new NullProgressMonitor());
+		final double diagonal = Math.pow(1 / Math.sqrt(2), 1.1);
+		assertEquals(1 / (1 + 2 * diagonal), freeman.getProportion(12, 1),
+				1.0 / 255);
+		assertEquals(freeman.getProportion(12, 2), freeman.getProportion(12,
+				8), 1.0 / 255);
+		assertEquals(0, freeman.getProportion(12, 5), 0);
+
+		final FlowProportions quinn = MFDOpDirection.quinn()
+				.getFlowProportions(plane(1, 0), new NullProgressMonitor());
+		final double quinnDiagonal = 0.354 / Math.sqrt(2);
+		assertEquals(0.5 / (0.5 + 2 * quinnDiagonal), quinn.getProportion(
+				12, 1), 1.0 / 255);
+		final int[] receivers = new int[8];
+		final float[] fractions = new float[8];
+		assertEquals(3, quinn.getReceivers(12, receivers, fractions));
+		assertEquals(1, fractions[0] + fractions[1] + fractions[2], 1E-6);
+	}
+
+	@Test
+	public void testAccumulation() throws Exception {
+		final GeoRaster dem = plane(1, 0);
+		final float[] expected = new D8OpAccumulation().execute(
+				new D8OpDirection().getFlowDirections(dem,
+						new NullProgressMonitor()), new NullProgressMonitor())
+				.getFloatPixels();
+		final MFDOpAccumulation d8 = new MFDOpAccumulation(FlowProportions
+				.fromD8(new D8OpDirection().getFlowDirections(dem,
+						new NullProgressMonitor())));
+		d8.setNumberOfThreads(2);
+		final float[] accumulation = d8.accumulate(null,
+				new NullProgressMonitor());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], accumulation[i], 0);
+		}
+
+		// weighted accumulation : the whole rainfall of the inner cells
+		// reaches the eastern inner column
+		final float[] rainfall = new float[nrows * ncols];
+		for (int i = 0; i < rainfall.length; i++) {
+			rainfall[i] = 2;
+		}
+		final float[] runoff = new MFDOpAccumulation(new DInfOpDirection()
+				.getFlowProportions(dem, new NullProgressMonitor())).accumulate(
+				rainfall, new NullProgressMonitor());
+		assertEquals(6, runoff[13], 1E-5);
+		assertEquals(ND, runoff[0], 0);
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Map;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class HydrologyPipelineTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		final HydrologyPipeline pipeline = new HydrologyPipeline(0.01, 5,
+				HydrologyProduct.ACCUMULATION, HydrologyProduct.STRAHLER);
+		pipeline.setFillSinks(false);
+		final Map<HydrologyProduct, GeoRaster> results = pipeline.execute(
+				getPathDEM(), new NullProgressMonitor());
+		assertEquals(2, results.size());
+		assertEquals(4, pipeline.getStageReports().size());
+
+		final float[] accumulation = results.get(HydrologyProduct.ACCUMULATION)
+				.getFloatPixels();
+		assertEquals(12, accumulation[68], 0);
+		assertEquals(1, accumulation[11], 0);
+		assertEquals(1, results.get(HydrologyProduct.STRAHLER).getImagePlus()
+				.getProcessor().getPixelValue(8, 6), 0);
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		final GeoRaster dem = getValleyDEM();
+		final HydrologyPipeline pipeline = new HydrologyPipeline(0.01, 4,
+				HydrologyProduct.DIRECTION, HydrologyProduct.ACCUMULATION,
+				HydrologyProduct.STRAHLER, HydrologyProduct.WATERSHEDS);
+		pipeline.setFillSinks(false);
+		pipeline.setNumberOfThreads(2);
+
+		// the pipeline does not print anything
+		final PrintStream out = System.out;
+		final ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		final Map<HydrologyProduct, GeoRaster> results;
+		System.setOut(new PrintStream(printed));
+		try {
+			results = pipeline.execute(dem, new NullProgressMonitor());
+		} finally {
+			System.setOut(out);
+		}
+		assertEquals(0, printed.size());
+
+		assertEquals(4, results.size());
+		assertEquals(5, pipeline.getStageReports().size());
+		for (HydrologyPipeline.StageReport report : pipeline
+				.getStageReports()) {
+			assertTrue(0 < report.getPeakMemory());
+			assertTrue(report.getPeakMemory() <= pipeline.getPeakMemory());
+		}
+
+		// each product is the one of the standalone operation
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(dem, new NullProgressMonitor());
+		assertTrue(equals(flowDirections.toGeoRaster(), results
+				.get(HydrologyProduct.DIRECTION)));
+		final GeoRaster accumulation = new D8OpAccumulation().execute(
+				flowDirections, new NullProgressMonitor());
+		assertTrue(equals(accumulation, results
+				.get(HydrologyProduct.ACCUMULATION)));
+		assertTrue(equals(new D8OpStreamOrders(accumulation, 4).execute(
+				flowDirections, new NullProgressMonitor()), results
+				.get(HydrologyProduct.STRAHLER)));
+		assertTrue(equals(new D8OpWatershedsFromOutlets().execute(
+				flowDirections, new NullProgressMonitor()), results
+				.get(HydrologyProduct.WATERSHEDS)));
+	}
+
+	@Test
+	public void testSlopeOnly() throws Exception {
+		checkSlopeOnly(getPathDEM());
+		checkSlopeOnly(getValleyDEM());
+	}
+
+	/**
+	 * The slopes do not need the accumulations : only the sinks filling and
+	 * the D8 sweep are run.
+	 */
+	private void checkSlopeOnly(final GeoRaster dem) throws Exception {
+		final HydrologyPipeline pipeline = new HydrologyPipeline(0.01, 5,
+				HydrologyProduct.SLOPE);
+		pipeline.setFillSinks(false);
+		final Map<HydrologyProduct, GeoRaster> results = pipeline.execute(dem,
+				new NullProgressMonitor());
+		assertEquals(1, results.size());
+		for (HydrologyPipeline.StageReport report : pipeline
+				.getStageReports()) {
+			assertFalse("accumulation".equals(report.getName()));
+		}
+
+		final HydrologyUtilities hydrologyUtilities = new HydrologyUtilities(
+				dem);
+		final RasterMetadata rasterMetadata = dem.getMetadata();
+		final float[] slopes = results.get(HydrologyProduct.SLOPE)
+				.getFloatPixels();
+		for (int y = 0, i = 0; y < rasterMetadata.getNRows(); y++) {
+			for (int x = 0; x < rasterMetadata.getNCols(); x++, i++) {
+				assertEquals(hydrologyUtilities.getSlopeInRadians(x, y),
+						slopes[i], 0);
+			}
+		}
+	}
+}
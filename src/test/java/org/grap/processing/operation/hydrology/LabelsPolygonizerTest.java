@@ -0,0 +1,118 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.RasterMetadata;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPolygon;
+import com.vividsolutions.jts.geom.Polygon;
+
+import static org.junit.Assert.*;
+
+public class LabelsPolygonizerTest extends D8Commons {
+	@Test
+	public void testRingAndIslands() throws Exception {
+		final int[] labels = new int[] {//
+		1, 1, 1, 1, 1,//
+				1, 2, 2, 1, 3,//
+				1, 2, 2, 1, 0,//
+				1, 1, 1, 1, 3,//
+				0, 0, 0, 0, 0,//
+		};
+		final LabelsPolygonizer polygonizer = new LabelsPolygonizer(labels,
+				new RasterMetadata(0, 5, 1, -1, 5, 5), 0);
+		polygonizer.setNumberOfThreads(2);
+		final Map<Integer, Geometry> polygons = polygonizer
+				.polygonize(new NullProgressMonitor());
+		assertEquals(3, polygons.size());
+
+		final Polygon ring = (Polygon) polygons.get(1);
+		assertTrue(ring.isValid());
+		assertEquals(13, ring.getArea(), 0);
+		assertEquals(1, ring.getNumInteriorRing());
+		// only the corners are kept
+		assertEquals(7, ring.getExteriorRing().getNumPoints());
+
+		final Polygon center = (Polygon) polygons.get(2);
+		assertEquals(4, center.getArea(), 0);
+		assertTrue(center.equalsTopo(ring.getInteriorRingN(0).convexHull()));
+
+		final Geometry islands = polygons.get(3);
+		assertTrue(islands instanceof MultiPolygon);
+		assertEquals(2, islands.getNumGeometries());
+		assertEquals(2, islands.getArea(), 0);
+	}
+
+	@Test
+	public void testValleyWatersheds() throws Exception {
+		final D8FlowDirections flowDirections = new D8OpDirection()
+				.getFlowDirections(getValleyDEM(), new NullProgressMonitor());
+		final GeoRaster grWatersheds = new D8OpAllWatersheds().execute(
+				flowDirections, new NullProgressMonitor());
+		final LabelsPolygonizer polygonizer = LabelsPolygonizer.fromGeoRaster(
+				grWatersheds, 0);
+		polygonizer.setNumberOfThreads(3);
+		final Map<Integer, Geometry> polygons = polygonizer
+				.polygonize(new NullProgressMonitor());
+
+		final float[] watersheds = grWatersheds.getFloatPixels();
+		final Map<Integer, Integer> nbOfCells = new HashMap<Integer, Integer>();
+		int nbOfDataCells = 0;
+		for (int i = 0; i < watersheds.length; i++) {
+			if (!flowDirections.isOutside(i)) {
+				final int label = (int) watersheds[i];
+				final Integer nb = nbOfCells.get(label);
+				nbOfCells.put(label, (null == nb) ? 1 : nb + 1);
+				nbOfDataCells++;
+			}
+		}
+		assertTrue(nbOfCells.size() > 1);
+		assertEquals(nbOfCells.keySet(), polygons.keySet());
+
+		// the watersheds tile the data cells without any overlap
+		Geometry union = null;
+		for (Map.Entry<Integer, Geometry> entry : polygons.entrySet()) {
+			final Geometry watershed = entry.getValue();
+			assertTrue(watershed.isValid());
+			assertEquals(nbOfCells.get(entry.getKey()), watershed.getArea(),
+					0);
+			union = (null == union) ? watershed : union.union(watershed);
+		}
+		assertEquals(nbOfDataCells, union.getArea(), 0);
+		assertTrue(union instanceof Polygon);
+		assertEquals(0, ((Polygon) union).getNumInteriorRing());
+	}
+}
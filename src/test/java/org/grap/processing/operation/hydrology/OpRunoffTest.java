@@ -0,0 +1,145 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.hydrology;
+
+import org.grap.model.GeoRaster;
+import org.junit.Test;
+import org.orbisgis.progress.NullProgressMonitor;
+
+import static org.junit.Assert.*;
+
+public class OpRunoffTest extends D8Commons {
+	@Test
+	public void testPath() throws Exception {
+		// 5 steps of rain on the 12 cells of the DEM, then 45 dry steps :
+		// everything ends in the sink at 45 (cell 68), through cell 77
+		final float[] rainfall = new float[] { 0.01f, 0.01f, 0.01f, 0.01f,
+				0.01f };
+		final int nbOfSteps = 50;
+		final float[][] hydrographs = new float[2][nbOfSteps];
+		final float[][] depths = runTwice(getPathDEM(),
+				new int[] { 77, 0 }, rainfall, nbOfSteps, hydrographs);
+		for (int step = 0; step < nbOfSteps; step++) {
+			assertEquals(0, hydrographs[1][step], 0);
+		}
+
+		float stored = 0;
+		float drained = 0;
+		for (int i = 0; i < depths[0].length; i++) {
+			if (ND != depths[0][i]) {
+				stored += depths[0][i];
+			}
+		}
+		for (int step = 0; step < nbOfSteps; step++) {
+			drained += hydrographs[0][step];
+		}
+		assertEquals(ND, depths[0][0], 0);
+		assertEquals(12 * 0.05, stored, 1e-5);
+		assertEquals(0.05 + drained, depths[0][68], 1e-5);
+		assertEquals(0, hydrographs[0][0], 0);
+		assertTrue(0 < hydrographs[0][1]);
+		assertEquals(0, hydrographs[0][nbOfSteps - 1], 1e-6);
+	}
+
+	@Test
+	public void testValley() throws Exception {
+		// the rain on the 35 inner cells leaves the valley through the
+		// terminal cells of its bottom row
+		final GeoRaster dem = getValleyDEM();
+		final int[] outlets = new D8OpDirection().getFlowDirections(dem,
+				new NullProgressMonitor()).getTerminalCells();
+		assertEquals(7, outlets.length);
+		final float[] rainfall = new float[] { 0.02f, 0.01f, 0.005f };
+		final int nbOfSteps = 40;
+		final float[][] hydrographs = new float[outlets.length][nbOfSteps];
+		final float[][] depths = runTwice(dem, outlets, rainfall, nbOfSteps,
+				hydrographs);
+
+		double stored = 0;
+		double drained = 0;
+		for (int i = 0; i < depths[0].length; i++) {
+			if (ND != depths[0][i]) {
+				stored += depths[0][i];
+			}
+		}
+		for (int k = 0; k < outlets.length; k++) {
+			for (int step = 0; step < nbOfSteps; step++) {
+				drained += hydrographs[k][step];
+			}
+		}
+		assertTrue(0 < stored);
+		assertTrue(0 < drained);
+		assertEquals(35 * (0.02 + 0.01 + 0.005), stored + drained, 1e-5);
+		// the bottom of the valley drains the largest area
+		assertEquals(5 * 9 + 4, outlets[3]);
+		final float bottom = hydrographs[3][nbOfSteps - 1];
+		for (int k = 0; k < outlets.length; k++) {
+			assertTrue(hydrographs[k][nbOfSteps - 1] <= bottom);
+		}
+	}
+
+	/**
+	 * Runs the same simulation with 1 and 2 threads, and checks that they give
+	 * the same results.
+	 * 
+	 * @return the depths of both runs
+	 */
+	private float[][] runTwice(final GeoRaster dem, final int[] outlets,
+			final float[] rainfall, final int nbOfSteps,
+			final float[][] hydrographs) throws Exception {
+		final float[][][] runsHydrographs = new float[2][][];
+		final float[][] depths = new float[2][];
+		for (int t = 0; t < 2; t++) {
+			final float[][] runHydrographs = new float[outlets.length][nbOfSteps];
+			runsHydrographs[t] = runHydrographs;
+			final OpRunoff op = new OpRunoff(outlets, rainfall, nbOfSteps, 1,
+					0.05f);
+			op.setNumberOfThreads(t + 1);
+			op.setHydrographListener(new IHydrographListener() {
+				private int nbOfCalls = 0;
+
+				public void stepDone(int step, float[] discharges) {
+					assertEquals(nbOfCalls++, step);
+					for (int k = 0; k < discharges.length; k++) {
+						runHydrographs[k][step] = discharges[k];
+					}
+				}
+			});
+			depths[t] = dem.doOperation(op).getFloatPixels();
+			assertEquals(nbOfSteps, op.getNbOfStepsDone());
+		}
+		for (int k = 0; k < outlets.length; k++) {
+			assertArrayEquals(runsHydrographs[0][k], runsHydrographs[1][k], 0);
+			System.arraycopy(runsHydrographs[0][k], 0, hydrographs[k], 0,
+					nbOfSteps);
+		}
+		assertArrayEquals(depths[0], depths[1], 0);
+		return depths;
+	}
+}
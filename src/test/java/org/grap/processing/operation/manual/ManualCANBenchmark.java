@@ -0,0 +1,96 @@
+/**
+ * OrbisGIS is a GIS application dedicated to scientific spatial simulation.
+ * This cross-platform GIS is developed at French IRSTV institute and is able to
+ * manipulate and create vector and raster spatial information.
+ *
+ * OrbisGIS is distributed under GPL 3 license. It is produced by the "Atelier SIG"
+ * team of the IRSTV Institute <http://www.irstv.fr/> CNRS FR 2488.
+ *
+ * Copyright (C) 2007-2012 IRSTV (FR CNRS 2488)
+ *
+ * This file is part of OrbisGIS.
+ *
+ * OrbisGIS is free software: you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation, either version 3 of the License, or (at your option) any later
+ * version.
+ *
+ * OrbisGIS is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR
+ * A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License along with
+ * OrbisGIS. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * For more information, please consult: <http://www.orbisgis.org/>
+ * or contact directly:
+ * info_at_ orbisgis.org
+ */
+package org.grap.processing.operation.manual;
+
+import org.grap.model.GeoRaster;
+import org.grap.model.GeoRasterFactory;
+import org.grap.model.RasterMetadata;
+import org.grap.processing.cellularAutomata.CAD8Direction;
+import org.grap.processing.cellularAutomata.cam.ICA;
+import org.grap.processing.cellularAutomata.cam.ICAN;
+import org.grap.processing.cellularAutomata.parallelImpl.PCAN;
+import org.grap.processing.cellularAutomata.parallelImpl.TCAN;
+import org.grap.processing.cellularAutomata.seqImpl.SCAN;
+import org.grap.processing.cellularAutomata.useless.CASlopesAccumulation;
+import org.grap.processing.cellularAutomata.useless.CASlopesDirections;
+import org.grap.processing.operation.hydrology.HydrologyUtilities;
+
+/**
+ * Compares the sequential (SCAN), row blocks (PCAN) and tiled (TCAN) cellular
+ * automata networks on a synthetic DEM : the D8 directions (a single step,
+ * dominated by the init) and the slopes accumulations (a front that moves
+ * from the ridges to the outlets).
+ */
+public class ManualCANBenchmark {
+	private final static int SIZE = 1000;
+	private final static int NB_OF_RUNS = 3;
+
+	public static void main(String[] args) throws Exception {
+		final int nbOfThreads = Runtime.getRuntime().availableProcessors();
+		final float[] dem = new float[SIZE * SIZE];
+		for (int r = 0, i = 0; r < SIZE; r++) {
+			for (int c = 0; c < SIZE; c++, i++) {
+				dem[i] = (float) (100 * Math.sin(r / 37d) * Math.cos(c / 53d)
+						+ 0.05 * (r + c) + (r * 7 + c * 13) % 5);
+			}
+		}
+		final GeoRaster grDEM = GeoRasterFactory.createGeoRaster(dem,
+				new RasterMetadata(0, SIZE, 1, -1, SIZE, SIZE));
+
+		final ICA d8Direction = new CAD8Direction(new HydrologyUtilities(
+				grDEM), SIZE, SIZE);
+		benchmark("CAD8Direction", d8Direction, nbOfThreads);
+
+		final SCAN scan = new SCAN(new CASlopesDirections(dem, SIZE, SIZE));
+		scan.getStableState();
+		final ICA accumulation = new CASlopesAccumulation((short[]) scan
+				.getCANValues(), SIZE, SIZE);
+		benchmark("CASlopesAccumulation", accumulation, nbOfThreads);
+	}
+
+	private static void benchmark(final String name, final ICA ca,
+			final int nbOfThreads) {
+		final long[] durations = new long[3];
+		for (int run = 0; run < NB_OF_RUNS; run++) {
+			durations[0] += time(new SCAN(ca));
+			durations[1] += time(new PCAN(ca, nbOfThreads));
+			durations[2] += time(new TCAN(ca, nbOfThreads));
+		}
+		System.out.printf("%s (%d x %d, %d thread(s)) : SCAN %d ms, "
+				+ "PCAN %d ms, TCAN %d ms\n", name, SIZE, SIZE, nbOfThreads,
+				durations[0] / NB_OF_RUNS, durations[1] / NB_OF_RUNS,
+				durations[2] / NB_OF_RUNS);
+	}
+
+	private static long time(final ICAN can) {
+		final long start = System.currentTimeMillis();
+		can.getStableState();
+		return System.currentTimeMillis() - start;
+	}
+}